@@ -0,0 +1,17 @@
+package ua.com.radiokot.photoprism.api.config.service
+
+import ua.com.radiokot.photoprism.api.config.model.PhotoPrismClientConfig
+import ua.com.radiokot.photoprism.api.util.InFlightRequestCoalescer
+
+/**
+ * A [PhotoPrismClientConfigService] merging identical concurrent requests.
+ */
+class CoalescingPhotoPrismClientConfigService(
+    private val delegate: PhotoPrismClientConfigService,
+    private val coalescer: InFlightRequestCoalescer,
+) : PhotoPrismClientConfigService by delegate {
+    override fun getClientConfig(): PhotoPrismClientConfig =
+        coalescer.execute("config") {
+            delegate.getClientConfig()
+        }
+}
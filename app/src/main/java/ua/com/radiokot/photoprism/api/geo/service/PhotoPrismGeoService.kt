@@ -1,8 +1,10 @@
 package ua.com.radiokot.photoprism.api.geo.service
 
+import okhttp3.ResponseBody
 import retrofit2.http.GET
 import retrofit2.http.Headers
 import retrofit2.http.Query
+import retrofit2.http.Streaming
 import java.io.IOException
 
 interface PhotoPrismGeoService {
@@ -39,4 +41,23 @@ interface PhotoPrismGeoService {
         @Query("q")
         q: String? = null
     ): String
+
+    /**
+     * Same as [getGeoJson], but the body is not buffered in memory
+     * and must be read as a stream and closed.
+     */
+    @kotlin.jvm.Throws(IOException::class)
+    @Headers("Accept: application/json")
+    @Streaming
+    @GET("v1/geo")
+    fun getGeoJsonStream(
+        @Query("count")
+        count: Int,
+        @Query("offset")
+        offset: Int,
+        @Query("public")
+        public: Boolean = true,
+        @Query("q")
+        q: String? = null
+    ): ResponseBody
 }
@@ -11,6 +11,21 @@ enum class PhotoPrismOrder {
      * Added in the PhotoPrism release of May 2, 2023.
      */
     RANDOM,
+
+    /**
+     * Recently added first.
+     */
+    ADDED,
+
+    /**
+     * Recently changed first. Only includes photos changed after being added.
+     */
+    UPDATED,
+
+    /**
+     * Recently archived first, for the archived photos search.
+     */
+    ARCHIVED,
     ;
 
     override fun toString(): String {
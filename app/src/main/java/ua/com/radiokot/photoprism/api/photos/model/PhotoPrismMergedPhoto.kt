@@ -37,6 +37,15 @@ constructor(
     val lat: Double,
     @JsonProperty("Lng")
     val lng: Double,
+    @JsonProperty("CreatedAt")
+    val createdAt: String?,
+    @JsonProperty("UpdatedAt")
+    val updatedAt: String?,
+    /**
+     * Set if the photo is archived.
+     */
+    @JsonProperty("DeletedAt")
+    val deletedAt: String?,
 ) {
     /**
      * [file.go](https://github.com/photoprism/photoprism/blob/47e9b20929e44bd63d32cb50a393371d24bcaff8/internal/entity/file.go#L40)
@@ -0,0 +1,51 @@
+package ua.com.radiokot.photoprism.api.photos.service
+
+import ua.com.radiokot.photoprism.api.model.PhotoPrismOrder
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoEdit
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoUids
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismMergedPhoto
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismPhotoUpdate
+import ua.com.radiokot.photoprism.api.util.InFlightRequestCoalescer
+
+/**
+ * A [PhotoPrismPhotosService] merging identical concurrent photo searches.
+ * Changing the photos invalidates the results.
+ * Random order searches are never merged, as they are expected to differ.
+ * Streams are never merged, as they can only be read once.
+ */
+class CoalescingPhotoPrismPhotosService(
+    private val delegate: PhotoPrismPhotosService,
+    private val coalescer: InFlightRequestCoalescer,
+) : PhotoPrismPhotosService by delegate {
+    override fun getMergedPhotos(
+        count: Int,
+        offset: Int,
+        order: PhotoPrismOrder,
+        public: Boolean,
+        q: String?
+    ): List<PhotoPrismMergedPhoto> {
+        if (order == PhotoPrismOrder.RANDOM) {
+            return delegate.getMergedPhotos(count, offset, order, public, q)
+        }
+
+        return coalescer.execute("photos:$count:$offset:$order:$public:$q") {
+            delegate.getMergedPhotos(count, offset, order, public, q)
+        }
+    }
+
+    override fun batchArchive(batchPhotoUids: PhotoPrismBatchPhotoUids): Any =
+        delegate.batchArchive(batchPhotoUids)
+            .also { coalescer.invalidate() }
+
+    override fun batchDelete(batchPhotoUids: PhotoPrismBatchPhotoUids): Any =
+        delegate.batchDelete(batchPhotoUids)
+            .also { coalescer.invalidate() }
+
+    override fun updatePhoto(photoUid: String, update: PhotoPrismPhotoUpdate): Any =
+        delegate.updatePhoto(photoUid, update)
+            .also { coalescer.invalidate() }
+
+    override fun batchEdit(edit: PhotoPrismBatchPhotoEdit): Any =
+        delegate.batchEdit(edit)
+            .also { coalescer.invalidate() }
+}
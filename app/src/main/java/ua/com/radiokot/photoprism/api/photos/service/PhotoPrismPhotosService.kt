@@ -1,5 +1,6 @@
 package ua.com.radiokot.photoprism.api.photos.service
 
+import okhttp3.ResponseBody
 import retrofit2.http.Body
 import retrofit2.http.GET
 import retrofit2.http.Headers
@@ -7,6 +8,7 @@ import retrofit2.http.POST
 import retrofit2.http.PUT
 import retrofit2.http.Path
 import retrofit2.http.Query
+import retrofit2.http.Streaming
 import ua.com.radiokot.photoprism.api.model.PhotoPrismOrder
 import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoEdit
 import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoUids
@@ -31,6 +33,27 @@ interface PhotoPrismPhotosService {
         q: String? = null
     ): List<PhotoPrismMergedPhoto>
 
+    /**
+     * Same as [getMergedPhotos], but the body is not buffered in memory
+     * and must be read as a stream and closed.
+     */
+    @kotlin.jvm.Throws(IOException::class)
+    @Headers("Accept: application/json")
+    @Streaming
+    @GET("v1/photos?merged=true")
+    fun getMergedPhotosStream(
+        @Query("count")
+        count: Int,
+        @Query("offset")
+        offset: Int,
+        @Query("order")
+        order: PhotoPrismOrder = PhotoPrismOrder.NEWEST,
+        @Query("public")
+        public: Boolean = true,
+        @Query("q")
+        q: String? = null
+    ): ResponseBody
+
     @kotlin.jvm.Throws(IOException::class)
     @Headers("Accept: application/json")
     @POST("v1/batch/photos/archive")
@@ -0,0 +1,22 @@
+package ua.com.radiokot.photoprism.api.subjects.service
+
+import ua.com.radiokot.photoprism.api.subjects.model.PhotoPrismSubject
+import ua.com.radiokot.photoprism.api.util.InFlightRequestCoalescer
+
+/**
+ * A [PhotoPrismSubjectsService] merging identical concurrent requests.
+ */
+class CoalescingPhotoPrismSubjectsService(
+    private val delegate: PhotoPrismSubjectsService,
+    private val coalescer: InFlightRequestCoalescer,
+) : PhotoPrismSubjectsService by delegate {
+    override fun getSubjects(
+        count: Int,
+        offset: Int,
+        type: String,
+        q: String?
+    ): List<PhotoPrismSubject> =
+        coalescer.execute("subjects:$count:$offset:$type:$q") {
+            delegate.getSubjects(count, offset, type, q)
+        }
+}
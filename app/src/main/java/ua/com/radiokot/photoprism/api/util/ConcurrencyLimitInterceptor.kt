@@ -0,0 +1,71 @@
+package ua.com.radiokot.photoprism.api.util
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.ForwardingSource
+import okio.buffer
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * An interceptor limiting the number of the calls of a client running at once,
+ * so a busy client sharing the connection pool with others can't starve them.
+ *
+ * A call is considered running until its response body is closed.
+ * Synchronous calls wait on the calling thread,
+ * which is why the limit should not exceed the caller's own thread pool.
+ *
+ * @param maxConcurrentCalls max number of the calls running at once
+ */
+class ConcurrencyLimitInterceptor(
+    maxConcurrentCalls: Int,
+) : Interceptor {
+    private val permits = Semaphore(maxConcurrentCalls, true)
+
+    @kotlin.jvm.Throws(IOException::class)
+    override fun intercept(chain: Interceptor.Chain): Response {
+        try {
+            permits.acquire()
+        } catch (e: InterruptedException) {
+            throw InterruptedIOException("Interrupted while waiting for a free call slot")
+        }
+
+        val isReleased = AtomicBoolean(false)
+        val release = {
+            if (isReleased.compareAndSet(false, true)) {
+                permits.release()
+            }
+        }
+
+        val response = try {
+            chain.proceed(chain.request())
+        } catch (e: Exception) {
+            release()
+            throw e
+        }
+
+        val body = response.body
+        return response
+            .newBuilder()
+            .body(
+                object : ForwardingSource(body.source()) {
+                    override fun close() {
+                        try {
+                            super.close()
+                        } finally {
+                            release()
+                        }
+                    }
+                }
+                    .buffer()
+                    .asResponseBody(
+                        contentType = body.contentType(),
+                        contentLength = body.contentLength(),
+                    )
+            )
+            .build()
+    }
+}
@@ -0,0 +1,62 @@
+package ua.com.radiokot.photoprism.api.util
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import ua.com.radiokot.photoprism.extension.kLogger
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * An [EventListener] measuring how often the calls reuse pooled connections
+ * instead of establishing new ones.
+ * May be shared by multiple clients.
+ *
+ * @param logEveryAcquisitions how often to log the rate, in connection acquisitions
+ */
+class ConnectionReuseEventListener(
+    private val logEveryAcquisitions: Long = 100,
+) : EventListener() {
+    private val log = kLogger("ConnectionReuseEL")
+    private val acquisitionCount = AtomicLong(0)
+    private val newConnectionCount = AtomicLong(0)
+
+    /**
+     * Share of the connection acquisitions which reused a pooled connection,
+     * from 0 to 1, or -1 if there were no acquisitions yet.
+     */
+    val reuseRate: Double
+        get() {
+            val acquisitions = acquisitionCount.get()
+            if (acquisitions == 0L) {
+                return -1.0
+            }
+            val newConnections = newConnectionCount.get().coerceAtMost(acquisitions)
+            return (acquisitions - newConnections).toDouble() / acquisitions
+        }
+
+    override fun connectStart(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+    ) {
+        newConnectionCount.incrementAndGet()
+    }
+
+    override fun connectionAcquired(
+        call: Call,
+        connection: Connection,
+    ) {
+        val acquisitions = acquisitionCount.incrementAndGet()
+
+        if (acquisitions % logEveryAcquisitions == 0L) {
+            log.debug {
+                "connectionAcquired(): reuse_rate:" +
+                        "\nacquisitions=$acquisitions," +
+                        "\nnewConnections=${newConnectionCount.get()}," +
+                        "\nreuseRate=$reuseRate"
+            }
+        }
+    }
+}
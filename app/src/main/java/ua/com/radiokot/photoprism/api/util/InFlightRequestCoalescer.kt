@@ -0,0 +1,171 @@
+package ua.com.radiokot.photoprism.api.util
+
+import ua.com.radiokot.photoprism.extension.kLogger
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Merges concurrent identical blocking requests into a single call:
+ * while a request is in flight, the same requests wait for its result
+ * instead of calling again. The result is also reused for [resultTtlMs] after it is obtained.
+ * Failed results are not reused.
+ *
+ * @param resultTtlMs for how long a successful result is reused
+ * @param currentTimeMs source of the current time in milliseconds
+ */
+class InFlightRequestCoalescer(
+    private val resultTtlMs: Long = DEFAULT_RESULT_TTL_MS,
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
+) {
+    private val log = kLogger("InFlightRequestCoalescer")
+    private val requests = ConcurrentHashMap<String, Request>()
+    private val hits = AtomicLong(0)
+    private val misses = AtomicLong(0)
+
+    /**
+     * Number of the requests served without a call of their own.
+     */
+    val hitCount: Long
+        get() = hits.get()
+
+    /**
+     * Number of the requests which made the call.
+     */
+    val missCount: Long
+        get() = misses.get()
+
+    /**
+     * @param key identity of the request, must include all the parameters of the [call]
+     * @param call the blocking call to make if there is no suitable result to reuse
+     *
+     * @return result of the [call] made either by this request or by an identical one
+     */
+    fun <T> execute(
+        key: String,
+        call: () -> T,
+    ): T {
+        while (true) {
+            val existingRequest = requests[key]
+            if (existingRequest != null && !existingRequest.isExpired()) {
+                val hitCount = hits.incrementAndGet()
+
+                log.debug {
+                    "execute(): hit:" +
+                            "\nkey=$key," +
+                            "\nhitCount=$hitCount," +
+                            "\nmissCount=${misses.get()}"
+                }
+
+                val result = try {
+                    existingRequest.await(isJoined = true)
+                } catch (e: CallerCancelledException) {
+                    // Do not inherit cancellation of another caller,
+                    // make the call instead.
+                    requests.remove(key, existingRequest)
+                    continue
+                }
+
+                @Suppress("UNCHECKED_CAST")
+                return result as T
+            }
+
+            val newRequest = Request(call)
+            val isNewRequestSet =
+                if (existingRequest == null)
+                    requests.putIfAbsent(key, newRequest) == null
+                else
+                    requests.replace(key, existingRequest, newRequest)
+
+            if (!isNewRequestSet) {
+                // An identical request has just been started, try to join it.
+                continue
+            }
+
+            misses.incrementAndGet()
+            removeExpired()
+
+            newRequest.task.run()
+            newRequest.completedAtMs = currentTimeMs()
+
+            @Suppress("UNCHECKED_CAST")
+            return try {
+                newRequest.await(isJoined = false) as T
+            } catch (e: Throwable) {
+                requests.remove(key, newRequest)
+                throw e
+            }
+        }
+    }
+
+    /**
+     * Makes the obtained results not reused anymore,
+     * e.g. when they are changed.
+     * Requests in flight are not joined anymore either, as their results may be obtained
+     * before the change, while the ones already joined still get them.
+     */
+    fun invalidate() {
+        requests.clear()
+    }
+
+    private fun removeExpired() {
+        requests.entries.removeAll { (_, request) ->
+            request.isExpired()
+        }
+    }
+
+    private fun Request.isExpired(): Boolean =
+        completedAtMs >= 0 && currentTimeMs() - completedAtMs > resultTtlMs
+
+    private class Request(
+        call: () -> Any?,
+    ) {
+        @Volatile
+        var completedAtMs: Long = -1
+
+        /**
+         * Whether the call failed because the caller which made it was cancelled,
+         * e.g. its thread is interrupted.
+         */
+        @Volatile
+        private var isCallerCancelled = false
+
+        val task = FutureTask(Callable {
+            try {
+                call()
+            } catch (e: Throwable) {
+                isCallerCancelled = Thread.currentThread().isInterrupted
+                        || e is InterruptedIOException && e !is SocketTimeoutException
+                throw e
+            }
+        })
+
+        /**
+         * @param isJoined whether the request is awaited by a caller which didn't make the call
+         *
+         * @throws CallerCancelledException if the request [isJoined] and the caller
+         * which made the call was cancelled
+         */
+        fun await(isJoined: Boolean): Any? =
+            try {
+                task.get()
+            } catch (e: ExecutionException) {
+                if (isJoined && isCallerCancelled) {
+                    throw CallerCancelledException()
+                }
+                throw e.cause ?: e
+            } catch (e: InterruptedException) {
+                throw InterruptedIOException("Interrupted while waiting for the identical request")
+            }
+    }
+
+    private class CallerCancelledException : Exception()
+
+    private companion object {
+        private const val DEFAULT_RESULT_TTL_MS = 1000L
+    }
+}
@@ -0,0 +1,38 @@
+package ua.com.radiokot.photoprism.base.data.model
+
+/**
+ * A change of the items of a paged repository made by a single broadcast.
+ * Allows consumers to only process what has changed.
+ */
+sealed interface PagedItemsChange {
+    /**
+     * The items changed in an arbitrary way and must be processed from scratch.
+     */
+    object Reset : PagedItemsChange {
+        override fun toString(): String = "Reset"
+    }
+
+    /**
+     * New items are added to the end, starting from [fromIndex].
+     * The preceding items are not changed, except for attributes
+     * of the ones at [updatedIndices], e.g. when the new items are merged into them.
+     */
+    class Appended(
+        val fromIndex: Int,
+        val updatedIndices: Collection<Int> = emptyList(),
+    ) : PagedItemsChange {
+        override fun toString(): String =
+            "Appended(fromIndex=$fromIndex, updatedIndices=$updatedIndices)"
+    }
+
+    /**
+     * Attributes of the items at [indices] are changed,
+     * while their order and number are not.
+     */
+    class Updated(
+        val indices: Collection<Int>,
+    ) : PagedItemsChange {
+        override fun toString(): String =
+            "Updated(indices=$indices)"
+    }
+}
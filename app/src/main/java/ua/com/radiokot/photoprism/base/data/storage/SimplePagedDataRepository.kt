@@ -9,7 +9,9 @@ import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.CompletableSubject
 import ua.com.radiokot.photoprism.base.data.model.DataPage
+import ua.com.radiokot.photoprism.base.data.model.PagedItemsChange
 import ua.com.radiokot.photoprism.base.data.model.PagingOrder
+import ua.com.radiokot.photoprism.util.SnapshotArrayList
 
 /**
  * Simple repository for paged data of type [T].
@@ -24,7 +26,9 @@ abstract class SimplePagedDataRepository<T>(
 
     protected val itemsSubject: BehaviorSubject<List<T>> =
         BehaviorSubject.createDefault(emptyList())
-    protected open val mutableItemsList: MutableList<T> = mutableListOf()
+    // The broadcast items share the array with this list
+    // instead of being a copy, see .broadcast.
+    protected open val mutableItemsList: MutableList<T> = SnapshotArrayList()
 
     /**
      * Emits all the currently loaded items.
@@ -40,6 +44,18 @@ abstract class SimplePagedDataRepository<T>(
     var noMoreItems: Boolean = false
         protected set
 
+    private val itemsChangesLock = Any()
+    private val recentItemsChanges = ArrayDeque<PagedItemsChange>()
+    private var broadcastItems: List<T> = emptyList()
+
+    /**
+     * Number of broadcasts made, identifying the state of the broadcast items.
+     *
+     * @see getItemsChangesSince
+     */
+    var itemsRevision: Long = 0
+        private set
+
     /**
      * @param cursor - cursor or number of the page to load
      */
@@ -91,12 +107,28 @@ abstract class SimplePagedDataRepository<T>(
         noMoreItems = page.isLast
         nextPage = page.nextCursor
 
-        addNewPageItems(page)
-        broadcast()
+        val firstNewItemIndex = mutableItemsList.size
+        val updatedItemIndices = addNewPageItems(page)
+        broadcast(
+            change =
+                if (firstNewItemIndex == 0)
+                    PagedItemsChange.Reset
+                else
+                    PagedItemsChange.Appended(
+                        fromIndex = firstNewItemIndex,
+                        updatedIndices = updatedItemIndices,
+                    )
+        )
     }
 
-    protected open fun addNewPageItems(page: DataPage<T>) {
+    /**
+     * Adds items of the [page] to the [mutableItemsList].
+     *
+     * @return indices of the already loaded items changed by the page, if any
+     */
+    protected open fun addNewPageItems(page: DataPage<T>): Collection<Int> {
         mutableItemsList.addAll(page.items)
+        return emptyList()
     }
 
     open fun loadMore(): Boolean {
@@ -127,7 +159,53 @@ abstract class SimplePagedDataRepository<T>(
         resultSubject
     }
 
-    protected open fun broadcast() {
-        itemsSubject.onNext(mutableItemsList.toList())
+    /**
+     * @param change how the items changed since the previous broadcast.
+     * Must be [PagedItemsChange.Reset] unless the change is known precisely.
+     */
+    protected open fun broadcast(change: PagedItemsChange = PagedItemsChange.Reset) {
+        val items = when (val mutableItemsList = mutableItemsList) {
+            is SnapshotArrayList ->
+                mutableItemsList.snapshot()
+
+            else ->
+                mutableItemsList.toList()
+        }
+        synchronized(itemsChangesLock) {
+            broadcastItems = items
+            itemsRevision++
+            recentItemsChanges.addLast(change)
+            if (recentItemsChanges.size > MAX_RECENT_ITEMS_CHANGES) {
+                recentItemsChanges.removeFirst()
+            }
+        }
+        itemsSubject.onNext(items)
+    }
+
+    /**
+     * @return currently broadcast items along with their [itemsRevision].
+     */
+    fun getItemsWithRevision(): Pair<List<T>, Long> = synchronized(itemsChangesLock) {
+        broadcastItems to itemsRevision
+    }
+
+    /**
+     * @return changes made by the broadcasts after the given [revision], in order,
+     * or null if they are no longer known.
+     */
+    fun getItemsChangesSince(revision: Long): List<PagedItemsChange>? =
+        synchronized(itemsChangesLock) {
+            val count = itemsRevision - revision
+            when {
+                count < 0 || count > recentItemsChanges.size ->
+                    null
+
+                else ->
+                    recentItemsChanges.takeLast(count.toInt())
+            }
+        }
+
+    private companion object {
+        private const val MAX_RECENT_ITEMS_CHANGES = 16
     }
 }
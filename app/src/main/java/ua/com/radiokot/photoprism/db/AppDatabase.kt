@@ -6,19 +6,23 @@ import androidx.room.RoomDatabase
 import androidx.room.TypeConverters
 import ua.com.radiokot.photoprism.features.ext.memories.data.model.MemoryDbEntity
 import ua.com.radiokot.photoprism.features.ext.memories.data.storage.MemoriesDbDao
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMediaIndexDbEntity
 import ua.com.radiokot.photoprism.features.gallery.data.model.SearchBookmarksDbEntity
+import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryMediaIndexDbDao
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SearchBookmarksDbDao
 
 @Database(
-    version = 8,
+    version = 9,
     entities = [
         SearchBookmarksDbEntity::class,
         MemoryDbEntity::class,
+        GalleryMediaIndexDbEntity::class,
     ],
     autoMigrations = [
         AutoMigration(from = 4, to = 5),
         AutoMigration(from = 5, to = 6),
         AutoMigration(from = 6, to = 7),
+        AutoMigration(from = 8, to = 9),
     ],
     exportSchema = true,
 )
@@ -30,4 +34,5 @@ import ua.com.radiokot.photoprism.features.gallery.data.storage.SearchBookmarksD
 abstract class AppDatabase : RoomDatabase() {
     abstract fun bookmarks(): SearchBookmarksDbDao
     abstract fun memories(): MemoriesDbDao
+    abstract fun galleryMediaIndex(): GalleryMediaIndexDbDao
 }
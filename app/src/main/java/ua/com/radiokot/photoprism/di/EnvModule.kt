@@ -4,6 +4,8 @@ import com.squareup.picasso.OkHttp3Downloader
 import com.squareup.picasso.Picasso
 import okhttp3.Cache
 import okhttp3.CacheControl
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
 import okhttp3.OkHttpClient
 import okhttp3.internal.platform.Platform
 import okhttp3.logging.HttpLoggingInterceptor
@@ -11,6 +13,8 @@ import org.koin.core.qualifier._q
 import org.koin.core.qualifier.named
 import org.koin.dsl.bind
 import org.koin.dsl.module
+import ua.com.radiokot.photoprism.api.util.ConcurrencyLimitInterceptor
+import ua.com.radiokot.photoprism.api.util.ConnectionReuseEventListener
 import ua.com.radiokot.photoprism.api.util.HeaderInterceptor
 import ua.com.radiokot.photoprism.api.util.KeyChainClientCertificateKeyManager
 import ua.com.radiokot.photoprism.api.util.SessionAwarenessInterceptor
@@ -23,14 +27,27 @@ import ua.com.radiokot.photoprism.env.logic.PhotoPrismSessionCreator
 import ua.com.radiokot.photoprism.env.logic.SessionCreator
 import ua.com.radiokot.photoprism.extension.checkNotNull
 import ua.com.radiokot.photoprism.util.CacheConstraints
+import ua.com.radiokot.photoprism.util.images.MediaPreviewCachingDownloader
+import ua.com.radiokot.photoprism.util.images.MediaPreviewDiskCache
 import java.io.File
+import java.util.concurrent.TimeUnit
 
+/**
+ * @param baseClient a client to derive from, sharing its connection pool and dispatcher.
+ * Its interceptors and TLS setup are kept,
+ * so there is no need to set [clientCertificateAlias] and [authorization] again.
+ * @param maxConcurrentCalls if set, limits the number of the calls running at once
+ *
+ * @see SESSION_BASE_HTTP_CLIENT
+ */
 class EnvHttpClientParams(
     val sessionAwareness: SessionAwareness?,
     val clientCertificateAlias: String?,
     val authorization: String? = null,
     val withLogging: Boolean = true,
     val cache: Cache? = null,
+    val baseClient: HttpClient? = null,
+    val maxConcurrentCalls: Int? = null,
 ) : SelfParameterHolder() {
     class SessionAwareness(
         val sessionIdProvider: () -> String,
@@ -44,6 +61,22 @@ class EnvHttpClientParams(
     }
 }
 
+/**
+ * A session-scoped [HttpClient] all the session clients must be derived from
+ * with [EnvHttpClientParams.baseClient], so they share connections to the library.
+ */
+const val SESSION_BASE_HTTP_CLIENT = "session-base-http-client"
+
+// Budgets of the clients which can be busy for long,
+// so they can't take all the connections.
+const val IMAGES_MAX_CONCURRENT_CALLS = 4
+const val VIDEO_MAX_CONCURRENT_CALLS = 4
+const val DOWNLOADS_MAX_CONCURRENT_CALLS = 6
+private const val MAX_IDLE_CONNECTIONS = 16
+
+// Previews have their own cache, this one is only for the rest of the images.
+private const val OTHER_IMAGES_CACHE_MAX_SIZE = 20L * 1024 * 1024
+
 val envModule = module {
     includes(ioModules)
 
@@ -51,7 +84,8 @@ val envModule = module {
     // otherwise it is overridden by the scoped.
     factory(_q<EnvHttpClientParams>()) { envParams ->
         envParams as EnvHttpClientParams
-        val builder = get<OkHttpClient.Builder>()
+        val builder = envParams.baseClient?.newBuilder()
+            ?: get<OkHttpClient.Builder>()
 
         if (envParams.sessionAwareness != null) {
             val sessionAwareness = envParams.sessionAwareness
@@ -107,6 +141,14 @@ val envModule = module {
             builder.cache(envParams.cache)
         }
 
+        if (envParams.maxConcurrentCalls != null) {
+            builder.addInterceptor(
+                ConcurrencyLimitInterceptor(
+                    maxConcurrentCalls = envParams.maxConcurrentCalls,
+                )
+            )
+        }
+
         builder
             .build()
     } bind HttpClient::class
@@ -127,7 +169,44 @@ val envModule = module {
         }
     } bind SessionCreator.Factory::class
 
+    // Not session-scoped, as the previews don't depend on the session.
+    single {
+        val cacheDir: File = get(named(MEDIA_PREVIEW_CACHE_DIRECTORY))
+        cacheDir.mkdirs()
+
+        MediaPreviewDiskCache(
+            directory = cacheDir,
+            maxSize = CacheConstraints.getOptimalSize(cacheDir),
+        )
+    } bind MediaPreviewDiskCache::class
+
     scope<EnvSession> {
+        // Connections are only reused by clients with the same TLS setup,
+        // hence deriving all of them from a single built client.
+        scoped<HttpClient>(named(SESSION_BASE_HTTP_CLIENT)) {
+            val session = get<EnvSession>()
+
+            get<HttpClient>(_q<EnvHttpClientParams>()) {
+                EnvHttpClientParams(
+                    sessionAwareness = null,
+                    clientCertificateAlias = session.envConnectionParams.clientCertificateAlias,
+                    authorization = session.envConnectionParams.httpAuth,
+                    withLogging = false,
+                )
+            }
+                .newBuilder()
+                .connectionPool(
+                    ConnectionPool(
+                        maxIdleConnections = MAX_IDLE_CONNECTIONS,
+                        keepAliveDuration = 5,
+                        timeUnit = TimeUnit.MINUTES,
+                    )
+                )
+                .dispatcher(Dispatcher())
+                .eventListener(ConnectionReuseEventListener())
+                .build()
+        }
+
         scoped {
             val session = get<EnvSession>()
             val authPersistence = getOrNull<ObjectPersistence<EnvAuth>>(_q<EnvAuth>())
@@ -160,23 +239,22 @@ val envModule = module {
                         sessionIdProvider = session::id,
                         renewal = renewal,
                     ),
-                    clientCertificateAlias = session.envConnectionParams.clientCertificateAlias,
-                    authorization = session.envConnectionParams.httpAuth,
+                    clientCertificateAlias = null,
+                    baseClient = get(named(SESSION_BASE_HTTP_CLIENT)),
                 )
             }
         } bind HttpClient::class
 
         scoped {
-            val session = get<EnvSession>()
-
             val cacheDir: File = get(named(IMAGE_CACHE_DIRECTORY))
             val httpClient = get<HttpClient>(_q<EnvHttpClientParams>()) {
                 EnvHttpClientParams(
                     sessionAwareness = null,
-                    clientCertificateAlias = session.envConnectionParams.clientCertificateAlias,
-                    authorization = session.envConnectionParams.httpAuth,
+                    clientCertificateAlias = null,
                     withLogging = false,
-                    cache = Cache(cacheDir, CacheConstraints.getOptimalSize(cacheDir))
+                    cache = Cache(cacheDir, OTHER_IMAGES_CACHE_MAX_SIZE),
+                    baseClient = get(named(SESSION_BASE_HTTP_CLIENT)),
+                    maxConcurrentCalls = IMAGES_MAX_CONCURRENT_CALLS,
                 )
             }
 
@@ -190,13 +268,24 @@ val envModule = module {
                 .build()
 
             Picasso.Builder(get())
-                .downloader(OkHttp3Downloader { request ->
-                    httpClient.newCall(
-                        request.newBuilder()
-                            .cacheControl(cacheControl)
-                            .build()
+                .downloader(
+                    MediaPreviewCachingDownloader(
+                        previewCache = get(),
+                        // Previews are cached by content rather than by URL,
+                        // which includes the preview token.
+                        previewCallFactory = httpClient
+                            .newBuilder()
+                            .cache(null)
+                            .build(),
+                        delegate = OkHttp3Downloader { request ->
+                            httpClient.newCall(
+                                request.newBuilder()
+                                    .cacheControl(cacheControl)
+                                    .build()
+                            )
+                        },
                     )
-                })
+                )
                 .build()
         } bind Picasso::class
     }
@@ -40,7 +40,10 @@ const val INTERNAL_DOWNLOADS_DIRECTORY = "internal-downloads"
 const val INTERNAL_EXPORT_DIRECTORY = "internal-export"
 const val VIDEO_CACHE_DIRECTORY = "video-cache"
 const val IMAGE_CACHE_DIRECTORY = "image-cache"
+const val MEDIA_PREVIEW_CACHE_DIRECTORY = "media-preview-cache"
 const val MAP_CACHE_DIRECTORY = "map-cache"
+const val MAP_DATA_CACHE_DIRECTORY = "map-data-cache"
+const val DOWNLOAD_STATES_DIRECTORY = "download-states"
 const val APP_NO_BACKUP_PREFERENCES = "app-no-backup-preferences"
 
 val ioModules: List<Module> = listOf(
@@ -141,9 +144,24 @@ val ioModules: List<Module> = listOf(
             File(androidApplication().cacheDir, "picasso-cache")
         } bind File::class
 
+        single(named(MEDIA_PREVIEW_CACHE_DIRECTORY)) {
+            File(androidApplication().cacheDir, "media-preview-cache")
+        } bind File::class
+
         single(named(MAP_CACHE_DIRECTORY)) {
             File(androidApplication().cacheDir, "map-cache")
         } bind File::class
+
+        single(named(MAP_DATA_CACHE_DIRECTORY)) {
+            // Library data shown on the map, unlike the map resources
+            // cached by MapLibre in MAP_CACHE_DIRECTORY.
+            File(androidApplication().cacheDir, "map-data")
+        } bind File::class
+
+        single(named(DOWNLOAD_STATES_DIRECTORY)) {
+            // States of the partial downloads which can be resumed.
+            File(androidApplication().noBackupFilesDir, "download-states")
+        } bind File::class
     },
 
     // Preferences.
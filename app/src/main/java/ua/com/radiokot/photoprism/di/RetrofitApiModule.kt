@@ -7,14 +7,18 @@ import retrofit2.Retrofit
 import retrofit2.converter.jackson.JacksonConverterFactory
 import retrofit2.converter.scalars.ScalarsConverterFactory
 import ua.com.radiokot.photoprism.api.albums.service.PhotoPrismAlbumsService
+import ua.com.radiokot.photoprism.api.config.service.CoalescingPhotoPrismClientConfigService
 import ua.com.radiokot.photoprism.api.config.service.PhotoPrismClientConfigService
 import ua.com.radiokot.photoprism.api.faces.service.PhotoPrismFacesService
 import ua.com.radiokot.photoprism.api.geo.service.PhotoPrismGeoService
 import ua.com.radiokot.photoprism.api.labels.service.PhotoPrismLabelsService
+import ua.com.radiokot.photoprism.api.photos.service.CoalescingPhotoPrismPhotosService
 import ua.com.radiokot.photoprism.api.photos.service.PhotoPrismPhotosService
 import ua.com.radiokot.photoprism.api.session.service.PhotoPrismSessionService
+import ua.com.radiokot.photoprism.api.subjects.service.CoalescingPhotoPrismSubjectsService
 import ua.com.radiokot.photoprism.api.subjects.service.PhotoPrismSubjectsService
 import ua.com.radiokot.photoprism.api.upload.service.PhotoPrismUploadService
+import ua.com.radiokot.photoprism.api.util.InFlightRequestCoalescer
 import ua.com.radiokot.photoprism.api.util.SyncCallAdapter
 import ua.com.radiokot.photoprism.env.data.model.EnvConnectionParams
 import ua.com.radiokot.photoprism.env.data.model.EnvSession
@@ -95,9 +99,17 @@ val retrofitApiModule = module {
             }
         }
 
+        // Merges identical requests from different screens and widgets.
+        scoped<InFlightRequestCoalescer> {
+            InFlightRequestCoalescer()
+        }
+
         scoped<PhotoPrismPhotosService> {
-            get<Retrofit>()
-                .create(PhotoPrismPhotosService::class.java)
+            CoalescingPhotoPrismPhotosService(
+                delegate = get<Retrofit>()
+                    .create(PhotoPrismPhotosService::class.java),
+                coalescer = get(),
+            )
         }
 
         scoped<PhotoPrismAlbumsService> {
@@ -106,8 +118,19 @@ val retrofitApiModule = module {
         }
 
         scoped<PhotoPrismSubjectsService> {
-            get<Retrofit>()
-                .create(PhotoPrismSubjectsService::class.java)
+            CoalescingPhotoPrismSubjectsService(
+                delegate = get<Retrofit>()
+                    .create(PhotoPrismSubjectsService::class.java),
+                coalescer = get(),
+            )
+        }
+
+        scoped<PhotoPrismClientConfigService> {
+            CoalescingPhotoPrismClientConfigService(
+                delegate = get<Retrofit>()
+                    .create(PhotoPrismClientConfigService::class.java),
+                coalescer = get(),
+            )
         }
 
         scoped<PhotoPrismFacesService> {
@@ -8,6 +8,10 @@ import com.mikepenz.fastadapter.diff.FastAdapterDiffUtil
 
 /**
  * A [set] which prevents unwanted jumps and animations.
+ *
+ * @param appendedFromIndex if set, the [items] before this index are known
+ * to be the same as the current ones, so if the adapter has exactly them,
+ * the rest are just added without diffing.
  */
 fun <A : ItemAdapter<Item>, Item : GenericItem> FastAdapterDiffUtil.setBetter(
     recyclerView: RecyclerView,
@@ -15,8 +19,17 @@ fun <A : ItemAdapter<Item>, Item : GenericItem> FastAdapterDiffUtil.setBetter(
     items: List<Item>,
     callback: DiffCallback<Item>,
     detectMoves: Boolean,
+    appendedFromIndex: Int? = null,
 ) {
-    if (adapter.adapterItemCount == 0 || items.isEmpty()) {
+    if (appendedFromIndex != null
+        && appendedFromIndex > 0
+        && adapter.adapterItemCount == appendedFromIndex
+        && adapter.getAdapterItem(appendedFromIndex - 1) === items[appendedFromIndex - 1]
+    ) {
+        if (items.size > appendedFromIndex) {
+            adapter.add(items.subList(appendedFromIndex, items.size))
+        }
+    } else if (adapter.adapterItemCount == 0 || items.isEmpty()) {
         // Do not use DiffUtil to replace an empty list,
         // as it causes scrolling to the bottom.
         // Do not use it to set an empty list either,
@@ -94,16 +94,19 @@ fun <T : Disposable> T.autoDispose(scope: Scope) = apply {
 /**
  * An [Observable.retry] with [times] which has a delay before resubscribing.
  *
+ * @param predicate if set, only errors matching it are retried.
+ *
  * @see [Observable.retry]
  */
 fun <T : Any> Observable<T>.retryWithDelay(
     times: Int,
     delay: Long,
     unit: TimeUnit,
+    predicate: (Throwable) -> Boolean = { true },
 ) = retryWhen { errors ->
     val retries = AtomicInteger(0)
     errors.flatMap { error ->
-        if (retries.incrementAndGet() > times)
+        if (!predicate(error) || retries.incrementAndGet() > times)
             Observable.error<Throwable>(error)
         else
             Observable.timer(delay, unit)
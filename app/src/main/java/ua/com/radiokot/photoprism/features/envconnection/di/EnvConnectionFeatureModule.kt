@@ -11,6 +11,7 @@ import org.koin.dsl.module
 import ua.com.radiokot.photoprism.base.data.storage.ObjectPersistence
 import ua.com.radiokot.photoprism.di.EnvPhotoPrismClientConfigServiceParams
 import ua.com.radiokot.photoprism.di.IMAGE_CACHE_DIRECTORY
+import ua.com.radiokot.photoprism.di.MAP_DATA_CACHE_DIRECTORY
 import ua.com.radiokot.photoprism.di.VIDEO_CACHE_DIRECTORY
 import ua.com.radiokot.photoprism.di.envModule
 import ua.com.radiokot.photoprism.env.data.model.EnvAuth
@@ -71,6 +72,7 @@ val envConnectionFeatureModule = module {
             envSessionHolder = get(),
             envSessionPersistence = getOrNull(_q<EnvSession>()),
             envAuthPersistence = get(_q<EnvAuth>()),
+            mediaPreviewDiskCache = getOrNull(),
             application = androidApplication(),
         )
     } bind ConnectToEnvUseCase::class
@@ -84,9 +86,12 @@ val envConnectionFeatureModule = module {
                 cacheDirectories = listOf(
                     get(named(IMAGE_CACHE_DIRECTORY)),
                     get(named(VIDEO_CACHE_DIRECTORY)),
+                    get(named(MAP_DATA_CACHE_DIRECTORY)),
                 ),
                 cookieManager = getOrNull(),
                 memoriesRepository = getOrNull(),
+                galleryMediaIndexDao = getOrNull(),
+                updateMapOfflinePackUseCase = getOrNull(),
                 application = androidApplication(),
             )
         } bind DisconnectFromEnvUseCase::class
@@ -17,6 +17,7 @@ import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.setManifestComponentEnabled
 import ua.com.radiokot.photoprism.extension.toSingle
 import ua.com.radiokot.photoprism.features.importt.view.ImportActivity
+import ua.com.radiokot.photoprism.util.images.MediaPreviewDiskCache
 
 typealias PhotoPrismConfigServiceFactory =
             (envConnectionParams: EnvConnectionParams, sessionId: String) -> PhotoPrismClientConfigService
@@ -25,6 +26,8 @@ typealias PhotoPrismConfigServiceFactory =
  * Creates [EnvSession] for the given [EnvConnectionParams] and [EnvAuth].
  * On success, sets the session to the [envSessionHolder] and [envSessionPersistence]
  * and the auth to the [envAuthPersistence], if present.
+ * The [mediaPreviewDiskCache], if present, is cleared unless it belongs to the same library,
+ * as it is kept on disconnect.
  *
  * @see InvalidCredentialsException
  * @see EnvIsNotPublicException
@@ -36,6 +39,7 @@ class ConnectToEnvUseCase(
     private val envSessionHolder: EnvSessionHolder?,
     private val envSessionPersistence: ObjectPersistence<EnvSession>?,
     private val envAuthPersistence: ObjectPersistence<EnvAuth>?,
+    private val mediaPreviewDiskCache: MediaPreviewDiskCache?,
     private val application: Application,
 ) {
     private val log = kLogger("ConnectToEnvUseCase")
@@ -85,6 +89,11 @@ class ConnectToEnvUseCase(
                             "\nsession=$session"
                 }
 
+                // Before the session is set, so no previews are loaded yet.
+                mediaPreviewDiskCache?.setLibrary(
+                    libraryId = connectionParams.rootUrl.toString(),
+                )
+
                 updateHoldersAndPersistence(
                     auth = auth,
                     session = session,
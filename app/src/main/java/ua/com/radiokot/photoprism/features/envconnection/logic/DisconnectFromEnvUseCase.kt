@@ -12,7 +12,9 @@ import ua.com.radiokot.photoprism.env.data.storage.EnvSessionHolder
 import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.setManifestComponentEnabled
 import ua.com.radiokot.photoprism.features.ext.memories.data.storage.MemoriesRepository
+import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryMediaIndexDbDao
 import ua.com.radiokot.photoprism.features.importt.view.ImportActivity
+import ua.com.radiokot.photoprism.features.map.logic.UpdateMapOfflinePackUseCase
 import java.io.File
 
 /**
@@ -26,6 +28,8 @@ class DisconnectFromEnvUseCase(
     private val cacheDirectories: Iterable<File>?,
     private val cookieManager: CookieManager?,
     private val memoriesRepository: MemoriesRepository?,
+    private val galleryMediaIndexDao: GalleryMediaIndexDbDao?,
+    private val updateMapOfflinePackUseCase: UpdateMapOfflinePackUseCase?,
     private val application: Application,
 ) {
     private val log = kLogger("DisconnectFromEnvUseCase")
@@ -60,6 +64,22 @@ class DisconnectFromEnvUseCase(
             log.debug { "invoke(): memories_cleared" }
         }
 
+        galleryMediaIndexDao?.deleteAll()?.also {
+            log.debug { "invoke(): gallery_media_index_cleared" }
+        }
+
+        updateMapOfflinePackUseCase
+            ?.clear()
+            // The regions failed to be deleted now are deleted with the next pack.
+            ?.doOnError { error ->
+                log.error(error) { "invoke(): failed_clearing_map_offline_pack" }
+            }
+            ?.onErrorComplete()
+            ?.blockingAwait()
+            ?.also {
+                log.debug { "invoke(): map_offline_pack_cleared" }
+            }
+
         application.setManifestComponentEnabled(
             componentClass = ImportActivity::class.java,
             isEnabled = false
@@ -6,11 +6,9 @@ import org.koin.core.qualifier._q
 import org.koin.core.qualifier.named
 import org.koin.dsl.bind
 import org.koin.dsl.module
-import ua.com.radiokot.photoprism.api.config.service.PhotoPrismClientConfigService
 import ua.com.radiokot.photoprism.base.data.storage.ObjectPersistence
 import ua.com.radiokot.photoprism.db.AppDatabase
 import ua.com.radiokot.photoprism.di.APP_NO_BACKUP_PREFERENCES
-import ua.com.radiokot.photoprism.di.EnvPhotoPrismClientConfigServiceParams
 import ua.com.radiokot.photoprism.di.ioModules
 import ua.com.radiokot.photoprism.env.data.model.EnvSession
 import ua.com.radiokot.photoprism.features.ext.memories.data.storage.MemoriesDbDao
@@ -59,16 +57,8 @@ val memoriesFeatureModule = module {
 
     scope<EnvSession> {
         scoped {
-            val session = get<EnvSession>()
-            val photoPrismClientConfigService: PhotoPrismClientConfigService =
-                get(_q<EnvPhotoPrismClientConfigServiceParams>()) {
-                    EnvPhotoPrismClientConfigServiceParams(
-                        envConnectionParams = session.envConnectionParams,
-                        sessionId = session.id,
-                    )
-                }
             GetMemoriesUseCase(
-                photoPrismClientConfigService = photoPrismClientConfigService,
+                photoPrismClientConfigService = get(),
                 galleryMediaRepositoryFactory = get(),
                 memoriesPreferences = get(),
             )
@@ -93,6 +93,8 @@ class GetMemoriesUseCase(
                 searchConfig = searchConfig,
                 postFilterExcludePersonIds = memoriesPreferences.personIdsToForget,
                 pageLimit = MAX_ITEMS_TO_LOAD,
+                // Only the first page is used.
+                readAheadPages = 0,
             ),
         )
 
@@ -136,7 +138,7 @@ class GetMemoriesUseCase(
             GalleryMedia.TypeName.VIDEO,
             GalleryMedia.TypeName.LIVE,
         )
-        private const val MAX_ITEMS_TO_LOAD = 150
+        private const val MAX_ITEMS_TO_LOAD = 2000
         private const val TIME_CLUSTERING_DISTANCE_MS = 15_000L
         private val GARBAGE_ITEM_PREDICATE = object : Predicate<GalleryMedia> {
             private val screenCaptureRegex = "screen(shot|_?record)".toRegex()
@@ -5,27 +5,39 @@ import org.koin.core.module.dsl.scopedOf
 import org.koin.core.module.dsl.singleOf
 import org.koin.core.module.dsl.viewModel
 import org.koin.core.module.dsl.viewModelOf
+import org.koin.core.qualifier._q
 import org.koin.core.qualifier.named
 import org.koin.dsl.bind
 import org.koin.dsl.module
 import ua.com.radiokot.photoprism.BuildConfig
+import ua.com.radiokot.photoprism.db.AppDatabase
 import ua.com.radiokot.photoprism.di.APP_NO_BACKUP_PREFERENCES
+import ua.com.radiokot.photoprism.di.DOWNLOADS_MAX_CONCURRENT_CALLS
+import ua.com.radiokot.photoprism.di.DOWNLOAD_STATES_DIRECTORY
+import ua.com.radiokot.photoprism.di.EnvHttpClientParams
 import ua.com.radiokot.photoprism.di.EXTERNAL_DOWNLOADS_DIRECTORY
+import ua.com.radiokot.photoprism.di.HttpClient
 import ua.com.radiokot.photoprism.di.INTERNAL_DOWNLOADS_DIRECTORY
+import ua.com.radiokot.photoprism.di.JsonObjectMapper
+import ua.com.radiokot.photoprism.di.SESSION_BASE_HTTP_CLIENT
 import ua.com.radiokot.photoprism.di.SelfParameterHolder
 import ua.com.radiokot.photoprism.di.dateFormatModule
 import ua.com.radiokot.photoprism.env.data.model.EnvSession
 import ua.com.radiokot.photoprism.features.envconnection.di.envConnectionFeatureModule
 import ua.com.radiokot.photoprism.features.gallery.data.storage.DownloadPreferences
 import ua.com.radiokot.photoprism.features.gallery.data.storage.DownloadPreferencesOnPrefs
+import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryMediaIndexDbDao
 import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryPreferences
 import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryPreferencesOnPrefs
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
 import ua.com.radiokot.photoprism.features.gallery.logic.AddGalleryMediaToAlbumUseCase
 import ua.com.radiokot.photoprism.features.gallery.logic.ArchiveGalleryMediaUseCase
+import ua.com.radiokot.photoprism.features.gallery.logic.ConcurrentFilesDownloader
 import ua.com.radiokot.photoprism.features.gallery.logic.DeleteGalleryMediaUseCase
 import ua.com.radiokot.photoprism.features.gallery.logic.DownloadFileUseCase
 import ua.com.radiokot.photoprism.features.gallery.logic.FileReturnIntentCreator
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryMediaJsonReader
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryPageSizeController
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaCodecVideoFormatSupport
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaFileDownloadUrlFactory
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaPreviewUrlFactory
@@ -83,6 +95,23 @@ val galleryFeatureModule = module {
         )
     } bind DownloadPreferences::class
 
+    single {
+        get<AppDatabase>().galleryMediaIndex()
+    } bind GalleryMediaIndexDbDao::class
+
+    single {
+        GalleryPageSizeController(
+            preferences = get(named(APP_NO_BACKUP_PREFERENCES)),
+            keyPrefix = "gallery",
+        )
+    } bind GalleryPageSizeController::class
+
+    single {
+        GalleryMediaJsonReader(
+            jsonFactory = get<JsonObjectMapper>().factory,
+        )
+    } bind GalleryMediaJsonReader::class
+
     scope<EnvSession> {
         scoped {
             val session = get<EnvSession>()
@@ -115,11 +144,26 @@ val galleryFeatureModule = module {
 
         // Downloader must be session-scoped to have the correct
         // HTTP client (e.g. for mTLS)
-        scopedOf(::OkHttpObservableDownloader) bind ObservableDownloader::class
+        scoped {
+            OkHttpObservableDownloader(
+                httpClient = get<HttpClient>(_q<EnvHttpClientParams>()) {
+                    EnvHttpClientParams(
+                        sessionAwareness = null,
+                        clientCertificateAlias = null,
+                        baseClient = get(named(SESSION_BASE_HTTP_CLIENT)),
+                        maxConcurrentCalls = DOWNLOADS_MAX_CONCURRENT_CALLS,
+                    )
+                },
+                stateDirectory = get(named(DOWNLOAD_STATES_DIRECTORY)),
+            )
+        } bind ObservableDownloader::class
 
         scoped {
             SimpleGalleryMediaRepository.Factory(
                 photoPrismPhotosService = get(),
+                mediaJsonReader = get(),
+                mediaIndexDao = get(),
+                pageSizeController = get(),
             )
         } bind SimpleGalleryMediaRepository.Factory::class
 
@@ -131,6 +175,17 @@ val galleryFeatureModule = module {
             )
         } bind BackgroundMediaFileDownloadManager::class
 
+        scoped {
+            ConcurrentFilesDownloader(
+                downloadFileUseCase = get(),
+                // The downloads client is what bounds the calls.
+                maxParallelism = DOWNLOADS_MAX_CONCURRENT_CALLS,
+                // Leave a call for the background downloads
+                // when all the files are from the library.
+                maxParallelismPerHost = DOWNLOADS_MAX_CONCURRENT_CALLS - 1,
+            )
+        } bind ConcurrentFilesDownloader::class
+
         viewModelOf(::GallerySearchViewModel)
 
         viewModelOf(::GalleryFastScrollViewModel)
@@ -142,7 +197,7 @@ val galleryFeatureModule = module {
                 internalDownloadsDir = get(named(INTERNAL_DOWNLOADS_DIRECTORY)),
                 externalDownloadsDir = get(named(EXTERNAL_DOWNLOADS_DIRECTORY)),
                 backgroundMediaFileDownloadManager = get(),
-                downloadFileUseCase = get(),
+                concurrentFilesDownloader = get(),
                 downloadUrlFactory = get(),
                 galleryPreferences = get(),
                 downloadPreferences = get(),
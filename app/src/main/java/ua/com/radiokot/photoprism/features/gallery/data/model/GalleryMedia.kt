@@ -50,15 +50,40 @@ class GalleryMedia(
      * Whether the entry is hidden (marked as private) or not.
      */
     var isPrivate: Boolean,
-    val latLng: LatLngPair?,
+    latLng: LatLngPair?,
     val hash: String,
     files: List<File>,
 ) {
+    // The location is kept in primitives
+    // as there may be a lot of items loaded.
+    /**
+     * Latitude of the location, or [Double.NaN] if there is none.
+     */
+    val lat: Double = latLng?.first ?: Double.NaN
+
+    /**
+     * Longitude of the location, or [Double.NaN] if there is none.
+     */
+    val lng: Double = latLng?.second ?: Double.NaN
+
+    val hasLocation: Boolean
+        get() = !lat.isNaN()
+
+    /**
+     * The location as a pair, which is created on each access.
+     * Prefer [lat] and [lng] when going through many items.
+     */
+    val latLng: LatLngPair?
+        get() =
+            if (hasLocation)
+                lat to lng
+            else
+                null
 
     /**
      * Files associated with this media.
      */
-    var files: List<File> = files
+    var files: List<File> = files.compact()
         private set
 
     val originalFile: File
@@ -99,7 +124,7 @@ class GalleryMedia(
      * Merges current [files] with [moreFiles] overwriting the value
      */
     fun mergeFiles(moreFiles: Collection<File>) {
-        files = (files + moreFiles).distinct()
+        files = (files + moreFiles).distinct().compact()
     }
 
     override fun equals(other: Any?): Boolean {
@@ -133,19 +158,30 @@ class GalleryMedia(
                 width = source.width,
                 height = source.height,
                 takenAtLocal =
-                    LocalDate(localDate = parsePhotoPrismDate(source.takenAtLocal)!!),
+                    LocalDate(localTimeMillis = parsePhotoPrismDateMillis(source.takenAtLocal)),
                 title = source.title,
                 isFavorite = source.favorite,
                 isPrivate = source.private,
-                latLng =
-                    if (source.lat != 0.0 && source.lng != 0.0)
-                        source.lat to source.lng
-                    else
-                        null,
+                latLng = latLngFromPhotoPrism(
+                    lat = source.lat,
+                    lng = source.lng,
+                ),
                 files = files,
                 hash = source.hash,
             )
         }
+
+        /**
+         * @return the location, or null if PhotoPrism has none (zero coordinates)
+         */
+        fun latLngFromPhotoPrism(
+            lat: Double,
+            lng: Double,
+        ): LatLngPair? =
+            if (lat != 0.0 && lng != 0.0)
+                lat to lng
+            else
+                null
     }
 
     /**
@@ -270,7 +306,18 @@ class GalleryMedia(
                 source: PhotoPrismMergedPhoto,
                 files: List<File>,
             ): TypeData =
-                when (val type = source.type) {
+                fromPhotoPrism(
+                    type = source.type,
+                    cameraMake = source.cameraMake,
+                    files = files,
+                )
+
+            fun fromPhotoPrism(
+                type: String,
+                cameraMake: String?,
+                files: List<File>,
+            ): TypeData =
+                when (type) {
                     TypeName.UNKNOWN.value -> Unknown
 
                     TypeName.IMAGE.value -> Image
@@ -295,7 +342,7 @@ class GalleryMedia(
                             .find { it.duration != null && it.duration > 0 }
                             ?.duration
                             ?.let(TimeUnit.NANOSECONDS::toMillis),
-                        kind = when (source.cameraMake) {
+                        kind = when (cameraMake) {
                             "Samsung" ->
                                 Live.Kind.SAMSUNG
 
@@ -339,6 +386,10 @@ class GalleryMedia(
         val frames: Long?,
         val root: String?,
         val hash: String,
+        /**
+         * Size in bytes, if known.
+         */
+        val size: Long?,
     ) : Parcelable {
 
         constructor(
@@ -358,6 +409,7 @@ class GalleryMedia(
             frames = source.frames,
             root = source.root,
             hash = source.hash,
+            size = source.size,
         )
 
         override fun equals(other: Any?): Boolean {
@@ -379,6 +431,16 @@ class GalleryMedia(
     }
 }
 
+/**
+ * @return an immutable list of the files without spare capacity,
+ * as most of the items only have one or two of them.
+ */
+private fun List<GalleryMedia.File>.compact(): List<GalleryMedia.File> = when (size) {
+    0 -> emptyList()
+    1 -> listOf(first())
+    else -> toTypedArray().asList()
+}
+
 private val Collection<GalleryMedia.File>.mainFile: GalleryMedia.File
     // https://github.com/photoprism/photoprism/blob/d6e509678642a4f72cd28b3d33c2aa171621817f/frontend/src/model/photo.js#L540
     get() {
@@ -0,0 +1,225 @@
+package ua.com.radiokot.photoprism.features.gallery.data.model
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import androidx.room.TypeConverter
+import androidx.room.TypeConverters
+import com.fasterxml.jackson.annotation.JsonCreator
+import com.fasterxml.jackson.annotation.JsonProperty
+import com.fasterxml.jackson.module.kotlin.readValue
+import org.koin.core.component.KoinComponent
+import org.koin.core.component.inject
+import ua.com.radiokot.photoprism.di.JsonObjectMapper
+import ua.com.radiokot.photoprism.util.LocalDate
+
+/**
+ * An entry of the local gallery index, a persisted copy of [GalleryMedia]
+ * allowing to show the gallery content before the library responds.
+ */
+@Entity(
+    "gallery_media_index",
+    indices = [
+        Index(value = ["position"])
+    ]
+)
+@TypeConverters(GalleryMediaIndexDbEntity.Converters::class)
+data class GalleryMediaIndexDbEntity(
+    @PrimaryKey
+    @ColumnInfo("uid")
+    val uid: String,
+    /**
+     * Position of the entry in the indexed list.
+     */
+    @ColumnInfo("position")
+    val position: Int,
+    @ColumnInfo("hash")
+    val hash: String,
+    @ColumnInfo("width")
+    val width: Int,
+    @ColumnInfo("height")
+    val height: Int,
+    @ColumnInfo("taken_at_local_ms")
+    val takenAtLocalMs: Long,
+    @ColumnInfo("title")
+    val title: String,
+    @ColumnInfo("is_favorite")
+    val isFavorite: Boolean,
+    @ColumnInfo("is_private")
+    val isPrivate: Boolean,
+    @ColumnInfo("lat")
+    val lat: Double?,
+    @ColumnInfo("lng")
+    val lng: Double?,
+    @ColumnInfo("type_data")
+    val typeData: TypeData,
+    @ColumnInfo("files")
+    val files: List<File>,
+) {
+    class Converters : KoinComponent {
+        private val jsonMapper: JsonObjectMapper by inject()
+
+        @TypeConverter
+        fun typeDataFromJson(value: String?): TypeData? =
+            value?.let(jsonMapper::readValue)
+
+        @TypeConverter
+        fun typeDataToJson(value: TypeData?): String? =
+            value?.let(jsonMapper::writeValueAsString)
+
+        @TypeConverter
+        fun filesFromJson(value: String?): List<File>? =
+            value?.let(jsonMapper::readValue)
+
+        @TypeConverter
+        fun filesToJson(value: List<File>?): String? =
+            value?.let(jsonMapper::writeValueAsString)
+    }
+
+    class TypeData
+    @JsonCreator
+    constructor(
+        @JsonProperty("n")
+        val typeName: String,
+        @JsonProperty("ld")
+        val liveFullDurationMs: Long?,
+        @JsonProperty("lk")
+        val liveKind: String?,
+    ) {
+        fun toGalleryMediaTypeData(): GalleryMedia.TypeData =
+            when (GalleryMedia.TypeName.valueOf(typeName)) {
+                GalleryMedia.TypeName.UNKNOWN -> GalleryMedia.TypeData.Unknown
+                GalleryMedia.TypeName.IMAGE -> GalleryMedia.TypeData.Image
+                GalleryMedia.TypeName.RAW -> GalleryMedia.TypeData.Raw
+                GalleryMedia.TypeName.ANIMATED -> GalleryMedia.TypeData.Animated
+                GalleryMedia.TypeName.VIDEO -> GalleryMedia.TypeData.Video
+                GalleryMedia.TypeName.VECTOR -> GalleryMedia.TypeData.Vector
+                GalleryMedia.TypeName.SIDECAR -> GalleryMedia.TypeData.Sidecar
+                GalleryMedia.TypeName.TEXT -> GalleryMedia.TypeData.Text
+                GalleryMedia.TypeName.OTHER -> GalleryMedia.TypeData.Other
+                GalleryMedia.TypeName.LIVE -> GalleryMedia.TypeData.Live(
+                    fullDurationMs = liveFullDurationMs,
+                    kind = liveKind
+                        ?.let(GalleryMedia.TypeData.Live.Kind::valueOf)
+                        ?: GalleryMedia.TypeData.Live.Kind.OTHER,
+                )
+            }
+
+        companion object {
+            fun fromGalleryMediaTypeData(typeData: GalleryMedia.TypeData) = TypeData(
+                typeName = typeData.typeName.name,
+                liveFullDurationMs = (typeData as? GalleryMedia.TypeData.Live)?.fullDurationMs,
+                liveKind = (typeData as? GalleryMedia.TypeData.Live)?.kind?.name,
+            )
+        }
+    }
+
+    class File
+    @JsonCreator
+    constructor(
+        @JsonProperty("n")
+        val name: String,
+        @JsonProperty("u")
+        val uid: String,
+        @JsonProperty("mu")
+        val mediaUid: String,
+        @JsonProperty("m")
+        val mimeType: String,
+        @JsonProperty("mt")
+        val mediaType: String,
+        @JsonProperty("p")
+        val isPrimary: Boolean?,
+        @JsonProperty("s")
+        val isSidecar: Boolean?,
+        @JsonProperty("v")
+        val isVideo: Boolean?,
+        @JsonProperty("t")
+        val type: String?,
+        @JsonProperty("c")
+        val codec: String?,
+        @JsonProperty("d")
+        val duration: Long?,
+        @JsonProperty("f")
+        val frames: Long?,
+        @JsonProperty("r")
+        val root: String?,
+        @JsonProperty("h")
+        val hash: String,
+        @JsonProperty("sz")
+        val size: Long?,
+    ) {
+        constructor(file: GalleryMedia.File) : this(
+            name = file.name,
+            uid = file.uid,
+            mediaUid = file.mediaUid,
+            mimeType = file.mimeType,
+            mediaType = file.mediaType.name,
+            isPrimary = file.isPrimary,
+            isSidecar = file.isSidecar,
+            isVideo = file.isVideo,
+            type = file.type,
+            codec = file.codec,
+            duration = file.duration,
+            frames = file.frames,
+            root = file.root,
+            hash = file.hash,
+            size = file.size,
+        )
+
+        fun toGalleryMediaFile() = GalleryMedia.File(
+            name = name,
+            uid = uid,
+            mediaUid = mediaUid,
+            mimeType = mimeType,
+            mediaType = GalleryMedia.TypeName.valueOf(mediaType),
+            isPrimary = isPrimary,
+            isSidecar = isSidecar,
+            isVideo = isVideo,
+            type = type,
+            codec = codec,
+            duration = duration,
+            frames = frames,
+            root = root,
+            hash = hash,
+            size = size,
+        )
+    }
+
+    constructor(
+        media: GalleryMedia,
+        position: Int,
+    ) : this(
+        uid = media.uid,
+        position = position,
+        hash = media.hash,
+        width = media.width,
+        height = media.height,
+        takenAtLocalMs = media.takenAtLocal.time,
+        title = media.title,
+        isFavorite = media.isFavorite,
+        isPrivate = media.isPrivate,
+        lat = media.lat.takeIf { media.hasLocation },
+        lng = media.lng.takeIf { media.hasLocation },
+        typeData = TypeData.fromGalleryMediaTypeData(media.media),
+        files = media.files.map(::File),
+    )
+
+    fun toGalleryMedia() = GalleryMedia(
+        media = typeData.toGalleryMediaTypeData(),
+        uid = uid,
+        width = width,
+        height = height,
+        takenAtLocal = LocalDate(localTimeMillis = takenAtLocalMs),
+        title = title,
+        isFavorite = isFavorite,
+        isPrivate = isPrivate,
+        latLng =
+            if (lat != null && lng != null)
+                lat to lng
+            else
+                null,
+        hash = hash,
+        files = files.map(File::toGalleryMediaFile),
+    )
+}
@@ -5,11 +5,129 @@
 package ua.com.radiokot.photoprism.features.gallery.data.model
 
 import com.fasterxml.jackson.databind.util.ISO8601Utils
+import java.text.ParseException
 import java.text.ParsePosition
 import java.util.*
 
 fun parsePhotoPrismDate(date: String): Date? =
-    ISO8601Utils.parse(date, ParsePosition(0))
+    Date(parsePhotoPrismDateMillis(date))
+
+/**
+ * Parses the date without allocations if it is in the usual PhotoPrism shape,
+ * `yyyy-MM-ddTHH:mm:ss[.SSS]Z`, falling back to [ISO8601Utils] otherwise.
+ *
+ * @return milliseconds since the epoch
+ *
+ * @throws ParseException if the date can't be parsed
+ */
+@Throws(ParseException::class)
+fun parsePhotoPrismDateMillis(date: String): Long {
+    val millis = parseUtcIso8601MillisOrMinValue(date)
+    return if (millis != Long.MIN_VALUE)
+        millis
+    else
+        ISO8601Utils.parse(date, ParsePosition(0)).time
+}
+
+/**
+ * @return milliseconds since the epoch, or [Long.MIN_VALUE]
+ * if the [date] is not in the `yyyy-MM-ddTHH:mm:ss[.S+]Z` shape or is not valid.
+ * The result is the same as of [ISO8601Utils.parse].
+ */
+private fun parseUtcIso8601MillisOrMinValue(date: String): Long {
+    if (date.length < 20
+        || date[4] != '-' || date[7] != '-' || date[10] != 'T'
+        || date[13] != ':' || date[16] != ':'
+        || date[date.length - 1] != 'Z'
+    ) {
+        return Long.MIN_VALUE
+    }
+
+    val year = date.parseDigits(0, 4)
+    val month = date.parseDigits(5, 7)
+    val day = date.parseDigits(8, 10)
+    val hour = date.parseDigits(11, 13)
+    val minute = date.parseDigits(14, 16)
+    val second = date.parseDigits(17, 19)
+
+    // The general parser uses the Julian calendar before the Gregorian one was adopted,
+    // it is not worth replicating.
+    if (year < 1583
+        || month !in 1..12
+        || day < 1 || day > daysInMonth(year, month)
+        || hour !in 0..23
+        || minute !in 0..59
+        || second !in 0..59
+    ) {
+        return Long.MIN_VALUE
+    }
+
+    var millisecond = 0
+    if (date.length > 20) {
+        // Any number of fraction digits, of which the first 3 are taken into account.
+        if (date[19] != '.' || date.length == 21) {
+            return Long.MIN_VALUE
+        }
+        val fractionEnd = date.length - 1
+        for (i in 20 until fractionEnd) {
+            val digit = date[i] - '0'
+            if (digit !in 0..9) {
+                return Long.MIN_VALUE
+            }
+            when (i) {
+                20 -> millisecond += digit * 100
+                21 -> millisecond += digit * 10
+                22 -> millisecond += digit
+            }
+        }
+    }
+
+    return ((daysFromEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60_000 +
+            second * 1000 +
+            millisecond
+}
+
+/**
+ * @return the number, or -1 if there are non-digit chars
+ */
+private fun String.parseDigits(start: Int, end: Int): Int {
+    var result = 0
+    for (i in start until end) {
+        val digit = this[i] - '0'
+        if (digit !in 0..9) {
+            return -1
+        }
+        result = result * 10 + digit
+    }
+    return result
+}
+
+private fun daysInMonth(year: Int, month: Int): Int = when (month) {
+    2 ->
+        if (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))
+            29
+        else
+            28
+
+    4, 6, 9, 11 ->
+        30
+
+    else ->
+        31
+}
+
+/**
+ * [days_from_civil](http://howardhinnant.github.io/date_algorithms.html#days_from_civil)
+ * for positive years.
+ */
+private fun daysFromEpoch(year: Int, month: Int, day: Int): Long {
+    val marchBasedYear = if (month <= 2) year - 1 else year
+    val era = marchBasedYear / 400
+    val yearOfEra = marchBasedYear - era * 400
+    val dayOfYear = (153 * (if (month > 2) month - 3 else month + 9) + 2) / 5 + day - 1
+    val dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear
+    return era * 146097L + dayOfEra - 719468
+}
 
 /**
  * @return PhotoPrism-compatible ISO8601 string representing the [date] in the UTC timezone.
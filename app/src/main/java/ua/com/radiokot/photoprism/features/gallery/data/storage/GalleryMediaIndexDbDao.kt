@@ -0,0 +1,71 @@
+package ua.com.radiokot.photoprism.features.gallery.data.storage
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import androidx.room.Transaction
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMediaIndexDbEntity
+
+@Dao
+interface GalleryMediaIndexDbDao {
+    /**
+     * @return first [limit] entries ordered by position.
+     */
+    @Query("SELECT * FROM gallery_media_index ORDER BY position LIMIT :limit")
+    fun getFirst(limit: Int): List<GalleryMediaIndexDbEntity>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insert(entities: Collection<GalleryMediaIndexDbEntity>)
+
+    @Query("DELETE FROM gallery_media_index")
+    fun deleteAll()
+
+    @Query("DELETE FROM gallery_media_index WHERE uid IN (:uids)")
+    fun delete(uids: Collection<String>)
+
+    @Query("UPDATE gallery_media_index SET position=position+:shift WHERE position>=:fromPosition")
+    fun shiftPositions(fromPosition: Int, shift: Int)
+
+    @Query("UPDATE gallery_media_index SET is_favorite=:isFavorite WHERE uid IN (:uids)")
+    fun updateFavorite(uids: Collection<String>, isFavorite: Boolean)
+
+    @Query("UPDATE gallery_media_index SET is_private=:isPrivate WHERE uid IN (:uids)")
+    fun updatePrivate(uids: Collection<String>, isPrivate: Boolean)
+
+    @Transaction
+    fun replaceAll(entities: Collection<GalleryMediaIndexDbEntity>) {
+        deleteAll()
+        insert(entities)
+    }
+
+    /**
+     * Applies the [changes] in order. Insertions and removals shift positions
+     * of the following entries, so only the changed entries are written.
+     */
+    @Transaction
+    fun applyChanges(changes: List<Change>) {
+        changes.forEach { change ->
+            when (change) {
+                is Change.Inserted -> {
+                    shiftPositions(fromPosition = change.entity.position, shift = 1)
+                    insert(listOf(change.entity))
+                }
+
+                is Change.Replaced ->
+                    insert(listOf(change.entity))
+
+                is Change.Removed -> {
+                    delete(listOf(change.uid))
+                    shiftPositions(fromPosition = change.position + 1, shift = -1)
+                }
+            }
+        }
+    }
+
+    sealed interface Change {
+        class Inserted(val entity: GalleryMediaIndexDbEntity) : Change
+        class Replaced(val entity: GalleryMediaIndexDbEntity) : Change
+        class Removed(val uid: String, val position: Int) : Change
+    }
+}
@@ -5,15 +5,25 @@ import androidx.collection.LruCache
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.disposables.SerialDisposable
+import io.reactivex.rxjava3.kotlin.addTo
+import io.reactivex.rxjava3.kotlin.subscribeBy
 import io.reactivex.rxjava3.kotlin.toCompletable
 import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.CompletableSubject
+import io.reactivex.rxjava3.subjects.SingleSubject
 import kotlinx.parcelize.Parcelize
+import okio.buffer
 import ua.com.radiokot.photoprism.api.model.PhotoPrismOrder
 import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoEdit
 import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismBatchPhotoUids
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismMergedPhoto
 import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismPhotoUpdate
 import ua.com.radiokot.photoprism.api.photos.service.PhotoPrismPhotosService
 import ua.com.radiokot.photoprism.base.data.model.DataPage
+import ua.com.radiokot.photoprism.base.data.model.PagedItemsChange
 import ua.com.radiokot.photoprism.base.data.model.PagingOrder
 import ua.com.radiokot.photoprism.base.data.storage.Repository
 import ua.com.radiokot.photoprism.base.data.storage.SimplePagedDataRepository
@@ -23,19 +33,37 @@ import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.mapSuccessful
 import ua.com.radiokot.photoprism.extension.toMaybe
 import ua.com.radiokot.photoprism.extension.toSingle
+import ua.com.radiokot.photoprism.extension.tryOrNull
 import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryItemsOrder
 import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMediaIndexDbEntity
 import ua.com.radiokot.photoprism.features.gallery.data.model.SearchConfig
 import ua.com.radiokot.photoprism.features.gallery.data.model.parsePhotoPrismDate
+import ua.com.radiokot.photoprism.features.gallery.data.model.parsePhotoPrismDateMillis
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryMediaJsonReader
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryPageSizeController
 import ua.com.radiokot.photoprism.features.people.data.model.Person
 import ua.com.radiokot.photoprism.util.LocalDate
+import ua.com.radiokot.photoprism.util.downloader.ReadingProgressSource
 import java.lang.ref.WeakReference
+import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.abs
 
 /**
  * Turned out to be not that simple after all...
+ *
+ * @param mediaJsonReader reader of the pages, which are streamed rather than buffered
+ * @param mediaIndexDao if set, the loaded items are persisted to the local index
+ * and restored from it on the first update, before the library responds.
+ * @param pageSizeController if set, sizes of the pages are decided by it
+ * instead of the fixed [Params.pageLimit].
  */
 class SimpleGalleryMediaRepository(
     private val photoPrismPhotosService: PhotoPrismPhotosService,
+    private val mediaJsonReader: GalleryMediaJsonReader,
+    private val mediaIndexDao: GalleryMediaIndexDbDao?,
+    private val pageSizeController: GalleryPageSizeController?,
     val params: Params,
 ) : SimplePagedDataRepository<GalleryMedia>(
     pagingOrder = when (params.itemsOrder) {
@@ -49,14 +77,37 @@ class SimpleGalleryMediaRepository(
 ) {
     private val log = kLogger("SimpleGalleryMediaRepo")
 
+    // Positions of the loaded items in the list.
     // See .addNewPageItems for explanation.
-    private val itemsByUid = mutableMapOf<String, GalleryMedia>()
+    private val itemPositionsByUid = mutableMapOf<String, Int>()
+
+    // Whether the currently loaded items are restored from the index
+    // and must be replaced with the fresh ones once they are loaded.
+    private var areItemsFromIndex = false
+    private var indexRestoringDisposable: Disposable? = null
+
+    // Raw pages being read ahead, by their offset.
+    // See .prefetchNextPages for explanation.
+    private val prefetchedPagesByOffset = ConcurrentHashMap<Int, PrefetchedPage>()
+    private val prefetchingDisposable = CompositeDisposable()
+
+    // Size of the next page decided by the controller once the previous one is loaded,
+    // so the next page is read ahead with the right count.
+    @Volatile
+    private var nextPageSize: GalleryPageSizeController.PageSize? = null
 
     override fun getPage(
         limit: Int,
         cursor: String?,
         order: PagingOrder
     ): Single<DataPage<GalleryMedia>> {
+        val pageSize = pageSizeController?.let { controller ->
+            nextPageSize.takeIf { cursor != null }
+                ?: controller.getPageSize(isFirstPage = cursor == null)
+        }
+        @Suppress("NAME_SHADOWING")
+        val limit = pageSize?.limit ?: limit
+
         // Must not be changed to a set. Do not distinct items.
         // See .addNewPageItems for explanation.
         val collectedGalleryMediaItems = mutableListOf<GalleryMedia>()
@@ -69,9 +120,12 @@ class SimpleGalleryMediaRepository(
         // assuming we'll always have some merged items with multiple files.
         // In this case, increased limit helps avoiding the second network call
         // and leads to a faster loading.
-        val lookaheadLimit = limit * 2
+        // If the page is already being read ahead, its count is used.
+        val lookaheadLimit = cursor?.toIntOrNull()?.let(prefetchedPagesByOffset::get)?.count
+            ?: pageSize?.lookaheadLimit
+            ?: limit * 2
 
-        val loadPage = {
+        val loadPage = Single.defer {
             offset = nextCursor?.toInt() ?: 0
 
             log.debug {
@@ -81,19 +135,13 @@ class SimpleGalleryMediaRepository(
                         "\nlookaheadLimit=$lookaheadLimit"
             }
 
-            photoPrismPhotosService.getMergedPhotos(
-                count = lookaheadLimit,
+            getRawPage(
                 offset = offset,
-                q = params.query,
-                order = when (pagingOrder) {
-                    PagingOrder.DESC -> PhotoPrismOrder.NEWEST
-                    PagingOrder.ASC -> PhotoPrismOrder.OLDEST
-                }
-            ).asSequence()
+                count = lookaheadLimit,
+            )
         }
-            .toSingle()
-            .map { photoPrismPhotos ->
-                val filesCount = photoPrismPhotos.sumOf { it.files.size }
+            .map { rawPage ->
+                val filesCount = rawPage.filesCount
                 pageIsLast = filesCount < lookaheadLimit
 
                 log.debug {
@@ -102,34 +150,9 @@ class SimpleGalleryMediaRepository(
                             "\npageIsLast=$pageIsLast"
                 }
 
-                photoPrismPhotos
-                    .run {
-                        // Filter by excluded persons before mapping
-                        // as markers aren't needed for anything else.
-                        val excludePersonIds = params.postFilterExcludePersonIds
-                        if (excludePersonIds.isNotEmpty())
-                            filterNot { photoPrismMergedPhoto ->
-                                photoPrismMergedPhoto.files.any { file ->
-                                    val markers = file.markers
-                                        ?: return@any false
-                                    markers.any { marker ->
-                                        marker.faceId in excludePersonIds
-                                                || marker.subjectUid in excludePersonIds
-                                    }
-                                }
-                            }
-                        else
-                            this
-                    }
-                    .mapSuccessful(GalleryMedia::fromPhotoPrism)
-                    .filter { entry ->
-                        // Precise post filter by "before" and "after" dates,
-                        // workaround for PhotoPrism filtering.
-                        // Only filter dates after successfully parsing them above.
-                        (params.postFilterBefore == null || entry.takenAtLocal < params.postFilterBefore)
-                                && (params.postFilterAfter == null || entry.takenAtLocal > params.postFilterAfter)
-                    }
-                    .toList()
+                updateSyncedUpTo(rawPage.changeDates)
+
+                rawPage.items.filter(::matchesPostFilterDates)
             }
             .doOnSuccess { successfullyLoadedItems ->
                 collectedGalleryMediaItems.addAll(successfullyLoadedItems)
@@ -175,6 +198,597 @@ class SimpleGalleryMediaRepository(
             }
     }
 
+    private fun toGalleryMediaItems(
+        photoPrismPhotos: List<PhotoPrismMergedPhoto>,
+    ): List<GalleryMedia> =
+        photoPrismPhotos
+            .run {
+                // Filter by excluded persons before mapping
+                // as markers aren't needed for anything else.
+                val excludePersonIds = params.postFilterExcludePersonIds
+                if (excludePersonIds.isNotEmpty())
+                    filterNot { photoPrismMergedPhoto ->
+                        photoPrismMergedPhoto.files.any { file ->
+                            val markers = file.markers
+                                ?: return@any false
+                            markers.any { marker ->
+                                marker.faceId in excludePersonIds
+                                        || marker.subjectUid in excludePersonIds
+                            }
+                        }
+                    }
+                else
+                    this
+            }
+            .mapSuccessful(GalleryMedia::fromPhotoPrism)
+            .filter(::matchesPostFilterDates)
+
+    private fun matchesPostFilterDates(entry: GalleryMedia): Boolean =
+        // Precise post filter by "before" and "after" dates,
+        // workaround for PhotoPrism filtering.
+        // Only filter dates after successfully parsing them.
+        (params.postFilterBefore == null || entry.takenAtLocal < params.postFilterBefore)
+                && (params.postFilterAfter == null || entry.takenAtLocal > params.postFilterAfter)
+
+    /**
+     * @return the raw page, taken from the read ahead ones if possible.
+     */
+    private fun getRawPage(
+        offset: Int,
+        count: Int,
+    ): Single<RawPage> {
+        val prefetchedPage = prefetchedPagesByOffset.remove(offset)
+        if (prefetchedPage != null && prefetchedPage.count == count) {
+            // From now on, the loading is cancelled along with the page consumer
+            // rather than with the prefetching. If it is already cancelled,
+            // the page can only be used if it is loaded.
+            val isLoadingTaken = prefetchingDisposable.delete(prefetchedPage.loadingDisposable)
+            if (isLoadingTaken || prefetchedPage.rawPage.hasValue()) {
+                log.debug {
+                    "getRawPage(): using_prefetched_page:" +
+                            "\noffset=$offset"
+                }
+
+                return prefetchedPage.rawPage
+                    .doOnDispose(prefetchedPage.loadingDisposable::dispose)
+            }
+        }
+
+        return loadRawPage(
+            offset = offset,
+            count = count,
+        )
+    }
+
+    /**
+     * Loads the raw page streaming it straight into the items,
+     * so no intermediate merged photos are kept.
+     * The items are only handed over once the whole page is read,
+     * as the repository adds the pages at once.
+     */
+    private fun loadRawPage(
+        offset: Int,
+        count: Int,
+    ): Single<RawPage> = {
+        val startedAt = System.currentTimeMillis()
+        val items = mutableListOf<GalleryMedia>()
+        var bytesCount = 0L
+
+        val summary = photoPrismPhotosService
+            .getMergedPhotosStream(
+                count = count,
+                offset = offset,
+                q = params.query,
+                order = when (pagingOrder) {
+                    PagingOrder.DESC -> PhotoPrismOrder.NEWEST
+                    PagingOrder.ASC -> PhotoPrismOrder.OLDEST
+                },
+            )
+            .use { responseBody ->
+                mediaJsonReader.read(
+                    input = ReadingProgressSource(
+                        delegate = responseBody.source(),
+                        onReadingProgress = { bytesRead -> bytesCount = bytesRead },
+                    ).buffer().inputStream(),
+                    // Markers aren't needed for anything else.
+                    excludePersonIds = params.postFilterExcludePersonIds,
+                    onItem = items::add,
+                )
+            }
+
+        pageSizeController?.onRawPageLoaded(
+            requestedFilesCount = count,
+            filesCount = summary.fileCount,
+            itemsCount = summary.photoCount,
+            bytesCount = bytesCount,
+            durationMs = System.currentTimeMillis() - startedAt,
+        )
+
+        RawPage(
+            items = items,
+            filesCount = summary.fileCount,
+            changeDates = summary.changeDates,
+        )
+    }.toSingle()
+
+    /**
+     * Loads the merged photos for the refresh.
+     * Unlike [loadRawPage], these are not paging requests,
+     * so they are not recorded by the [pageSizeController].
+     */
+    private fun loadMergedPhotos(
+        offset: Int,
+        count: Int,
+        order: PhotoPrismOrder = when (pagingOrder) {
+            PagingOrder.DESC -> PhotoPrismOrder.NEWEST
+            PagingOrder.ASC -> PhotoPrismOrder.OLDEST
+        },
+        query: String? = params.query,
+    ): Single<List<PhotoPrismMergedPhoto>> = {
+        photoPrismPhotosService.getMergedPhotos(
+            count = count,
+            offset = offset,
+            q = query,
+            order = order,
+        )
+    }.toSingle()
+
+    /**
+     * Starts concurrent loading of the next [Params.readAheadPages] raw pages
+     * following the [nextOffset]. As the offset is incremented by the same count,
+     * the offsets of the pages to be requested by [getPage] are predictable.
+     * The loaded pages are then consumed by [getRawPage] in order.
+     */
+    private fun prefetchNextPages(
+        nextOffset: Int,
+        count: Int,
+    ) {
+        repeat(params.readAheadPages) { i ->
+            val offset = nextOffset + i * count
+
+            if (prefetchedPagesByOffset.containsKey(offset)) {
+                return@repeat
+            }
+
+            // Unlike .cache(), the subject allows cancelling the loading itself.
+            val prefetchedPage = PrefetchedPage(
+                count = count,
+                rawPage = SingleSubject.create(),
+                loadingDisposable = SerialDisposable(),
+            )
+            prefetchedPagesByOffset[offset] = prefetchedPage
+            prefetchedPage.loadingDisposable.addTo(prefetchingDisposable)
+
+            loadRawPage(
+                offset = offset,
+                count = count,
+            )
+                .subscribeOn(Schedulers.io())
+                .subscribeBy(
+                    onSuccess = prefetchedPage.rawPage::onSuccess,
+                    onError = { error ->
+                        log.debug(error) {
+                            "prefetchNextPages(): prefetch_failed:" +
+                                    "\noffset=$offset"
+                        }
+
+                        // Let the page be loaded again when needed.
+                        prefetchedPagesByOffset.remove(offset, prefetchedPage)
+                        prefetchedPage.rawPage.onError(error)
+                    }
+                )
+                .also(prefetchedPage.loadingDisposable::set)
+
+            log.debug {
+                "prefetchNextPages(): prefetching:" +
+                        "\noffset=$offset," +
+                        "\ncount=$count"
+            }
+        }
+    }
+
+    /**
+     * Cancels loading of the pages read ahead and drops the loaded ones.
+     * Should be called when the repository is no longer in use, e.g. the search is changed.
+     */
+    fun cancelPrefetching() {
+        if (prefetchedPagesByOffset.isNotEmpty()) {
+            log.debug {
+                "cancelPrefetching(): cancelling:" +
+                        "\npagesCount=${prefetchedPagesByOffset.size}"
+            }
+        }
+
+        prefetchingDisposable.clear()
+        prefetchedPagesByOffset.clear()
+    }
+
+    override fun onNewPage(page: DataPage<GalleryMedia>) {
+        // The fresh page makes the index restoring pointless.
+        indexRestoringDisposable?.dispose()
+
+        // Must be under the same lock as the index restoring,
+        // otherwise the indexed items may be added right before the fresh ones.
+        synchronized(this) {
+            if (areItemsFromIndex) {
+                // Reconcile the items restored from the index
+                // by replacing them with the fresh ones.
+                mutableItemsList.clear()
+                itemPositionsByUid.clear()
+                areItemsFromIndex = false
+
+                log.debug { "onNewPage(): replacing_indexed_items" }
+            }
+
+            super.onNewPage(page)
+        }
+
+        if (page.isLast) {
+            return
+        }
+
+        val nextOffset = page.nextCursor.toInt()
+        var prefetchCount = pageLimit * 2
+
+        if (pageSizeController != null) {
+            val nextPageSize = pageSizeController.getPageSize(isFirstPage = false)
+            this.nextPageSize = nextPageSize
+            prefetchCount = nextPageSize.lookaheadLimit
+
+            val alreadyPrefetchedCount = prefetchedPagesByOffset[nextOffset]?.count
+            if (alreadyPrefetchedCount != null) {
+                if (abs(alreadyPrefetchedCount - prefetchCount) > prefetchCount * PREFETCH_COUNT_TOLERANCE) {
+                    // The conditions have changed significantly,
+                    // it is worth dropping the pages read ahead.
+                    cancelPrefetching()
+                } else {
+                    // Keep reading ahead with the same count
+                    // for the offsets to remain predictable.
+                    prefetchCount = alreadyPrefetchedCount
+                }
+            }
+        }
+
+        if (params.readAheadPages > 0) {
+            prefetchNextPages(
+                nextOffset = nextOffset,
+                // Must match the lookahead limit of the .getPage.
+                count = prefetchCount,
+            )
+        }
+    }
+
+    private class PrefetchedPage(
+        val count: Int,
+        val rawPage: SingleSubject<RawPage>,
+        val loadingDisposable: SerialDisposable,
+    )
+
+    /**
+     * A page as PhotoPrism returns it, before the items are merged with the loaded ones.
+     *
+     * @param filesCount number of the files in the page, which PhotoPrism limits
+     * @param changeDates creation and update dates of the merged photos of the page
+     */
+    private class RawPage(
+        val items: List<GalleryMedia>,
+        val filesCount: Int,
+        val changeDates: List<String>,
+    )
+
+    // The latest change time of the loaded items, in the library time.
+    // See .updateIncrementally for explanation.
+    private var syncedUpTo: Date? = null
+    private var incrementalUpdateDisposable: Disposable? = null
+
+    private fun updateSyncedUpTo(photoPrismDates: Collection<String>) = synchronized(this) {
+        val latestDate = photoPrismDates
+            .maxOfOrNull { tryOrNull { parsePhotoPrismDateMillis(it) } ?: Long.MIN_VALUE }
+            ?.takeIf { it != Long.MIN_VALUE }
+            ?.let(::Date)
+            ?: return@synchronized
+        val currentSyncedUpTo = syncedUpTo
+
+        if (currentSyncedUpTo == null || latestDate > currentSyncedUpTo) {
+            syncedUpTo = latestDate
+        }
+    }
+
+    /**
+     * Instantly starts incremental update of the loaded items.
+     * Instead of re-loading all the pages, only the items added, changed or archived
+     * since the last update are requested. The loaded items are then patched in place:
+     * changed ones are updated, new ones are inserted within the loaded range
+     * and the archived ones, as well as the ones no longer matching the query, are removed.
+     *
+     * Falls back to the full [update] if the repository is never updated,
+     * or if there are too many changes to be applied incrementally.
+     */
+    fun updateIncrementally(): Completable = synchronized(this) {
+        val syncedUpTo = this.syncedUpTo
+        if (isNeverUpdated || isLoading || areItemsFromIndex || syncedUpTo == null) {
+            log.debug {
+                "updateIncrementally(): falling_back_to_full_update:" +
+                        "\nsyncedUpTo=$syncedUpTo"
+            }
+
+            return@synchronized update()
+        }
+
+        log.debug {
+            "updateIncrementally(): updating:" +
+                    "\nsyncedUpTo=$syncedUpTo"
+        }
+
+        isLoading = true
+        newestAndOldestDates = null
+
+        val resultSubject = CompletableSubject.create()
+
+        // Recently changed items matching the query.
+        val loadChangedPhotos = loadMergedPhotos(
+            offset = 0,
+            count = INCREMENTAL_UPDATE_LIMIT,
+            order = PhotoPrismOrder.UPDATED,
+        )
+
+        // Recently changed items matching the query, and regardless of it.
+        // Items changed so they no longer match it are only returned by the latter,
+        // e.g. ones unfavorited while searching for favorites.
+        // Without the query, both are the same.
+        val loadChangedAndAllChangedPhotos =
+            if (params.query.isNullOrEmpty())
+                loadChangedPhotos.map { it to it }
+            else
+                Single.zip(
+                    loadChangedPhotos,
+                    loadMergedPhotos(
+                        offset = 0,
+                        count = INCREMENTAL_UPDATE_LIMIT,
+                        order = PhotoPrismOrder.UPDATED,
+                        query = null,
+                    ),
+                    ::Pair
+                )
+
+        incrementalUpdateDisposable?.dispose()
+        incrementalUpdateDisposable = Single.zip(
+            // Recently added items matching the query.
+            loadMergedPhotos(
+                offset = 0,
+                count = INCREMENTAL_UPDATE_LIMIT,
+                order = PhotoPrismOrder.ADDED,
+            ),
+            loadChangedAndAllChangedPhotos,
+            // Recently archived items matching the query.
+            loadMergedPhotos(
+                offset = 0,
+                count = INCREMENTAL_UPDATE_LIMIT,
+                order = PhotoPrismOrder.ARCHIVED,
+                query = (params.query ?: "") + " archived:true",
+            ),
+        ) { addedPhotos, (changedPhotos, allChangedPhotos), archivedPhotos ->
+            IncrementalChanges(
+                addedPhotos = addedPhotos,
+                changedPhotos = changedPhotos,
+                allChangedPhotos = allChangedPhotos,
+                archivedPhotos = archivedPhotos,
+            )
+        }
+            .subscribeOn(Schedulers.io())
+            .map { (addedPhotos, changedPhotos, allChangedPhotos, archivedPhotos) ->
+                val addedSince = addedPhotos.filter { photo ->
+                    photo.createdAt.isAfter(syncedUpTo)
+                }
+                val changedSince = changedPhotos.filter { photo ->
+                    photo.updatedAt.isAfter(syncedUpTo)
+                }
+                val allChangedSince = allChangedPhotos.filter { photo ->
+                    photo.updatedAt.isAfter(syncedUpTo)
+                }
+                val archivedSince = archivedPhotos.filter { photo ->
+                    photo.deletedAt.isAfter(syncedUpTo)
+                }
+
+                val matchingUids = (changedSince + addedSince)
+                    .mapTo(mutableSetOf(), PhotoPrismMergedPhoto::uid)
+                val noLongerMatchingSince = allChangedSince.filter { photo ->
+                    photo.uid !in matchingUids
+                }
+
+                log.debug {
+                    "updateIncrementally(): loaded_changes:" +
+                            "\nadded=${addedSince.size}," +
+                            "\nchanged=${changedSince.size}," +
+                            "\nnoLongerMatching=${noLongerMatchingSince.size}," +
+                            "\narchived=${archivedSince.size}"
+                }
+
+                // If all the requested items are changed,
+                // there may be more changes than can be applied incrementally.
+                if (addedSince.size == INCREMENTAL_UPDATE_LIMIT
+                    || changedSince.size == INCREMENTAL_UPDATE_LIMIT
+                    || allChangedSince.size == INCREMENTAL_UPDATE_LIMIT
+                    || archivedSince.size == INCREMENTAL_UPDATE_LIMIT
+                ) {
+                    return@map false
+                }
+
+                applyChanges(
+                    changedPhotos = (changedSince + addedSince).distinctBy(PhotoPrismMergedPhoto::uid),
+                    removedPhotos = archivedSince + noLongerMatchingSince,
+                )
+
+                true
+            }
+            .doOnEvent { _, _ ->
+                isLoading = false
+            }
+            .doOnError(errorsSubject::onNext)
+            .flatMapCompletable { areChangesApplied ->
+                if (areChangesApplied) {
+                    Completable.complete()
+                } else {
+                    log.debug { "updateIncrementally(): too_many_changes_falling_back_to_full_update" }
+
+                    update()
+                }
+            }
+            .subscribeBy(
+                onComplete = resultSubject::onComplete,
+                onError = resultSubject::onError,
+            )
+
+        return@synchronized resultSubject
+    }
+
+    private data class IncrementalChanges(
+        val addedPhotos: List<PhotoPrismMergedPhoto>,
+        val changedPhotos: List<PhotoPrismMergedPhoto>,
+        val allChangedPhotos: List<PhotoPrismMergedPhoto>,
+        val archivedPhotos: List<PhotoPrismMergedPhoto>,
+    )
+
+    /**
+     * @param changedPhotos added or changed photos matching the query
+     * @param removedPhotos archived photos and the ones no longer matching the query
+     */
+    private fun applyChanges(
+        changedPhotos: List<PhotoPrismMergedPhoto>,
+        removedPhotos: List<PhotoPrismMergedPhoto>,
+    ) = synchronized(this) {
+        // As the pagination is offset based, removed and inserted items
+        // shift the next page. PhotoPrism counts files rather than items.
+        var nextPageOffsetShift = 0
+
+        // Changes of the index in the order they are made to the list,
+        // so only the changed entries are written.
+        val indexChanges = mutableListOf<GalleryMediaIndexDbDao.Change>()
+
+        // Changed items taken at the same time are replaced in place,
+        // others are removed to be inserted at the right position.
+        val positionsToRemove = removedPhotos
+            .mapNotNullTo(mutableSetOf()) { itemPositionsByUid[it.uid] }
+        val itemsToInsert = mutableListOf<GalleryMedia>()
+        toGalleryMediaItems(changedPhotos).forEach { freshItem ->
+            val existingItemPosition = itemPositionsByUid[freshItem.uid]
+            if (existingItemPosition == null) {
+                itemsToInsert += freshItem
+                return@forEach
+            }
+
+            val existingItem = mutableItemsList[existingItemPosition]
+            if (existingItem.takenAtLocal == freshItem.takenAtLocal) {
+                mutableItemsList[existingItemPosition] = freshItem
+                indexChanges += GalleryMediaIndexDbDao.Change.Replaced(
+                    GalleryMediaIndexDbEntity(freshItem, position = existingItemPosition)
+                )
+            } else {
+                positionsToRemove += existingItemPosition
+                itemsToInsert += freshItem
+            }
+        }
+
+        // Positions of the items following the first inserted or removed one are shifted.
+        var firstShiftedPosition = mutableItemsList.size
+
+        // Removing from the end keeps the positions of the rest valid.
+        positionsToRemove.sortedDescending().forEach { position ->
+            val removedItem = mutableItemsList.removeAt(position)
+            itemPositionsByUid.remove(removedItem.uid)
+            nextPageOffsetShift -= removedItem.files.size
+            firstShiftedPosition = position
+            indexChanges += GalleryMediaIndexDbDao.Change.Removed(
+                uid = removedItem.uid,
+                position = position,
+            )
+        }
+
+        itemsToInsert.forEach { item ->
+            val position = insertInOrder(item)
+                ?: return@forEach
+            nextPageOffsetShift += item.files.size
+            firstShiftedPosition = minOf(firstShiftedPosition, position)
+            indexChanges += GalleryMediaIndexDbDao.Change.Inserted(
+                GalleryMediaIndexDbEntity(item, position = position)
+            )
+        }
+
+        for (i in firstShiftedPosition until mutableItemsList.size) {
+            itemPositionsByUid[mutableItemsList[i].uid] = i
+        }
+
+        if (nextPageOffsetShift != 0) {
+            // Pages read ahead are no longer valid.
+            cancelPrefetching()
+            nextPage = nextPage
+                ?.toInt()
+                ?.plus(nextPageOffsetShift)
+                ?.coerceAtLeast(0)
+                ?.toString()
+        }
+
+        updateSyncedUpTo(
+            changedPhotos.flatMap { listOfNotNull(it.createdAt, it.updatedAt) }
+                    + removedPhotos.flatMap { listOfNotNull(it.updatedAt, it.deletedAt) }
+        )
+
+        log.debug {
+            "applyChanges(): applied:" +
+                    "\nnextPageOffsetShift=$nextPageOffsetShift," +
+                    "\nindexChanges=${indexChanges.size}"
+        }
+
+        isFresh = true
+        broadcast()
+
+        if (mediaIndexDao != null && indexChanges.isNotEmpty()) {
+            writeToIndex("changes") {
+                mediaIndexDao.applyChanges(indexChanges)
+            }
+        }
+    }
+
+    /**
+     * Inserts the [item] according to the order of the loaded items,
+     * unless it is beyond the loaded range. In this case it will come with the next pages.
+     * The position is found with the binary search, as the loaded items
+     * are ordered by [GalleryMedia.takenAtLocal].
+     *
+     * Positions of the following items must be updated afterwards.
+     *
+     * @return position of the inserted item, or null if it is not inserted
+     */
+    private fun insertInOrder(item: GalleryMedia): Int? {
+        // The first position after all the items taken earlier
+        // or at the same time for the newest first order, later for the oldest first.
+        var low = 0
+        var high = mutableItemsList.size
+        while (low < high) {
+            val middle = (low + high) ushr 1
+            val middleTakenAtLocal = mutableItemsList[middle].takenAtLocal
+            val isMiddleBefore = when (pagingOrder) {
+                PagingOrder.DESC -> middleTakenAtLocal >= item.takenAtLocal
+                PagingOrder.ASC -> middleTakenAtLocal <= item.takenAtLocal
+            }
+            if (isMiddleBefore) {
+                low = middle + 1
+            } else {
+                high = middle
+            }
+        }
+
+        if (low == mutableItemsList.size && !noMoreItems) {
+            return null
+        }
+
+        mutableItemsList.add(low, item)
+        return low
+    }
+
+    private fun String?.isAfter(date: Date): Boolean =
+        this != null && tryOrNull { parsePhotoPrismDate(this) }?.after(date) == true
+
     private var newestAndOldestDates: Pair<LocalDate, LocalDate>? = null
     fun getNewestAndOldestLocalDates(): Maybe<Pair<LocalDate, LocalDate>> {
         val loadedDates = newestAndOldestDates
@@ -217,9 +831,13 @@ class SimpleGalleryMediaRepository(
             .subscribeOn(Schedulers.io())
     }
 
-    override fun addNewPageItems(page: DataPage<GalleryMedia>) {
+    override fun addNewPageItems(page: DataPage<GalleryMedia>): Collection<Int> {
+        val firstNewItemIndex = mutableItemsList.size
+        val mergedItemPositions = mutableListOf<Int>()
+
         page.items.forEach { item ->
-            if (itemsByUid.containsKey(item.uid)) {
+            val existingItemPosition = itemPositionsByUid[item.uid]
+            if (existingItemPosition != null) {
                 // If this item is already loaded, just merge the files. Why?
                 // Scenario:
                 // 1. Loaded a page of merged photos. PhotoPrism page limit limits number of files, not photos;
@@ -236,19 +854,113 @@ class SimpleGalleryMediaRepository(
                 // but to load them on demand through the /view endpoint.
                 // But I think this doesn't worth it.
 
-                itemsByUid.getValue(item.uid).mergeFiles(item.files)
+                mutableItemsList[existingItemPosition].mergeFiles(item.files)
+                mergedItemPositions += existingItemPosition
 
                 log.debug {
                     "addNewPageItems(): merged_files:" +
                             "\nitemUid=${item.uid}"
                 }
             } else {
+                itemPositionsByUid[item.uid] = mutableItemsList.size
                 mutableItemsList.add(item)
-                itemsByUid[item.uid] = item
+            }
+        }
+
+        if (mediaIndexDao != null) {
+            indexNewPageItems(
+                mediaIndexDao = mediaIndexDao,
+                firstNewItemIndex = firstNewItemIndex,
+                mergedItemPositions = mergedItemPositions,
+            )
+        }
+
+        return mergedItemPositions
+    }
+
+    private fun indexNewPageItems(
+        mediaIndexDao: GalleryMediaIndexDbDao,
+        firstNewItemIndex: Int,
+        mergedItemPositions: List<Int>,
+    ) {
+        // Entities are created right away to capture the current state.
+        val entities = buildList {
+            for (i in firstNewItemIndex until mutableItemsList.size) {
+                add(GalleryMediaIndexDbEntity(mutableItemsList[i], position = i))
+            }
+            mergedItemPositions.forEach { i ->
+                add(GalleryMediaIndexDbEntity(mutableItemsList[i], position = i))
+            }
+        }
+
+        writeToIndex("new_page_items") {
+            // The first page replaces the whole index,
+            // so it only contains items from the latest update.
+            if (firstNewItemIndex == 0) {
+                mediaIndexDao.replaceAll(entities)
+            } else {
+                mediaIndexDao.insert(entities)
             }
         }
     }
 
+    private fun restoreItemsFromIndex(mediaIndexDao: GalleryMediaIndexDbDao) {
+        indexRestoringDisposable?.dispose()
+        indexRestoringDisposable = {
+            mediaIndexDao
+                .getFirst(limit = pageLimit)
+                .map(GalleryMediaIndexDbEntity::toGalleryMedia)
+        }
+            .toSingle()
+            .subscribeOn(Schedulers.io())
+            .subscribeBy(
+                onSuccess = { indexedItems ->
+                    synchronized(this) {
+                        // Only show the indexed items if nothing is loaded yet.
+                        // The first page may have been added while the index was being read,
+                        // which is only safe to check under the lock.
+                        if (indexedItems.isEmpty() || !isNeverUpdated || mutableItemsList.isNotEmpty()) {
+                            return@subscribeBy
+                        }
+
+                        mutableItemsList.addAll(indexedItems)
+                        indexedItems.forEachIndexed { i, item ->
+                            itemPositionsByUid[item.uid] = i
+                        }
+                        areItemsFromIndex = true
+
+                        log.debug {
+                            "restoreItemsFromIndex(): restored:" +
+                                    "\nitemsCount=${indexedItems.size}"
+                        }
+
+                        broadcast()
+                    }
+                },
+                onError = { error ->
+                    log.error(error) { "restoreItemsFromIndex(): failed_restoring" }
+                }
+            )
+    }
+
+    private fun writeToIndex(
+        what: String,
+        write: () -> Unit,
+    ) {
+        write
+            .toCompletable()
+            // Single thread scheduler keeps the writes in order.
+            .subscribeOn(Schedulers.single())
+            .subscribeBy(
+                onError = { error ->
+                    log.error(error) {
+                        "writeToIndex(): failed_writing:" +
+                                "\nwhat=$what"
+                    }
+                }
+            )
+    }
+
     // Keep for backward compatibility.
     fun updateAttributes(
         itemUid: String,
@@ -265,15 +977,17 @@ class SimpleGalleryMediaRepository(
     }
         .toCompletable()
         .doOnComplete {
-            itemsList
-                .find { it.uid == itemUid }
-                ?.also { itemToChange ->
-                    // Update the state locally.
-                    isFavorite?.also(itemToChange::isFavorite::set)
-                    isPrivate?.also(itemToChange::isPrivate::set)
-
-                    broadcast()
-                }
+            updateAttributesLocally(
+                itemUids = setOf(itemUid),
+                isFavorite = isFavorite,
+                isPrivate = isPrivate,
+            )
+
+            updateAttributesInIndex(
+                itemUids = listOf(itemUid),
+                isFavorite = isFavorite,
+                isPrivate = isPrivate,
+            )
         }
 
     /**
@@ -294,15 +1008,51 @@ class SimpleGalleryMediaRepository(
     }
         .toCompletable()
         .doOnComplete {
-            itemsList
-                .filter { it.uid in itemUids }
-                .forEach { itemToChange ->
-                    // Update the state locally.
-                    isFavorite?.also(itemToChange::isFavorite::set)
-                    isPrivate?.also(itemToChange::isPrivate::set)
-                }
-                .also { broadcast() }
+            updateAttributesLocally(
+                itemUids = itemUids.toSet(),
+                isFavorite = isFavorite,
+                isPrivate = isPrivate,
+            )
+
+            updateAttributesInIndex(
+                itemUids = itemUids,
+                isFavorite = isFavorite,
+                isPrivate = isPrivate,
+            )
+        }
+
+    private fun updateAttributesLocally(
+        itemUids: Set<String>,
+        isFavorite: Boolean?,
+        isPrivate: Boolean?,
+    ) = synchronized(this) {
+        val changedIndices = mutableListOf<Int>()
+        mutableItemsList.forEachIndexed { i, itemToChange ->
+            if (itemToChange.uid in itemUids) {
+                isFavorite?.also(itemToChange::isFavorite::set)
+                isPrivate?.also(itemToChange::isPrivate::set)
+                changedIndices += i
+            }
+        }
+
+        if (changedIndices.isNotEmpty()) {
+            broadcast(PagedItemsChange.Updated(changedIndices))
+        }
+    }
+
+    private fun updateAttributesInIndex(
+        itemUids: Collection<String>,
+        isFavorite: Boolean?,
+        isPrivate: Boolean?,
+    ) {
+        val mediaIndexDao = mediaIndexDao
+            ?: return
+
+        writeToIndex("attributes") {
+            isFavorite?.also { mediaIndexDao.updateFavorite(itemUids, it) }
+            isPrivate?.also { mediaIndexDao.updatePrivate(itemUids, it) }
         }
+    }
 
     fun archive(
         itemUids: Collection<String>
@@ -327,13 +1077,45 @@ class SimpleGalleryMediaRepository(
         }
 
     fun removeLocally(itemUids: Set<String>) = synchronized(this) {
-        mutableItemsList.removeAll { it.uid in itemUids }
+        // Removing from the end keeps the positions of the rest valid.
+        val indexChanges = itemUids
+            .mapNotNull(itemPositionsByUid::get)
+            .sortedDescending()
+            .map { position ->
+                val removedItem = mutableItemsList.removeAt(position)
+                itemPositionsByUid.remove(removedItem.uid)
+                GalleryMediaIndexDbDao.Change.Removed(
+                    uid = removedItem.uid,
+                    position = position,
+                )
+            }
+        val firstShiftedPosition = indexChanges.lastOrNull()?.position ?: mutableItemsList.size
+        for (i in firstShiftedPosition until mutableItemsList.size) {
+            itemPositionsByUid[mutableItemsList[i].uid] = i
+        }
         broadcast()
+
+        if (mediaIndexDao != null && indexChanges.isNotEmpty()) {
+            writeToIndex("removed_items") {
+                mediaIndexDao.applyChanges(indexChanges)
+            }
+        }
     }
 
     override fun update(): Completable {
         newestAndOldestDates = null
-        itemsByUid.clear()
+        itemPositionsByUid.clear()
+        areItemsFromIndex = false
+        syncedUpTo = null
+        nextPageSize = null
+        incrementalUpdateDisposable?.dispose()
+        cancelPrefetching()
+
+        // Show the indexed items while the first page is being loaded.
+        if (mediaIndexDao != null && isNeverUpdated) {
+            restoreItemsFromIndex(mediaIndexDao)
+        }
+
         return super.update()
     }
 
@@ -346,6 +1128,16 @@ class SimpleGalleryMediaRepository(
         return "SimpleGalleryMediaRepository(params=$params)"
     }
 
+    private companion object {
+        // More changes are unlikely to happen between refreshes,
+        // while if they did, the full update is not a waste.
+        private const val INCREMENTAL_UPDATE_LIMIT = 60
+
+        // Relative difference of the count
+        // making the pages read ahead not worth keeping.
+        private const val PREFETCH_COUNT_TOLERANCE = 0.25
+    }
+
     /**
      * @param query PhotoPrism search query
      * @param postFilterBefore local time to apply post filtering of the items,
@@ -356,6 +1148,8 @@ class SimpleGalleryMediaRepository(
      * to filter out items with any of them.
      * @param pageLimit target limit setting the minimum number of items in the page.
      * The actual pages are bigger due to the PhotoPrism pagination workaround.
+     * @param readAheadPages number of the next raw pages to be loaded concurrently
+     * in advance once a page is loaded, 0 to disable the read ahead.
      */
     @Parcelize
     data class Params(
@@ -365,6 +1159,7 @@ class SimpleGalleryMediaRepository(
         val postFilterExcludePersonIds: Set<String> = emptySet(),
         val pageLimit: Int = DEFAULT_PAGE_LIMIT,
         val itemsOrder: GalleryItemsOrder = GalleryItemsOrder.NEWEST_FIRST,
+        val readAheadPages: Int = DEFAULT_READ_AHEAD_PAGES,
     ) : Parcelable {
 
         constructor(
@@ -382,16 +1177,28 @@ class SimpleGalleryMediaRepository(
         )
 
         companion object {
-            // Always 80 elements – not great, not terrible.
-            // It is better, of course, to dynamically adjust
-            // to the max number of items on the screen.
+            // 80 elements – not great, not terrible.
+            // With the default limit, the repository created by the factory
+            // adjusts the pages to the screen and the network with GalleryPageSizeController.
             const val DEFAULT_PAGE_LIMIT = 80
+
+            // Reading 2 pages ahead is enough to keep up with fast flinging
+            // without putting much load on the library.
+            const val DEFAULT_READ_AHEAD_PAGES = 2
         }
     }
 
+    /**
+     * @param mediaIndexDao DAO of the local index used for the default gallery content
+     * @param pageSizeController controller of the page sizes used unless a specific limit is set
+     */
     class Factory(
         private val photoPrismPhotosService: PhotoPrismPhotosService,
+        private val mediaJsonReader: GalleryMediaJsonReader,
+        private val mediaIndexDao: GalleryMediaIndexDbDao,
+        private val pageSizeController: GalleryPageSizeController,
     ) {
+        private val indexedParams = Params(SearchConfig.DEFAULT)
         private val cache = LruCache<String, SimpleGalleryMediaRepository>(10)
         private val weakReferences =
             mutableMapOf<String, WeakReference<SimpleGalleryMediaRepository>>()
@@ -422,6 +1229,13 @@ class SimpleGalleryMediaRepository(
             params: Params = Params(),
         ) = SimpleGalleryMediaRepository(
             photoPrismPhotosService = photoPrismPhotosService,
+            mediaJsonReader = mediaJsonReader,
+            // Only the default gallery content is indexed.
+            mediaIndexDao = mediaIndexDao.takeIf { params == indexedParams },
+            // A specific limit means the exact number of items is needed.
+            pageSizeController = pageSizeController.takeIf {
+                params.pageLimit == Params.DEFAULT_PAGE_LIMIT
+            },
             params = params,
         )
 
@@ -0,0 +1,328 @@
+package ua.com.radiokot.photoprism.features.gallery.logic
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.ObservableEmitter
+import io.reactivex.rxjava3.core.Scheduler
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.addTo
+import io.reactivex.rxjava3.kotlin.subscribeBy
+import io.reactivex.rxjava3.schedulers.Schedulers
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import ua.com.radiokot.photoprism.extension.kLogger
+import java.io.File
+
+/**
+ * Downloads multiple files concurrently with [DownloadFileUseCase].
+ *
+ * Smaller files are downloaded first, so the progress moves fast.
+ * The number of parallel downloads is tuned by the measured throughput:
+ * it is increased while it makes the throughput grow, and decreased otherwise.
+ * Once the throughput is flat, the level is kept.
+ * The tuned level is kept for the next downloads.
+ *
+ * @param maxParallelism max number of files downloaded at once,
+ * which should not exceed the concurrency limit of the HTTP client,
+ * otherwise the extra downloads wait for a call slot and mislead the tuning
+ * @param maxParallelismPerHost max number of files downloaded at once from the same host
+ * @param currentTimeMs source of the current time in milliseconds
+ */
+class ConcurrentFilesDownloader(
+    private val downloadFileUseCase: DownloadFileUseCase,
+    private val maxParallelism: Int = DEFAULT_MAX_PARALLELISM,
+    private val maxParallelismPerHost: Int = DEFAULT_MAX_PARALLELISM_PER_HOST,
+    private val scheduler: Scheduler = Schedulers.io(),
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
+) {
+    private val log = kLogger("ConcurrentFilesDownloader")
+
+    @Volatile
+    private var tunedParallelism = INITIAL_PARALLELISM.coerceAtMost(maxParallelism)
+
+    /**
+     * @return cold [Observable] reporting the aggregate [Progress]
+     * and completing once all the files are downloaded.
+     * Fails on the first failed download, cancelling the others.
+     */
+    fun download(downloads: List<Download>): Observable<Progress> = Observable.create { emitter ->
+        val session = Session(
+            downloads = downloads,
+            emitter = emitter.serialize(),
+        )
+        emitter.setCancellable(session::cancel)
+        session.start()
+    }
+
+    private inner class Session(
+        downloads: List<Download>,
+        private val emitter: ObservableEmitter<Progress>,
+    ) {
+        // Smaller first, unknown sizes last.
+        private val pending = downloads
+            .sortedBy { it.expectedSize ?: Long.MAX_VALUE }
+            .toMutableList()
+        private val downloadsCount = downloads.size
+        private val bytesReadByDownload = mutableMapOf<Download, Long>()
+        private val contentLengthByDownload = downloads
+            .associateWithTo(mutableMapOf()) { it.expectedSize ?: -1L }
+        private val runningCountByHost = mutableMapOf<String, Int>()
+        private val disposables = CompositeDisposable()
+        private var runningCount = 0
+        private var completedCount = 0
+        private var isEnded = false
+
+        private val startedAtMs = currentTimeMs()
+        private var parallelism = tunedParallelism
+        private var measurementStartedAtMs = startedAtMs
+        private var measurementStartBytes = 0L
+        private var isFirstMeasurement = true
+        private var lastThroughput = 0.0
+        private var lastParallelismChange = 0
+
+        fun start() = synchronized(this) {
+            log.debug {
+                "start(): starting:" +
+                        "\ndownloadsCount=$downloadsCount," +
+                        "\nparallelism=$parallelism"
+            }
+
+            if (pending.isEmpty()) {
+                isEnded = true
+                emitter.onComplete()
+                return@synchronized
+            }
+
+            emitProgress()
+            launchPending()
+        }
+
+        fun cancel() = synchronized(this) {
+            isEnded = true
+            disposables.dispose()
+        }
+
+        private fun launchPending() {
+            // Downloads may end right on launch, changing the state,
+            // hence the fresh lookup on each iteration.
+            while (!isEnded && runningCount < parallelism) {
+                val index = pending.indexOfFirst { download ->
+                    (runningCountByHost[download.host] ?: 0) < maxParallelismPerHost
+                }
+                if (index < 0) {
+                    break
+                }
+
+                val download = pending.removeAt(index)
+                runningCount++
+                runningCountByHost[download.host] = (runningCountByHost[download.host] ?: 0) + 1
+                launch(download)
+            }
+        }
+
+        private fun launch(download: Download) {
+            downloadFileUseCase
+                .invoke(
+                    url = download.url,
+                    destination = download.destination,
+                    mimeType = download.mimeType,
+                    notifyMediaScanner = download.notifyMediaScanner,
+                )
+                .subscribeOn(scheduler)
+                .subscribeBy(
+                    onNext = { progress ->
+                        onDownloadProgress(download, progress.bytesRead, progress.contentLength)
+                    },
+                    onError = { error ->
+                        onDownloadFailed(download, error)
+                    },
+                    onComplete = {
+                        onDownloadCompleted(download)
+                    }
+                )
+                .addTo(disposables)
+        }
+
+        private fun onDownloadProgress(
+            download: Download,
+            bytesRead: Long,
+            contentLength: Long,
+        ) = synchronized(this) {
+            if (isEnded) {
+                return@synchronized
+            }
+
+            bytesReadByDownload[download] = bytesRead
+            if (contentLength > 0) {
+                contentLengthByDownload[download] = contentLength
+            }
+
+            emitProgress()
+        }
+
+        private fun onDownloadCompleted(download: Download) = synchronized(this) {
+            if (isEnded) {
+                return@synchronized
+            }
+
+            runningCount--
+            runningCountByHost[download.host] = runningCountByHost.getValue(download.host) - 1
+            completedCount++
+            contentLengthByDownload[download]
+                ?.takeIf { it > 0 }
+                ?.also { bytesReadByDownload[download] = it }
+
+            tuneParallelism()
+
+            if (completedCount == downloadsCount) {
+                isEnded = true
+                tunedParallelism = parallelism
+
+                log.debug {
+                    "onDownloadCompleted(): all_downloads_completed:" +
+                            "\ndownloadsCount=$downloadsCount," +
+                            "\nbytesPerSecond=${getBytesPerSecond()}," +
+                            "\ntunedParallelism=$parallelism"
+                }
+
+                emitProgress()
+                emitter.onComplete()
+            } else {
+                emitProgress()
+                launchPending()
+            }
+        }
+
+        private fun onDownloadFailed(
+            download: Download,
+            error: Throwable,
+        ) = synchronized(this) {
+            if (isEnded) {
+                return@synchronized
+            }
+
+            log.debug(error) {
+                "onDownloadFailed(): download_failed:" +
+                        "\nurl=${download.url}"
+            }
+
+            isEnded = true
+            disposables.dispose()
+            emitter.tryOnError(error)
+        }
+
+        /**
+         * Moves the parallelism in the direction which increases throughput,
+         * measured since the previous measurement.
+         */
+        private fun tuneParallelism() {
+            val nowMs = currentTimeMs()
+            val elapsedMs = nowMs - measurementStartedAtMs
+            if (elapsedMs < MIN_MEASUREMENT_DURATION_MS) {
+                return
+            }
+
+            val totalBytesRead = bytesReadByDownload.values.sum()
+            val throughput = (totalBytesRead - measurementStartBytes).toDouble() / elapsedMs
+            val previousParallelism = parallelism
+
+            val isGrown = throughput > lastThroughput * (1 + THROUGHPUT_GAIN_THRESHOLD)
+            val isDropped = throughput < lastThroughput * (1 - THROUGHPUT_GAIN_THRESHOLD)
+
+            parallelism = when {
+                // Nothing to compare with yet: try increasing.
+                isFirstMeasurement ->
+                    parallelism + 1
+
+                // The last increase helped: keep increasing.
+                lastParallelismChange > 0 && isGrown ->
+                    parallelism + 1
+
+                // The last increase didn't help: step back.
+                lastParallelismChange > 0 ->
+                    parallelism - 1
+
+                // The last decrease made it worse: step back.
+                lastParallelismChange < 0 && isDropped ->
+                    parallelism + 1
+
+                // The level is held or the throughput is flat: keep the level.
+                else ->
+                    parallelism
+            }.coerceIn(1, maxParallelism)
+
+            isFirstMeasurement = false
+            lastParallelismChange = parallelism - previousParallelism
+            lastThroughput = throughput
+            measurementStartedAtMs = nowMs
+            measurementStartBytes = totalBytesRead
+
+            if (lastParallelismChange != 0) {
+                log.debug {
+                    "tuneParallelism(): changed:" +
+                            "\nbytesPerMs=$throughput," +
+                            "\nparallelism=$parallelism"
+                }
+            }
+        }
+
+        private fun getBytesPerSecond(): Long {
+            val elapsedMs = (currentTimeMs() - startedAtMs).coerceAtLeast(1)
+            return bytesReadByDownload.values.sum() * 1000 / elapsedMs
+        }
+
+        private fun emitProgress() {
+            val contentLengths = contentLengthByDownload.values
+            val percent =
+                if (contentLengths.all { it > 0 })
+                    bytesReadByDownload.values.sum().toDouble() / contentLengths.sum() * 100
+                else
+                    completedCount.toDouble() / downloadsCount * 100
+
+            emitter.onNext(
+                Progress(
+                    percent = percent.coerceIn(0.0, 100.0),
+                    completedCount = completedCount,
+                    downloadsCount = downloadsCount,
+                    bytesPerSecond = getBytesPerSecond(),
+                )
+            )
+        }
+    }
+
+    /**
+     * @param expectedSize size of the file in bytes if known, used for ordering and progress.
+     */
+    class Download(
+        val url: String,
+        val destination: File,
+        val mimeType: String?,
+        val notifyMediaScanner: Boolean,
+        val expectedSize: Long?,
+    ) {
+        val host: String =
+            url.toHttpUrlOrNull()?.host ?: ""
+    }
+
+    class Progress(
+        /**
+         * Aggregate progress from 0 to 100.
+         */
+        val percent: Double,
+        val completedCount: Int,
+        val downloadsCount: Int,
+        /**
+         * Average throughput since the start.
+         */
+        val bytesPerSecond: Long,
+    )
+
+    private companion object {
+        private const val DEFAULT_MAX_PARALLELISM = 6
+
+        // Downloads are executed synchronously, so the OkHttp dispatcher doesn't limit them.
+        // What limits them is the concurrency limit of the HTTP client, if set.
+        private const val DEFAULT_MAX_PARALLELISM_PER_HOST = 5
+        private const val INITIAL_PARALLELISM = 3
+        private const val MIN_MEASUREMENT_DURATION_MS = 1000L
+        private const val THROUGHPUT_GAIN_THRESHOLD = 0.1
+    }
+}
@@ -6,8 +6,11 @@ import androidx.exifinterface.media.ExifInterface
 import androidx.media3.common.MimeTypes
 import io.reactivex.rxjava3.core.Observable
 import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.extension.retryWithDelay
 import ua.com.radiokot.photoprism.util.downloader.ObservableDownloader
 import java.io.File
+import java.io.IOException
+import java.util.concurrent.TimeUnit
 
 class DownloadFileUseCase(
     private val observableDownloader: ObservableDownloader,
@@ -17,7 +20,9 @@ class DownloadFileUseCase(
 
     /**
      * Downloads the remote file at [url] to the give [destination].
-     * In case of error or cancellation, safely deletes the [destination].
+     * In case of a network error, the download is retried from the last received byte.
+     * If it still fails, the partial file is kept for the next attempt to resume,
+     * while the cancellation discards it.
      *
      * @param notifyMediaScanner if set along with [mimeType] and [context] are set,
      * notifies MediaScanner on completion.
@@ -29,22 +34,30 @@ class DownloadFileUseCase(
         notifyMediaScanner: Boolean,
     ): Observable<ObservableDownloader.Progress> {
         return observableDownloader
-            .download(
+            .downloadResumable(
                 url = url,
                 destination = destination,
             )
-            .doOnDispose {
-                try {
-                    destination.delete()
-                } catch (e: Exception) {
-                    log.error(e) { "perform(): failed_to_delete_destination_on_dispose" }
+            .doOnError { error ->
+                log.debug(error) {
+                    "perform(): download_failed:" +
+                            "\nurl=$url," +
+                            "\ndestination=$destination"
                 }
             }
-            .doOnError {
+            // Each retry resumes the download,
+            // so only the lost bytes are transferred again.
+            .retryWithDelay(
+                times = RETRY_ATTEMPTS,
+                delay = RETRY_DELAY_MS,
+                unit = TimeUnit.MILLISECONDS,
+                predicate = { it is IOException },
+            )
+            .doOnDispose {
                 try {
-                    destination.delete()
+                    observableDownloader.discardPartialDownload(destination)
                 } catch (e: Exception) {
-                    log.error(e) { "perform(): failed_to_delete_destination_on_error" }
+                    log.error(e) { "perform(): failed_to_discard_partial_download_on_dispose" }
                 }
             }
             .doOnComplete {
@@ -80,4 +93,9 @@ class DownloadFileUseCase(
                 }
             }
     }
+
+    private companion object {
+        private const val RETRY_ATTEMPTS = 3
+        private const val RETRY_DELAY_MS = 2000L
+    }
 }
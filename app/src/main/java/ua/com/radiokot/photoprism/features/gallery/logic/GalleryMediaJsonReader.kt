@@ -0,0 +1,380 @@
+package ua.com.radiokot.photoprism.features.gallery.logic
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismMergedPhoto
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
+import ua.com.radiokot.photoprism.features.gallery.data.model.parsePhotoPrismDateMillis
+import ua.com.radiokot.photoprism.util.LocalDate
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Reads PhotoPrism merged photos (a JSON array of [PhotoPrismMergedPhoto])
+ * token by token straight into [GalleryMedia],
+ * without materializing the intermediate API models.
+ *
+ * Repeated short values (MIME type, codec, file type, root) are shared
+ * between the items instead of being allocated for each file.
+ * Fields not needed for [GalleryMedia] are skipped.
+ * Photos which can't be converted are skipped the same way [GalleryMedia.fromPhotoPrism] failures are.
+ */
+class GalleryMediaJsonReader(
+    private val jsonFactory: JsonFactory,
+) {
+    private val log = kLogger("GalleryMediaJsonReader")
+    private val sharedValues = ConcurrentHashMap<String, String>()
+
+    /**
+     * @param excludePersonIds if set, photos with markers of these faces or subjects
+     * are skipped. Markers are not read otherwise.
+     * @param onItem called for each item as soon as it is read
+     *
+     * @return what is read besides the items
+     */
+    @Throws(IOException::class)
+    fun read(
+        input: InputStream,
+        excludePersonIds: Set<String> = emptySet(),
+        onItem: (GalleryMedia) -> Unit,
+    ): Summary = jsonFactory.createParser(input).use { parser ->
+        val photo = PhotoReader(excludePersonIds)
+        var photoCount = 0
+        var fileCount = 0
+        val changeDates = mutableListOf<String>()
+
+        parser.expect(JsonToken.START_ARRAY)
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            photo.read(parser)
+
+            photoCount++
+            fileCount += photo.fileCount
+            photo.createdAt?.also(changeDates::add)
+            photo.updatedAt?.also(changeDates::add)
+
+            if (photo.hasExcludedPerson) {
+                continue
+            }
+
+            val item = try {
+                photo.toGalleryMedia()
+            } catch (e: Exception) {
+                log.debug(e) {
+                    "read(): skipping_photo:" +
+                            "\nuid=${photo.uid}"
+                }
+                continue
+            }
+
+            onItem(item)
+        }
+
+        Summary(
+            photoCount = photoCount,
+            fileCount = fileCount,
+            changeDates = changeDates,
+        )
+    }
+
+    /**
+     * @param photoCount number of the merged photos read, including the skipped ones
+     * @param fileCount number of the files of all the merged photos read
+     * @param changeDates PhotoPrism "CreatedAt" and "UpdatedAt" dates of all the merged photos read
+     */
+    class Summary(
+        val photoCount: Int,
+        val fileCount: Int,
+        val changeDates: List<String>,
+    )
+
+    /**
+     * @return the same instance for equal short [value]s, as long as there is room for them
+     */
+    private fun share(value: String): String {
+        if (value.length > MAX_SHARED_VALUE_LENGTH) {
+            return value
+        }
+
+        return sharedValues[value]
+            ?: if (sharedValues.size < MAX_SHARED_VALUE_COUNT)
+                sharedValues.putIfAbsent(value, value) ?: value
+            else
+                value
+    }
+
+    /**
+     * Reusable holder of the merged photo being read.
+     */
+    private inner class PhotoReader(
+        private val excludePersonIds: Set<String>,
+    ) {
+        var uid: String? = null
+        var hash: String? = null
+        var width = 0
+        var height = 0
+        var takenAtLocal: String? = null
+        var type: String? = null
+        var title = ""
+        var cameraMake: String? = null
+        var favorite = false
+        var private = false
+        var lat = 0.0
+        var lng = 0.0
+        var createdAt: String? = null
+        var updatedAt: String? = null
+        var hasExcludedPerson = false
+        var hasIncompleteFiles = false
+        var fileCount = 0
+        var files: MutableList<GalleryMedia.File> = mutableListOf()
+
+        /**
+         * Reads the merged photo object the [parser] is at the start of.
+         */
+        fun read(parser: JsonParser) {
+            uid = null
+            hash = null
+            width = 0
+            height = 0
+            takenAtLocal = null
+            type = null
+            title = ""
+            cameraMake = null
+            favorite = false
+            private = false
+            lat = 0.0
+            lng = 0.0
+            createdAt = null
+            updatedAt = null
+            hasExcludedPerson = false
+            hasIncompleteFiles = false
+            fileCount = 0
+            // The list is passed to the item, so it can't be reused.
+            files = mutableListOf()
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val fieldName = parser.currentName()
+                parser.nextToken()
+
+                when (fieldName) {
+                    "UID" -> uid = parser.stringOrNull()
+                    "Hash" -> hash = parser.stringOrNull()
+                    "Width" -> width = parser.numberOrNull()?.toInt() ?: 0
+                    "Height" -> height = parser.numberOrNull()?.toInt() ?: 0
+                    "TakenAtLocal" -> takenAtLocal = parser.stringOrNull()
+                    "Type" -> type = parser.stringOrNull()?.let(::share)
+                    "Title" -> title = parser.stringOrNull() ?: ""
+                    "CameraMake" -> cameraMake = parser.stringOrNull()?.let(::share)
+                    "Favorite" -> favorite = parser.booleanOrNull() ?: false
+                    "Private" -> private = parser.booleanOrNull() ?: false
+                    "Lat" -> lat = parser.numberOrNull()?.toDouble() ?: 0.0
+                    "Lng" -> lng = parser.numberOrNull()?.toDouble() ?: 0.0
+                    "CreatedAt" -> createdAt = parser.stringOrNull()
+                    "UpdatedAt" -> updatedAt = parser.stringOrNull()
+                    "Files" -> readFiles(parser)
+                    else -> parser.skipChildren()
+                }
+            }
+        }
+
+        fun toGalleryMedia(): GalleryMedia {
+            val uid = checkNotNull(uid) { "Missing UID" }
+            // There is no way to tell which files the item is missing.
+            check(!hasIncompleteFiles) { "Incomplete files" }
+            val takenAtLocal = checkNotNull(takenAtLocal) { "Missing TakenAtLocal" }
+
+            return GalleryMedia(
+                media = GalleryMedia.TypeData.fromPhotoPrism(
+                    type = checkNotNull(type) { "Missing Type" },
+                    cameraMake = cameraMake,
+                    files = files,
+                ),
+                uid = uid,
+                width = width,
+                height = height,
+                takenAtLocal = LocalDate(localTimeMillis = parsePhotoPrismDateMillis(takenAtLocal)),
+                title = title,
+                isFavorite = favorite,
+                isPrivate = private,
+                latLng = GalleryMedia.latLngFromPhotoPrism(
+                    lat = lat,
+                    lng = lng,
+                ),
+                hash = checkNotNull(hash) { "Missing Hash" },
+                files = files,
+            )
+        }
+
+        private fun readFiles(parser: JsonParser) {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren()
+                return
+            }
+
+            val file = FileReader()
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                file.read(parser)
+                fileCount++
+                val galleryMediaFile = file.toGalleryMediaFile()
+                if (galleryMediaFile != null) {
+                    files += galleryMediaFile
+                } else {
+                    hasIncompleteFiles = true
+                }
+            }
+        }
+
+        /**
+         * Reusable holder of the file being read.
+         */
+        private inner class FileReader {
+            var hash: String? = null
+            var uid: String? = null
+            var photoUid: String? = null
+            var name: String? = null
+            var mime: String? = null
+            var fileType: String? = null
+            var mediaType: String? = null
+            var size: Long? = null
+            var duration: Long? = null
+            var frames: Long? = null
+            var primary: Boolean? = null
+            var root: String? = null
+            var video: Boolean? = null
+            var codec: String? = null
+            var sidecar: Boolean? = null
+
+            fun read(parser: JsonParser) {
+                hash = null
+                uid = null
+                photoUid = null
+                name = null
+                mime = null
+                fileType = null
+                mediaType = null
+                size = null
+                duration = null
+                frames = null
+                primary = null
+                root = null
+                video = null
+                codec = null
+                sidecar = null
+
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    val fieldName = parser.currentName()
+                    parser.nextToken()
+
+                    when (fieldName) {
+                        "Hash" -> hash = parser.stringOrNull()
+                        "UID" -> uid = parser.stringOrNull()
+                        "PhotoUID" -> photoUid = parser.stringOrNull()?.let { photoUid ->
+                            // Share the instance with the photo.
+                            if (photoUid == this@PhotoReader.uid)
+                                this@PhotoReader.uid
+                            else
+                                photoUid
+                        }
+
+                        "Name" -> name = parser.stringOrNull()
+                        "Mime" -> mime = parser.stringOrNull()?.let(::share)
+                        "FileType" -> fileType = parser.stringOrNull()?.let(::share)
+                        "MediaType" -> mediaType = parser.stringOrNull()?.let(::share)
+                        "Size" -> size = parser.numberOrNull()?.toLong()
+                        "Duration" -> duration = parser.numberOrNull()?.toLong()
+                        "Frames" -> frames = parser.numberOrNull()?.toLong()
+                        "Primary" -> primary = parser.booleanOrNull()
+                        "Root" -> root = parser.stringOrNull()?.let(::share)
+                        "Video" -> video = parser.booleanOrNull()
+                        "Codec" -> codec = parser.stringOrNull()?.let(::share)
+                        "Sidecar" -> sidecar = parser.booleanOrNull()
+                        "Markers" -> readMarkers(parser)
+                        else -> parser.skipChildren()
+                    }
+                }
+            }
+
+            /**
+             * @return the file, or null if it is missing required fields
+             */
+            fun toGalleryMediaFile(): GalleryMedia.File? =
+                GalleryMedia.File(
+                    name = name ?: return null,
+                    uid = uid ?: return null,
+                    mediaUid = photoUid ?: return null,
+                    mimeType = mime ?: "application/octet-stream",
+                    mediaType = GalleryMedia.TypeName.fromPhotoPrism(mediaType),
+                    isPrimary = primary,
+                    isSidecar = sidecar,
+                    isVideo = video,
+                    type = fileType,
+                    codec = codec,
+                    duration = duration,
+                    frames = frames,
+                    root = root,
+                    hash = hash ?: return null,
+                    size = size,
+                )
+
+            private fun readMarkers(parser: JsonParser) {
+                if (excludePersonIds.isEmpty() || parser.currentToken() != JsonToken.START_ARRAY) {
+                    parser.skipChildren()
+                    return
+                }
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        val fieldName = parser.currentName()
+                        val valueToken = parser.nextToken()
+
+                        if ((fieldName == "FaceID" || fieldName == "SubjUID")
+                            && valueToken == JsonToken.VALUE_STRING
+                            && parser.text in excludePersonIds
+                        ) {
+                            hasExcludedPerson = true
+                        } else {
+                            parser.skipChildren()
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current string value, or null if the value is of a different type,
+     * in which case it is skipped
+     */
+    private fun JsonParser.stringOrNull(): String? =
+        if (currentToken() == JsonToken.VALUE_STRING)
+            text
+        else
+            null.also { skipChildren() }
+
+    private fun JsonParser.numberOrNull(): Number? =
+        if (currentToken()?.isNumeric == true)
+            numberValue
+        else
+            null.also { skipChildren() }
+
+    private fun JsonParser.booleanOrNull(): Boolean? =
+        if (currentToken()?.isBoolean == true)
+            booleanValue
+        else
+            null.also { skipChildren() }
+
+    private fun JsonParser.expect(token: JsonToken) {
+        val actualToken = nextToken()
+        if (actualToken != token) {
+            throw IOException("Expected $token but got $actualToken")
+        }
+    }
+
+    private companion object {
+        // Enough for the MIME types, codecs and the like, but not for the names.
+        private const val MAX_SHARED_VALUE_LENGTH = 48
+        private const val MAX_SHARED_VALUE_COUNT = 512
+    }
+}
@@ -0,0 +1,237 @@
+package ua.com.radiokot.photoprism.features.gallery.logic
+
+import android.content.SharedPreferences
+import androidx.core.content.edit
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
+import kotlin.math.ceil
+import kotlin.math.roundToInt
+
+/**
+ * Decides sizes of the gallery pages instead of the fixed limit.
+ *
+ * The first page is sized to fill the viewport reported by the gallery list,
+ * so the screen is filled with a single request. Next pages are sized
+ * for a request to take about [targetRequestDurationMs],
+ * according to the latency and the throughput in bytes measured from the loaded pages.
+ *
+ * Only the paging requests must be recorded, as the throughput
+ * of other requests tells nothing about the page size.
+ */
+class GalleryPageSizeController(
+    private val preferences: SharedPreferences,
+    keyPrefix: String,
+    private val targetRequestDurationMs: Long = DEFAULT_TARGET_REQUEST_DURATION_MS,
+) {
+    private val log = kLogger("GalleryPageSizeController")
+
+    private val viewportItemCountKey = "${keyPrefix}_viewport_item_count"
+
+    /**
+     * Max number of media items fitting the gallery list screen.
+     * Persisted, as the first page is usually requested before the list is laid out.
+     */
+    var viewportItemCount: Int = preferences.getInt(viewportItemCountKey, 0)
+        private set
+
+    private val samples = ArrayDeque<RequestSample>()
+    private var filesPerItem = DEFAULT_FILES_PER_ITEM
+    private var bytesPerItem: Double? = null
+
+    fun onViewportMeasured(
+        spanCount: Int,
+        visibleRowCount: Int,
+    ) = synchronized(this) {
+        val newViewportItemCount = (spanCount * visibleRowCount).coerceAtLeast(1)
+        if (newViewportItemCount == viewportItemCount) {
+            return@synchronized
+        }
+
+        viewportItemCount = newViewportItemCount
+        preferences.edit {
+            putInt(viewportItemCountKey, newViewportItemCount)
+        }
+
+        log.debug {
+            "onViewportMeasured(): viewport_changed:" +
+                    "\nviewportItemCount=$newViewportItemCount"
+        }
+    }
+
+    /**
+     * Records the measurement of a raw page request.
+     * Must only be called for the paging requests.
+     *
+     * @param requestedFilesCount the count the page was requested with
+     * @param filesCount number of files in the response, which PhotoPrism counts
+     * @param itemsCount number of merged photos in the response
+     * @param bytesCount size of the response body
+     */
+    fun onRawPageLoaded(
+        requestedFilesCount: Int,
+        filesCount: Int,
+        itemsCount: Int,
+        bytesCount: Long,
+        durationMs: Long,
+    ) = synchronized(this) {
+        samples.addLast(
+            RequestSample(
+                bytesCount = bytesCount,
+                durationMs = durationMs.coerceAtLeast(1),
+            )
+        )
+        if (samples.size > MAX_SAMPLES) {
+            samples.removeFirst()
+        }
+
+        // Only full pages tell how many files are there per item.
+        if (itemsCount > 0 && filesCount >= requestedFilesCount) {
+            filesPerItem +=
+                (filesCount.toDouble() / itemsCount - filesPerItem) * PER_ITEM_SMOOTHING
+        }
+
+        if (itemsCount > 0) {
+            val pageBytesPerItem = bytesCount.toDouble() / itemsCount
+            bytesPerItem = bytesPerItem
+                ?.let { it + (pageBytesPerItem - it) * PER_ITEM_SMOOTHING }
+                ?: pageBytesPerItem
+        }
+
+        log.debug {
+            "onRawPageLoaded(): measured:" +
+                    "\nrequestedFilesCount=$requestedFilesCount," +
+                    "\nfilesCount=$filesCount," +
+                    "\nitemsCount=$itemsCount," +
+                    "\nbytesCount=$bytesCount," +
+                    "\ndurationMs=$durationMs," +
+                    "\nfilesPerItem=$filesPerItem," +
+                    "\nbytesPerItem=$bytesPerItem"
+        }
+    }
+
+    fun getPageSize(isFirstPage: Boolean): PageSize = synchronized(this) {
+        val viewportItemCount = viewportItemCount
+        val bytesPerItem = bytesPerItem
+        val estimate = estimateLatencyAndThroughput()
+
+        val limit: Int
+        val reason: String
+
+        if (isFirstPage && viewportItemCount > 0) {
+            limit = viewportItemCount * FIRST_PAGE_VIEWPORTS
+            reason = "fill_viewport"
+        } else if (estimate != null && bytesPerItem != null) {
+            val (latencyMs, bytesPerMs) = estimate
+            val transferBudgetMs =
+                (targetRequestDurationMs - latencyMs)
+                    .coerceAtLeast(targetRequestDurationMs * MIN_TRANSFER_SHARE)
+            limit = (transferBudgetMs * bytesPerMs / bytesPerItem).roundToInt()
+            reason = "target_duration"
+        } else {
+            limit = SimpleGalleryMediaRepository.Params.DEFAULT_PAGE_LIMIT
+            reason = "default"
+        }
+
+        val pageSize = PageSize(
+            limit = limit.coerceIn(
+                // Never smaller than a screen to avoid excessive requests.
+                maxOf(MIN_PAGE_LIMIT, viewportItemCount),
+                MAX_PAGE_LIMIT,
+            ),
+            filesPerItem = filesPerItem,
+        )
+
+        log.debug {
+            "getPageSize(): decided:" +
+                    "\nisFirstPage=$isFirstPage," +
+                    "\nreason=$reason," +
+                    "\npageSize=$pageSize," +
+                    "\nviewportItemCount=$viewportItemCount," +
+                    "\nlatencyMs=${estimate?.first}," +
+                    "\nbytesPerSecond=${estimate?.second?.times(1000)}," +
+                    "\nbytesPerItem=$bytesPerItem"
+        }
+
+        return@synchronized pageSize
+    }
+
+    /**
+     * Fits `duration = latency + bytes / throughput` to the recent samples
+     * with the least squares.
+     *
+     * @return latency in ms and throughput in bytes per ms,
+     * or null if nothing is measured yet.
+     */
+    private fun estimateLatencyAndThroughput(): Pair<Double, Double>? {
+        if (samples.isEmpty()) {
+            return null
+        }
+
+        val meanBytes = samples.sumOf(RequestSample::bytesCount).toDouble() / samples.size
+        val meanDuration = samples.sumOf(RequestSample::durationMs).toDouble() / samples.size
+        var covariance = 0.0
+        var variance = 0.0
+        samples.forEach { sample ->
+            val bytesDeviation = sample.bytesCount - meanBytes
+            covariance += bytesDeviation * (sample.durationMs - meanDuration)
+            variance += bytesDeviation * bytesDeviation
+        }
+
+        val msPerByte = if (variance > 0) covariance / variance else 0.0
+        val latencyMs = meanDuration - msPerByte * meanBytes
+
+        return if (msPerByte > 0 && latencyMs >= 0)
+            latencyMs to 1 / msPerByte
+        else
+            // The samples do not allow telling the latency apart,
+            // so consider the whole duration to be the transfer.
+            0.0 to (meanBytes / meanDuration).coerceAtLeast(MIN_BYTES_PER_MS)
+    }
+
+    class PageSize(
+        /**
+         * Min number of items in the page.
+         */
+        val limit: Int,
+        filesPerItem: Double,
+    ) {
+        /**
+         * Number of files to request the page with,
+         * which is greater than the [limit] as there are items with multiple files.
+         * Requesting a bit more than expected helps avoiding the second request.
+         */
+        val lookaheadLimit: Int =
+            ceil(limit * filesPerItem * LOOKAHEAD_MARGIN)
+                .toInt()
+                .coerceAtLeast(limit)
+
+        override fun toString(): String {
+            return "PageSize(limit=$limit, lookaheadLimit=$lookaheadLimit)"
+        }
+    }
+
+    private class RequestSample(
+        val bytesCount: Long,
+        val durationMs: Long,
+    )
+
+    private companion object {
+        // Long enough to not flood the library with requests,
+        // short enough to keep the list responsive.
+        private const val DEFAULT_TARGET_REQUEST_DURATION_MS = 1500L
+
+        // The first page covers the screen and a bit of scrolling.
+        private const val FIRST_PAGE_VIEWPORTS = 2
+        private const val MIN_PAGE_LIMIT = 40
+        private const val MAX_PAGE_LIMIT = 500
+
+        // Matches the former fixed lookahead of limit * 2 until measured.
+        private const val DEFAULT_FILES_PER_ITEM = 1.8
+        private const val PER_ITEM_SMOOTHING = 0.3
+        private const val LOOKAHEAD_MARGIN = 1.1
+        private const val MIN_TRANSFER_SHARE = 0.25
+        private const val MIN_BYTES_PER_MS = 1.0
+
+        private const val MAX_SAMPLES = 8
+    }
+}
@@ -28,6 +28,7 @@ import com.mikepenz.fastadapter.diff.FastAdapterDiffUtil
 import com.mikepenz.fastadapter.listeners.addClickListener
 import com.mikepenz.fastadapter.listeners.addLongClickListener
 import com.mikepenz.fastadapter.scroll.EndlessRecyclerOnScrollListener
+import com.squareup.picasso.Picasso
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.kotlin.subscribeBy
@@ -54,6 +55,7 @@ import ua.com.radiokot.photoprism.features.gallery.data.model.SearchConfig
 import ua.com.radiokot.photoprism.features.gallery.data.model.SendableFile
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
 import ua.com.radiokot.photoprism.features.gallery.logic.FileReturnIntentCreator
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryPageSizeController
 import ua.com.radiokot.photoprism.features.gallery.search.view.GallerySearchBarView
 import ua.com.radiokot.photoprism.features.gallery.search.view.GallerySearchView
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryContentLoadingError
@@ -86,6 +88,8 @@ class GalleryActivity : BaseActivity() {
     private var isBackButtonJustPressed = false
     private var isMovedBackByBackButton = false
     private val fileReturnIntentCreator: FileReturnIntentCreator by inject()
+    private val pageSizeController: GalleryPageSizeController by inject()
+    private val picasso: Picasso by inject()
     private val welcomeScreenPreferences: WelcomeScreenPreferences by inject()
 
     private val galleryItemsAdapter = ItemAdapter<GalleryListItem>()
@@ -619,6 +623,11 @@ class GalleryActivity : BaseActivity() {
             val maxVisibleRowCount = (listHeight / cellSize).roundToInt()
             val maxRecycledMediaViewCount = maxVisibleRowCount * spanCount * 2
 
+            pageSizeController.onViewportMeasured(
+                spanCount = spanCount,
+                visibleRowCount = maxVisibleRowCount,
+            )
+
             log.debug {
                 "initList(): calculated_grid:" +
                         "\nspanCount=$spanCount," +
@@ -678,6 +687,15 @@ class GalleryActivity : BaseActivity() {
             }
             addOnScrollListener(endlessScrollListener)
 
+            GalleryThumbnailPrefetcher(
+                picasso = picasso,
+            ).init(
+                recyclerView = this,
+                thumbnailUrlAt = { position ->
+                    (galleryAdapter.getItem(position) as? GalleryListItem.Media)?.thumbnailUrl
+                },
+            )
+
             // Set the RV pool size and initialize it in background.
             recycledViewPool.setMaxRecycledViews(
                 R.id.list_item_gallery_media,
@@ -727,6 +745,7 @@ class GalleryActivity : BaseActivity() {
                 items = newItems,
                 callback = diffCallback,
                 detectMoves = false,
+                appendedFromIndex = newItems.appendedFromIndex,
             )
         }
     }
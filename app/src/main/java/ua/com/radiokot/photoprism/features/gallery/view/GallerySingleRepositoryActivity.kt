@@ -25,6 +25,7 @@ import com.mikepenz.fastadapter.diff.FastAdapterDiffUtil
 import com.mikepenz.fastadapter.listeners.addClickListener
 import com.mikepenz.fastadapter.listeners.addLongClickListener
 import com.mikepenz.fastadapter.scroll.EndlessRecyclerOnScrollListener
+import com.squareup.picasso.Picasso
 import io.reactivex.rxjava3.kotlin.subscribeBy
 import org.koin.android.ext.android.inject
 import org.koin.androidx.viewmodel.ext.android.viewModel
@@ -45,6 +46,7 @@ import ua.com.radiokot.photoprism.features.albums.view.DestinationAlbumSelection
 import ua.com.radiokot.photoprism.features.gallery.data.model.SendableFile
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
 import ua.com.radiokot.photoprism.features.gallery.logic.FileReturnIntentCreator
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryPageSizeController
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryContentLoadingErrorResources
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryListItem
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryListViewModel
@@ -83,6 +85,8 @@ class GallerySingleRepositoryActivity : BaseActivity() {
         this::onAddingDestinationAlbumSelectionResult,
     )
     private val fileReturnIntentCreator: FileReturnIntentCreator by inject()
+    private val pageSizeController: GalleryPageSizeController by inject()
+    private val picasso: Picasso by inject()
     private val downloadProgressView: DownloadProgressView by lazy {
         DownloadProgressView(
             viewModel = viewModel,
@@ -412,6 +416,11 @@ class GallerySingleRepositoryActivity : BaseActivity() {
             val maxVisibleRowCount = (listHeight / cellSize).roundToInt()
             val maxRecycledMediaViewCount = maxVisibleRowCount * spanCount * 2
 
+            pageSizeController.onViewportMeasured(
+                spanCount = spanCount,
+                visibleRowCount = maxVisibleRowCount,
+            )
+
             log.debug {
                 "initList(): calculated_grid:" +
                         "\nspanCount=$spanCount," +
@@ -473,6 +482,15 @@ class GallerySingleRepositoryActivity : BaseActivity() {
             }
             addOnScrollListener(endlessScrollListener)
 
+            GalleryThumbnailPrefetcher(
+                picasso = picasso,
+            ).init(
+                recyclerView = this,
+                thumbnailUrlAt = { position ->
+                    (galleryAdapter.getItem(position) as? GalleryListItem.Media)?.thumbnailUrl
+                },
+            )
+
             // Set the RV pool size and initialize it in background.
             recycledViewPool.setMaxRecycledViews(
                 R.id.list_item_gallery_media,
@@ -521,6 +539,7 @@ class GallerySingleRepositoryActivity : BaseActivity() {
                     items = newItems,
                     callback = diffCallback,
                     detectMoves = false,
+                    appendedFromIndex = newItems.appendedFromIndex,
                 )
             }
     }
@@ -0,0 +1,224 @@
+package ua.com.radiokot.photoprism.features.gallery.view
+
+import android.os.SystemClock
+import android.view.View
+import androidx.collection.LruCache
+import androidx.recyclerview.widget.GridLayoutManager
+import androidx.recyclerview.widget.RecyclerView
+import com.squareup.picasso.Callback
+import com.squareup.picasso.Picasso
+import ua.com.radiokot.photoprism.extension.hardwareConfigIfAvailable
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryListItem
+import kotlin.math.abs
+import kotlin.math.ceil
+import kotlin.math.sign
+
+/**
+ * Loads thumbnails of the gallery items which are about to appear
+ * while scrolling, so they are taken from the memory cache when bound
+ * instead of showing placeholders.
+ *
+ * The number of rows to prefetch grows with the scroll velocity.
+ * The requests are made with the same URL, size and crop as the ones
+ * of [GalleryListItem.Media.ViewHolder], so the cache keys match.
+ */
+class GalleryThumbnailPrefetcher(
+    private val picasso: Picasso,
+    private val maxConcurrentFetches: Int = DEFAULT_MAX_CONCURRENT_FETCHES,
+) {
+    private val log = kLogger("GalleryThumbnailPrefetcher")
+
+    private lateinit var recyclerView: RecyclerView
+    private lateinit var thumbnailUrlAt: (position: Int) -> String?
+
+    // Unique tag allowing cancelling all the fetches of this prefetcher.
+    private val fetchTag = Any()
+    private val pendingUrls = ArrayDeque<String>()
+    private val fetchingUrls = mutableSetOf<String>()
+    private val fetchedUrls = LruCache<String, Boolean>(MAX_REMEMBERED_FETCHED_URLS)
+    private var thumbnailWidth = 0
+    private var thumbnailHeight = 0
+
+    private var scrollDirection = 0
+    private var lastScrollTimeMs = 0L
+
+    // Smoothed scroll velocity, in px per ms.
+    private var scrollVelocity = 0f
+
+    private val onScrollListener = object : RecyclerView.OnScrollListener() {
+        override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+            if (dy != 0) {
+                onScrolled(dy)
+            }
+        }
+    }
+
+    /**
+     * @param recyclerView the gallery list with the [GridLayoutManager] set
+     * @param thumbnailUrlAt provider of the thumbnail URL of the item at the given adapter position,
+     * or null if the item has no thumbnail
+     */
+    fun init(
+        recyclerView: RecyclerView,
+        thumbnailUrlAt: (position: Int) -> String?,
+    ) {
+        this.recyclerView = recyclerView
+        this.thumbnailUrlAt = thumbnailUrlAt
+
+        recyclerView.addOnScrollListener(onScrollListener)
+        recyclerView.addOnAttachStateChangeListener(object : View.OnAttachStateChangeListener {
+            override fun onViewAttachedToWindow(v: View) {
+            }
+
+            override fun onViewDetachedFromWindow(v: View) {
+                cancelFetches()
+            }
+        })
+    }
+
+    private fun onScrolled(dy: Int) {
+        val direction = dy.sign
+        val nowMs = SystemClock.uptimeMillis()
+
+        if (direction != scrollDirection) {
+            // The fetches ahead of the previous direction are no longer relevant.
+            if (fetchingUrls.isNotEmpty() || pendingUrls.isNotEmpty()) {
+                log.debug {
+                    "onScrolled(): cancelling_on_direction_change:" +
+                            "\nfetchingCount=${fetchingUrls.size}," +
+                            "\npendingCount=${pendingUrls.size}"
+                }
+            }
+
+            cancelFetches()
+            scrollDirection = direction
+            scrollVelocity = 0f
+        } else {
+            val elapsedMs = (nowMs - lastScrollTimeMs).coerceAtLeast(1)
+            val velocity = abs(dy).toFloat() / elapsedMs
+            scrollVelocity += (velocity - scrollVelocity) * VELOCITY_SMOOTHING
+        }
+        lastScrollTimeMs = nowMs
+
+        if (!measureThumbnailSize()) {
+            return
+        }
+
+        enqueueAhead()
+        fetchPending()
+    }
+
+    /**
+     * Replaces the pending URLs with the ones of the rows ahead,
+     * the nearest first.
+     */
+    private fun enqueueAhead() {
+        val layoutManager = recyclerView.layoutManager as? GridLayoutManager
+            ?: return
+        val itemCount = layoutManager.itemCount
+        val spanCount = layoutManager.spanCount
+
+        val rowsAhead = (ceil(scrollVelocity * LOOKAHEAD_TIME_MS / thumbnailHeight).toInt() + 1)
+            .coerceIn(MIN_ROWS_AHEAD, MAX_ROWS_AHEAD)
+        val edgePosition =
+            if (scrollDirection > 0)
+                layoutManager.findLastVisibleItemPosition()
+            else
+                layoutManager.findFirstVisibleItemPosition()
+        if (edgePosition == RecyclerView.NO_POSITION) {
+            return
+        }
+
+        pendingUrls.clear()
+        for (i in 1..rowsAhead * spanCount) {
+            val position = edgePosition + i * scrollDirection
+            if (position !in 0 until itemCount) {
+                break
+            }
+
+            val url = thumbnailUrlAt(position)
+                ?: continue
+            if (url !in fetchingUrls && fetchedUrls[url] == null) {
+                pendingUrls.addLast(url)
+            }
+        }
+    }
+
+    private fun fetchPending() {
+        while (fetchingUrls.size < maxConcurrentFetches && pendingUrls.isNotEmpty()) {
+            val url = pendingUrls.removeFirst()
+            fetchingUrls.add(url)
+
+            picasso
+                .load(url)
+                .hardwareConfigIfAvailable()
+                // Same as .fit().centerCrop() of the bound view.
+                .resize(thumbnailWidth, thumbnailHeight)
+                .centerCrop()
+                .priority(Picasso.Priority.LOW)
+                .tag(fetchTag)
+                .fetch(object : Callback {
+                    override fun onSuccess() {
+                        fetchedUrls.put(url, true)
+                        onFetchEnded(url)
+                    }
+
+                    override fun onError(e: Exception) {
+                        onFetchEnded(url)
+                    }
+                })
+        }
+    }
+
+    private fun onFetchEnded(url: String) {
+        if (fetchingUrls.remove(url)) {
+            fetchPending()
+        }
+    }
+
+    private fun cancelFetches() {
+        // Cancelled fetches do not invoke the callback.
+        picasso.cancelTag(fetchTag)
+        fetchingUrls.clear()
+        pendingUrls.clear()
+    }
+
+    /**
+     * Takes the thumbnail size from a bound media item,
+     * as the items only get their size once laid out.
+     *
+     * @return true if the size is known
+     */
+    private fun measureThumbnailSize(): Boolean {
+        for (i in 0 until recyclerView.childCount) {
+            val viewHolder = recyclerView.getChildViewHolder(recyclerView.getChildAt(i))
+                    as? GalleryListItem.Media.ViewHolder
+                ?: continue
+            val imageView = viewHolder.view.imageView
+            if (imageView.width > 0 && imageView.height > 0) {
+                if (imageView.width != thumbnailWidth || imageView.height != thumbnailHeight) {
+                    thumbnailWidth = imageView.width
+                    thumbnailHeight = imageView.height
+                    // Fetched thumbnails of the other size are of no use.
+                    fetchedUrls.evictAll()
+                }
+                return true
+            }
+        }
+
+        return thumbnailWidth > 0 && thumbnailHeight > 0
+    }
+
+    private companion object {
+        // Leaves Picasso threads for the visible items.
+        private const val DEFAULT_MAX_CONCURRENT_FETCHES = 2
+
+        // How far ahead in time the rows are prefetched at the current velocity.
+        private const val LOOKAHEAD_TIME_MS = 500
+        private const val MIN_ROWS_AHEAD = 1
+        private const val MAX_ROWS_AHEAD = 6
+        private const val VELOCITY_SMOOTHING = 0.3f
+        private const val MAX_REMEMBERED_FETCHED_URLS = 500
+    }
+}
@@ -0,0 +1,18 @@
+package ua.com.radiokot.photoprism.features.gallery.view.model
+
+/**
+ * Gallery list items along with the information on how they changed
+ * since the previously posted list, allowing to skip diffing.
+ */
+class GalleryListItems(
+    items: List<GalleryListItem>,
+    /**
+     * If set, the items before this index are the same instances
+     * as in the previously posted list, and the rest are appended.
+     */
+    val appendedFromIndex: Int?,
+) : List<GalleryListItem> by items {
+
+    override fun toString(): String =
+        "GalleryListItems(size=$size, appendedFromIndex=$appendedFromIndex)"
+}
@@ -9,7 +9,7 @@ interface GalleryListViewModel {
 
     val itemListState: BehaviorSubject<State>
     val itemListEvents: PublishSubject<Event>
-    val itemList: BehaviorSubject<List<GalleryListItem>>
+    val itemList: BehaviorSubject<GalleryListItems>
     val itemScale: BehaviorSubject<GalleryItemScale>
     val selectedItemsCount: BehaviorSubject<Int>
     val selectedMediaByUid: LinkedHashMap<String, GalleryMedia>
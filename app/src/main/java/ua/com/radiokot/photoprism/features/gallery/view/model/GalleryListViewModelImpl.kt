@@ -4,6 +4,7 @@ import androidx.lifecycle.ViewModel
 import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.PublishSubject
+import ua.com.radiokot.photoprism.base.data.model.PagedItemsChange
 import ua.com.radiokot.photoprism.extension.autoDispose
 import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.observeOnMain
@@ -14,6 +15,7 @@ import ua.com.radiokot.photoprism.features.gallery.logic.MediaPreviewUrlFactory
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryListViewModel.Event
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryListViewModel.State
 import ua.com.radiokot.photoprism.util.LocalDate
+import ua.com.radiokot.photoprism.util.SnapshotArrayList
 import java.util.concurrent.TimeUnit
 
 class GalleryListViewModelImpl(
@@ -28,7 +30,7 @@ class GalleryListViewModelImpl(
         BehaviorSubject.create()
     override val itemListEvents: PublishSubject<Event> =
         PublishSubject.create()
-    override val itemList: BehaviorSubject<List<GalleryListItem>> =
+    override val itemList: BehaviorSubject<GalleryListItems> =
         BehaviorSubject.create()
     override val itemScale: BehaviorSubject<GalleryItemScale> =
         galleryPreferences.itemScale
@@ -53,6 +55,13 @@ class GalleryListViewModelImpl(
     private var canSwitchFromSelectingToViewing = true
     var addDateHeaders = true
 
+    // Incremented on each selection change, as it affects the list items.
+    @Volatile
+    private var selectionRevision = 0
+
+    // The last built list, to only build what has changed on the next posting.
+    private var lastBuiltList: BuiltList? = null
+
     fun initSelectingSingle(
         onSingleMediaSelected: (GalleryMedia) -> Unit,
         shouldPostItemsNow: (SimpleGalleryMediaRepository) -> Boolean,
@@ -146,81 +155,178 @@ class GalleryListViewModelImpl(
         itemPostingSubject.onNext(repository)
     }
 
-    override fun postGalleryItems(repository: SimpleGalleryMediaRepository) {
+    override fun postGalleryItems(repository: SimpleGalleryMediaRepository) = synchronized(this) {
         currentMediaRepository = repository
 
-        val galleryMediaList = repository.itemsList
-        val itemScale = itemScale.value!!
+        val (galleryMediaList, itemsRevision) = repository.getItemsWithRevision()
 
         val currentState = this.currentState
-        val areViewButtonsVisible =
-            currentState is State.Selecting
-        val areSelectionViewsVisible =
-            currentState is State.Selecting && currentState.allowMultiple
-        val onlyGroupByMonths = itemScale == GalleryItemScale.TINY
-
-        val newItemList = buildList(galleryMediaList.size) {
-            galleryMediaList.forEachIndexed { i, galleryMedia ->
-                val takenAtLocal = galleryMedia.takenAtLocal
-
-                if (addDateHeaders) {
-                    // Month header.
-                    //
-                    // For the first item – show if only grouping by months, or if its month
-                    // doesn't match the current (e.g. it is November, but the first photo is from October).
-                    //
-                    // For other items – show on month change, that is when the item's month
-                    // doesn't match the previous one's.
-                    if (i == 0 && (onlyGroupByMonths || !takenAtLocal.isSameMonthAs(currentLocalDate))
-                        || i != 0 && !takenAtLocal.isSameMonthAs(galleryMediaList[i - 1].takenAtLocal)
-                    ) {
-                        add(
-                            GalleryListItem.Header.month(
-                                localDate = takenAtLocal,
-                                withYear = !takenAtLocal.isSameYearAs(currentLocalDate),
-                            )
-                        )
+        val buildParams = BuildParams(
+            itemScale = itemScale.value!!,
+            areViewButtonsVisible =
+                currentState is State.Selecting,
+            areSelectionViewsVisible =
+                currentState is State.Selecting && currentState.allowMultiple,
+            addDateHeaders = addDateHeaders,
+            selectionRevision = selectionRevision,
+        )
+
+        // If only the repository items changed since the last build,
+        // reuse the built list items instead of building all of them again.
+        val lastBuiltList = this.lastBuiltList
+        val itemsChanges = lastBuiltList
+            ?.takeIf {
+                it.repository === repository
+                        && it.buildParams == buildParams
+                        && it.mediaCount <= galleryMediaList.size
+            }
+            ?.let { repository.getItemsChangesSince(it.itemsRevision) }
+            ?.takeIf { changes -> changes.none { it is PagedItemsChange.Reset } }
+
+        val builtList: BuiltList
+        val appendedFromIndex: Int?
+
+        if (lastBuiltList == null || itemsChanges == null) {
+            builtList = BuiltList(
+                repository = repository,
+                itemsRevision = itemsRevision,
+                buildParams = buildParams,
+                listItems = SnapshotArrayList(),
+                mediaListItemIndices = IntArray(galleryMediaList.size),
+                mediaCount = 0,
+            )
+            appendedFromIndex = null
+        } else {
+            // The last built list is continued in place rather than copied,
+            // as the posted items are its snapshot which appending doesn't affect.
+            builtList = lastBuiltList
+            builtList.itemsRevision = itemsRevision
+            builtList.ensureMediaCapacity(galleryMediaList.size)
+            val lastListItemCount = builtList.listItems.size
+
+            var areItemsUpdated = false
+            itemsChanges.forEach { change ->
+                val updatedIndices = when (change) {
+                    is PagedItemsChange.Updated ->
+                        change.indices
+
+                    is PagedItemsChange.Appended ->
+                        change.updatedIndices
+
+                    PagedItemsChange.Reset ->
+                        emptyList()
+                }
+
+                updatedIndices.forEach { mediaIndex ->
+                    if (mediaIndex < builtList.mediaCount) {
+                        builtList.listItems[builtList.mediaListItemIndices[mediaIndex]] =
+                            createMediaListItem(galleryMediaList[mediaIndex], buildParams)
+                        areItemsUpdated = true
                     }
+                }
+            }
+
+            appendedFromIndex =
+                if (!areItemsUpdated)
+                    lastListItemCount
+                else
+                    null
+        }
+
+        val firstNewMediaIndex = builtList.mediaCount
+        addListItems(
+            galleryMediaList = galleryMediaList,
+            fromIndex = firstNewMediaIndex,
+            builtList = builtList,
+        )
+
+        log.debug {
+            "postGalleryItems(): built:" +
+                    "\nbuiltMediaCount=${galleryMediaList.size - firstNewMediaIndex}," +
+                    "\ntotalMediaCount=${galleryMediaList.size}," +
+                    "\nappendedFromIndex=$appendedFromIndex"
+        }
 
-                    // Day header.
-                    //
-                    // Do not show if only grouping by months.
-                    //
-                    // For the first item – always show.
-                    //
-                    // For other items – show on day change, that is when the item's day
-                    // doesn't match the previous one's.
-                    if (!onlyGroupByMonths
-                        && (i == 0 || !takenAtLocal.isSameDayAs(galleryMediaList[i - 1].takenAtLocal))
-                    ) {
-                        add(
-                            if (takenAtLocal.isSameDayAs(currentLocalDate))
-                                GalleryListItem.Header.today()
-                            else
-                                GalleryListItem.Header.day(
-                                    localDate = takenAtLocal,
-                                    withYear = !takenAtLocal.isSameYearAs(currentLocalDate),
-                                )
+        this.lastBuiltList = builtList
+        itemList.onNext(
+            GalleryListItems(
+                items = builtList.listItems.snapshot(),
+                appendedFromIndex = appendedFromIndex,
+            )
+        )
+    }
+
+    private fun addListItems(
+        galleryMediaList: List<GalleryMedia>,
+        fromIndex: Int,
+        builtList: BuiltList,
+    ) = with(builtList) {
+        val onlyGroupByMonths = buildParams.itemScale == GalleryItemScale.TINY
+
+        for (i in fromIndex until galleryMediaList.size) {
+            val galleryMedia = galleryMediaList[i]
+            val takenAtLocal = galleryMedia.takenAtLocal
+
+            if (buildParams.addDateHeaders) {
+                // Month header.
+                //
+                // For the first item – show if only grouping by months, or if its month
+                // doesn't match the current (e.g. it is November, but the first photo is from October).
+                //
+                // For other items – show on month change, that is when the item's month
+                // doesn't match the previous one's.
+                if (i == 0 && (onlyGroupByMonths || !takenAtLocal.isSameMonthAs(currentLocalDate))
+                    || i != 0 && !takenAtLocal.isSameMonthAs(galleryMediaList[i - 1].takenAtLocal)
+                ) {
+                    listItems.add(
+                        GalleryListItem.Header.month(
+                            localDate = takenAtLocal,
+                            withYear = !takenAtLocal.isSameYearAs(currentLocalDate),
                         )
-                    }
+                    )
                 }
 
-                add(
-                    GalleryListItem.Media(
-                        source = galleryMedia,
-                        isViewButtonVisible = areViewButtonsVisible,
-                        isSelectionViewVisible = areSelectionViewsVisible,
-                        isMediaSelected = galleryMedia.uid in selectedMediaByUid,
-                        itemScale = itemScale,
-                        previewUrlFactory = previewUrlFactory,
+                // Day header.
+                //
+                // Do not show if only grouping by months.
+                //
+                // For the first item – always show.
+                //
+                // For other items – show on day change, that is when the item's day
+                // doesn't match the previous one's.
+                if (!onlyGroupByMonths
+                    && (i == 0 || !takenAtLocal.isSameDayAs(galleryMediaList[i - 1].takenAtLocal))
+                ) {
+                    listItems.add(
+                        if (takenAtLocal.isSameDayAs(currentLocalDate))
+                            GalleryListItem.Header.today()
+                        else
+                            GalleryListItem.Header.day(
+                                localDate = takenAtLocal,
+                                withYear = !takenAtLocal.isSameYearAs(currentLocalDate),
+                            )
                     )
-                )
+                }
             }
-        }
 
-        itemList.onNext(newItemList)
+            mediaListItemIndices[i] = listItems.size
+            listItems.add(createMediaListItem(galleryMedia, buildParams))
+            mediaCount = i + 1
+        }
     }
 
+    private fun createMediaListItem(
+        galleryMedia: GalleryMedia,
+        buildParams: BuildParams,
+    ) = GalleryListItem.Media(
+        source = galleryMedia,
+        isViewButtonVisible = buildParams.areViewButtonsVisible,
+        isSelectionViewVisible = buildParams.areSelectionViewsVisible,
+        isMediaSelected = galleryMedia.uid in selectedMediaByUid,
+        itemScale = buildParams.itemScale,
+        previewUrlFactory = previewUrlFactory,
+    )
+
     override fun onGalleryMediaItemClicked(item: GalleryListItem.Media) {
         log.debug {
             "onGalleryMediaItemClicked(): gallery_media_item_clicked:" +
@@ -323,6 +429,8 @@ class GalleryListViewModelImpl(
         }
 
         if (changedCount > 0) {
+            selectionRevision++
+
             log.debug {
                 "onGalleryMediaItemsDragSelectionChanged(): selection_changed:" +
                         "\nchanged=$changedCount"
@@ -340,6 +448,7 @@ class GalleryListViewModelImpl(
         }
 
         selectedMediaByUid[media.uid] = media
+        selectionRevision++
 
         log.debug {
             "addMediaToSelection(): media_added:" +
@@ -357,6 +466,7 @@ class GalleryListViewModelImpl(
         }
 
         selectedMediaByUid.remove(mediaUid)
+        selectionRevision++
 
         log.debug {
             "removeMediaFromSelection(): media_removed:" +
@@ -429,6 +539,7 @@ class GalleryListViewModelImpl(
 
     override fun clearSelection() {
         selectedMediaByUid.clear()
+        selectionRevision++
         postGalleryItemsAsync(currentMediaRepository)
         postSelectedItemsCount()
     }
@@ -507,4 +618,32 @@ class GalleryListViewModelImpl(
             }
         }
     }
+
+    private data class BuildParams(
+        val itemScale: GalleryItemScale,
+        val areViewButtonsVisible: Boolean,
+        val areSelectionViewsVisible: Boolean,
+        val addDateHeaders: Boolean,
+        val selectionRevision: Int,
+    )
+
+    private class BuiltList(
+        val repository: SimpleGalleryMediaRepository,
+        var itemsRevision: Long,
+        val buildParams: BuildParams,
+        val listItems: SnapshotArrayList<GalleryListItem>,
+        /**
+         * Index of the list item for each built media.
+         */
+        var mediaListItemIndices: IntArray,
+        var mediaCount: Int,
+    ) {
+        fun ensureMediaCapacity(mediaCount: Int) {
+            if (mediaListItemIndices.size < mediaCount) {
+                mediaListItemIndices = mediaListItemIndices.copyOf(
+                    maxOf(mediaCount, mediaListItemIndices.size + mediaListItemIndices.size / 2)
+                )
+            }
+        }
+    }
 }
@@ -3,11 +3,9 @@ package ua.com.radiokot.photoprism.features.gallery.view.model
 import android.os.Build
 import androidx.lifecycle.ViewModel
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
-import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.kotlin.subscribeBy
-import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.BehaviorSubject
 import io.reactivex.rxjava3.subjects.PublishSubject
 import ua.com.radiokot.photoprism.extension.autoDispose
@@ -18,7 +16,7 @@ import ua.com.radiokot.photoprism.features.gallery.data.model.RawSharingMode
 import ua.com.radiokot.photoprism.features.gallery.data.model.SendableFile
 import ua.com.radiokot.photoprism.features.gallery.data.storage.DownloadPreferences
 import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryPreferences
-import ua.com.radiokot.photoprism.features.gallery.logic.DownloadFileUseCase
+import ua.com.radiokot.photoprism.features.gallery.logic.ConcurrentFilesDownloader
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaFileDownloadUrlFactory
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryMediaDownloadActionsViewModel.Event
 import ua.com.radiokot.photoprism.features.viewer.logic.BackgroundMediaFileDownloadManager
@@ -29,7 +27,7 @@ import kotlin.math.roundToInt
 class GalleryMediaDownloadActionsViewModelDelegateImpl(
     private val internalDownloadsDir: File,
     private val externalDownloadsDir: File,
-    private val downloadFileUseCase: DownloadFileUseCase,
+    private val concurrentFilesDownloader: ConcurrentFilesDownloader,
     private val backgroundMediaFileDownloadManager: BackgroundMediaFileDownloadManager,
     private val downloadUrlFactory: MediaFileDownloadUrlFactory,
     private val galleryPreferences: GalleryPreferences,
@@ -235,63 +233,50 @@ class GalleryMediaDownloadActionsViewModelDelegateImpl(
 
         val destinations = filesAndDestinations.map(Pair<*, File>::second)
 
-        downloadDisposable?.dispose()
-        downloadDisposable = filesAndDestinations
-            .mapIndexed { currentDownloadIndex, (file, destination) ->
-                val downloadUrl = downloadUrlFactory.getDownloadUrl(
-                    hash = file.hash,
+        // Files already downloaded, e.g. for sharing, are not downloaded again.
+        val downloads = filesAndDestinations
+            .filterNot { (_, destination) ->
+                destination.exists() && destination.canRead()
+            }
+            .map { (file, destination) ->
+                ConcurrentFilesDownloader.Download(
+                    url = downloadUrlFactory.getDownloadUrl(
+                        hash = file.hash,
+                    ),
+                    destination = destination,
+                    mimeType = file.mimeType,
+                    notifyMediaScanner = notifyMediaScanner,
+                    expectedSize = file.size,
                 )
+            }
+        val skippedDownloadsCount = filesAndDestinations.size - downloads.size
 
-                if (destination.exists() && destination.canRead()) {
-                    return@mapIndexed Completable.complete().doOnSubscribe {
-                        log.debug {
-                            "downloadFiles(): skip_already_download_file:" +
-                                    "\nurl=$downloadUrl" +
-                                    "\ncurrentDownloadIndex=$currentDownloadIndex"
-                        }
-                    }
-                }
+        log.debug {
+            "downloadFiles(): skipping_already_downloaded_files:" +
+                    "\nskippedDownloadsCount=$skippedDownloadsCount"
+        }
 
-                downloadFileUseCase
-                    .invoke(
-                        url = downloadUrl,
-                        destination = destination,
-                        mimeType = file.mimeType,
-                        notifyMediaScanner = notifyMediaScanner,
+        downloadDisposable?.dispose()
+        downloadDisposable = concurrentFilesDownloader
+            .download(downloads)
+            .throttleLatest(500, TimeUnit.MILLISECONDS, true)
+            .observeOn(AndroidSchedulers.mainThread())
+            .doOnNext { progress ->
+                downloadProgressState.onNext(
+                    DownloadProgressViewModel.State.Running(
+                        percent =
+                            if (progress.percent < 0)
+                                -1
+                            else
+                                progress.percent.roundToInt().coerceAtLeast(1),
+                        currentDownloadNumber =
+                            (skippedDownloadsCount + progress.completedCount + 1)
+                                .coerceAtMost(filesAndDestinations.size),
+                        downloadsCount = filesAndDestinations.size,
                     )
-                    .subscribeOn(Schedulers.io())
-                    .throttleLatest(500, TimeUnit.MILLISECONDS)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .doOnSubscribe {
-                        log.debug {
-                            "downloadFiles(): file_download_started:" +
-                                    "\nurl=$downloadUrl" +
-                                    "\ncurrentDownloadIndex=$currentDownloadIndex"
-                        }
-
-                        downloadProgressState.onNext(
-                            DownloadProgressViewModel.State.Running(
-                                currentDownloadNumber = currentDownloadIndex + 1,
-                                downloadsCount = filesAndDestinations.size,
-                            )
-                        )
-                    }
-                    .doOnNext { progress ->
-                        downloadProgressState.onNext(
-                            DownloadProgressViewModel.State.Running(
-                                percent =
-                                    if (progress.percent < 0)
-                                        -1
-                                    else
-                                        progress.percent.roundToInt().coerceAtLeast(1),
-                                currentDownloadNumber = currentDownloadIndex + 1,
-                                downloadsCount = filesAndDestinations.size,
-                            )
-                        )
-                    }
-                    .ignoreElements()
+                )
             }
-            .let(Completable::concat)
+            .ignoreElements()
             .doOnDispose {
                 try {
                     destinations.forEach(File::delete)
@@ -6,6 +6,7 @@ import androidx.lifecycle.ViewModel
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.kotlin.addTo
 import io.reactivex.rxjava3.kotlin.subscribeBy
 import io.reactivex.rxjava3.schedulers.Schedulers
@@ -467,6 +468,12 @@ class GalleryViewModel(
             }
             .addTo(disposable)
 
+        // Do not keep reading ahead once switched to another repository,
+        // e.g. when the search is changed.
+        Disposable
+            .fromAction(currentMediaRepository::cancelPrefetching)
+            .addTo(disposable)
+
         disposable.autoDispose(this)
     }
 
@@ -764,11 +771,16 @@ class GalleryViewModel(
     }
 
     fun onSwipeRefreshPulled() {
+        val currentMediaRepository = this.currentMediaRepository
+            ?: return
+
         log.debug {
-            "onSwipeRefreshPulled(): force_updating"
+            "onSwipeRefreshPulled(): updating_incrementally"
         }
 
-        update(force = true)
+        // Only fetch what has changed to keep the loaded items and the scroll.
+        currentMediaRepository.updateIncrementally()
+        fastScrollViewModel.updateBubbles()
     }
 
     fun onWebViewerHandledRedirect() {
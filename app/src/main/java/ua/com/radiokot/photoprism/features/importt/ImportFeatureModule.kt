@@ -17,10 +17,13 @@ val importFeatureModule = module {
 
     scope<EnvSession> {
         scoped {
+            val contentResolver = androidApplication().contentResolver
+
             ImportFilesUseCase(
-                contentResolver = androidApplication().contentResolver,
+                openFileSource = { file -> file.source(contentResolver) },
                 photoPrismSessionService = get(),
                 photoPrismUploadService = get(),
+                photoPrismPhotosService = get(),
                 albumsRepository = getOrNull(),
             )
         } bind ImportFilesUseCase::class
@@ -1,6 +1,5 @@
 package ua.com.radiokot.photoprism.features.importt.logic
 
-import android.content.ContentResolver
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.core.Single
@@ -8,6 +7,11 @@ import io.reactivex.rxjava3.kotlin.toCompletable
 import io.reactivex.rxjava3.kotlin.toObservable
 import io.reactivex.rxjava3.schedulers.Schedulers
 import okhttp3.MultipartBody
+import okio.HashingSource
+import okio.Source
+import okio.blackholeSink
+import okio.buffer
+import ua.com.radiokot.photoprism.api.photos.service.PhotoPrismPhotosService
 import ua.com.radiokot.photoprism.api.session.service.PhotoPrismSessionService
 import ua.com.radiokot.photoprism.api.upload.model.PhotoPrismUploadOptions
 import ua.com.radiokot.photoprism.api.upload.service.PhotoPrismUploadService
@@ -21,13 +25,18 @@ import ua.com.radiokot.photoprism.features.albums.data.storage.AlbumsRepository
 import java.util.concurrent.TimeUnit
 
 /**
+ * @param openFileSource opens a new source of the given file content
+ * @param photoPrismPhotosService to find the files already in the library
  * @param albumsRepository to be updated on success if creating albums
+ * @param retryDelayMs delay before retrying a failed upload or processing
  */
 class ImportFilesUseCase(
-    private val contentResolver: ContentResolver,
+    private val openFileSource: (ImportableFile) -> Source,
     private val photoPrismSessionService: PhotoPrismSessionService,
     private val photoPrismUploadService: PhotoPrismUploadService,
+    private val photoPrismPhotosService: PhotoPrismPhotosService,
     private val albumsRepository: AlbumsRepository?,
+    private val retryDelayMs: Long = DEFAULT_RETRY_DELAY_MS,
 ) {
     private val log = kLogger("ImportFilesUseCase")
 
@@ -35,18 +44,39 @@ class ImportFilesUseCase(
      * Uploads given [files] to the library import and triggers their index.
      * Updates [AlbumsRepository] on success if there are albums to create.
      *
+     * An interrupted import can be resumed by invoking it again
+     * with the same [uploadToken] and the files reported to [onFileUploaded],
+     * so they are not sent again.
+     *
+     * Unless there are [albums] to put the files to,
+     * the files whose content is already in the library are not uploaded.
+     * The content hashes reported to [onFileHashed] can be passed
+     * as [contentHashes] when resuming, so the files are not hashed again.
+     *
      * @param uploadToken a random string used to identify the upload.
+     * @param uploadedFiles files already accepted by the server within the [uploadToken]
+     * @param contentHashes already known content hashes of the files
+     * @param onFileUploaded called from a background thread once a file is accepted by the server
+     * @param onFileHashed called from a background thread once a file content is hashed
+     * @param onFilesAlreadyInLibrary called from a background thread with the files
+     * which are skipped as their content is already in the library
      */
     operator fun invoke(
         files: List<ImportableFile>,
         albums: Set<DestinationAlbum>,
         uploadToken: String,
+        uploadedFiles: Set<ImportableFile> = emptySet(),
+        contentHashes: Map<ImportableFile, String> = emptyMap(),
+        onFileUploaded: (ImportableFile) -> Unit = {},
+        onFileHashed: (file: ImportableFile, hash: String) -> Unit = { _, _ -> },
+        onFilesAlreadyInLibrary: (Set<ImportableFile>) -> Unit = {},
     ): Observable<Status> {
         require(files.isNotEmpty()) {
             "Files can't be empty"
         }
 
         lateinit var userId: String
+        var filesToImport = files
 
         return Observable.just<Status>(Status.Uploading.INDETERMINATE)
             .concatWith(
@@ -59,15 +89,53 @@ class ImportFilesUseCase(
                     .doOnSuccess { userId = it }
                     .map { Status.Uploading.INDETERMINATE }
             )
+            .concatWith(Observable.defer {
+                // Putting the existing files to the albums is not supported,
+                // so they are uploaded to be processed the usual way.
+                if (albums.isNotEmpty()) {
+                    return@defer Observable.empty<Status>()
+                }
+
+                Observable.just<Status>(Status.CheckingLibrary)
+                    .concatWith(
+                        findFilesAlreadyInLibrary(
+                            files = files - uploadedFiles,
+                            contentHashes = contentHashes,
+                            onFileHashed = onFileHashed,
+                        )
+                            .doOnSuccess { filesAlreadyInLibrary ->
+                                if (filesAlreadyInLibrary.isNotEmpty()) {
+                                    filesToImport = files - filesAlreadyInLibrary
+                                    onFilesAlreadyInLibrary(filesAlreadyInLibrary)
+                                }
+                            }
+                            .ignoreElement()
+                    )
+            })
             .concatWith(Observable.defer {
                 uploadFiles(
-                    files = files,
+                    files = filesToImport,
+                    uploadedFiles = uploadedFiles,
+                    onFileUploaded = onFileUploaded,
                     userId = userId,
                     uploadToken = uploadToken
                 )
             })
-            .concatWith(Observable.just(Status.ProcessingUpload))
+            .concatWith(Observable.defer {
+                if (filesToImport.isEmpty())
+                    Observable.empty<Status>()
+                else
+                    Observable.just<Status>(Status.ProcessingUpload)
+            })
             .concatWith(Completable.defer {
+                if (filesToImport.isEmpty()) {
+                    log.debug {
+                        "invoke(): skip_processing_as_nothing_uploaded"
+                    }
+
+                    return@defer Completable.complete()
+                }
+
                 processUploadedFiles(
                     albums = albums,
                     userId = userId,
@@ -80,8 +148,8 @@ class ImportFilesUseCase(
                     }
                     .retryWithDelay(
                         times = MAX_RETRIES,
-                        delay = RETRY_DELAY_S,
-                        unit = TimeUnit.SECONDS,
+                        delay = retryDelayMs,
+                        unit = TimeUnit.MILLISECONDS,
                     )
             })
             .doOnComplete {
@@ -108,17 +176,119 @@ class ImportFilesUseCase(
             .uid
     }.toSingle().subscribeOn(Schedulers.io())
 
+    /**
+     * Hashes the [files] the same way PhotoPrism does (SHA-1 of the content)
+     * and looks the hashes up in the library in batches.
+     * The files are hashed concurrently, unless their hashes are already known.
+     * If the lookup fails, none of the files is considered being in the library.
+     */
+    private fun findFilesAlreadyInLibrary(
+        files: Collection<ImportableFile>,
+        contentHashes: Map<ImportableFile, String>,
+        onFileHashed: (file: ImportableFile, hash: String) -> Unit,
+    ): Single<Set<ImportableFile>> =
+        files
+            .toObservable()
+            // Each file is a separate subscription, so the hashing
+            // stops between the files once disposed.
+            .flatMapSingle({ file ->
+                val knownHash = contentHashes[file]
+                if (knownHash != null)
+                    Single.just(file to knownHash)
+                else
+                    getContentHash(file)
+                        .doOnSuccess { hash -> onFileHashed(file, hash) }
+                        .map { hash -> file to hash }
+            }, false, MAX_CONCURRENT_HASHINGS)
+            .toList()
+            .flatMap { fileHashes ->
+                lookUpHashes(
+                    filesByHash = fileHashes.groupBy(
+                        keySelector = Pair<ImportableFile, String>::second,
+                        valueTransform = Pair<ImportableFile, String>::first,
+                    )
+                )
+            }
+            .doOnSubscribe {
+                log.debug {
+                    "findFilesAlreadyInLibrary(): start_looking_up:" +
+                            "\nfileCount=${files.size}," +
+                            "\nknownHashCount=${contentHashes.size}"
+                }
+            }
+            .doOnSuccess { filesAlreadyInLibrary ->
+                log.debug {
+                    "findFilesAlreadyInLibrary(): found:" +
+                            "\nfileCount=${filesAlreadyInLibrary.size}"
+                }
+            }
+            .onErrorReturn { error ->
+                log.warn(error) {
+                    "findFilesAlreadyInLibrary(): lookup_failed"
+                }
+
+                emptySet()
+            }
+
+    private fun lookUpHashes(
+        filesByHash: Map<String, List<ImportableFile>>,
+    ): Single<Set<ImportableFile>> = {
+        filesByHash.keys
+            .chunked(HASH_LOOKUP_BATCH_SIZE)
+            .flatMapTo(mutableSetOf()) { hashes ->
+                val foundHashes = photoPrismPhotosService
+                    .getMergedPhotos(
+                        count = hashes.size,
+                        offset = 0,
+                        public = false,
+                        q = "hash:" + hashes.joinToString("|"),
+                    )
+                    .flatMap { it.files }
+                    .map { it.hash }
+
+                // Only trust the exact matches.
+                hashes
+                    .filter { it in foundHashes }
+                    .flatMap(filesByHash::getValue)
+            }
+            .toSet()
+    }.toSingle().subscribeOn(Schedulers.io())
+
+    private fun getContentHash(file: ImportableFile): Single<String> = {
+        HashingSource.sha1(openFileSource(file)).use { hashingSource ->
+            hashingSource.buffer().readAll(blackholeSink())
+            hashingSource.hash.hex()
+        }
+    }.toSingle().subscribeOn(Schedulers.io())
+
     private fun uploadFiles(
         files: List<ImportableFile>,
+        uploadedFiles: Set<ImportableFile>,
+        onFileUploaded: (ImportableFile) -> Unit,
         userId: String,
         uploadToken: String,
     ): Observable<Status.Uploading> {
-        val progressPerFile = DoubleArray(files.size)
+        val progressPerFile = DoubleArray(files.size) { fileIndex ->
+            if (files[fileIndex] in uploadedFiles)
+                100.0
+            else
+                0.0
+        }
+
+        if (uploadedFiles.isNotEmpty()) {
+            log.debug {
+                "uploadFiles(): resuming:" +
+                        "\nuploadedFileCount=${uploadedFiles.size}," +
+                        "\nfileCount=${files.size}"
+            }
+        }
 
         return files
             .mapIndexed { fileIndex, file ->
                 fileIndex to file
             }
+            // Only send what the server has not accepted yet.
+            .filterNot { (_, file) -> file in uploadedFiles }
             .toObservable()
             // Use flatMap with maxConcurrency to limit the number
             // of concurrent uploads.
@@ -151,14 +321,16 @@ class ImportFilesUseCase(
                     }
                     .retryWithDelay(
                         times = MAX_RETRIES,
-                        delay = RETRY_DELAY_S,
-                        unit = TimeUnit.SECONDS,
+                        delay = retryDelayMs,
+                        unit = TimeUnit.MILLISECONDS,
                     )
                     .doOnComplete {
                         log.debug {
                             "uploadFiles(): single_file_upload_done:" +
                                     "\nfile=$file"
                         }
+
+                        onFileUploaded(file)
                     }
             }, MAX_CONCURRENT_UPLOADS)
     }
@@ -173,7 +345,7 @@ class ImportFilesUseCase(
             filename = file.displayName,
             body = ImportableFileRequestBody(
                 importableFile = file,
-                contentResolver = contentResolver,
+                openSource = { openFileSource(file) },
                 onReadingProgress = emitter::onNext,
             )
         )
@@ -223,6 +395,11 @@ class ImportFilesUseCase(
             }
         }
 
+        /**
+         * Looking for the files already in the library.
+         */
+        object CheckingLibrary : Status
+
         /**
          * Processing uploaded files.
          */
@@ -232,6 +409,10 @@ class ImportFilesUseCase(
     private companion object {
         private const val MAX_CONCURRENT_UPLOADS = 4
         private const val MAX_RETRIES = 6
-        private const val RETRY_DELAY_S = 10L
+        private const val DEFAULT_RETRY_DELAY_MS = 10_000L
+        private const val HASH_LOOKUP_BATCH_SIZE = 50
+
+        // Hashing is mostly bound by the storage reads.
+        private const val MAX_CONCURRENT_HASHINGS = 4
     }
 }
@@ -20,6 +20,7 @@ import ua.com.radiokot.photoprism.di.JsonObjectMapper
 import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.toSingle
 import ua.com.radiokot.photoprism.features.albums.data.model.DestinationAlbum
+import ua.com.radiokot.photoprism.features.importt.model.ImportUploadState
 import ua.com.radiokot.photoprism.features.importt.model.ImportableFile
 import ua.com.radiokot.photoprism.features.importt.model.sizeMb
 import ua.com.radiokot.photoprism.features.importt.view.ImportNotificationsManager
@@ -45,13 +46,30 @@ class ImportFilesWorker(
             ?.let(::File)
             ?: error("Missing $FILE_LIST_JSON_PATH")
     }
+    private val uploadStateJsonFile: File by lazy {
+        File(
+            fileListJsonFile.parentFile,
+            fileListJsonFile.nameWithoutExtension + UPLOAD_STATE_JSON_FILE_SUFFIX
+        )
+    }
     private val albums: Set<DestinationAlbum> by lazy {
         jsonObjectMapper
             .readerForListOf(DestinationAlbum::class.java)
             .readValue<Collection<DestinationAlbum>>(workerParams.inputData.getString(ALBUMS_JSON_KEY))
             .toSet()
     }
-    private val uploadToken = System.currentTimeMillis().toString()
+
+    // Read synchronously as the token is needed for the foreground info,
+    // which may be requested before the work is started.
+    private val initialUploadState: ImportUploadState by lazy(::readOrCreateUploadState)
+    private val uploadToken: String
+        get() = initialUploadState.uploadToken
+    private val uploadedFileUris: MutableSet<String> by lazy {
+        initialUploadState.uploadedFileUris.toMutableSet()
+    }
+    private val contentHashesByUri: MutableMap<String, String> by lazy {
+        initialUploadState.contentHashesByUri.toMutableMap()
+    }
     private var importStatus: ImportFilesUseCase.Status =
         ImportFilesUseCase.Status.Uploading.INDETERMINATE
 
@@ -67,6 +85,7 @@ class ImportFilesWorker(
         }
 
         lateinit var files: Collection<ImportableFile>
+        var filesAlreadyInLibrary: Set<ImportableFile> = emptySet()
 
         return readFilesFromFile()
             .flatMapObservable { readFiles ->
@@ -76,6 +95,16 @@ class ImportFilesWorker(
                     files = readFiles,
                     albums = albums,
                     uploadToken = uploadToken,
+                    uploadedFiles = readFiles.filterTo(mutableSetOf()) { file ->
+                        file.contentUri in initialUploadState.uploadedFileUris
+                    },
+                    contentHashes = readFiles.mapNotNull { file ->
+                        initialUploadState.contentHashesByUri[file.contentUri]
+                            ?.let { hash -> file to hash }
+                    }.toMap(),
+                    onFileUploaded = ::onFileUploaded,
+                    onFileHashed = ::onFileHashed,
+                    onFilesAlreadyInLibrary = { filesAlreadyInLibrary = it },
                 )
             }
             .throttleLast(500, TimeUnit.MILLISECONDS)
@@ -89,13 +118,15 @@ class ImportFilesWorker(
                 log.debug {
                     "createWork(): starting:" +
                             "\nfileListJson=$fileListJsonFile," +
-                            "\nalbums=$albums," +
-                            "\nuploadToken=$uploadToken"
+                            "\nalbums=$albums"
                 }
             }
             .doOnTerminate {
+                // If the work is interrupted instead,
+                // the files are kept to resume it on the next run.
                 try {
                     fileListJsonFile.delete()
+                    uploadStateJsonFile.delete()
 
                     log.debug {
                         "createWork(): file_list_json_deleted:" +
@@ -124,10 +155,13 @@ class ImportFilesWorker(
                 }
 
                 if (!isStopped) {
+                    val importedFiles = files - filesAlreadyInLibrary
+
                     importNotificationsManager.notifySuccessfulImport(
                         uploadToken = uploadToken,
-                        fileCount = files.size,
-                        sizeMb = files.sizeMb,
+                        fileCount = importedFiles.size,
+                        sizeMb = importedFiles.sizeMb,
+                        alreadyInLibraryFileCount = filesAlreadyInLibrary.size,
                     )
                 }
             }
@@ -144,12 +178,106 @@ class ImportFilesWorker(
             .readValue<List<ImportableFile>>(fileListJsonFile)
     }.toSingle().subscribeOn(Schedulers.io())
 
+    /**
+     * Reads the state left by the interrupted previous run,
+     * or creates and saves a new one.
+     */
+    private fun readOrCreateUploadState(): ImportUploadState {
+        val existingState =
+            if (uploadStateJsonFile.exists())
+                try {
+                    jsonObjectMapper.readValue(uploadStateJsonFile, ImportUploadState::class.java)
+                } catch (e: Exception) {
+                    log.warn(e) {
+                        "readOrCreateUploadState(): failed_reading_state"
+                    }
+                    null
+                }
+            else
+                null
+
+        if (existingState != null) {
+            log.debug {
+                "readOrCreateUploadState(): resuming:" +
+                        "\nuploadToken=${existingState.uploadToken}," +
+                        "\nuploadedFileCount=${existingState.uploadedFileUris.size}," +
+                        "\nhashedFileCount=${existingState.contentHashesByUri.size}"
+            }
+
+            return existingState
+        }
+
+        val newState = ImportUploadState(
+            uploadToken = System.currentTimeMillis().toString(),
+            uploadedFileUris = emptySet(),
+        )
+
+        try {
+            writeUploadState(newState)
+        } catch (e: Exception) {
+            // Not critical, the import just won't be resumable.
+            log.warn(e) {
+                "readOrCreateUploadState(): failed_writing_state"
+            }
+        }
+
+        return newState
+    }
+
+    @Synchronized
+    private fun onFileUploaded(file: ImportableFile) {
+        uploadedFileUris += file.contentUri
+
+        try {
+            writeCurrentUploadState()
+        } catch (e: Exception) {
+            // Not critical, the file will just be sent again if resuming.
+            log.warn(e) {
+                "onFileUploaded(): failed_writing_state"
+            }
+        }
+    }
+
+    @Synchronized
+    private fun onFileHashed(
+        file: ImportableFile,
+        hash: String,
+    ) {
+        contentHashesByUri[file.contentUri] = hash
+
+        try {
+            writeCurrentUploadState()
+        } catch (e: Exception) {
+            // Not critical, the file will just be hashed again if resuming.
+            log.warn(e) {
+                "onFileHashed(): failed_writing_state"
+            }
+        }
+    }
+
+    private fun writeCurrentUploadState() =
+        writeUploadState(
+            initialUploadState.copy(
+                uploadedFileUris = uploadedFileUris.toSet(),
+                contentHashesByUri = contentHashesByUri.toMap(),
+            )
+        )
+
+    private fun writeUploadState(state: ImportUploadState) {
+        val tmpFile = File(uploadStateJsonFile.path + ".tmp")
+        jsonObjectMapper.writeValue(tmpFile, state)
+        check(tmpFile.renameTo(uploadStateJsonFile)) {
+            "Failed to write the state to $uploadStateJsonFile"
+        }
+    }
+
     override fun getForegroundInfo(): Single<ForegroundInfo> {
         val notification = importNotificationsManager.getImportProgressNotification(
             progressPercent = when (val status = importStatus) {
                 is ImportFilesUseCase.Status.Uploading ->
                     status.percent
 
+                ImportFilesUseCase.Status.CheckingLibrary,
                 ImportFilesUseCase.Status.ProcessingUpload ->
                     -1.0
             },
@@ -178,10 +306,12 @@ class ImportFilesWorker(
         const val TAG = "ImportFiles"
         private const val ALBUMS_JSON_KEY = "albums"
         private const val FILE_LIST_JSON_PATH = "files_file"
+        private const val UPLOAD_STATE_JSON_FILE_SUFFIX = ".state.json"
 
         /**
          * @param fileListJsonFile a JSON file containing a list of [ImportableFile],
          * which will be deleted on task end.
+         * The upload state allowing to resume the task is kept next to it.
          */
         fun getInputData(
             fileListJsonFile: File,
@@ -0,0 +1,20 @@
+package ua.com.radiokot.photoprism.features.importt.model
+
+import com.fasterxml.jackson.annotation.JsonCreator
+
+/**
+ * Progress of an import upload which allows resuming it
+ * after the process death without re-sending the files already accepted by the server.
+ *
+ * @param uploadToken token of the upload the [uploadedFileUris] are accepted within
+ * @param uploadedFileUris [ImportableFile.contentUri] of the accepted files
+ * @param contentHashesByUri content hashes of the files by their [ImportableFile.contentUri],
+ * so they are not hashed again when resuming
+ */
+data class ImportUploadState
+@JsonCreator
+constructor(
+    val uploadToken: String,
+    val uploadedFileUris: Set<String>,
+    val contentHashesByUri: Map<String, String> = emptyMap(),
+)
@@ -1,16 +1,20 @@
 package ua.com.radiokot.photoprism.features.importt.model
 
-import android.content.ContentResolver
 import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.RequestBody
 import okhttp3.internal.closeQuietly
 import okio.BufferedSink
+import okio.Source
 import ua.com.radiokot.photoprism.util.downloader.ReadingProgressSource
 
+/**
+ * @param openSource opens a new source of the [importableFile] content,
+ * called on each write.
+ */
 class ImportableFileRequestBody(
     private val importableFile: ImportableFile,
-    private val contentResolver: ContentResolver,
+    private val openSource: () -> Source,
     private val onReadingProgress: (bytesRead: Long) -> Unit,
 ) : RequestBody() {
     override fun contentLength(): Long =
@@ -21,7 +25,7 @@ class ImportableFileRequestBody(
 
     override fun writeTo(sink: BufferedSink) {
         val fileSource = ReadingProgressSource(
-            delegate = importableFile.source(contentResolver),
+            delegate = openSource(),
             onReadingProgress = onReadingProgress,
         )
 
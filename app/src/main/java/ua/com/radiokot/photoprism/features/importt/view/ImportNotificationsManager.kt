@@ -47,29 +47,64 @@ class ImportNotificationsManager(
             .build()
             .also { ensureChannel() }
 
+    /**
+     * @param fileCount number of the uploaded files
+     * @param alreadyInLibraryFileCount number of the files skipped as already in the library
+     */
     fun notifySuccessfulImport(
         uploadToken: String,
         fileCount: Int,
         sizeMb: Double,
+        alreadyInLibraryFileCount: Int = 0,
     ): Notification {
         ensureChannel()
 
+        val uploadedFilesText = context.getString(
+            R.string.template_import_files_size,
+            context.resources.getQuantityString(
+                R.plurals.files,
+                fileCount,
+                fileCount
+            ),
+            sizeMb,
+        )
+        val alreadyInLibraryFilesText = context.getString(
+            R.string.template_import_files_already_in_library,
+            context.resources.getQuantityString(
+                R.plurals.files,
+                alreadyInLibraryFileCount,
+                alreadyInLibraryFileCount
+            ),
+        )
+
         val notification = NotificationCompat.Builder(
             context,
             CHANNEL_ID
         )
-            .setContentTitle(context.getString(R.string.import_notification_success_title))
-            .setContentText(
+            .setContentTitle(
                 context.getString(
-                    R.string.template_import_files_size,
-                    context.resources.getQuantityString(
-                        R.plurals.files,
-                        fileCount,
-                        fileCount
-                    ),
-                    sizeMb,
+                    if (fileCount == 0 && alreadyInLibraryFileCount > 0)
+                        R.string.import_notification_already_in_library_title
+                    else
+                        R.string.import_notification_success_title
                 )
             )
+            .setContentText(
+                when {
+                    alreadyInLibraryFileCount == 0 ->
+                        uploadedFilesText
+
+                    fileCount == 0 ->
+                        alreadyInLibraryFilesText
+
+                    else ->
+                        context.getString(
+                            R.string.template_import_uploaded_and_already_in_library,
+                            uploadedFilesText,
+                            alreadyInLibraryFilesText,
+                        )
+                }
+            )
             .setColor(ContextCompat.getColor(context, R.color.md_theme_light_primary))
             // White icon is used for Android 5 compatibility.
             .setSmallIcon(R.drawable.ic_awesome_white)
@@ -6,14 +6,20 @@ import org.koin.core.qualifier.named
 import org.koin.dsl.bind
 import org.koin.dsl.module
 import ua.com.radiokot.photoprism.di.APP_NO_BACKUP_PREFERENCES
+import ua.com.radiokot.photoprism.di.JsonObjectMapper
 import ua.com.radiokot.photoprism.di.MAP_CACHE_DIRECTORY
+import ua.com.radiokot.photoprism.di.MAP_DATA_CACHE_DIRECTORY
 import ua.com.radiokot.photoprism.di.retrofitApiModule
 import ua.com.radiokot.photoprism.env.data.model.EnvSession
 import ua.com.radiokot.photoprism.extension.checkNotNull
-import ua.com.radiokot.photoprism.features.map.data.storage.MapGeoJsonRepository
+import ua.com.radiokot.photoprism.features.map.data.storage.MapPhotoPointsRepository
 import ua.com.radiokot.photoprism.features.map.data.storage.MapPreferences
 import ua.com.radiokot.photoprism.features.map.data.storage.MapPreferencesOnPrefs
+import ua.com.radiokot.photoprism.features.map.logic.GeoJsonMapPhotoPointsReader
+import ua.com.radiokot.photoprism.features.map.logic.MapOfflineRegionsPlanner
+import ua.com.radiokot.photoprism.features.map.logic.UpdateMapOfflinePackUseCase
 import ua.com.radiokot.photoprism.features.map.view.MapViewModel
+import java.io.File
 
 val mapFeatureModule = module {
     includes(
@@ -27,18 +33,40 @@ val mapFeatureModule = module {
         )
     } bind MapPreferences::class
 
+    single {
+        GeoJsonMapPhotoPointsReader(
+            jsonFactory = get<JsonObjectMapper>().factory,
+        )
+    } bind GeoJsonMapPhotoPointsReader::class
+
+    single {
+        MapOfflineRegionsPlanner()
+    } bind MapOfflineRegionsPlanner::class
+
+    single {
+        UpdateMapOfflinePackUseCase(
+            regionsPlanner = get(),
+            mapPreferences = get(),
+            mapCacheDirectory = get(named(MAP_CACHE_DIRECTORY)),
+            application = androidApplication(),
+        )
+    } bind UpdateMapOfflinePackUseCase::class
+
     scope<EnvSession> {
         scoped {
-            MapGeoJsonRepository(
+            MapPhotoPointsRepository(
                 photoPrismGeoService = get(),
+                geoJsonReader = get(),
+                cacheFile = File(get<File>(named(MAP_DATA_CACHE_DIRECTORY)), "photo-points"),
             )
         }
 
         viewModel {
             MapViewModel(
-                geoJsonRepository = get(),
+                photoPointsRepository = get(),
                 mapCacheDirectory = get(named(MAP_CACHE_DIRECTORY)),
                 mapPreferences = get(),
+                updateMapOfflinePackUseCase = get(),
                 defaultMapStyleUrl =
                     getProperty<String>("defaultMapStyleUrl")
                         .checkNotNull { "Missing default map style URL" },
@@ -0,0 +1,14 @@
+package ua.com.radiokot.photoprism.features.map.data.model
+
+/**
+ * The map downloaded for offline use.
+ *
+ * @param sizeBytes total size of the downloaded regions
+ * @param updatedAt time of the download completion in milliseconds
+ * @param styleUrl URL of the style the map is downloaded for
+ */
+data class MapOfflinePack(
+    val sizeBytes: Long,
+    val updatedAt: Long,
+    val styleUrl: String,
+)
@@ -0,0 +1,14 @@
+package ua.com.radiokot.photoprism.features.map.data.model
+
+/**
+ * How much storage the map downloaded for offline use may take.
+ */
+enum class MapOfflinePackLimit(
+    val maxSizeMb: Int,
+) {
+    OFF(0),
+    SMALL(100),
+    MEDIUM(250),
+    LARGE(500),
+    ;
+}
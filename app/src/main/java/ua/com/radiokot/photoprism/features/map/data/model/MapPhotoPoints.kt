@@ -0,0 +1,188 @@
+package ua.com.radiokot.photoprism.features.map.data.model
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * A compact columnar store of the library photos shown on the map:
+ * primitive coordinate arrays instead of a GeoJSON feature per photo.
+ *
+ * Points are kept in the order of the source feed.
+ */
+class MapPhotoPoints
+private constructor(
+    val size: Int,
+    private val lats: DoubleArray,
+    private val lngs: DoubleArray,
+    private val hashes: Array<String?>,
+    private val uids: Array<String?>,
+) {
+    val isEmpty: Boolean
+        get() = size == 0
+
+    fun getLat(index: Int): Double =
+        lats[checkIndex(index)]
+
+    fun getLng(index: Int): Double =
+        lngs[checkIndex(index)]
+
+    /**
+     * @return thumbnail hash of the photo at [index].
+     */
+    fun getHash(index: Int): String =
+        hashes[checkIndex(index)]!!
+
+    fun getUid(index: Int): String =
+        uids[checkIndex(index)]!!
+
+    /**
+     * @return [south, west, north, east] bounds of all the points,
+     * or null if there are no points.
+     */
+    fun getBounds(): DoubleArray? {
+        if (isEmpty) {
+            return null
+        }
+
+        var south = Double.MAX_VALUE
+        var west = Double.MAX_VALUE
+        var north = -Double.MAX_VALUE
+        var east = -Double.MAX_VALUE
+        for (i in 0 until size) {
+            val lat = lats[i]
+            val lng = lngs[i]
+            if (lat < south) south = lat
+            if (lat > north) north = lat
+            if (lng < west) west = lng
+            if (lng > east) east = lng
+        }
+
+        return doubleArrayOf(south, west, north, east)
+    }
+
+    /**
+     * Writes the points in the format readable by [readFrom].
+     */
+    @Throws(IOException::class)
+    fun writeTo(output: DataOutputStream) = with(output) {
+        writeInt(FORMAT_VERSION)
+        writeInt(size)
+        for (i in 0 until size) {
+            writeDouble(lats[i])
+            writeDouble(lngs[i])
+            writeUTF(hashes[i]!!)
+            writeUTF(uids[i]!!)
+        }
+        flush()
+    }
+
+    private fun checkIndex(index: Int): Int {
+        if (index < 0 || index >= size) {
+            throw IndexOutOfBoundsException("Index $index is out of 0..${size - 1}")
+        }
+        return index
+    }
+
+    override fun toString(): String {
+        return "MapPhotoPoints(size=$size)"
+    }
+
+    /**
+     * A growing store to accumulate points while the feed is being read.
+     * [snapshot] is cheap enough to publish intermediate results.
+     */
+    class Builder(
+        initialCapacity: Int = 1024,
+    ) {
+        private var lats = DoubleArray(initialCapacity.coerceAtLeast(1))
+        private var lngs = DoubleArray(lats.size)
+        private var hashes = arrayOfNulls<String>(lats.size)
+        private var uids = arrayOfNulls<String>(lats.size)
+
+        var size: Int = 0
+            private set
+
+        fun add(
+            lat: Double,
+            lng: Double,
+            hash: String,
+            uid: String,
+        ) = apply {
+            if (size == lats.size) {
+                val newCapacity = lats.size * 2
+                lats = lats.copyOf(newCapacity)
+                lngs = lngs.copyOf(newCapacity)
+                hashes = hashes.copyOf(newCapacity)
+                uids = uids.copyOf(newCapacity)
+            }
+
+            lats[size] = lat
+            lngs[size] = lng
+            hashes[size] = hash
+            uids[size] = uid
+            size++
+        }
+
+        /**
+         * @return points added so far. As the builder only appends,
+         * the snapshot shares the arrays with it instead of copying them.
+         */
+        fun snapshot() = MapPhotoPoints(
+            size = size,
+            lats = lats,
+            lngs = lngs,
+            hashes = hashes,
+            uids = uids,
+        )
+
+        /**
+         * @return all the added points, trimming the unused capacity.
+         */
+        fun build(): MapPhotoPoints =
+            if (size == lats.size)
+                snapshot()
+            else
+                MapPhotoPoints(
+                    size = size,
+                    lats = lats.copyOf(size),
+                    lngs = lngs.copyOf(size),
+                    hashes = hashes.copyOf(size),
+                    uids = uids.copyOf(size),
+                )
+    }
+
+    companion object {
+        private const val FORMAT_VERSION = 1
+
+        /**
+         * Reads the points written by [writeTo].
+         *
+         * @throws IOException if the data is malformed or of a different format version
+         */
+        @Throws(IOException::class)
+        fun readFrom(input: DataInputStream): MapPhotoPoints = with(input) {
+            val version = readInt()
+            if (version != FORMAT_VERSION) {
+                throw IOException("Unsupported format version $version")
+            }
+
+            val size = readInt()
+            if (size < 0) {
+                throw IOException("Invalid size $size")
+            }
+
+            val builder = Builder(initialCapacity = size)
+            repeat(size) {
+                builder.add(
+                    lat = readDouble(),
+                    lng = readDouble(),
+                    hash = readUTF(),
+                    uid = readUTF(),
+                )
+            }
+
+            return builder.build()
+        }
+    }
+}
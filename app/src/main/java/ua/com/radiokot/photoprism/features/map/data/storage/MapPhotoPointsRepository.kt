@@ -0,0 +1,149 @@
+package ua.com.radiokot.photoprism.features.map.data.storage
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.kotlin.subscribeBy
+import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.PublishSubject
+import ua.com.radiokot.photoprism.api.geo.service.PhotoPrismGeoService
+import ua.com.radiokot.photoprism.base.data.storage.SimpleSingleItemRepository
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.extension.toSingle
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import ua.com.radiokot.photoprism.features.map.logic.GeoJsonMapPhotoPointsReader
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * A repository that holds points of all the library photos to show on the map.
+ *
+ * The geo feed is read as a stream, emitting [partialItem] while reading.
+ * The last read points are cached in [cacheFile], which is used
+ * to show the map before the feed is read.
+ */
+class MapPhotoPointsRepository(
+    private val photoPrismGeoService: PhotoPrismGeoService,
+    private val geoJsonReader: GeoJsonMapPhotoPointsReader,
+    private val cacheFile: File?,
+) : SimpleSingleItemRepository<MapPhotoPoints>() {
+    private val log = kLogger("MapPhotoPointsRepo")
+
+    private val partialItemSubject = PublishSubject.create<MapPhotoPoints>()
+
+    /**
+     * Emits points read so far while the feed is being read.
+     */
+    val partialItem: Observable<MapPhotoPoints> = partialItemSubject
+
+    /**
+     * Whether the current [item] is restored from the cache
+     * and may be out of date.
+     */
+    var isItemFromCache = false
+        private set
+
+    private var cacheRestoringDisposable: Disposable? = null
+
+    override fun getItem(): Single<MapPhotoPoints> = {
+        photoPrismGeoService
+            .getGeoJsonStream(
+                count = 500000,
+                offset = 0,
+                public = true,
+            )
+            .use { responseBody ->
+                geoJsonReader.read(
+                    input = responseBody.byteStream(),
+                    progressStep = PARTIAL_ITEM_STEP,
+                    onProgress = partialItemSubject::onNext,
+                )
+            }
+    }
+        .toSingle()
+        .doOnSuccess(::writeToCache)
+
+    override fun onNewItem(newItem: MapPhotoPoints) = synchronized(this) {
+        cacheRestoringDisposable?.dispose()
+        isItemFromCache = false
+        super.onNewItem(newItem)
+    }
+
+    override fun update(): Completable {
+        if (isNeverUpdated && !itemSubject.hasValue()) {
+            restoreFromCache()
+        }
+        return super.update()
+    }
+
+    private fun restoreFromCache() {
+        val cacheFile = cacheFile?.takeIf(File::exists)
+            ?: return
+
+        cacheRestoringDisposable?.dispose()
+        cacheRestoringDisposable = {
+            DataInputStream(cacheFile.inputStream().buffered()).use(MapPhotoPoints::readFrom)
+        }
+            .toSingle()
+            .subscribeOn(Schedulers.io())
+            .subscribeBy(
+                onSuccess = { cachedItem ->
+                    synchronized(this) {
+                        if (isNeverUpdated && !itemSubject.hasValue()) {
+                            isItemFromCache = true
+                            itemSubject.onNext(cachedItem)
+                        }
+                    }
+
+                    log.debug {
+                        "restoreFromCache(): restored:" +
+                                "\ncachedItem=$cachedItem"
+                    }
+                },
+                onError = { error ->
+                    log.warn(error) {
+                        "restoreFromCache(): failed_restoring"
+                    }
+
+                    cacheFile.delete()
+                }
+            )
+    }
+
+    private fun writeToCache(item: MapPhotoPoints) {
+        val cacheFile = cacheFile
+            ?: return
+
+        try {
+            cacheFile.parentFile?.mkdirs()
+
+            // Write to a temporary file first to never leave a partial cache.
+            val tempFile = File(cacheFile.path + ".tmp")
+            DataOutputStream(tempFile.outputStream().buffered()).use(item::writeTo)
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete()
+                error("Failed renaming the temporary file")
+            }
+
+            log.debug {
+                "writeToCache(): written:" +
+                        "\nitem=$item," +
+                        "\nsizeBytes=${cacheFile.length()}"
+            }
+        } catch (e: Exception) {
+            log.warn(e) {
+                "writeToCache(): failed_writing"
+            }
+        }
+    }
+
+    private companion object {
+        /**
+         * Number of points after which the partial item is first emitted,
+         * enough to show the first markers.
+         */
+        private const val PARTIAL_ITEM_STEP = 5000
+    }
+}
@@ -1,5 +1,14 @@
 package ua.com.radiokot.photoprism.features.map.data.storage
 
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePack
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePackLimit
+
 interface MapPreferences {
     var customStyleUrl: String?
+    var offlinePackLimit: MapOfflinePackLimit
+
+    /**
+     * The map downloaded for offline use, or null if it is not fully downloaded.
+     */
+    var offlinePack: MapOfflinePack?
 }
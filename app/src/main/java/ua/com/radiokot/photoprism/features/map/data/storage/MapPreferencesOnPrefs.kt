@@ -2,6 +2,9 @@ package ua.com.radiokot.photoprism.features.map.data.storage
 
 import android.content.SharedPreferences
 import androidx.core.content.edit
+import ua.com.radiokot.photoprism.extension.tryOrNull
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePack
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePackLimit
 
 class MapPreferencesOnPrefs(
     private val preferences: SharedPreferences,
@@ -16,4 +19,46 @@ class MapPreferencesOnPrefs(
                 putString(customStyleUrlKey, value)
             }
         }
+
+    private val offlinePackLimitKey = "${keyPrefix}_offline_pack_limit"
+    override var offlinePackLimit: MapOfflinePackLimit
+        get() = preferences.getString(offlinePackLimitKey, null)
+            .let { savedStringValue ->
+                tryOrNull {
+                    MapOfflinePackLimit.valueOf(savedStringValue!!)
+                } ?: MapOfflinePackLimit.OFF
+            }
+        set(value) {
+            preferences.edit {
+                putString(offlinePackLimitKey, value.name)
+            }
+        }
+
+    private val offlinePackSizeKey = "${keyPrefix}_offline_pack_size"
+    private val offlinePackUpdatedAtKey = "${keyPrefix}_offline_pack_updated_at"
+    private val offlinePackStyleUrlKey = "${keyPrefix}_offline_pack_style_url"
+    override var offlinePack: MapOfflinePack?
+        get() {
+            val styleUrl = preferences.getString(offlinePackStyleUrlKey, null)
+                ?: return null
+
+            return MapOfflinePack(
+                sizeBytes = preferences.getLong(offlinePackSizeKey, 0),
+                updatedAt = preferences.getLong(offlinePackUpdatedAtKey, 0),
+                styleUrl = styleUrl,
+            )
+        }
+        set(value) {
+            preferences.edit {
+                if (value != null) {
+                    putLong(offlinePackSizeKey, value.sizeBytes)
+                    putLong(offlinePackUpdatedAtKey, value.updatedAt)
+                    putString(offlinePackStyleUrlKey, value.styleUrl)
+                } else {
+                    remove(offlinePackSizeKey)
+                    remove(offlinePackUpdatedAtKey)
+                    remove(offlinePackStyleUrlKey)
+                }
+            }
+        }
 }
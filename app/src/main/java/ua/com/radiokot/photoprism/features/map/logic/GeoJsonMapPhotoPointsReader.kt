@@ -0,0 +1,157 @@
+package ua.com.radiokot.photoprism.features.map.logic
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Reads PhotoPrism geo feed (GeoJSON FeatureCollection of Point features)
+ * token by token into [MapPhotoPoints], without materializing the JSON tree.
+ *
+ * Features without coordinates, Hash or UID are skipped.
+ */
+class GeoJsonMapPhotoPointsReader(
+    private val jsonFactory: JsonFactory,
+) {
+    /**
+     * @param onProgress called with the points read so far
+     * once [progressStep] points are read, then each time their number doubles.
+     * The growing interval keeps the total work of the progress consumers linear.
+     */
+    @Throws(IOException::class)
+    fun read(
+        input: InputStream,
+        progressStep: Int = Int.MAX_VALUE,
+        onProgress: (MapPhotoPoints) -> Unit = {},
+    ): MapPhotoPoints = jsonFactory.createParser(input).use { parser ->
+        val builder = MapPhotoPoints.Builder()
+        val point = PointReader()
+        var nextProgressSize = progressStep
+
+        parser.expect(JsonToken.START_OBJECT)
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val fieldName = parser.currentName()
+            val valueToken = parser.nextToken()
+
+            if (fieldName == "features" && valueToken == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (point.read(parser)) {
+                        builder.add(
+                            lat = point.lat,
+                            lng = point.lng,
+                            hash = point.hash!!,
+                            uid = point.uid!!,
+                        )
+
+                        if (builder.size == nextProgressSize) {
+                            onProgress(builder.snapshot())
+                            nextProgressSize =
+                                if (nextProgressSize <= Int.MAX_VALUE / 2)
+                                    nextProgressSize * 2
+                                else
+                                    Int.MAX_VALUE
+                        }
+                    }
+                }
+            } else {
+                parser.skipChildren()
+            }
+        }
+
+        builder.build()
+    }
+
+    /**
+     * Reusable holder of the feature being read.
+     */
+    private class PointReader {
+        var lat = Double.NaN
+        var lng = Double.NaN
+        var hash: String? = null
+        var uid: String? = null
+
+        /**
+         * Reads the feature object the [parser] is at the start of.
+         *
+         * @return true if the feature is a complete point
+         */
+        fun read(parser: JsonParser): Boolean {
+            lat = Double.NaN
+            lng = Double.NaN
+            hash = null
+            uid = null
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val fieldName = parser.currentName()
+                val valueToken = parser.nextToken()
+
+                when {
+                    fieldName == "geometry" && valueToken == JsonToken.START_OBJECT ->
+                        readGeometry(parser)
+
+                    fieldName == "properties" && valueToken == JsonToken.START_OBJECT ->
+                        readProperties(parser)
+
+                    else ->
+                        parser.skipChildren()
+                }
+            }
+
+            return !lat.isNaN() && !lng.isNaN() && hash != null && uid != null
+        }
+
+        private fun readGeometry(parser: JsonParser) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val fieldName = parser.currentName()
+                val valueToken = parser.nextToken()
+
+                if (fieldName == "coordinates" && valueToken == JsonToken.START_ARRAY) {
+                    // GeoJSON position is [longitude, latitude, ...].
+                    if (parser.nextToken()?.isNumeric == true) {
+                        lng = parser.doubleValue
+                        if (parser.nextToken()?.isNumeric == true) {
+                            lat = parser.doubleValue
+                        }
+                    }
+                    // Skip the rest of the position, if any.
+                    while (parser.currentToken() != JsonToken.END_ARRAY) {
+                        parser.skipChildren()
+                        if (parser.nextToken() == null) {
+                            throw IOException("Unexpected end of the coordinates")
+                        }
+                    }
+                } else {
+                    parser.skipChildren()
+                }
+            }
+        }
+
+        private fun readProperties(parser: JsonParser) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                val fieldName = parser.currentName()
+                val valueToken = parser.nextToken()
+
+                when {
+                    fieldName == "Hash" && valueToken == JsonToken.VALUE_STRING ->
+                        hash = parser.text
+
+                    fieldName == "UID" && valueToken == JsonToken.VALUE_STRING ->
+                        uid = parser.text
+
+                    else ->
+                        parser.skipChildren()
+                }
+            }
+        }
+    }
+
+    private fun JsonParser.expect(token: JsonToken) {
+        val actualToken = nextToken()
+        if (actualToken != token) {
+            throw IOException("Expected $token but got $actualToken")
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package ua.com.radiokot.photoprism.features.map.logic
+
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.floor
+import kotlin.math.ln
+import kotlin.math.tan
+
+/**
+ * Plans the map regions to download for offline use:
+ * an overview of all the photos, and the areas where the photos are grouped
+ * in order of the number of photos, as detailed as the tile budget allows.
+ *
+ * Tiles are counted as in Web Mercator tile pyramids, which MapLibre downloads.
+ */
+class MapOfflineRegionsPlanner {
+
+    /**
+     * @param maxTileCount total number of tiles the regions may have
+     *
+     * @return regions to download, the most important first
+     */
+    fun plan(
+        points: MapPhotoPoints,
+        maxTileCount: Long,
+    ): List<Region> {
+        val (south, west, north, east) = points.getBounds()
+            ?: return emptyList()
+
+        val regions = mutableListOf<Region>()
+        var remainingTileCount = maxTileCount
+
+        // The overview is what the map shows when opened,
+        // but it must leave enough of the budget for the details.
+        val overview = (OVERVIEW_MAX_ZOOM downTo 0)
+            .asSequence()
+            .map { maxZoom ->
+                Region(
+                    south = south,
+                    west = west,
+                    north = north,
+                    east = east,
+                    minZoom = 0,
+                    maxZoom = maxZoom,
+                )
+            }
+            .firstOrNull { it.tileCount <= maxTileCount / OVERVIEW_BUDGET_SHARE_DIVIDER }
+            ?: return emptyList()
+        regions += overview
+        remainingTileCount -= overview.tileCount
+
+        for (group in getPointGroups(points)) {
+            val groupRegion = (DETAILS_MAX_ZOOM downTo overview.maxZoom + 1)
+                .asSequence()
+                .map { maxZoom ->
+                    Region(
+                        south = group.south,
+                        west = group.west,
+                        north = group.north,
+                        east = group.east,
+                        minZoom = overview.maxZoom + 1,
+                        maxZoom = maxZoom,
+                    )
+                }
+                .firstOrNull { it.tileCount <= remainingTileCount }
+                // Smaller groups may still fit.
+                ?: continue
+
+            regions += groupRegion
+            remainingTileCount -= groupRegion.tileCount
+        }
+
+        return regions
+    }
+
+    /**
+     * Groups the points occupying adjacent tiles of the [GROUPING_ZOOM].
+     *
+     * @return groups in descending order of the number of points
+     */
+    private fun getPointGroups(points: MapPhotoPoints): List<PointGroup> {
+        val groupZoomTileCount = 1 shl GROUPING_ZOOM
+
+        // Bounds and point counts of the occupied tiles.
+        val tiles = HashMap<Long, PointGroup>()
+        for (i in 0 until points.size) {
+            val lat = points.getLat(i)
+            val lng = points.getLng(i)
+            val tileKey = getTileX(lng, GROUPING_ZOOM).toLong() * groupZoomTileCount +
+                    getTileY(lat, GROUPING_ZOOM)
+            tiles.getOrPut(tileKey) { PointGroup(lat, lng) }.add(lat, lng)
+        }
+
+        // Merge the adjacent tiles, including the diagonal ones.
+        val groups = mutableListOf<PointGroup>()
+        val visitedTileKeys = HashSet<Long>()
+        for (startTileKey in tiles.keys) {
+            if (!visitedTileKeys.add(startTileKey)) {
+                continue
+            }
+
+            var group: PointGroup? = null
+            val tileKeysToVisit = ArrayDeque(listOf(startTileKey))
+            while (tileKeysToVisit.isNotEmpty()) {
+                val tileKey = tileKeysToVisit.removeFirst()
+                val tile = tiles.getValue(tileKey)
+                group = group?.apply { add(tile) } ?: tile
+
+                val x = (tileKey / groupZoomTileCount).toInt()
+                val y = (tileKey % groupZoomTileCount).toInt()
+                for (neighborX in x - 1..x + 1) {
+                    for (neighborY in y - 1..y + 1) {
+                        if (neighborX !in 0 until groupZoomTileCount
+                            || neighborY !in 0 until groupZoomTileCount
+                        ) {
+                            continue
+                        }
+                        val neighborKey = neighborX.toLong() * groupZoomTileCount + neighborY
+                        if (neighborKey in tiles && visitedTileKeys.add(neighborKey)) {
+                            tileKeysToVisit.addLast(neighborKey)
+                        }
+                    }
+                }
+            }
+
+            groups += group!!
+        }
+
+        // Equal groups are ordered by location to keep the plan stable.
+        return groups.sortedWith(
+            compareByDescending(PointGroup::pointCount)
+                .thenBy(PointGroup::south)
+                .thenBy(PointGroup::west)
+        )
+    }
+
+    private class PointGroup(
+        var south: Double,
+        var west: Double,
+    ) {
+        var north = south
+        var east = west
+        var pointCount = 0
+            private set
+
+        fun add(lat: Double, lng: Double) {
+            if (lat < south) south = lat
+            if (lat > north) north = lat
+            if (lng < west) west = lng
+            if (lng > east) east = lng
+            pointCount++
+        }
+
+        fun add(other: PointGroup) {
+            if (other.south < south) south = other.south
+            if (other.north > north) north = other.north
+            if (other.west < west) west = other.west
+            if (other.east > east) east = other.east
+            pointCount += other.pointCount
+        }
+    }
+
+    /**
+     * A rectangular region to download at zoom levels from [minZoom] to [maxZoom] inclusive.
+     */
+    data class Region(
+        val south: Double,
+        val west: Double,
+        val north: Double,
+        val east: Double,
+        val minZoom: Int,
+        val maxZoom: Int,
+    ) {
+        val tileCount: Long by lazy {
+            getTileCount(south, west, north, east, minZoom, maxZoom)
+        }
+
+        /**
+         * A stable identifier of the region, which is the same for the same plan.
+         */
+        val id: String
+            get() = "$south,$west,$north,$east,$minZoom,$maxZoom"
+    }
+
+    companion object {
+        /**
+         * Zoom of the tiles the points are grouped by, the ones of about 80 km.
+         */
+        private const val GROUPING_ZOOM = 9
+
+        /**
+         * Max zoom of the overview region, enough to recognize the area.
+         */
+        private const val OVERVIEW_MAX_ZOOM = 7
+
+        /**
+         * The overview may take no more than 1/4 of the budget.
+         */
+        private const val OVERVIEW_BUDGET_SHARE_DIVIDER = 4
+
+        /**
+         * Max zoom of the detailed regions, enough to see the streets.
+         */
+        private const val DETAILS_MAX_ZOOM = 15
+
+        private const val MAX_LAT = 85.05112878
+
+        fun getTileCount(
+            south: Double,
+            west: Double,
+            north: Double,
+            east: Double,
+            minZoom: Int,
+            maxZoom: Int,
+        ): Long {
+            var tileCount = 0L
+            for (zoom in minZoom..maxZoom) {
+                val width = getTileX(east, zoom) - getTileX(west, zoom) + 1
+                // Tile Y grows to the south.
+                val height = getTileY(south, zoom) - getTileY(north, zoom) + 1
+                tileCount += width.toLong() * height
+            }
+            return tileCount
+        }
+
+        private fun getTileX(lng: Double, zoom: Int): Int {
+            val tileCount = 1 shl zoom
+            return floor((lng + 180) / 360 * tileCount)
+                .toInt()
+                .coerceIn(0, tileCount - 1)
+        }
+
+        private fun getTileY(lat: Double, zoom: Int): Int {
+            val tileCount = 1 shl zoom
+            val latRad = lat.coerceIn(-MAX_LAT, MAX_LAT) * PI / 180
+            return floor((1 - ln(tan(latRad) + 1 / cos(latRad)) / PI) / 2 * tileCount)
+                .toInt()
+                .coerceIn(0, tileCount - 1)
+        }
+    }
+}
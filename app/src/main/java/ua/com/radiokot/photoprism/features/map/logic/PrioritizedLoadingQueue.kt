@@ -0,0 +1,167 @@
+package ua.com.radiokot.photoprism.features.map.logic
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.kotlin.subscribeBy
+import ua.com.radiokot.photoprism.extension.kLogger
+
+/**
+ * A queue loading the wanted items in order of their priority,
+ * no more than [maxConcurrentLoads] at once.
+ * Loads of the items which are no longer wanted are cancelled.
+ *
+ * The queue is not thread-safe: it must be used from a single thread,
+ * and the loads must complete on the same thread.
+ *
+ * @param load loads the item by its key
+ * @param currentTimeMs source of the current time in milliseconds
+ */
+class PrioritizedLoadingQueue<K : Any>(
+    private val maxConcurrentLoads: Int,
+    private val load: (K) -> Completable,
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
+) : Disposable {
+    private val log = kLogger("PrioritizedLoadingQueue")
+
+    private val pendingPriorities = mutableMapOf<K, Double>()
+    private val loadsInProgress = mutableMapOf<K, Disposable>()
+    private var isDisposed = false
+    private var isStartingLoads = false
+
+    // When the queue became busy, to measure how long it takes to load everything wanted.
+    private var busySinceMs: Long? = null
+
+    /**
+     * Number of the items waiting to be loaded.
+     */
+    val queueDepth: Int
+        get() = pendingPriorities.size
+
+    /**
+     * Number of the items being loaded.
+     */
+    val loadingCount: Int
+        get() = loadsInProgress.size
+
+    /**
+     * How long it took to load all the wanted items the last time the queue got empty.
+     */
+    var lastTimeToLoadAllMs: Long? = null
+        private set
+
+    /**
+     * Replaces the wanted items. Loads of the items not present here are cancelled.
+     *
+     * @param priorities priorities of the wanted items by their keys,
+     * items with lower values are loaded first
+     */
+    fun setWanted(priorities: Map<K, Double>) {
+        if (isDisposed) {
+            return
+        }
+
+        val loadIterator = loadsInProgress.iterator()
+        while (loadIterator.hasNext()) {
+            val (key, loadDisposable) = loadIterator.next()
+            if (key !in priorities) {
+                loadDisposable.dispose()
+                loadIterator.remove()
+            }
+        }
+
+        pendingPriorities.clear()
+        priorities.forEach { (key, priority) ->
+            if (key !in loadsInProgress) {
+                pendingPriorities[key] = priority
+            }
+        }
+
+        if (busySinceMs == null && pendingPriorities.isNotEmpty()) {
+            busySinceMs = currentTimeMs()
+        }
+
+        log.debug {
+            "setWanted(): updated:" +
+                    "\nqueueDepth=$queueDepth," +
+                    "\nloadingCount=$loadingCount"
+        }
+
+        startLoadsIfPossible()
+    }
+
+    private fun startLoadsIfPossible() {
+        // Loads completing right away must not start more loads on their own.
+        if (isStartingLoads) {
+            return
+        }
+        isStartingLoads = true
+
+        while (loadsInProgress.size < maxConcurrentLoads && pendingPriorities.isNotEmpty()) {
+            val key = pendingPriorities.minBy(Map.Entry<K, Double>::value).key
+            pendingPriorities.remove(key)
+            startLoad(key)
+        }
+
+        isStartingLoads = false
+
+        checkIfAllLoaded()
+    }
+
+    private fun startLoad(key: K) {
+        // Keeping the key before subscribing, as the load may complete right away.
+        loadsInProgress[key] = Disposable.empty()
+
+        val loadDisposable = load(key)
+            .subscribeBy(
+                onComplete = {
+                    onLoadFinished(key)
+                },
+                onError = { error ->
+                    log.debug(error) {
+                        "startLoad(): load_failed:" +
+                                "\nkey=$key"
+                    }
+
+                    onLoadFinished(key)
+                },
+            )
+
+        if (key in loadsInProgress) {
+            loadsInProgress[key] = loadDisposable
+        }
+    }
+
+    private fun onLoadFinished(key: K) {
+        if (loadsInProgress.remove(key) == null) {
+            return
+        }
+
+        startLoadsIfPossible()
+    }
+
+    private fun checkIfAllLoaded() {
+        val busySinceMs = this.busySinceMs
+            ?: return
+
+        if (pendingPriorities.isEmpty() && loadsInProgress.isEmpty()) {
+            val timeToLoadAllMs = currentTimeMs() - busySinceMs
+            this.busySinceMs = null
+            lastTimeToLoadAllMs = timeToLoadAllMs
+
+            log.debug {
+                "checkIfAllLoaded(): all_loaded:" +
+                        "\ntimeToLoadAllMs=$timeToLoadAllMs"
+            }
+        }
+    }
+
+    override fun dispose() {
+        isDisposed = true
+        loadsInProgress.values.forEach(Disposable::dispose)
+        loadsInProgress.clear()
+        pendingPriorities.clear()
+    }
+
+    override fun isDisposed(): Boolean =
+        isDisposed
+}
@@ -0,0 +1,331 @@
+package ua.com.radiokot.photoprism.features.map.logic
+
+import android.app.Application
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.core.Single
+import io.reactivex.rxjava3.schedulers.Schedulers
+import org.maplibre.android.MapLibre
+import org.maplibre.android.geometry.LatLngBounds
+import org.maplibre.android.offline.OfflineManager
+import org.maplibre.android.offline.OfflineRegion
+import org.maplibre.android.offline.OfflineRegionError
+import org.maplibre.android.offline.OfflineRegionStatus
+import org.maplibre.android.offline.OfflineTilePyramidRegionDefinition
+import org.maplibre.android.storage.FileSource
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePack
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import ua.com.radiokot.photoprism.features.map.data.storage.MapPreferences
+import java.io.File
+
+/**
+ * Downloads the map regions with the photos for offline use,
+ * within the size limit set in the [mapPreferences].
+ *
+ * Regions of the previous download which are still in the plan are resumed
+ * rather than downloaded again, the rest of them are deleted.
+ * Once done, the pack info is saved to the [mapPreferences].
+ */
+class UpdateMapOfflinePackUseCase(
+    private val regionsPlanner: MapOfflineRegionsPlanner,
+    private val mapPreferences: MapPreferences,
+    private val mapCacheDirectory: File,
+    private val application: Application,
+) {
+    private val log = kLogger("UpdateMapOfflinePackUseCase")
+
+    private val offlineManager: OfflineManager by lazy {
+        MapLibre.getInstance(application)
+
+        // The regions are kept in the map cache database,
+        // which may be not set up yet if the map is not opened.
+        if (FileSource.getResourcesCachePath(application) != mapCacheDirectory.path) {
+            mapCacheDirectory.mkdirs()
+            FileSource.setResourcesCachePath(
+                mapCacheDirectory.path,
+                object : FileSource.ResourcesCachePathChangeCallback {
+                    override fun onSuccess(path: String) {}
+
+                    override fun onError(message: String) {
+                        log.error {
+                            "offlineManager: failed_setting_cache_path:" +
+                                    "\nmessage=$message"
+                        }
+                    }
+                }
+            )
+        }
+
+        OfflineManager.getInstance(application)
+    }
+
+    /**
+     * @param styleUrl URL of the style the map is shown with
+     * @param points points of all the library photos
+     */
+    operator fun invoke(
+        styleUrl: String,
+        points: MapPhotoPoints,
+    ): Completable {
+        val maxSizeBytes = mapPreferences.offlinePackLimit.maxSizeMb * 1024L * 1024L
+        if (maxSizeBytes == 0L) {
+            return Completable.complete()
+        }
+
+        // The offline manager must be used on the main thread.
+        return Single
+            .fromCallable {
+                regionsPlanner.plan(
+                    points = points,
+                    maxTileCount = maxSizeBytes / AVERAGE_TILE_SIZE_BYTES,
+                )
+            }
+            .subscribeOn(Schedulers.computation())
+            .observeOn(AndroidSchedulers.mainThread())
+            .flatMap { plannedRegions ->
+                log.debug {
+                    "invoke(): planned_regions:" +
+                            "\nregions=${plannedRegions.size}," +
+                            "\ntileCount=${plannedRegions.sumOf(MapOfflineRegionsPlanner.Region::tileCount)}," +
+                            "\nmaxSizeBytes=$maxSizeBytes"
+                }
+
+                offlineManager.setOfflineMappedTileCountLimit(
+                    maxOf(
+                        DEFAULT_TILE_COUNT_LIMIT,
+                        plannedRegions.sumOf(MapOfflineRegionsPlanner.Region::tileCount),
+                    )
+                )
+
+                getPackRegions()
+                    .flatMap { existingRegions ->
+                        val plannedMetadata = plannedRegions.associateBy { plannedRegion ->
+                            getRegionMetadata(plannedRegion, styleUrl)
+                        }
+
+                        deleteRegions(
+                            existingRegions.filterKeys { it !in plannedMetadata }.values
+                        ).andThen(
+                            downloadRegions(
+                                plannedRegions = plannedMetadata,
+                                existingRegions = existingRegions,
+                                styleUrl = styleUrl,
+                                maxSizeBytes = maxSizeBytes,
+                            )
+                        )
+                    }
+            }
+            .doOnSuccess { sizeBytes ->
+                mapPreferences.offlinePack = MapOfflinePack(
+                    sizeBytes = sizeBytes,
+                    updatedAt = System.currentTimeMillis(),
+                    styleUrl = styleUrl,
+                )
+
+                log.debug {
+                    "invoke(): updated:" +
+                            "\nsizeBytes=$sizeBytes"
+                }
+            }
+            .ignoreElement()
+    }
+
+    /**
+     * Deletes the regions downloaded by this use case and forgets the pack.
+     */
+    fun clear(): Completable =
+        Completable
+            .defer {
+                mapPreferences.offlinePack = null
+                getPackRegions()
+                    .flatMapCompletable { existingRegions ->
+                        deleteRegions(existingRegions.values)
+                    }
+            }
+            .subscribeOn(AndroidSchedulers.mainThread())
+
+    /**
+     * @return regions downloaded by this use case, by their metadata
+     */
+    private fun getPackRegions(): Single<Map<String, OfflineRegion>> = Single.create { emitter ->
+        offlineManager.listOfflineRegions(object : OfflineManager.ListOfflineRegionsCallback {
+            override fun onList(offlineRegions: Array<OfflineRegion>?) {
+                emitter.onSuccess(
+                    offlineRegions
+                        .orEmpty()
+                        .associateBy { String(it.metadata, Charsets.UTF_8) }
+                        .filterKeys { it.startsWith(METADATA_PREFIX) }
+                )
+            }
+
+            override fun onError(error: String) {
+                emitter.tryOnError(IllegalStateException("Failed listing regions: $error"))
+            }
+        })
+    }
+
+    private fun deleteRegions(regions: Collection<OfflineRegion>): Completable =
+        Observable
+            .fromIterable(regions)
+            .concatMapCompletable { region ->
+                Completable.create { emitter ->
+                    region.delete(object : OfflineRegion.OfflineRegionDeleteCallback {
+                        override fun onDelete() {
+                            emitter.onComplete()
+                        }
+
+                        override fun onError(error: String) {
+                            emitter.tryOnError(IllegalStateException("Failed deleting region: $error"))
+                        }
+                    })
+                }
+            }
+
+    /**
+     * Downloads the regions one by one, stopping once the [maxSizeBytes] is reached.
+     *
+     * @return total size of the downloaded regions
+     */
+    private fun downloadRegions(
+        plannedRegions: Map<String, MapOfflineRegionsPlanner.Region>,
+        existingRegions: Map<String, OfflineRegion>,
+        styleUrl: String,
+        maxSizeBytes: Long,
+    ): Single<Long> {
+        var downloadedSizeBytes = 0L
+
+        return Observable
+            .fromIterable(plannedRegions.entries)
+            .concatMapSingle { (metadata, plannedRegion) ->
+                val remainingSizeBytes = maxSizeBytes - downloadedSizeBytes
+                if (remainingSizeBytes <= 0) {
+                    return@concatMapSingle Single.just(0L)
+                }
+
+                val getRegion: Single<OfflineRegion> =
+                    existingRegions[metadata]
+                        ?.let { Single.just(it) }
+                        ?: createRegion(plannedRegion, styleUrl, metadata)
+
+                getRegion
+                    .flatMap { region ->
+                        downloadRegion(region, remainingSizeBytes)
+                    }
+                    .doOnSuccess { regionSizeBytes ->
+                        downloadedSizeBytes += regionSizeBytes
+
+                        log.debug {
+                            "downloadRegions(): region_downloaded:" +
+                                    "\nregion=$plannedRegion," +
+                                    "\nregionSizeBytes=$regionSizeBytes," +
+                                    "\ndownloadedSizeBytes=$downloadedSizeBytes"
+                        }
+                    }
+            }
+            .ignoreElements()
+            .toSingle { downloadedSizeBytes }
+    }
+
+    private fun createRegion(
+        plannedRegion: MapOfflineRegionsPlanner.Region,
+        styleUrl: String,
+        metadata: String,
+    ): Single<OfflineRegion> = Single.create { emitter ->
+        offlineManager.createOfflineRegion(
+            OfflineTilePyramidRegionDefinition(
+                styleUrl,
+                LatLngBounds.from(
+                    plannedRegion.north,
+                    plannedRegion.east,
+                    plannedRegion.south,
+                    plannedRegion.west,
+                ),
+                plannedRegion.minZoom.toDouble(),
+                plannedRegion.maxZoom.toDouble(),
+                application.resources.displayMetrics.density,
+            ),
+            metadata.toByteArray(Charsets.UTF_8),
+            object : OfflineManager.CreateOfflineRegionCallback {
+                override fun onCreate(offlineRegion: OfflineRegion) {
+                    emitter.onSuccess(offlineRegion)
+                }
+
+                override fun onError(error: String) {
+                    emitter.tryOnError(IllegalStateException("Failed creating region: $error"))
+                }
+            }
+        )
+    }
+
+    /**
+     * Downloads the [region] until it is complete or exceeds the [maxSizeBytes].
+     *
+     * @return size of the downloaded region
+     */
+    private fun downloadRegion(
+        region: OfflineRegion,
+        maxSizeBytes: Long,
+    ): Single<Long> = Single.create { emitter ->
+        fun stop() {
+            region.setObserver(null)
+            region.setDownloadState(OfflineRegion.STATE_INACTIVE)
+        }
+
+        var lastStatus: OfflineRegionStatus? = null
+
+        region.setObserver(object : OfflineRegion.OfflineRegionObserver {
+            override fun onStatusChanged(status: OfflineRegionStatus) {
+                lastStatus = status
+
+                if (status.isComplete || status.completedResourceSize >= maxSizeBytes) {
+                    stop()
+                    emitter.onSuccess(status.completedResourceSize)
+                }
+            }
+
+            override fun onError(error: OfflineRegionError) {
+                // Connection errors are retried by MapLibre.
+                log.warn {
+                    "downloadRegion(): error:" +
+                            "\nreason=${error.reason}," +
+                            "\nmessage=${error.message}"
+                }
+            }
+
+            override fun mapboxTileCountLimitExceeded(limit: Long) {
+                log.warn {
+                    "downloadRegion(): tile_count_limit_exceeded:" +
+                            "\nlimit=$limit"
+                }
+
+                stop()
+                emitter.onSuccess(lastStatus?.completedResourceSize ?: 0L)
+            }
+        })
+        region.setDownloadState(OfflineRegion.STATE_ACTIVE)
+
+        emitter.setCancellable(::stop)
+    }
+
+    private fun getRegionMetadata(
+        region: MapOfflineRegionsPlanner.Region,
+        styleUrl: String,
+    ) = "$METADATA_PREFIX${region.id}|$styleUrl"
+
+    private companion object {
+        private const val METADATA_PREFIX = "photoprism-places:"
+
+        /**
+         * A rough average size of a map tile with its resources,
+         * used to fit the regions into the size limit.
+         */
+        private const val AVERAGE_TILE_SIZE_BYTES = 40L * 1024
+
+        /**
+         * Default limit of the MapLibre offline manager.
+         */
+        private const val DEFAULT_TILE_COUNT_LIMIT = 6000L
+    }
+}
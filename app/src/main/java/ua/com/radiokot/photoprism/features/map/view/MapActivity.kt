@@ -2,7 +2,9 @@ package ua.com.radiokot.photoprism.features.map.view
 
 import android.content.Intent
 import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import android.graphics.Canvas
+import android.graphics.PointF
 import android.graphics.Rect
 import android.graphics.RectF
 import android.os.Bundle
@@ -20,9 +22,10 @@ import com.google.android.material.color.MaterialColors
 import com.squareup.picasso.Picasso
 import com.squareup.picasso.Transformation
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
+import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
 import io.reactivex.rxjava3.kotlin.subscribeBy
-import io.reactivex.rxjava3.kotlin.toObservable
+import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.PublishSubject
 import org.koin.android.ext.android.inject
 import org.koin.androidx.viewmodel.ext.android.viewModel
@@ -75,14 +78,21 @@ import ua.com.radiokot.photoprism.extension.autoDispose
 import ua.com.radiokot.photoprism.extension.intoSingle
 import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.subscribe
+import ua.com.radiokot.photoprism.extension.toMaybe
 import ua.com.radiokot.photoprism.features.gallery.data.model.LatLngPair
 import ua.com.radiokot.photoprism.features.gallery.logic.PhotoPrismMediaPreviewUrlFactory
 import ua.com.radiokot.photoprism.features.gallery.view.GallerySingleRepositoryActivity
+import ua.com.radiokot.photoprism.features.map.logic.PrioritizedLoadingQueue
 import ua.com.radiokot.photoprism.features.viewer.view.MediaViewerActivity
 import ua.com.radiokot.photoprism.util.FullscreenInsetsCompat
+import ua.com.radiokot.photoprism.util.images.BitmapPool
 import ua.com.radiokot.photoprism.util.images.ImageTransformations
+import ua.com.radiokot.photoprism.util.images.MediaPreviewDiskCache
+import java.io.ByteArrayOutputStream
 import java.util.Locale
 import java.util.concurrent.TimeUnit
+import kotlin.math.hypot
+import kotlin.math.log2
 
 class MapActivity : BaseActivity() {
 
@@ -94,6 +104,13 @@ class MapActivity : BaseActivity() {
     }
     private val picasso by inject<Picasso>()
     private val previewUrlFactory by inject<PhotoPrismMediaPreviewUrlFactory>()
+    private val previewCache by inject<MediaPreviewDiskCache>()
+
+    // Cluster thumbnails are copied once added to the style,
+    // so their bitmaps can be reused.
+    private val clusterThumbnailBitmapPool = BitmapPool(
+        maxCount = 16,
+    )
     private val thumbnailSizePx: Int by lazy {
         resources.getDimensionPixelSize(R.dimen.map_image_width)
     }
@@ -195,23 +212,31 @@ class MapActivity : BaseActivity() {
         style: Style,
         savedInstanceState: Bundle?,
     ) {
+        // Move camera closer to the photos once,
+        // if there's no explicit start position.
+        var isCameraMovedToPhotos =
+            viewModel.startPosition != null || savedInstanceState != null
+
         viewModel
             .featureCollection
             .observe(this@MapActivity) { featureCollection ->
-                style.addSource(createClusteredSource(featureCollection))
+                val existingSource = style.getSourceAs<GeoJsonSource>(SOURCE_ID)
+                if (existingSource != null) {
+                    existingSource.setGeoJson(featureCollection)
+                } else {
+                    style.addSource(createClusteredSource(featureCollection))
+                }
 
-                // Move camera closer to the photos once,
-                // if there's no explicit start position.
-                if (viewModel.startPosition == null && savedInstanceState == null) {
-                    val boundingBox = checkNotNull(featureCollection.bbox()) {
-                        "There must be the bounding box"
-                    }
+                // Only the complete collection has the bounding box.
+                val boundingBox = featureCollection.bbox()
+                if (!isCameraMovedToPhotos && boundingBox != null) {
                     map.easeCamera(
                         CameraUpdateFactory.newLatLngBounds(
                             bounds = boundingBox.toLatLngBounds(),
                             padding = thumbnailSizePx / 2,
                         )
                     )
+                    isCameraMovedToPhotos = true
                 }
             }
 
@@ -379,49 +404,12 @@ class MapActivity : BaseActivity() {
         photoLayer: SymbolLayer,
         clusterLayer: SymbolLayer,
     ) {
-        val thumbnailsBeingLoaded = mutableSetOf<String>()
         val contentUpdates = PublishSubject.create<Unit>()
         val photoLayerInvalidations = PublishSubject.create<Unit>()
         val clusterLayerInvalidations = PublishSubject.create<Unit>()
-
-        view.map.addOnDidFinishRenderingFrameListener { fully, _, _ ->
-            if (fully) {
-                contentUpdates.onNext(Unit)
-            }
-        }
-
-        contentUpdates
-            .throttleLast(100, TimeUnit.MILLISECONDS)
-            .observeOn(AndroidSchedulers.mainThread())
-            .map {
-                map.queryRenderedFeatures(
-                    map.projection.visibleRegion.latLngBounds.toRectF(map),
-                    photoLayer.id,
-                    clusterLayer.id,
-                )
-            }
-            .distinctUntilChanged()
-            .flatMap { visibleFeatures ->
-                log.debug {
-                    "initThumbnailsLoading(): visible_features_changed"
-                }
-
-                visibleFeatures
-                    .mapTo(mutableSetOf()) { feature ->
-                        if (feature.hasProperty("Hashes"))
-                            feature.getStringProperty("Hashes")
-                        else
-                            feature.getStringProperty("Hash")
-                    }
-                    .filter { thumbnailId ->
-                        style.getImage(thumbnailId) == null
-                                && thumbnailId !in thumbnailsBeingLoaded
-                    }
-                    .toObservable()
-            }
-            .subscribe { thumbnailId ->
-                thumbnailsBeingLoaded += thumbnailId
-
+        val thumbnailsLoadingQueue = PrioritizedLoadingQueue(
+            maxConcurrentLoads = MAX_CONCURRENT_THUMBNAIL_LOADS,
+            load = { thumbnailId: String ->
                 log.debug {
                     "initThumbnailsLoading(): start_loading:" +
                             "\nid=$thumbnailId"
@@ -437,22 +425,86 @@ class MapActivity : BaseActivity() {
 
                 getThumbnailBitmap
                     .doOnEvent { _, error ->
-                        thumbnailsBeingLoaded -= thumbnailId
                         log.debug {
                             "initThumbnailsLoading(): loading_finished:" +
                                     "\nid=$thumbnailId," +
                                     "\nsuccess=${error == null}"
                         }
                     }
-                    .subscribeBy { thumbnailBitmap ->
+                    .doOnSuccess { thumbnailBitmap ->
                         style.addImage(thumbnailId, thumbnailBitmap)
                         if (isCluster) {
+                            clusterThumbnailBitmapPool.put(thumbnailBitmap)
                             clusterLayerInvalidations.onNext(Unit)
                         } else {
                             photoLayerInvalidations.onNext(Unit)
                         }
                     }
-                    .autoDispose(this)
+                    .ignoreElement()
+            },
+        ).autoDispose(this)
+
+        view.map.addOnDidFinishRenderingFrameListener { fully, _, _ ->
+            if (fully) {
+                contentUpdates.onNext(Unit)
+            }
+        }
+
+        contentUpdates
+            .throttleLast(100, TimeUnit.MILLISECONDS)
+            .observeOn(AndroidSchedulers.mainThread())
+            .map {
+                map.queryRenderedFeatures(
+                    map.projection.visibleRegion.latLngBounds.toRectF(map),
+                    photoLayer.id,
+                    clusterLayer.id,
+                )
+            }
+            .distinctUntilChanged()
+            .subscribe { visibleFeatures ->
+                val viewportCenter = PointF(view.map.width / 2f, view.map.height / 2f)
+
+                // Thumbnails closer to the center and of bigger clusters go first.
+                val thumbnailPriorities = mutableMapOf<String, Double>()
+                visibleFeatures.forEach { feature ->
+                    val thumbnailId =
+                        if (feature.hasProperty("Hashes"))
+                            feature.getStringProperty("Hashes")
+                        else
+                            feature.getStringProperty("Hash")
+
+                    if (thumbnailId == null || style.getImage(thumbnailId) != null) {
+                        return@forEach
+                    }
+
+                    val point = feature.geometry() as? Point
+                        ?: return@forEach
+                    val screenLocation = map.projection.toScreenLocation(point.toLatLng())
+                    val distanceToCenter = hypot(
+                        screenLocation.x - viewportCenter.x,
+                        screenLocation.y - viewportCenter.y,
+                    ).toDouble()
+                    val pointCount =
+                        if (feature.hasProperty("point_count"))
+                            feature.getNumberProperty("point_count").toInt()
+                        else
+                            1
+                    val priority = distanceToCenter / log2(2.0 + pointCount)
+
+                    thumbnailPriorities[thumbnailId] = minOf(
+                        priority,
+                        thumbnailPriorities[thumbnailId] ?: Double.MAX_VALUE
+                    )
+                }
+
+                thumbnailsLoadingQueue.setWanted(thumbnailPriorities)
+
+                log.debug {
+                    "initThumbnailsLoading(): visible_features_changed:" +
+                            "\nqueueDepth=${thumbnailsLoadingQueue.queueDepth}," +
+                            "\nloadingCount=${thumbnailsLoadingQueue.loadingCount}," +
+                            "\nlastTimeToLoadAllMs=${thumbnailsLoadingQueue.lastTimeToLoadAllMs}"
+                }
             }
             .autoDispose(this)
 
@@ -547,6 +599,57 @@ class MapActivity : BaseActivity() {
             else
                 thumbnailHashes.take(2)
 
+        // The composite is identified by the hashes it is made of.
+        // The key is null if the hashes can't be used in a file name.
+        val cacheKey = MediaPreviewDiskCache.Key.fromFileName(
+            thumbnailHashes.joinToString("") + "_${CLUSTER_THUMBNAIL_CACHE_KIND}_$thumbnailSizePx"
+        )
+
+        val getCachedBitmap =
+            if (cacheKey != null)
+                getCachedClusterThumbnailBitmap(cacheKey)
+            else
+                Maybe.empty()
+
+        return getCachedBitmap
+            .switchIfEmpty(
+                composeClusterThumbnailBitmap(thumbnailHashes)
+                    .observeOn(Schedulers.io())
+                    .doOnSuccess { thumbnailBitmap ->
+                        if (cacheKey != null) {
+                            val output = ByteArrayOutputStream()
+                            thumbnailBitmap.compress(Bitmap.CompressFormat.PNG, 100, output)
+                            previewCache.put(cacheKey, output.toByteArray())
+                        }
+                    }
+            )
+            .observeOn(AndroidSchedulers.mainThread())
+    }
+
+    private fun getCachedClusterThumbnailBitmap(
+        cacheKey: MediaPreviewDiskCache.Key,
+    ): Maybe<Bitmap> = {
+        previewCache.get(cacheKey)?.let { cachedFile ->
+            val options = BitmapFactory.Options()
+            options.inMutable = true
+            options.inBitmap = clusterThumbnailBitmapPool.get(
+                minByteCount = thumbnailSizePx * thumbnailSizePx * 4,
+            )
+
+            try {
+                BitmapFactory.decodeFile(cachedFile.path, options)
+            } catch (_: IllegalArgumentException) {
+                // The pooled bitmap doesn't fit.
+                options.inBitmap?.also(clusterThumbnailBitmapPool::put)
+                options.inBitmap = null
+                BitmapFactory.decodeFile(cachedFile.path, options)
+            }
+        }
+    }.toMaybe().subscribeOn(Schedulers.io())
+
+    private fun composeClusterThumbnailBitmap(
+        thumbnailHashes: List<String>,
+    ): Single<Bitmap> {
         val composeTiles =
             if (thumbnailHashes.size == 4) {
                 val tileSize = thumbnailSizePx / 2
@@ -562,8 +665,7 @@ class MapActivity : BaseActivity() {
                             .resize(tileSize, tileSize)
                             .intoSingle()
                     }
-                    .let(Single<Bitmap>::concatDelayError)
-                    .toList()
+                    .let(::zipTiles)
                     .map(::composeFourTiles)
             } else {
                 thumbnailHashes
@@ -578,8 +680,7 @@ class MapActivity : BaseActivity() {
                             .resize(thumbnailSizePx, thumbnailSizePx)
                             .intoSingle()
                     }
-                    .let(Single<Bitmap>::concatDelayError)
-                    .toList()
+                    .let(::zipTiles)
                     .map(::composeTwoTiles)
             }
 
@@ -587,6 +688,18 @@ class MapActivity : BaseActivity() {
             .map(thumbnailTransformation::transform)
     }
 
+    /**
+     * Loads all the tiles at once, emitting them on a computation thread to compose.
+     */
+    private fun zipTiles(tiles: List<Single<Bitmap>>): Single<List<Bitmap>> =
+        Single
+            .zip(tiles) { loadedTiles ->
+                loadedTiles.map { it as Bitmap }
+            }
+            // Picasso must be called from the main thread.
+            .subscribeOn(AndroidSchedulers.mainThread())
+            .observeOn(Schedulers.computation())
+
     private fun composeFourTiles(fourTiles: List<Bitmap>): Bitmap {
         val size = fourTiles[0].width
         val resultBitmap = createBitmap(size * 2, size * 2)
@@ -741,11 +854,13 @@ class MapActivity : BaseActivity() {
     override fun onLowMemory() {
         super.onLowMemory()
         view.map.onLowMemory()
+        clusterThumbnailBitmapPool.clear()
     }
 
     override fun onDestroy() {
         super.onDestroy()
         view.map.onDestroy()
+        clusterThumbnailBitmapPool.clear()
     }
 
     override fun onSaveInstanceState(outState: Bundle) {
@@ -776,6 +891,8 @@ class MapActivity : BaseActivity() {
     companion object {
         private const val SOURCE_ID = "pp-clustered-photos"
         private const val BIG_CLUSTER_MIN_SIZE = 5
+        private const val CLUSTER_THUMBNAIL_CACHE_KIND = "mapcluster"
+        private const val MAX_CONCURRENT_THUMBNAIL_LOADS = 6
         private const val START_POSITION_EXTRA = "start_position"
 
         fun getBundle(
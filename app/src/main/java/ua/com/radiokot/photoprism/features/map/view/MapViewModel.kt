@@ -4,25 +4,34 @@ import android.app.Application
 import androidx.lifecycle.AndroidViewModel
 import androidx.lifecycle.MutableLiveData
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.kotlin.subscribeBy
 import io.reactivex.rxjava3.schedulers.Schedulers
 import io.reactivex.rxjava3.subjects.PublishSubject
 import org.maplibre.android.MapLibre
 import org.maplibre.android.geometry.LatLng
 import org.maplibre.android.storage.FileSource
+import org.maplibre.geojson.BoundingBox
+import org.maplibre.geojson.Feature
 import org.maplibre.geojson.FeatureCollection
 import org.maplibre.geojson.Point
 import ua.com.radiokot.photoprism.extension.autoDispose
 import ua.com.radiokot.photoprism.extension.kLogger
 import ua.com.radiokot.photoprism.extension.observeOnMain
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
-import ua.com.radiokot.photoprism.features.map.data.storage.MapGeoJsonRepository
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePackLimit
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import ua.com.radiokot.photoprism.features.map.data.storage.MapPhotoPointsRepository
 import ua.com.radiokot.photoprism.features.map.data.storage.MapPreferences
+import ua.com.radiokot.photoprism.features.map.logic.UpdateMapOfflinePackUseCase
 import java.io.File
 
 class MapViewModel(
-    private val geoJsonRepository: MapGeoJsonRepository,
+    private val photoPointsRepository: MapPhotoPointsRepository,
     private val mapCacheDirectory: File,
     private val mapPreferences: MapPreferences,
+    private val updateMapOfflinePackUseCase: UpdateMapOfflinePackUseCase,
     private val defaultMapStyleUrl: String,
     application: Application,
 ) : AndroidViewModel(application) {
@@ -31,6 +40,11 @@ class MapViewModel(
     private val eventsSubject = PublishSubject.create<Event>()
     val events = eventsSubject.observeOnMain()
     val isLoading = MutableLiveData(false)
+
+    /**
+     * Features to show on the map. While the photos are being loaded,
+     * the collection may be partial, in which case it has no bounding box.
+     */
     val featureCollection = MutableLiveData<FeatureCollection>()
     var startPosition: LatLng? = null
         private set
@@ -39,6 +53,14 @@ class MapViewModel(
             mapPreferences.customStyleUrl
                 ?: defaultMapStyleUrl
     private var isInitialized = false
+    private var offlinePackUpdateDisposable: Disposable? = null
+
+    /**
+     * Features of the points being read, in the order of the points.
+     * As the partial points of the same read only grow,
+     * only the newly read ones are converted.
+     */
+    private val readPointFeatures = ArrayList<Feature>()
 
     fun initOnce(
         startPosition: Pair<Double, Double>?,
@@ -94,47 +116,143 @@ class MapViewModel(
     }
 
     private fun subscribeToRepository() {
-        geoJsonRepository.loading
+        photoPointsRepository.loading
             .subscribe(isLoading::postValue)
             .autoDispose(this)
 
-        geoJsonRepository.errors
+        photoPointsRepository.errors
             .observeOn(AndroidSchedulers.mainThread())
             .subscribe { error ->
                 log.error(error) {
-                    "subscribeToRepository(): geojson_loading_failed"
+                    "subscribeToRepository(): points_loading_failed"
                 }
 
                 eventsSubject.onNext(Event.ShowFloatingLoadingFailedError)
             }
             .autoDispose(this)
 
-        geoJsonRepository.item
-            .filter { !geoJsonRepository.isNeverUpdated }
+        var isCompleteCollectionPosted = false
+
+        // Merged to be handled in order on a single worker.
+        Observable
+            .merge(
+                photoPointsRepository.partialItem
+                    .map { partialPoints -> partialPoints to false },
+                photoPointsRepository.item
+                    .map { points -> points to true },
+            )
             .observeOn(Schedulers.computation())
-            .subscribe { geoJson ->
-                val originalFeatureCollection = FeatureCollection.fromJson(geoJson)
+            .subscribe { (points, isComplete) ->
+                if (!isComplete && isCompleteCollectionPosted) {
+                    return@subscribe
+                }
+
                 featureCollection.postValue(
-                    FeatureCollection.fromFeatures(
-                        originalFeatureCollection
-                            .features()!!
-                            // Reverse the features to see newest photos first
-                            // in cluster thumbnails.
-                            .reversed()
-                            // Assign latitude and longitude as properties
-                            // to later calculate cluster bounds.
-                            .onEach { feature ->
-                                val geometry = feature.geometry() as Point
-                                feature.addNumberProperty("Lat", geometry.latitude())
-                                feature.addNumberProperty("Lng", geometry.longitude())
-                            },
-                        originalFeatureCollection.bbox(),
+                    points.toFeatureCollection(
+                        withBoundingBox = isComplete,
                     )
                 )
+
+                if (isComplete) {
+                    isCompleteCollectionPosted = true
+                    readPointFeatures.clear()
+
+                    if (!photoPointsRepository.isItemFromCache) {
+                        updateOfflinePackIfNeeded(points)
+                    }
+                }
+
+                log.debug {
+                    "subscribeToRepository(): posted_feature_collection:" +
+                            "\npoints=$points," +
+                            "\nisComplete=$isComplete," +
+                            "\nisFromCache=${photoPointsRepository.isItemFromCache}"
+                }
             }
             .autoDispose(this)
     }
 
+    private fun updateOfflinePackIfNeeded(points: MapPhotoPoints) {
+        if (offlinePackUpdateDisposable?.isDisposed == false) {
+            return
+        }
+
+        val offlinePackLimit = mapPreferences.offlinePackLimit
+        val offlinePack = mapPreferences.offlinePack
+        val styleUrl = this.styleUrl
+        val isOfflinePackFresh =
+            offlinePack != null
+                    && offlinePack.styleUrl == styleUrl
+                    && System.currentTimeMillis() - offlinePack.updatedAt < OFFLINE_PACK_MAX_AGE_MS
+
+        log.debug {
+            "updateOfflinePackIfNeeded(): checking:" +
+                    "\nofflinePackLimit=$offlinePackLimit," +
+                    "\nofflinePack=$offlinePack," +
+                    "\nisOfflinePackFresh=$isOfflinePackFresh"
+        }
+
+        if (offlinePackLimit == MapOfflinePackLimit.OFF || isOfflinePackFresh) {
+            return
+        }
+
+        offlinePackUpdateDisposable = updateMapOfflinePackUseCase(
+            styleUrl = styleUrl,
+            points = points,
+        )
+            .subscribeBy(
+                onError = { error ->
+                    log.error(error) {
+                        "updateOfflinePackIfNeeded(): failed_updating"
+                    }
+                },
+                onComplete = {
+                    log.debug {
+                        "updateOfflinePackIfNeeded(): updated"
+                    }
+                }
+            )
+            .autoDispose(this)
+    }
+
+    private fun MapPhotoPoints.toFeatureCollection(
+        withBoundingBox: Boolean,
+    ): FeatureCollection {
+        val isContinuationOfRead =
+            readPointFeatures.size in 1..size
+                    && readPointFeatures.last().getStringProperty("UID") == getUid(readPointFeatures.size - 1)
+        if (!isContinuationOfRead) {
+            readPointFeatures.clear()
+        }
+
+        readPointFeatures.ensureCapacity(size)
+        for (i in readPointFeatures.size until size) {
+            val lat = getLat(i)
+            val lng = getLng(i)
+            readPointFeatures += Feature.fromGeometry(Point.fromLngLat(lng, lat)).apply {
+                addStringProperty("Hash", getHash(i))
+                addStringProperty("UID", getUid(i))
+                // Assign latitude and longitude as properties
+                // to later calculate cluster bounds.
+                addNumberProperty("Lat", lat)
+                addNumberProperty("Lng", lng)
+            }
+        }
+
+        // Go backwards to see newest photos first in cluster thumbnails.
+        // The features are copied, as the read ones keep growing.
+        val features = ArrayList(readPointFeatures.asReversed())
+
+        val boundingBox =
+            if (withBoundingBox)
+                getBounds()?.let { (south, west, north, east) ->
+                    BoundingBox.fromLngLats(west, south, east, north)
+                }
+            else
+                null
+
+        return FeatureCollection.fromFeatures(features, boundingBox)
+    }
 
     private fun update(force: Boolean = false) {
         log.debug {
@@ -143,9 +261,9 @@ class MapViewModel(
         }
 
         if (force) {
-            geoJsonRepository.update()
+            photoPointsRepository.update()
         } else {
-            geoJsonRepository.updateIfNotFresh()
+            photoPointsRepository.updateIfNotFresh()
         }
     }
 
@@ -226,4 +344,12 @@ class MapViewModel(
             val repositoryParams: SimpleGalleryMediaRepository.Params,
         ) : Event
     }
+
+    private companion object {
+        /**
+         * After this time, the offline map is downloaded again
+         * to follow the changes of the library and the map itself.
+         */
+        private const val OFFLINE_PACK_MAX_AGE_MS = 7 * 24 * 3600 * 1000L
+    }
 }
@@ -7,6 +7,8 @@ import android.os.Build
 import android.os.Bundle
 import android.provider.Settings
 import android.text.InputType
+import android.text.format.DateUtils
+import android.text.format.Formatter
 import android.view.View
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.annotation.RequiresApi
@@ -62,7 +64,9 @@ import ua.com.radiokot.photoprism.features.gallery.search.logic.ExportSearchBook
 import ua.com.radiokot.photoprism.features.gallery.search.logic.ImportSearchBookmarksUseCase
 import ua.com.radiokot.photoprism.features.gallery.search.logic.SearchBookmarksBackup
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryItemScale
+import ua.com.radiokot.photoprism.features.map.data.model.MapOfflinePackLimit
 import ua.com.radiokot.photoprism.features.map.data.storage.MapPreferences
+import ua.com.radiokot.photoprism.features.map.logic.UpdateMapOfflinePackUseCase
 import ua.com.radiokot.photoprism.features.prefs.extension.bindToSubject
 import ua.com.radiokot.photoprism.features.prefs.extension.requirePreference
 import ua.com.radiokot.photoprism.features.viewer.slideshow.data.model.SlideshowSpeed
@@ -328,6 +332,20 @@ class PreferencesFragment :
                     }
                 }
             }
+            with(requirePreference(R.string.pk_offline_map)) {
+                this as ListPreference
+                entries = resources.getStringArray(R.array.offline_map_limit_array)
+                entryValues = MapOfflinePackLimit.entries.map(MapOfflinePackLimit::name).toTypedArray()
+                value = mapPreferences.offlinePackLimit.name
+                summary = getOfflineMapSummary(entry)
+                setOnPreferenceChangeListener { _, newValue ->
+                    val newLimit = MapOfflinePackLimit.valueOf(newValue as String)
+                    mapPreferences.offlinePackLimit = newLimit
+                    onOfflineMapLimitChanged(newLimit)
+                    summary = getOfflineMapSummary(entries[newLimit.ordinal])
+                    true
+                }
+            }
         } else {
             requirePreference(R.string.pk_map).isVisible = false
         }
@@ -431,6 +449,52 @@ class PreferencesFragment :
             .show()
     }
 
+    private fun getOfflineMapSummary(limitName: CharSequence?): String {
+        val offlinePack = mapPreferences.offlinePack
+
+        return when {
+            mapPreferences.offlinePackLimit == MapOfflinePackLimit.OFF ->
+                limitName.toString()
+
+            offlinePack != null ->
+                getString(
+                    R.string.template_offline_map_preference_summary,
+                    limitName,
+                    Formatter.formatShortFileSize(requireContext(), offlinePack.sizeBytes),
+                    DateUtils.getRelativeTimeSpanString(offlinePack.updatedAt),
+                )
+
+            else ->
+                getString(
+                    R.string.template_offline_map_preference_summary_pending,
+                    limitName,
+                )
+        }
+    }
+
+    private fun onOfflineMapLimitChanged(newLimit: MapOfflinePackLimit) {
+        log.debug {
+            "onOfflineMapLimitChanged(): changed:" +
+                    "\nnewLimit=$newLimit"
+        }
+
+        if (newLimit == MapOfflinePackLimit.OFF) {
+            get<UpdateMapOfflinePackUseCase>()
+                .clear()
+                .subscribeBy(
+                    onError = { error ->
+                        log.error(error) {
+                            "onOfflineMapLimitChanged(): failed_clearing"
+                        }
+                    }
+                )
+                .autoDispose(this)
+        } else {
+            // The pack is downloaded again within the new limit when the map is opened.
+            mapPreferences.offlinePack = null
+        }
+    }
+
     private fun exportBookmarks() {
         log.debug { "exportBookmarks(): begin_export" }
 
@@ -4,8 +4,11 @@ import androidx.annotation.OptIn
 import androidx.media3.common.util.UnstableApi
 import androidx.media3.database.StandaloneDatabaseProvider
 import androidx.media3.datasource.cache.Cache
+import androidx.media3.datasource.cache.CacheDataSource
 import androidx.media3.datasource.cache.LeastRecentlyUsedCacheEvictor
 import androidx.media3.datasource.cache.SimpleCache
+import androidx.media3.datasource.okhttp.OkHttpDataSource
+import okhttp3.CacheControl
 import org.koin.core.module.dsl.scopedOf
 import org.koin.core.module.dsl.viewModelOf
 import org.koin.core.qualifier._q
@@ -14,10 +17,13 @@ import org.koin.dsl.bind
 import org.koin.dsl.module
 import ua.com.radiokot.photoprism.di.EnvHttpClientParams
 import ua.com.radiokot.photoprism.di.HttpClient
+import ua.com.radiokot.photoprism.di.SESSION_BASE_HTTP_CLIENT
 import ua.com.radiokot.photoprism.di.VIDEO_CACHE_DIRECTORY
+import ua.com.radiokot.photoprism.di.VIDEO_MAX_CONCURRENT_CALLS
 import ua.com.radiokot.photoprism.env.data.model.EnvSession
 import ua.com.radiokot.photoprism.features.gallery.galleryFeatureModule
 import ua.com.radiokot.photoprism.features.viewer.logic.DefaultVideoPlayerFactory
+import ua.com.radiokot.photoprism.features.viewer.logic.MediaViewerPagePreloader
 import ua.com.radiokot.photoprism.features.viewer.logic.UpdateGalleryMediaAttributesUseCase
 import ua.com.radiokot.photoprism.features.viewer.logic.VideoPlayerFactory
 import ua.com.radiokot.photoprism.features.viewer.view.model.GalleryMediaViewerViewModel
@@ -46,26 +52,47 @@ val mediaViewerFeatureModule = module {
         viewModelOf(::GalleryMediaViewerViewModel)
 
         scoped {
-            val session = get<EnvSession>()
-
             // Own HTTP client is used for video player to enable mTLS and HTTP basic auth.
             // It should not have a cache, as it is managed by the player.
             val httpClient = get<HttpClient>(_q<EnvHttpClientParams>()) {
                 EnvHttpClientParams(
                     sessionAwareness = null,
-                    clientCertificateAlias = session.envConnectionParams.clientCertificateAlias,
-                    authorization = session.envConnectionParams.httpAuth,
+                    clientCertificateAlias = null,
                     withLogging = false,
+                    baseClient = get(named(SESSION_BASE_HTTP_CLIENT)),
+                    maxConcurrentCalls = VIDEO_MAX_CONCURRENT_CALLS,
                 )
             }
 
+            CacheDataSource.Factory()
+                .setCache(get())
+                .setUpstreamDataSourceFactory(
+                    OkHttpDataSource.Factory(httpClient)
+                        .setCacheControl(
+                            CacheControl.Builder()
+                                // Assumption: PhotoPrism content identified by hash is immutable.
+                                // I'm not sure if it is used by video player own cache.
+                                .immutable()
+                                .build()
+                        )
+                )
+        } bind CacheDataSource.Factory::class
+
+        scoped {
             DefaultVideoPlayerFactory(
-                httpClient = httpClient,
-                sharedCache = get(),
+                cacheDataSourceFactory = get(),
                 context = get(),
             )
         } bind VideoPlayerFactory::class
 
+        // Each viewer cancels its own preloading.
+        factory {
+            MediaViewerPagePreloader(
+                picasso = get(),
+                cacheDataSourceFactory = get(),
+            )
+        } bind MediaViewerPagePreloader::class
+
         viewModelOf(::VideoPlayerCacheViewModel)
 
         scopedOf(::UpdateGalleryMediaAttributesUseCase)
@@ -3,19 +3,18 @@ package ua.com.radiokot.photoprism.features.viewer.logic
 import android.content.Context
 import androidx.annotation.OptIn
 import androidx.media3.common.util.UnstableApi
-import androidx.media3.datasource.cache.Cache
 import androidx.media3.datasource.cache.CacheDataSource
-import androidx.media3.datasource.okhttp.OkHttpDataSource
 import androidx.media3.exoplayer.DefaultLoadControl
 import androidx.media3.exoplayer.ExoPlayer
 import androidx.media3.exoplayer.source.DefaultMediaSourceFactory
-import okhttp3.CacheControl
-import ua.com.radiokot.photoprism.di.HttpClient
 
+/**
+ * @param cacheDataSourceFactory factory of the data sources reading through the shared cache,
+ * also used by [MediaViewerPagePreloader] for the preloaded data to be picked up.
+ */
 @OptIn(UnstableApi::class)
 class DefaultVideoPlayerFactory(
-    private val httpClient: HttpClient,
-    private val sharedCache: Cache,
+    private val cacheDataSourceFactory: CacheDataSource.Factory,
     private val context: Context,
 ) : VideoPlayerFactory {
     override fun createVideoPlayer(): VideoPlayer =
@@ -31,20 +30,7 @@ class DefaultVideoPlayerFactory(
                     .build()
             )
             .setMediaSourceFactory(
-                DefaultMediaSourceFactory(
-                    CacheDataSource.Factory()
-                        .setCache(sharedCache)
-                        .setUpstreamDataSourceFactory(
-                            OkHttpDataSource.Factory(httpClient)
-                                .setCacheControl(
-                                    CacheControl.Builder()
-                                        // Assumption: PhotoPrism content identified by hash is immutable.
-                                        // I'm not sure if it is used by video player own cache.
-                                        .immutable()
-                                        .build()
-                                )
-                        )
-                )
+                DefaultMediaSourceFactory(cacheDataSourceFactory)
                     .fixClippingSources()
             )
             .build()
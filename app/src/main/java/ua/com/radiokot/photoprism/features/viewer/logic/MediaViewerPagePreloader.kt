@@ -0,0 +1,279 @@
+package ua.com.radiokot.photoprism.features.viewer.logic
+
+import android.net.Uri
+import androidx.annotation.OptIn
+import androidx.collection.LruCache
+import androidx.media3.common.util.UnstableApi
+import androidx.media3.datasource.DataSpec
+import androidx.media3.datasource.cache.CacheDataSource
+import androidx.media3.datasource.cache.CacheWriter
+import com.squareup.picasso.Callback
+import com.squareup.picasso.Picasso
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.disposables.Disposable
+import io.reactivex.rxjava3.kotlin.subscribeBy
+import io.reactivex.rxjava3.schedulers.Schedulers
+import ua.com.radiokot.photoprism.extension.hardwareConfigIfAvailable
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.features.viewer.view.model.FadeEndLivePhotoViewerPage
+import ua.com.radiokot.photoprism.features.viewer.view.model.ImageViewerPage
+import ua.com.radiokot.photoprism.features.viewer.view.model.MediaViewerPage
+import ua.com.radiokot.photoprism.features.viewer.view.model.VideoViewerPage
+
+/**
+ * Preloads content of the pages next to the current one,
+ * so swiping to them does not wait for the network.
+ *
+ * Images are decoded into the Picasso memory cache with the same size and scaling
+ * as the page view holders use, so the cache keys match.
+ * Beginnings of videos are written to the shared video cache
+ * through the same data source factory as the video player uses.
+ *
+ * Must be used from the main thread.
+ *
+ * @param cacheDataSourceFactory factory of the data sources of the video player
+ */
+@OptIn(UnstableApi::class)
+class MediaViewerPagePreloader(
+    private val picasso: Picasso,
+    private val cacheDataSourceFactory: CacheDataSource.Factory,
+    private val imageMemoryBudgetBytes: Long = Runtime.getRuntime().maxMemory() / 8,
+) {
+    private val log = kLogger("MediaViewerPagePreloader")
+
+    private val preloadingImageUrls = mutableSetOf<String>()
+    private val preloadedImageUrls = LruCache<String, Boolean>(MAX_REMEMBERED_PRELOADED_URLS)
+    private val videoPreloadingDisposables = mutableMapOf<String, Disposable>()
+    private val preloadedVideoUrls = LruCache<String, Boolean>(MAX_REMEMBERED_PRELOADED_URLS)
+
+    /**
+     * Starts preloading the pages around the [currentIndex]
+     * and cancels preloading of the pages which are no longer around,
+     * e.g. when the user jumped away.
+     *
+     * @param pagesAhead max number of the next pages to preload
+     * @param pagesBehind max number of the previous pages to preload
+     */
+    fun preloadAround(
+        pages: List<MediaViewerPage>,
+        currentIndex: Int,
+        pagesAhead: Int = DEFAULT_PAGES_AROUND,
+        pagesBehind: Int = DEFAULT_PAGES_AROUND,
+    ) {
+        val imagePagesBudget = getImagePagesBudget(pages.getOrNull(currentIndex))
+        val imagesToPreload = mutableListOf<ImageToPreload>()
+        val videoUrisToPreload = mutableListOf<Uri>()
+
+        // Nearest pages first, ahead before behind.
+        for (distance in 1..maxOf(pagesAhead, pagesBehind)) {
+            for (index in listOf(currentIndex + distance, currentIndex - distance)) {
+                if (index > currentIndex && distance > pagesAhead
+                    || index < currentIndex && distance > pagesBehind
+                ) {
+                    continue
+                }
+
+                when (val page = pages.getOrNull(index)) {
+                    is ImageViewerPage ->
+                        imagesToPreload += ImageToPreload(
+                            url = page.previewUrl,
+                            width = page.imageViewSize.width,
+                            height = page.imageViewSize.height,
+                        )
+
+                    is FadeEndLivePhotoViewerPage -> {
+                        imagesToPreload += ImageToPreload(
+                            url = page.photoPreviewUrl,
+                            width = page.imageViewSize.width,
+                            height = page.imageViewSize.height,
+                        )
+                        if (distance <= VIDEO_PAGES_AROUND) {
+                            videoUrisToPreload += page.videoPreviewUri
+                        }
+                    }
+
+                    is VideoViewerPage ->
+                        if (distance <= VIDEO_PAGES_AROUND) {
+                            videoUrisToPreload += page.previewUri
+                        }
+
+                    else -> {
+                        // Nothing to preload.
+                    }
+                }
+            }
+        }
+
+        preloadImages(imagesToPreload.take(imagePagesBudget))
+        preloadVideos(videoUrisToPreload)
+    }
+
+    /**
+     * @return how many pages of the current page size fit the memory budget
+     */
+    private fun getImagePagesBudget(currentPage: MediaViewerPage?): Int {
+        val imageViewSize = when (currentPage) {
+            is ImageViewerPage -> currentPage.imageViewSize
+            is FadeEndLivePhotoViewerPage -> currentPage.imageViewSize
+            else -> null
+        }
+            ?: return DEFAULT_PAGES_AROUND * 2
+
+        // ARGB_8888 is the worst case.
+        val imageBytes = imageViewSize.width.toLong() * imageViewSize.height * 4
+        return (imageMemoryBudgetBytes / imageBytes.coerceAtLeast(1L))
+            .coerceAtMost(Int.MAX_VALUE.toLong())
+            .toInt()
+    }
+
+    private fun preloadImages(images: List<ImageToPreload>) {
+        val urlsToPreload = images.mapTo(mutableSetOf(), ImageToPreload::url)
+
+        preloadingImageUrls
+            .filter { it !in urlsToPreload }
+            .forEach { url ->
+                log.debug {
+                    "preloadImages(): cancelling:" +
+                            "\nurl=$url"
+                }
+
+                picasso.cancelTag(getImageTag(url))
+                preloadingImageUrls.remove(url)
+            }
+
+        images.forEach { image ->
+            if (image.url in preloadingImageUrls || preloadedImageUrls[image.url] != null) {
+                return@forEach
+            }
+
+            log.debug {
+                "preloadImages(): preloading:" +
+                        "\nurl=${image.url}"
+            }
+
+            preloadingImageUrls += image.url
+            picasso
+                .load(image.url)
+                .hardwareConfigIfAvailable()
+                // Same as the page view holders.
+                .resize(image.width, image.height)
+                .centerInside()
+                .onlyScaleDown()
+                .priority(Picasso.Priority.LOW)
+                .tag(getImageTag(image.url))
+                .fetch(object : Callback {
+                    override fun onSuccess() {
+                        preloadingImageUrls.remove(image.url)
+                        preloadedImageUrls.put(image.url, true)
+                    }
+
+                    override fun onError(e: Exception) {
+                        preloadingImageUrls.remove(image.url)
+                    }
+                })
+        }
+    }
+
+    private fun preloadVideos(uris: List<Uri>) {
+        val urlsToPreload = uris.mapTo(mutableSetOf(), Uri::toString)
+
+        videoPreloadingDisposables.keys
+            .filter { it !in urlsToPreload }
+            .forEach { url ->
+                log.debug {
+                    "preloadVideos(): cancelling:" +
+                            "\nurl=$url"
+                }
+
+                videoPreloadingDisposables.remove(url)?.dispose()
+            }
+
+        uris.forEach { uri ->
+            val url = uri.toString()
+            if (url in videoPreloadingDisposables || preloadedVideoUrls[url] != null) {
+                return@forEach
+            }
+
+            log.debug {
+                "preloadVideos(): preloading:" +
+                        "\nurl=$url"
+            }
+
+            videoPreloadingDisposables[url] = cacheVideoBeginning(uri)
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeBy(
+                    onComplete = {
+                        videoPreloadingDisposables.remove(url)
+                        preloadedVideoUrls.put(url, true)
+                    },
+                    onError = { error ->
+                        log.debug(error) {
+                            "preloadVideos(): preloading_failed:" +
+                                    "\nurl=$url"
+                        }
+
+                        videoPreloadingDisposables.remove(url)
+                    }
+                )
+        }
+    }
+
+    private fun cacheVideoBeginning(uri: Uri) = Completable.create { emitter ->
+        val cacheWriter = CacheWriter(
+            cacheDataSourceFactory.createDataSource(),
+            DataSpec.Builder()
+                .setUri(uri)
+                .setPosition(0)
+                .setLength(VIDEO_PRELOAD_BYTES)
+                .build(),
+            null,
+            null,
+        )
+        emitter.setCancellable(cacheWriter::cancel)
+
+        try {
+            cacheWriter.cache()
+            emitter.onComplete()
+        } catch (e: Exception) {
+            // Cancellation also ends up here.
+            emitter.tryOnError(e)
+        }
+    }
+
+    /**
+     * Cancels all the preloading.
+     * Should be called when the pages are no longer shown.
+     */
+    fun cancel() {
+        preloadingImageUrls.forEach { url ->
+            picasso.cancelTag(getImageTag(url))
+        }
+        preloadingImageUrls.clear()
+
+        videoPreloadingDisposables.values.forEach(Disposable::dispose)
+        videoPreloadingDisposables.clear()
+    }
+
+    private fun getImageTag(url: String) =
+        "preload:$url"
+
+    private class ImageToPreload(
+        val url: String,
+        val width: Int,
+        val height: Int,
+    )
+
+    private companion object {
+        private const val DEFAULT_PAGES_AROUND = 2
+
+        // Videos are heavier to preload, and swiping past them is cheap anyway.
+        private const val VIDEO_PAGES_AROUND = 1
+
+        // A few seconds of a typical preview.
+        private const val VIDEO_PRELOAD_BYTES = 2L * 1024 * 1024
+
+        private const val MAX_REMEMBERED_PRELOADED_URLS = 100
+    }
+}
@@ -1,5 +1,6 @@
 package ua.com.radiokot.photoprism.features.viewer.logic
 
+import androidx.collection.LruCache
 import io.reactivex.rxjava3.core.Observable
 import io.reactivex.rxjava3.disposables.Disposable
 import io.reactivex.rxjava3.schedulers.Schedulers
@@ -8,21 +9,27 @@ import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
 import ua.com.radiokot.photoprism.features.gallery.logic.DownloadFileUseCase
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaFileDownloadUrlFactory
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 
 /**
  * A [BackgroundMediaFileDownloadManager] which utilizes a fixed thread pool.
+ *
+ * Only the last [maxEndedStatusesCount] ended statuses are kept.
  */
 class ThreadPoolBackgroundMediaFileDownloadManager(
     private val downloadFileUseCase: DownloadFileUseCase,
     private val downloadUrlFactory: MediaFileDownloadUrlFactory,
     poolSize: Int,
+    maxEndedStatusesCount: Int = 200,
 ) : BackgroundMediaFileDownloadManager {
     private val log = kLogger("RxBackgroundMFDownloadManager")
+
+    // Both are accessed from the pool threads and from the main thread.
     private val downloadsInProgress =
-        mutableMapOf<String, Pair<Observable<BackgroundMediaFileDownloadManager.Status>, Disposable>>()
+        ConcurrentHashMap<String, Pair<Observable<BackgroundMediaFileDownloadManager.Status>, Disposable>>()
     private val endedDownloadStatuses =
-        mutableMapOf<String, BackgroundMediaFileDownloadManager.Status.Ended>()
+        LruCache<String, BackgroundMediaFileDownloadManager.Status.Ended>(maxEndedStatusesCount)
     private val scheduler = Schedulers.from(Executors.newFixedThreadPool(poolSize))
 
     override fun enqueue(
@@ -73,7 +80,7 @@ class ThreadPoolBackgroundMediaFileDownloadManager(
             // Save ended status to the separate map.
             .doOnNext { status ->
                 if (status is BackgroundMediaFileDownloadManager.Status.Ended) {
-                    endedDownloadStatuses[key] = status
+                    endedDownloadStatuses.put(key, status)
 
                     log.debug {
                         "enqueue(): saved_ended_status:" +
@@ -87,9 +94,13 @@ class ThreadPoolBackgroundMediaFileDownloadManager(
             // Replay the last progress update for all new subscribers,
             // so the UI can set the latest state immediately.
             .replay(1)
-            .also {
+            .also { replayingStatus ->
                 // Start now, making the observable hot.
-                downloadsInProgress[key] = it to it.connect()
+                // The connection is saved before the download starts,
+                // so a quickly ended download is not left in progress.
+                replayingStatus.connect { connection ->
+                    downloadsInProgress[key] = replayingStatus to connection
+                }
 
                 log.debug {
                     "enqueue(): enqueued:" +
@@ -101,7 +112,8 @@ class ThreadPoolBackgroundMediaFileDownloadManager(
     }
 
     override fun cancel(mediaUid: String) {
-        val disposable = downloadsInProgress[mediaUid]?.second
+        // A cancelled download never ends on its own, hence the removal.
+        val disposable = downloadsInProgress.remove(mediaUid)?.second
 
         if (disposable == null) {
             log.debug {
@@ -16,6 +16,7 @@ import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
 import ua.com.radiokot.photoprism.features.gallery.data.storage.GalleryPreferences
 import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
 import ua.com.radiokot.photoprism.features.gallery.logic.MediaPreviewUrlFactory
+import ua.com.radiokot.photoprism.features.viewer.logic.MediaViewerPagePreloader
 import ua.com.radiokot.photoprism.features.viewer.slideshow.data.storage.SlideshowPreferences
 import ua.com.radiokot.photoprism.features.viewer.view.model.MediaViewerPage
 import ua.com.radiokot.photoprism.features.viewer.view.model.VideoViewerPage
@@ -26,6 +27,7 @@ class SlideshowViewModel(
     private val slideshowPreferences: SlideshowPreferences,
     private val galleryPreferences: GalleryPreferences,
     private val previewUrlFactory: MediaPreviewUrlFactory,
+    private val pagePreloader: MediaViewerPagePreloader,
 ) : ViewModel() {
     private val log = kLogger("SlideshowVM")
     private lateinit var galleryMediaRepository: SimpleGalleryMediaRepository
@@ -204,6 +206,16 @@ class SlideshowViewModel(
         // The 'page content presented' callback may be launched late,
         // we only care if the current page has been presented.
         if (pageIndex == currentPageIndex) {
+            // Once the current page is presented, nothing prevents
+            // loading the next ones while it is being shown.
+            itemsList.value?.also { pages ->
+                pagePreloader.preloadAround(
+                    pages = pages,
+                    currentIndex = currentPageIndex,
+                    pagesBehind = 0,
+                )
+            }
+
             when {
                 currentPage is VideoViewerPage && !currentPage.isLooped ->
                     // For videos, switch immediately after playback end.
@@ -268,6 +280,11 @@ class SlideshowViewModel(
             .autoDispose(this)
     }
 
+    override fun onCleared() {
+        pagePreloader.cancel()
+        super.onCleared()
+    }
+
     sealed interface Event {
         object OpenGuide : Event
     }
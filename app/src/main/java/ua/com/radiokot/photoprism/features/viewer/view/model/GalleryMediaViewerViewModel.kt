@@ -26,6 +26,7 @@ import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryMediaDownlo
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryMediaRemoteActionsViewModel
 import ua.com.radiokot.photoprism.features.gallery.view.model.GalleryMediaRemoteActionsViewModelDelegate
 import ua.com.radiokot.photoprism.features.viewer.logic.BackgroundMediaFileDownloadManager
+import ua.com.radiokot.photoprism.features.viewer.logic.MediaViewerPagePreloader
 import ua.com.radiokot.photoprism.util.LocalDate
 import java.util.concurrent.TimeUnit
 import kotlin.math.roundToInt
@@ -38,6 +39,7 @@ class GalleryMediaViewerViewModel(
     private val webUrlFactory: MediaWebUrlFactory,
     private val previewUrlFactory: MediaPreviewUrlFactory,
     private val featureFlags: FeatureFlags,
+    private val pagePreloader: MediaViewerPagePreloader,
 ) : ViewModel(),
     GalleryMediaDownloadActionsViewModel by galleryMediaDownloadActionsViewModel,
     GalleryMediaRemoteActionsViewModel by galleryMediaRemoteActionsViewModel {
@@ -574,12 +576,19 @@ class GalleryMediaViewerViewModel(
         updateTitleAndSubtitle(item)
         isFavorite.value = item.isFavorite
         isPrivate.value = item.isPrivate
-        canSeePhotosNearby.value = featureFlags.hasMap && item.latLng != null
+        canSeePhotosNearby.value = featureFlags.hasMap && item.hasLocation
 
         // When switching to a video (not live photo or GIF), go full screen if currently is not.
         if (item.media is GalleryMedia.TypeData.Video && isFullScreen.value == false) {
             isFullScreen.value = true
         }
+
+        itemsList.value?.also { pages ->
+            pagePreloader.preloadAround(
+                pages = pages,
+                currentIndex = position,
+            )
+        }
     }
 
     private var backgroundDownloadProgressDisposable: Disposable? = null
@@ -645,6 +654,11 @@ class GalleryMediaViewerViewModel(
         update(force = true)
     }
 
+    override fun onCleared() {
+        pagePreloader.cancel()
+        super.onCleared()
+    }
+
     sealed interface SubtitleValue {
         class Static(val value: String) : SubtitleValue
 
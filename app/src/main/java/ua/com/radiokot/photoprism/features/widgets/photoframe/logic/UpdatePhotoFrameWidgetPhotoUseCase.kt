@@ -127,6 +127,8 @@ class UpdatePhotoFrameWidgetPhotoUseCase(
                             beforeLocal = randomDate
                         ),
                         pageLimit = TIME_MAX_ITEMS_TO_LOAD,
+                        // Only the first page is used.
+                        readAheadPages = 0,
                     ),
                 )
             }
@@ -158,7 +160,7 @@ class UpdatePhotoFrameWidgetPhotoUseCase(
             }
 
     private companion object {
-        private const val TIME_MAX_ITEMS_TO_LOAD = 150
+        private const val TIME_MAX_ITEMS_TO_LOAD = 1000
         private const val TIME_CLUSTERING_DISTANCE_MS = 15_000L
         private val TIME_PREFERABLE_CLUSTER_ITEM_COMPARATOR =
             compareByDescending(GalleryMedia::isFavorite)
@@ -1,11 +1,13 @@
 package ua.com.radiokot.photoprism.util
 
-import kotlin.math.abs
-
-
 /**
  * DBSCAN clustering algorithm for one-dimensional data.
  *
+ * In one dimension, neighbors of a point form a contiguous range of the sorted keys,
+ * so instead of scanning all the items for each point,
+ * the keys are sorted once and swept with two pointers.
+ * This makes the clustering O(n log n) with no boxing of keys or indices.
+ *
  * @see <a href="https://github.com/chrfrantz/DBSCAN/">Reference Java implementation</a>
  */
 class DbscanClustering<Item : Any>(
@@ -15,63 +17,192 @@ class DbscanClustering<Item : Any>(
     /**
      * @param maxDistance maximum distance between 2 items for them to be considered neighbors
      * @param minClusterSize minimum number of neighbors an item needs to have to be considered a core point, including the starting point
+     *
+     * @return clusters in the order of their first core point in [items],
+     * with the cluster items kept in their original order.
+     * As in the reference implementation, a border item close enough to core points
+     * of two clusters is included into both of them.
      */
     fun cluster(
         maxDistance: Long,
         minClusterSize: Int,
     ): List<List<Item>> {
-        val clusters = mutableListOf<List<Item>>()
-        val visitedItems = BooleanArray(items.size)
+        val itemCount = items.size
+        if (itemCount == 0) {
+            return emptyList()
+        }
+
+        val keys = LongArray(itemCount) { keySelector(items[it]) }
+        // Original indices of the items sorted by key.
+        val order = getSortedIndices(keys)
+        val sortedKeys = LongArray(itemCount) { keys[order[it]] }
 
-        items.forEachIndexed corePointsSearch@{ corePointIndex, corePoint ->
-            if (visitedItems[corePointIndex]) {
-                return@corePointsSearch
+        // Find core points by sweeping the neighborhood window.
+        val isCore = BooleanArray(itemCount)
+        var windowStart = 0
+        var windowEnd = 0
+        for (i in 0 until itemCount) {
+            val key = sortedKeys[i]
+            while (key - sortedKeys[windowStart] > maxDistance) {
+                windowStart++
+            }
+            if (windowEnd < i) {
+                windowEnd = i
             }
-            visitedItems[corePointIndex] = true
-
-            val neighborIndices: MutableList<Int> = getNeighborIndices(corePoint, maxDistance)
-            if (neighborIndices.size >= minClusterSize) {
-                var neighborIndexIndex = 0
-                while (neighborIndexIndex < neighborIndices.size) {
-                    val neighborIndex = neighborIndices[neighborIndexIndex]
-                    if (visitedItems[neighborIndex]) {
-                        neighborIndexIndex++
-                        continue
-                    }
-                    visitedItems[neighborIndex] = true
-
-                    val neighbor = items[neighborIndex]
-                    val extraNeighborIndices = getNeighborIndices(neighbor, maxDistance)
-
-                    if (extraNeighborIndices.size >= minClusterSize) {
-                        neighborIndices.addAll(extraNeighborIndices)
-                    }
-
-                    neighborIndexIndex++
+            while (windowEnd + 1 < itemCount && sortedKeys[windowEnd + 1] - key <= maxDistance) {
+                windowEnd++
+            }
+            isCore[i] = windowEnd - windowStart + 1 >= minClusterSize
+        }
+
+        // Core points are density-connected if the gap between
+        // the sorted neighboring ones is within the distance.
+        val coreClusters = IntArray(itemCount) { NO_CLUSTER }
+        var clusterCount = 0
+        var previousCore = NO_INDEX
+        for (i in 0 until itemCount) {
+            if (isCore[i]) {
+                if (previousCore == NO_INDEX || sortedKeys[i] - sortedKeys[previousCore] > maxDistance) {
+                    clusterCount++
                 }
+                coreClusters[i] = clusterCount - 1
+                previousCore = i
+            }
+        }
+        if (clusterCount == 0) {
+            return emptyList()
+        }
+
+        // A border point belongs to the clusters of the closest core points
+        // on both sides, if they are within the distance.
+        // Farther core points on the same side are always of the same cluster.
+        val leftBorderClusters = IntArray(itemCount) { NO_CLUSTER }
+        val rightBorderClusters = IntArray(itemCount) { NO_CLUSTER }
+        var closestCore = NO_INDEX
+        for (i in 0 until itemCount) {
+            if (isCore[i]) {
+                closestCore = i
+            } else if (closestCore != NO_INDEX && sortedKeys[i] - sortedKeys[closestCore] <= maxDistance) {
+                leftBorderClusters[i] = coreClusters[closestCore]
+            }
+        }
+        closestCore = NO_INDEX
+        for (i in itemCount - 1 downTo 0) {
+            if (isCore[i]) {
+                closestCore = i
+            } else if (closestCore != NO_INDEX
+                && sortedKeys[closestCore] - sortedKeys[i] <= maxDistance
+                && coreClusters[closestCore] != leftBorderClusters[i]
+            ) {
+                rightBorderClusters[i] = coreClusters[closestCore]
+            }
+        }
+
+        // Count the members to lay them out in a single array.
+        val clusterOffsets = IntArray(clusterCount + 1)
+        val clusterFirstCores = IntArray(clusterCount) { Int.MAX_VALUE }
+        for (i in 0 until itemCount) {
+            val coreCluster = coreClusters[i]
+            if (coreCluster != NO_CLUSTER) {
+                clusterOffsets[coreCluster + 1]++
+                if (order[i] < clusterFirstCores[coreCluster]) {
+                    clusterFirstCores[coreCluster] = order[i]
+                }
+            }
+            if (leftBorderClusters[i] != NO_CLUSTER) {
+                clusterOffsets[leftBorderClusters[i] + 1]++
+            }
+            if (rightBorderClusters[i] != NO_CLUSTER) {
+                clusterOffsets[rightBorderClusters[i] + 1]++
+            }
+        }
+        for (cluster in 0 until clusterCount) {
+            clusterOffsets[cluster + 1] += clusterOffsets[cluster]
+        }
+
+        val members = IntArray(clusterOffsets[clusterCount])
+        val clusterSizes = IntArray(clusterCount)
+        fun addMember(cluster: Int, itemIndex: Int) {
+            members[clusterOffsets[cluster] + clusterSizes[cluster]++] = itemIndex
+        }
+        for (i in 0 until itemCount) {
+            if (coreClusters[i] != NO_CLUSTER) {
+                addMember(coreClusters[i], order[i])
+            }
+            if (leftBorderClusters[i] != NO_CLUSTER) {
+                addMember(leftBorderClusters[i], order[i])
+            }
+            if (rightBorderClusters[i] != NO_CLUSTER) {
+                addMember(rightBorderClusters[i], order[i])
+            }
+        }
+
+        // First core indices are unique, which allows ordering the clusters without sorting.
+        val clustersByFirstCore = IntArray(itemCount) { NO_CLUSTER }
+        for (cluster in 0 until clusterCount) {
+            clustersByFirstCore[clusterFirstCores[cluster]] = cluster
+        }
 
-                clusters.add(neighborIndices.distinct().map(items::get))
+        val clusters = ArrayList<List<Item>>(clusterCount)
+        for (cluster in clustersByFirstCore) {
+            if (cluster == NO_CLUSTER) {
+                continue
             }
+
+            val start = clusterOffsets[cluster]
+            val end = clusterOffsets[cluster + 1]
+            members.sort(start, end)
+            clusters.add((start until end).map { items[members[it]] })
         }
 
         return clusters
     }
 
-    private fun getNeighborIndices(
-        item: Item,
-        maxDistance: Long,
-    ): MutableList<Int> =
-        items.mapIndexedNotNull { neighborCandidateIndex, neighborCandidate ->
-            if (neighborCandidate.isNeighborOf(item, maxDistance)) {
-                neighborCandidateIndex
-            } else {
-                null
+    /**
+     * Stable bottom-up merge sort of the indices by their keys,
+     * avoiding boxing of a comparator-based sort.
+     */
+    private fun getSortedIndices(keys: LongArray): IntArray {
+        val size = keys.size
+        var indices = IntArray(size) { it }
+        var buffer = IntArray(size)
+
+        var width = 1
+        while (width < size) {
+            var left = 0
+            while (left < size) {
+                val middle = minOf(left + width, size)
+                val right = minOf(left + 2 * width, size)
+                var i = left
+                var j = middle
+                var k = left
+                while (i < middle && j < right) {
+                    buffer[k++] =
+                        if (keys[indices[j]] < keys[indices[i]])
+                            indices[j++]
+                        else
+                            indices[i++]
+                }
+                while (i < middle) {
+                    buffer[k++] = indices[i++]
+                }
+                while (j < right) {
+                    buffer[k++] = indices[j++]
+                }
+                left = right
             }
-        }.toMutableList()
 
-    private fun Item.isNeighborOf(
-        other: Item,
-        maxDistance: Long,
-    ): Boolean =
-        abs(keySelector(this) - keySelector(other)) <= maxDistance
+            val swap = indices
+            indices = buffer
+            buffer = swap
+            width *= 2
+        }
+
+        return indices
+    }
+
+    private companion object {
+        private const val NO_CLUSTER = -1
+        private const val NO_INDEX = -1
+    }
 }
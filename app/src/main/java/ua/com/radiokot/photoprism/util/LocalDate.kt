@@ -48,37 +48,55 @@ class LocalDate : Date {
     fun getCalendar(): Calendar =
         getUtcCalendar(time = this)
 
-    fun isSameDayAs(other: LocalDate): Boolean {
-        val calendar = getCalendar()
-        val thisYear = calendar[Calendar.YEAR]
-        val thisDay = calendar[Calendar.DAY_OF_YEAR]
-        calendar.time = other
-        val otherYear = calendar[Calendar.YEAR]
-        val otherDay = calendar[Calendar.DAY_OF_YEAR]
+    /**
+     * Number of days since 1970-01-01 of this local date,
+     * an integer key for day comparisons.
+     */
+    val epochDay: Long
+        get() = time.floorDiv(MILLIS_IN_DAY)
 
-        return thisYear == otherYear && thisDay == otherDay
-    }
+    /**
+     * Number of months since year 0 of this local date (year * 12 + zero-based month),
+     * an integer key for month comparisons.
+     *
+     * Unlike [getCalendar], it is computed arithmetically without allocations,
+     * using the proleptic Gregorian calendar. Therefore, it only matches the calendar
+     * for dates after the Gregorian calendar adoption in 1582.
+     */
+    val epochMonth: Long
+        get() {
+            // Days to civil date conversion by Howard Hinnant,
+            // with the year starting in March to have the leap day at the end.
+            val marchBasedDay = epochDay + 719468
+            val era = marchBasedDay.floorDiv(146097L)
+            val dayOfEra = marchBasedDay - era * 146097
+            val yearOfEra =
+                (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365
+            val dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100)
+            val marchBasedMonth = (5 * dayOfYear + 2) / 153
+            val month =
+                if (marchBasedMonth < 10)
+                    marchBasedMonth + 2
+                else
+                    marchBasedMonth - 10
+            val year = yearOfEra + era * 400 + if (month <= Calendar.FEBRUARY) 1 else 0
 
-    fun isSameMonthAs(other: LocalDate): Boolean {
-        val calendar = getCalendar()
-        val thisYear = calendar[Calendar.YEAR]
-        val thisMonth = calendar[Calendar.MONTH]
-        calendar.time = other
-        val otherYear = calendar[Calendar.YEAR]
-        val otherMonth = calendar[Calendar.MONTH]
+            return year * 12 + month
+        }
 
-        return thisYear == otherYear && thisMonth == otherMonth
-    }
+    fun isSameDayAs(other: LocalDate): Boolean =
+        epochDay == other.epochDay
 
-    fun isSameYearAs(other: LocalDate): Boolean {
-        val calendar = getCalendar()
-        val thisYear = calendar[Calendar.YEAR]
-        calendar.time = other
-        val otherYear = calendar[Calendar.YEAR]
+    fun isSameMonthAs(other: LocalDate): Boolean =
+        epochMonth == other.epochMonth
 
-        return thisYear == otherYear
-    }
+    fun isSameYearAs(other: LocalDate): Boolean =
+        epochMonth.floorDiv(12L) == other.epochMonth.floorDiv(12L)
 
     override fun toString(): String =
         "LocalDate(${formatPhotoPrismDate(this)})"
+
+    private companion object {
+        private const val MILLIS_IN_DAY = 24 * 60 * 60 * 1000L
+    }
 }
@@ -0,0 +1,131 @@
+package ua.com.radiokot.photoprism.util
+
+/**
+ * An array-backed list which gives immutable snapshots of its content without copying it.
+ *
+ * A snapshot shares the array with the list and only sees the items present when it was taken.
+ * Appending doesn't affect the snapshots, so it is as cheap as for an [ArrayList].
+ * Any other change copies the array first if there are snapshots sharing it.
+ *
+ * The list is not thread-safe, but the snapshots can be read from any thread
+ * once safely published.
+ */
+class SnapshotArrayList<T> : AbstractMutableList<T>(), RandomAccess {
+    private var array: Array<Any?> = EMPTY_ARRAY
+    private var isArrayShared = false
+
+    override var size: Int = 0
+        private set
+
+    /**
+     * @return an immutable list of the current items
+     */
+    fun snapshot(): List<T> {
+        if (size == 0) {
+            return emptyList()
+        }
+        isArrayShared = true
+        return Snapshot(array, size)
+    }
+
+    override fun get(index: Int): T {
+        checkElementIndex(index, size)
+        @Suppress("UNCHECKED_CAST")
+        return array[index] as T
+    }
+
+    override fun add(index: Int, element: T) {
+        if (index < 0 || index > size) {
+            throw IndexOutOfBoundsException("index: $index, size: $size")
+        }
+
+        if (index == size) {
+            // Appending is not visible to the snapshots.
+            ensureCapacity(size + 1)
+        } else {
+            prepareForChange(size + 1)
+            System.arraycopy(array, index, array, index + 1, size - index)
+        }
+        array[index] = element
+        size++
+        modCount++
+    }
+
+    override fun removeAt(index: Int): T {
+        checkElementIndex(index, size)
+        prepareForChange(size)
+
+        @Suppress("UNCHECKED_CAST")
+        val removedElement = array[index] as T
+        System.arraycopy(array, index + 1, array, index, size - index - 1)
+        size--
+        array[size] = null
+        modCount++
+
+        return removedElement
+    }
+
+    override fun set(index: Int, element: T): T {
+        checkElementIndex(index, size)
+        prepareForChange(size)
+
+        @Suppress("UNCHECKED_CAST")
+        val replacedElement = array[index] as T
+        array[index] = element
+
+        return replacedElement
+    }
+
+    override fun clear() {
+        if (isArrayShared) {
+            array = EMPTY_ARRAY
+            isArrayShared = false
+        } else {
+            array.fill(null, 0, size)
+        }
+        size = 0
+        modCount++
+    }
+
+    /**
+     * Makes the array safe to change in place.
+     */
+    private fun prepareForChange(minCapacity: Int) {
+        if (isArrayShared) {
+            array = array.copyOf(maxOf(array.size, minCapacity))
+            isArrayShared = false
+        } else {
+            ensureCapacity(minCapacity)
+        }
+    }
+
+    private fun ensureCapacity(minCapacity: Int) {
+        if (array.size < minCapacity) {
+            // The snapshots keep the previous array.
+            array = array.copyOf(maxOf(minCapacity, array.size + array.size / 2, MIN_CAPACITY))
+            isArrayShared = false
+        }
+    }
+
+    private class Snapshot<T>(
+        private val array: Array<Any?>,
+        override val size: Int,
+    ) : AbstractList<T>(), RandomAccess {
+        override fun get(index: Int): T {
+            checkElementIndex(index, size)
+            @Suppress("UNCHECKED_CAST")
+            return array[index] as T
+        }
+    }
+
+    private companion object {
+        private const val MIN_CAPACITY = 10
+        private val EMPTY_ARRAY = arrayOfNulls<Any?>(0)
+
+        private fun checkElementIndex(index: Int, size: Int) {
+            if (index < 0 || index >= size) {
+                throw IndexOutOfBoundsException("index: $index, size: $size")
+            }
+        }
+    }
+}
@@ -1,37 +1,35 @@
 package ua.com.radiokot.photoprism.util.downloader
 
 import io.reactivex.rxjava3.core.Observable
-import okio.Sink
-import okio.sink
 import java.io.File
-import java.io.FileNotFoundException
 
 interface ObservableDownloader {
     /**
-     * Downloads content of the [url] to the given [destination].
+     * Downloads content of the [url] to the given [destination] in a resumable way.
+     * The content is written to a partial file next to the [destination],
+     * which is renamed to the [destination] on completion.
+     * If the download fails, the partial file is kept, so the next download
+     * of the same [url] to the same [destination] only requests the missing bytes,
+     * unless the remote content has changed. Partial files which can't be resumed
+     * are deleted right away, while the ones not resumed for a long time are deleted eventually.
      *
-     * @return cold [Observable] that reports [Progress] and completes when the download is ended.
+     * @return cold [Observable] that reports [Progress] of the whole content
+     * and completes when the download is ended.
+     *
+     * @see discardPartialDownload
      */
-    fun download(
+    fun downloadResumable(
         url: String,
-        destination: Sink,
+        destination: File,
     ): Observable<Progress>
 
     /**
-     * Downloads content of the [url] to the given [destination].
-     *
-     * @return cold [Observable] that reports [Progress] and completes when the download is ended.
+     * Deletes the partial file of the [destination] and its state,
+     * so the next [downloadResumable] starts over.
      */
-    fun download(
-        url: String,
+    fun discardPartialDownload(
         destination: File,
-        append: Boolean = false,
-    ): Observable<Progress> =
-        try {
-            download(url, destination.sink(append))
-        } catch (fileNotFoundException: FileNotFoundException) {
-            Observable.error(fileNotFoundException)
-        }
+    )
 
     class Progress(
         /**
@@ -1,87 +1,230 @@
 package ua.com.radiokot.photoprism.util.downloader
 
 import io.reactivex.rxjava3.core.Observable
-import io.reactivex.rxjava3.core.ObservableEmitter
 import okhttp3.Request
 import okhttp3.Response
-import okio.Sink
+import okio.ByteString.Companion.encodeUtf8
+import okio.buffer
+import okio.sink
 import ua.com.radiokot.photoprism.di.HttpClient
 import ua.com.radiokot.photoprism.extension.checkNotNull
-import java.util.concurrent.atomic.AtomicInteger
+import ua.com.radiokot.photoprism.extension.kLogger
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicBoolean
 
+/**
+ * @param stateDirectory directory to keep [ResumableDownloadState] of the partial downloads
+ */
 class OkHttpObservableDownloader(
-    httpClient: HttpClient,
+    private val httpClient: HttpClient,
+    private val stateDirectory: File,
 ) : ObservableDownloader {
-    private val requestCounter = AtomicInteger(0)
-    private val emittersMap: MutableMap<Int, ObservableEmitter<ObservableDownloader.Progress>> =
-        mutableMapOf()
-
-    private val observableHttpClient =
-        httpClient
-            .newBuilder()
-            .addNetworkInterceptor { chain ->
-                val emitterKey = chain.request().tag() as Int
-                val originalResponse = chain.proceed(chain.request())
-                val originalBody = originalResponse.body
-                    ?: return@addNetworkInterceptor originalResponse
-                val contentLength = originalBody.contentLength()
-
-                return@addNetworkInterceptor originalResponse
-                    .newBuilder()
-                    .body(
-                        ReadingProgressResponseBody(
-                            observingBody = originalBody,
-                            onReadingProgress = { bytesRead: Long ->
-                                val emitter = emittersMap.getValue(emitterKey)
-                                emitter.onNext(
-                                    ObservableDownloader.Progress(
-                                        bytesRead = bytesRead,
-                                        contentLength = contentLength,
-                                    )
-                                )
-                            },
-                        )
-                    )
-                    .build()
-            }
-            .build()
+    private val log = kLogger("OkHttpObservableDownloader")
+    private val isStalePartialDownloadsCheckDone = AtomicBoolean(false)
 
-    override fun download(
+    override fun downloadResumable(
         url: String,
-        destination: Sink
-    ): Observable<ObservableDownloader.Progress> {
-        val emitterKey = requestCounter.incrementAndGet()
+        destination: File,
+    ): Observable<ObservableDownloader.Progress> = Observable.create { emitter ->
+        if (isStalePartialDownloadsCheckDone.compareAndSet(false, true)) {
+            discardStalePartialDownloads()
+        }
+
+        val partialFile = getPartialFile(destination)
+        val stateFile = getStateFile(destination)
+        val state = ResumableDownloadState.readFrom(stateFile)
+        val partialLength = partialFile.length()
+
+        val canResume = state != null
+                && state.url == url
+                && partialLength > 0
+                && (state.contentLength < 0 || partialLength <= state.contentLength)
 
-        val call = observableHttpClient.newCall(
+        val call = httpClient.newCall(
             Request.Builder()
                 .get()
                 .url(url)
-                .tag(emitterKey)
+                // Offsets must be of the content itself, not of its compressed form.
+                .header("Accept-Encoding", "identity")
+                .apply {
+                    if (canResume) {
+                        header("Range", "bytes=$partialLength-")
+                        // If the content has changed, the whole new content is returned.
+                        header("If-Range", state!!.validator)
+                    }
+                }
                 .build()
         )
+        emitter.setCancellable(call::cancel)
 
-        return Observable.create { emitter ->
-            emittersMap[emitterKey] = emitter
-
+        try {
             call.execute().use { response ->
-                try {
-                    response
-                        .takeIf(Response::isSuccessful)
-                        .checkNotNull {
-                            "The response must be successful, no sense in downloading an error"
+                if (response.code == HTTP_RANGE_NOT_SATISFIABLE && canResume) {
+                    if (partialLength == state!!.contentLength) {
+                        log.debug {
+                            "downloadResumable(): partial_file_is_complete:" +
+                                    "\ndestination=$destination"
                         }
-                        .body
-                        .checkNotNull {
-                            "The response must have a body, otherwise there is nothing to download"
+
+                        completeDownload(partialFile, stateFile, destination)
+                        emitter.onComplete()
+                        return@create
+                    }
+
+                    discardPartialDownload(destination)
+                    throw IOException("The partial file can't be resumed, it is discarded")
+                }
+
+                val body = response
+                    .takeIf(Response::isSuccessful)
+                    .checkNotNull {
+                        "The response must be successful, no sense in downloading an error"
+                    }
+                    .body
+                    .checkNotNull {
+                        "The response must have a body, otherwise there is nothing to download"
+                    }
+
+                val isResumed = canResume
+                        && response.code == HTTP_PARTIAL_CONTENT
+                        && response.header("Content-Range")
+                    ?.startsWith("bytes $partialLength-") == true
+                if (response.code == HTTP_PARTIAL_CONTENT && !isResumed) {
+                    // The content doesn't continue the partial file,
+                    // writing it as the whole would corrupt the file.
+                    discardPartialDownload(destination)
+                    throw IOException("The partial content doesn't match the partial file, it is discarded")
+                }
+
+                val offset = if (isResumed) partialLength else 0L
+                val contentLength =
+                    if (body.contentLength() >= 0)
+                        offset + body.contentLength()
+                    else
+                        -1L
+
+                if (isResumed) {
+                    log.debug {
+                        "downloadResumable(): resuming:" +
+                                "\nurl=$url," +
+                                "\noffset=$offset," +
+                                "\ncontentLength=$contentLength"
+                    }
+                } else {
+                    // Remember the content being downloaded from the beginning,
+                    // if it can be resumed later.
+                    val validator = response.header("ETag")
+                        ?: response.header("Last-Modified")
+                    if (validator != null) {
+                        ResumableDownloadState(
+                            url = url,
+                            validator = validator,
+                            contentLength = contentLength,
+                            partialFilePath = partialFile.path,
+                        ).writeTo(stateFile)
+                    } else {
+                        stateFile.delete()
+                    }
+
+                    log.debug {
+                        "downloadResumable(): downloading_from_start:" +
+                                "\nurl=$url," +
+                                "\ncontentLength=$contentLength," +
+                                "\nvalidator=$validator"
+                    }
+                }
+
+                val progressThrottle = ProgressEmissionThrottle()
+                partialFile.sink(append = isResumed).buffer().use { partialFileSink ->
+                    ReadingProgressSource(
+                        delegate = body.source(),
+                        onReadingProgress = { bytesRead ->
+                            if (progressThrottle.shouldEmit(offset + bytesRead, contentLength)) {
+                                emitter.onNext(
+                                    ObservableDownloader.Progress(
+                                        bytesRead = offset + bytesRead,
+                                        contentLength = contentLength,
+                                    )
+                                )
+                            }
                         }
-                        .source()
-                        .readAll(destination)
+                    )
+                        .buffer()
+                        .readAll(partialFileSink)
+                }
+
+                completeDownload(partialFile, stateFile, destination)
+                emitter.onComplete()
+            }
+        } catch (t: Throwable) {
+            // Without the state, the partial file can't be resumed.
+            if (!stateFile.exists()) {
+                partialFile.delete()
+            }
+
+            emitter.tryOnError(t)
+        }
+    }
+
+    /**
+     * Deletes partial files of the downloads not resumed for a long time,
+     * which are most likely abandoned after the final failure.
+     */
+    private fun discardStalePartialDownloads() {
+        val staleBeforeMs = System.currentTimeMillis() - STALE_PARTIAL_DOWNLOAD_AGE_MS
 
-                    emitter.onComplete()
-                } catch (t: Throwable) {
-                    emitter.tryOnError(t)
+        stateDirectory.listFiles()?.forEach { stateFile ->
+            val partialFile = ResumableDownloadState.readFrom(stateFile)
+                ?.partialFilePath
+                ?.let(::File)
+
+            if (stateFile.lastModified() < staleBeforeMs
+                && (partialFile == null || partialFile.lastModified() < staleBeforeMs)
+            ) {
+                log.debug {
+                    "discardStalePartialDownloads(): discarding:" +
+                            "\npartialFile=$partialFile"
                 }
+
+                partialFile?.delete()
+                stateFile.delete()
             }
-        }.doOnDispose(call::cancel)
+        }
+    }
+
+    private fun completeDownload(
+        partialFile: File,
+        stateFile: File,
+        destination: File,
+    ) {
+        stateFile.delete()
+        if (destination.exists()) {
+            destination.delete()
+        }
+        if (!partialFile.renameTo(destination)) {
+            partialFile.copyTo(destination, overwrite = true)
+            partialFile.delete()
+        }
+    }
+
+    override fun discardPartialDownload(destination: File) {
+        getPartialFile(destination).delete()
+        getStateFile(destination).delete()
+    }
+
+    private fun getPartialFile(destination: File) =
+        File(destination.path + PARTIAL_FILE_EXTENSION)
+
+    private fun getStateFile(destination: File) =
+        File(stateDirectory, destination.absolutePath.encodeUtf8().sha1().hex())
+
+    private companion object {
+        private const val PARTIAL_FILE_EXTENSION = ".part"
+        private const val HTTP_PARTIAL_CONTENT = 206
+        private const val HTTP_RANGE_NOT_SATISFIABLE = 416
+
+        // A week is enough to retry a failed download.
+        private const val STALE_PARTIAL_DOWNLOAD_AGE_MS = 7 * 24 * 3600 * 1000L
     }
 }
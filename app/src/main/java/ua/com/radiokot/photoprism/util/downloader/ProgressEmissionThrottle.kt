@@ -0,0 +1,69 @@
+package ua.com.radiokot.photoprism.util.downloader
+
+/**
+ * Decides which reading progress updates are worth emitting,
+ * as a source reports each read chunk which may be just a few kilobytes.
+ *
+ * An update is emitted if it is the first or the final one,
+ * or if at least [minIntervalMs] has passed since the last emitted one
+ * and either the percent has grown by [minPercentStep]
+ * or [maxIntervalMs] has passed.
+ *
+ * Not thread-safe, must be used for a single download.
+ *
+ * @param currentTimeMs source of the current time in milliseconds
+ */
+class ProgressEmissionThrottle(
+    private val minIntervalMs: Long = DEFAULT_MIN_INTERVAL_MS,
+    private val maxIntervalMs: Long = DEFAULT_MAX_INTERVAL_MS,
+    private val minPercentStep: Double = DEFAULT_MIN_PERCENT_STEP,
+    private val currentTimeMs: () -> Long = System::currentTimeMillis,
+) {
+    private var lastEmittedAtMs = 0L
+    private var lastEmittedBytesRead = -1L
+
+    /**
+     * @return true if the progress should be emitted,
+     * in which case it is considered emitted.
+     */
+    fun shouldEmit(
+        bytesRead: Long,
+        contentLength: Long,
+    ): Boolean {
+        if (bytesRead == lastEmittedBytesRead) {
+            return false
+        }
+
+        val nowMs = currentTimeMs()
+        val elapsedMs = nowMs - lastEmittedAtMs
+        val isFirst = lastEmittedBytesRead < 0
+        val isFinal = contentLength in 1..bytesRead
+
+        val shouldEmit = when {
+            isFirst || isFinal ->
+                true
+
+            elapsedMs < minIntervalMs ->
+                false
+
+            contentLength <= 0 || elapsedMs >= maxIntervalMs ->
+                true
+
+            else ->
+                (bytesRead - lastEmittedBytesRead).toDouble() / contentLength * 100 >= minPercentStep
+        }
+
+        if (shouldEmit) {
+            lastEmittedAtMs = nowMs
+            lastEmittedBytesRead = bytesRead
+        }
+
+        return shouldEmit
+    }
+
+    private companion object {
+        private const val DEFAULT_MIN_INTERVAL_MS = 100L
+        private const val DEFAULT_MAX_INTERVAL_MS = 1000L
+        private const val DEFAULT_MIN_PERCENT_STEP = 1.0
+    }
+}
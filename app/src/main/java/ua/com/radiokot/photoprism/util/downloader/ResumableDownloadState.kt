@@ -0,0 +1,78 @@
+package ua.com.radiokot.photoprism.util.downloader
+
+import java.io.File
+import java.util.Properties
+
+/**
+ * A sidecar record of a partially downloaded file,
+ * allowing to resume the download only if the remote content is the same.
+ *
+ * @param url the URL the file is downloaded from
+ * @param validator `ETag` or `Last-Modified` of the remote content, used for `If-Range`
+ * @param contentLength total length of the remote content, or -1 if unknown
+ * @param partialFilePath path of the partial file, to delete it if the download is abandoned
+ */
+class ResumableDownloadState(
+    val url: String,
+    val validator: String,
+    val contentLength: Long,
+    val partialFilePath: String,
+) {
+    fun writeTo(file: File) {
+        val tmpFile = File(file.path + ".tmp")
+        tmpFile.parentFile?.mkdirs()
+        tmpFile.outputStream().use { outputStream ->
+            Properties()
+                .apply {
+                    setProperty(KEY_URL, url)
+                    setProperty(KEY_VALIDATOR, validator)
+                    setProperty(KEY_CONTENT_LENGTH, contentLength.toString())
+                    setProperty(KEY_PARTIAL_FILE_PATH, partialFilePath)
+                }
+                .store(outputStream, null)
+        }
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete()
+            error("Failed to write the state to $file")
+        }
+    }
+
+    override fun toString(): String {
+        return "ResumableDownloadState(url='$url', validator='$validator', contentLength=$contentLength, partialFilePath='$partialFilePath')"
+    }
+
+    companion object {
+        private const val KEY_URL = "url"
+        private const val KEY_VALIDATOR = "validator"
+        private const val KEY_CONTENT_LENGTH = "contentLength"
+        private const val KEY_PARTIAL_FILE_PATH = "partialFilePath"
+
+        /**
+         * @return the state read from the [file], or null if there is no valid one.
+         */
+        fun readFrom(file: File): ResumableDownloadState? {
+            if (!file.exists()) {
+                return null
+            }
+
+            val properties = try {
+                file.inputStream().use { inputStream ->
+                    Properties().apply { load(inputStream) }
+                }
+            } catch (e: Exception) {
+                return null
+            }
+
+            return ResumableDownloadState(
+                url = properties.getProperty(KEY_URL)
+                    ?: return null,
+                validator = properties.getProperty(KEY_VALIDATOR)
+                    ?: return null,
+                contentLength = properties.getProperty(KEY_CONTENT_LENGTH)?.toLongOrNull()
+                    ?: return null,
+                partialFilePath = properties.getProperty(KEY_PARTIAL_FILE_PATH)
+                    ?: return null,
+            )
+        }
+    }
+}
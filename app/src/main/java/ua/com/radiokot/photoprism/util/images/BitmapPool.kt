@@ -0,0 +1,54 @@
+package ua.com.radiokot.photoprism.util.images
+
+import android.graphics.Bitmap
+import android.graphics.Color
+
+/**
+ * A pool of mutable bitmaps no longer in use,
+ * to decode or draw into them instead of allocating new ones.
+ *
+ * @param maxCount max number of the pooled bitmaps, extra ones are recycled
+ */
+class BitmapPool(
+    private val maxCount: Int,
+) {
+    private val bitmaps = ArrayDeque<Bitmap>()
+
+    /**
+     * @return a cleared bitmap having at least [minByteCount] bytes allocated,
+     * which can be used as [android.graphics.BitmapFactory.Options.inBitmap],
+     * or null if there is no such bitmap in the pool
+     */
+    @Synchronized
+    fun get(minByteCount: Int): Bitmap? {
+        val index = bitmaps.indexOfFirst { it.allocationByteCount >= minByteCount }
+        if (index < 0) {
+            return null
+        }
+
+        return bitmaps
+            .removeAt(index)
+            .apply { eraseColor(Color.TRANSPARENT) }
+    }
+
+    /**
+     * Puts the [bitmap] to the pool. It must not be used by the caller afterwards.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (bitmap.isRecycled || !bitmap.isMutable || bitmap in bitmaps) {
+            return
+        }
+
+        bitmaps.addLast(bitmap)
+        if (bitmaps.size > maxCount) {
+            bitmaps.removeFirst().recycle()
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        bitmaps.forEach(Bitmap::recycle)
+        bitmaps.clear()
+    }
+}
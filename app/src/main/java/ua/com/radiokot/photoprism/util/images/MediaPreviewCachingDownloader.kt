@@ -0,0 +1,226 @@
+package ua.com.radiokot.photoprism.util.images
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import com.squareup.picasso.Downloader
+import okhttp3.Call
+import okhttp3.HttpUrl
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okhttp3.ResponseBody.Companion.toResponseBody
+import okio.buffer
+import okio.source
+import ua.com.radiokot.photoprism.extension.kLogger
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.roundToInt
+
+/**
+ * A Picasso [Downloader] serving PhotoPrism previews (`/t/{hash}/{token}/{kind}_{size}`)
+ * from the [previewCache], regardless of the preview token.
+ * If a preview is missing but there is a larger one of the same kind cached,
+ * it is downscaled locally instead of being downloaded.
+ * Otherwise, the preview is loaded with the [previewCallFactory] and cached.
+ * Other requests are passed to the [delegate].
+ *
+ * @param previewCallFactory a factory of the calls loading previews,
+ * which should not cache them on its own
+ */
+class MediaPreviewCachingDownloader(
+    private val previewCache: MediaPreviewDiskCache,
+    private val previewCallFactory: Call.Factory,
+    private val delegate: Downloader,
+) : Downloader {
+    private val log = kLogger("MediaPreviewCachingDL")
+    private val downscaledPreviews = AtomicLong(0)
+    private val downscaledPreviewBytes = AtomicLong(0)
+
+    /**
+     * Number of the previews obtained by downscaling the larger cached ones.
+     */
+    val downscaledPreviewCount: Long
+        get() = downscaledPreviews.get()
+
+    /**
+     * Size of the previews obtained by downscaling the larger cached ones,
+     * which is roughly the amount of bytes not downloaded thanks to that.
+     */
+    val downscaledPreviewSize: Long
+        get() = downscaledPreviewBytes.get()
+
+    override fun load(request: Request): Response {
+        val key = getPreviewKey(request.url)
+            ?: return delegate.load(request)
+
+        val cachedFile = previewCache.get(key)
+        if (cachedFile != null) {
+            try {
+                return createLocalResponse(
+                    request = request,
+                    body = cachedFile
+                        .source()
+                        .buffer()
+                        .asResponseBody(
+                            contentType = null,
+                            contentLength = cachedFile.length(),
+                        )
+                )
+            } catch (e: IOException) {
+                // The file may have been evicted just now.
+                log.debug(e) {
+                    "load(): failed_reading_cached_preview:" +
+                            "\nkey=$key"
+                }
+            }
+        }
+
+        val largerKey = previewCache.getLargerRendition(key)
+        val largerFile = largerKey?.let(previewCache::get)
+        if (largerFile != null) {
+            val downscaledPreview = downscale(
+                file = largerFile,
+                maxSize = key.size,
+            )
+
+            if (downscaledPreview != null) {
+                val downscaledCount = downscaledPreviews.incrementAndGet()
+                val downscaledSize = downscaledPreviewBytes.addAndGet(downscaledPreview.size.toLong())
+
+                log.debug {
+                    "load(): downscaled_larger_preview:" +
+                            "\nkey=$key," +
+                            "\nlargerKey=$largerKey," +
+                            "\ndownscaledCount=$downscaledCount," +
+                            "\ndownscaledSize=$downscaledSize"
+                }
+
+                return createLocalResponse(
+                    request = request,
+                    body = downscaledPreview.toResponseBody(),
+                )
+            } else {
+                log.debug {
+                    "load(): failed_downscaling_larger_preview:" +
+                            "\nkey=$key," +
+                            "\nlargerKey=$largerKey"
+                }
+            }
+        }
+
+        val response = previewCallFactory.newCall(request).execute()
+        if (!response.isSuccessful) {
+            return response
+        }
+
+        val body = response.body
+        return response
+            .newBuilder()
+            .body(
+                previewCache
+                    .putWhileReading(
+                        key = key,
+                        source = body.source(),
+                    )
+                    .buffer()
+                    .asResponseBody(
+                        contentType = body.contentType(),
+                        contentLength = body.contentLength(),
+                    )
+            )
+            .build()
+    }
+
+    override fun shutdown() =
+        delegate.shutdown()
+
+    private fun createLocalResponse(
+        request: Request,
+        body: ResponseBody,
+    ): Response =
+        Response.Builder()
+            .request(request)
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(body)
+            .build()
+
+    /**
+     * Fits the image from the [file] into the [maxSize] square, keeping the aspect ratio.
+     * This matches PhotoPrism previews as long as the kind is the same:
+     * tiles are center crops, so a smaller tile is a downscaled larger one,
+     * and fits of a smaller size are at most as large.
+     *
+     * @return JPEG of the downscaled image, or null if the file can't be decoded
+     */
+    private fun downscale(
+        file: File,
+        maxSize: Int,
+    ): ByteArray? {
+        val options = BitmapFactory.Options()
+        options.inJustDecodeBounds = true
+        BitmapFactory.decodeFile(file.path, options)
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null
+        }
+
+        // Subsampling makes decoding of a much larger image cheap,
+        // while the final scaling keeps the exact size.
+        var sampleSize = 1
+        while (maxOf(options.outWidth, options.outHeight) / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2
+        }
+        options.inJustDecodeBounds = false
+        options.inSampleSize = sampleSize
+        val sampledBitmap = BitmapFactory.decodeFile(file.path, options)
+            ?: return null
+
+        val scale = maxSize.toFloat() / maxOf(sampledBitmap.width, sampledBitmap.height)
+        val scaledBitmap =
+            if (scale < 1f)
+                Bitmap.createScaledBitmap(
+                    sampledBitmap,
+                    (sampledBitmap.width * scale).roundToInt().coerceAtLeast(1),
+                    (sampledBitmap.height * scale).roundToInt().coerceAtLeast(1),
+                    true
+                )
+            else
+                sampledBitmap
+
+        val output = ByteArrayOutputStream()
+        scaledBitmap.compress(Bitmap.CompressFormat.JPEG, DOWNSCALED_PREVIEW_QUALITY, output)
+
+        if (scaledBitmap !== sampledBitmap) {
+            scaledBitmap.recycle()
+        }
+        sampledBitmap.recycle()
+
+        return output.toByteArray()
+    }
+
+    /**
+     * @return the key of the preview the [url] points to, or null if it is not a preview URL
+     */
+    private fun getPreviewKey(url: HttpUrl): MediaPreviewDiskCache.Key? {
+        val segments = url.pathSegments
+        val previewSegmentIndex = segments.size - 4
+        if (previewSegmentIndex < 0 || segments[previewSegmentIndex] != "t") {
+            return null
+        }
+
+        val hash = segments[previewSegmentIndex + 1]
+        val kindAndSize = segments[previewSegmentIndex + 3]
+
+        // The preview file name has the same shape.
+        return MediaPreviewDiskCache.Key.fromFileName("${hash}_$kindAndSize")
+    }
+
+    private companion object {
+        private const val DOWNSCALED_PREVIEW_QUALITY = 90
+    }
+}
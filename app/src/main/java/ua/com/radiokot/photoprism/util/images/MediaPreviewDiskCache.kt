@@ -0,0 +1,387 @@
+package ua.com.radiokot.photoprism.util.images
+
+import okio.Buffer
+import okio.ByteString.Companion.encodeUtf8
+import okio.BufferedSink
+import okio.ForwardingSource
+import okio.Source
+import okio.buffer
+import okio.sink
+import ua.com.radiokot.photoprism.extension.kLogger
+import ua.com.radiokot.photoprism.extension.tryOrNull
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A disk cache of media previews identified by their content rather than by URL,
+ * so it doesn't depend on the preview token and the library address.
+ * Least recently used previews are deleted once the [maxSize] is exceeded.
+ *
+ * The directory may be deleted at any time, the cache recovers from it.
+ *
+ * @param directory a directory used exclusively by this cache
+ * @param maxSize max total size of the previews in bytes
+ */
+class MediaPreviewDiskCache(
+    private val directory: File,
+    private val maxSize: Long,
+) {
+    private val log = kLogger("MediaPreviewDiskCache")
+
+    // Sizes of the entries, in access order.
+    private val entrySizes = LinkedHashMap<Key, Long>(0, 0.75f, true)
+
+    // Cached sizes of each hash and kind, to find renditions without a full scan.
+    private val renditionSizes = HashMap<String, MutableSet<Int>>()
+    private var size = 0L
+    private val tmpFileCounter = AtomicLong(0)
+
+    // Disk IO is done outside the lock of the entries when possible,
+    // so the threads getting previews do not wait for each other's IO.
+    @Volatile
+    private var isInitialized = false
+    private val initializationLock = Any()
+
+    /**
+     * @return the file of the cached preview, or null if it is not cached.
+     * The file may be deleted by the cache at any time,
+     * but it is safe to keep reading it once opened.
+     */
+    fun get(key: Key): File? {
+        initializeIfNeeded()
+
+        val file = synchronized(this) {
+            // Unlike containsKey, get updates the access order.
+            if (entrySizes[key] == null) {
+                return null
+            }
+
+            File(directory, key.fileName)
+        }
+
+        if (!file.exists()) {
+            synchronized(this) {
+                // It may have been written again meanwhile.
+                if (!file.exists()) {
+                    removeEntry(key)
+                }
+            }
+            return null
+        }
+
+        // Let the usage order survive the restart.
+        file.setLastModified(System.currentTimeMillis())
+
+        return file
+    }
+
+    /**
+     * @return key of the smallest cached preview of the same hash and kind
+     * which is larger than the one of the [key], or null if there is no such preview
+     */
+    fun getLargerRendition(key: Key): Key? {
+        initializeIfNeeded()
+
+        return synchronized(this) {
+            val largerSize = renditionSizes[key.renditionName]
+                ?.filter { it > key.size }
+                ?.minOrNull()
+                ?: return null
+
+            key.copy(size = largerSize)
+        }
+    }
+
+    /**
+     * Makes the cache belong to the library identified by the [libraryId].
+     * If it belongs to another library, it is cleared,
+     * so the previews only survive reconnecting to the same library.
+     */
+    fun setLibrary(libraryId: String) {
+        initializeIfNeeded()
+
+        val libraryFile = File(directory, LIBRARY_FILE_NAME)
+        val libraryHash = libraryId.encodeUtf8().sha256().hex()
+        val currentLibraryHash = tryOrNull { libraryFile.readText() }
+        if (currentLibraryHash == libraryHash) {
+            return
+        }
+
+        val filesToDelete = synchronized(this) {
+            val files = entrySizes.keys.map { File(directory, it.fileName) }
+            entrySizes.clear()
+            renditionSizes.clear()
+            size = 0
+            files
+        }
+        filesToDelete.forEach(File::delete)
+
+        directory.mkdirs()
+        libraryFile.writeText(libraryHash)
+
+        log.debug {
+            "setLibrary(): cleared_for_another_library:" +
+                    "\ndeletedFiles=${filesToDelete.size}"
+        }
+    }
+
+    /**
+     * @return a source which also writes the content of the [source] to the cache,
+     * committing it once the [source] is read to the end.
+     * If the returned source is closed before that, nothing is cached.
+     */
+    fun putWhileReading(
+        key: Key,
+        source: Source,
+    ): Source {
+        directory.mkdirs()
+        val tmpFile = File(directory, key.fileName + "." + tmpFileCounter.incrementAndGet() + TMP_FILE_SUFFIX)
+        val tmpFileSink: BufferedSink = try {
+            tmpFile.sink().buffer()
+        } catch (e: IOException) {
+            log.warn(e) {
+                "putWhileReading(): failed_creating_tmp_file:" +
+                        "\nkey=$key"
+            }
+
+            return source
+        }
+
+        return object : ForwardingSource(source) {
+            private var isWritingFailed = false
+            private var isCommitted = false
+
+            override fun read(sink: Buffer, byteCount: Long): Long {
+                val bytesRead = super.read(sink, byteCount)
+
+                if (bytesRead == -1L) {
+                    commit()
+                } else if (!isWritingFailed) {
+                    try {
+                        sink.copyTo(tmpFileSink.buffer, sink.size - bytesRead, bytesRead)
+                        tmpFileSink.emitCompleteSegments()
+                    } catch (e: IOException) {
+                        isWritingFailed = true
+                    }
+                }
+
+                return bytesRead
+            }
+
+            override fun close() {
+                super.close()
+
+                if (!isCommitted) {
+                    tmpFileSink.closeQuietly()
+                    tmpFile.delete()
+                }
+            }
+
+            private fun commit() {
+                if (isCommitted || isWritingFailed) {
+                    return
+                }
+                isCommitted = true
+
+                try {
+                    tmpFileSink.close()
+                    onWritten(key, tmpFile)
+                } catch (e: IOException) {
+                    log.warn(e) {
+                        "commit(): failed:" +
+                                "\nkey=$key"
+                    }
+                    tmpFile.delete()
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the [content] to the cache, replacing the existing one.
+     */
+    fun put(
+        key: Key,
+        content: ByteArray,
+    ) {
+        putWhileReading(key, Buffer().write(content))
+            .buffer()
+            .use { source ->
+                // Reading to the end commits the content.
+                source.skip(content.size.toLong())
+                source.exhausted()
+            }
+    }
+
+    private fun onWritten(
+        key: Key,
+        tmpFile: File,
+    ) {
+        initializeIfNeeded()
+
+        val file = File(directory, key.fileName)
+        if (!tmpFile.renameTo(file)) {
+            throw IOException("Failed renaming $tmpFile to $file")
+        }
+
+        val evictedFiles = synchronized(this) {
+            removeEntry(key)
+            addEntry(key, file.length())
+            trimToSize()
+        }
+        evictedFiles.forEach(File::delete)
+    }
+
+    private fun initializeIfNeeded() {
+        if (isInitialized) {
+            return
+        }
+
+        synchronized(initializationLock) {
+            if (isInitialized) {
+                return
+            }
+
+            val entries = directory
+                .listFiles()
+                ?.mapNotNull { file ->
+                    if (file.name == LIBRARY_FILE_NAME) {
+                        return@mapNotNull null
+                    }
+
+                    val key = Key.fromFileName(file.name)
+                    if (key == null) {
+                        // Left from an interrupted write, or not a preview at all.
+                        file.delete()
+                        return@mapNotNull null
+                    }
+
+                    Triple(key, file.length(), file.lastModified())
+                }
+                ?.sortedBy(Triple<Key, Long, Long>::third)
+                ?: emptyList()
+
+            val evictedFiles = synchronized(this) {
+                entries.forEach { (key, fileSize) ->
+                    addEntry(key, fileSize)
+                }
+
+                log.debug {
+                    "initializeIfNeeded(): initialized:" +
+                            "\nentries=${entrySizes.size}," +
+                            "\nsize=$size," +
+                            "\nmaxSize=$maxSize"
+                }
+
+                trimToSize()
+            }
+            evictedFiles.forEach(File::delete)
+
+            isInitialized = true
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the size fits the [maxSize].
+     *
+     * @return files of the removed entries to delete
+     */
+    private fun trimToSize(): List<File> {
+        val evictedFiles = mutableListOf<File>()
+        val iterator = entrySizes.entries.iterator()
+        while (size > maxSize && iterator.hasNext()) {
+            val (key, fileSize) = iterator.next()
+            iterator.remove()
+            size -= fileSize
+            removeRendition(key)
+            evictedFiles += File(directory, key.fileName)
+        }
+        return evictedFiles
+    }
+
+    private fun addEntry(key: Key, fileSize: Long) {
+        entrySizes[key] = fileSize
+        size += fileSize
+        renditionSizes.getOrPut(key.renditionName) { HashSet() }.add(key.size)
+    }
+
+    private fun removeEntry(key: Key) {
+        val fileSize = entrySizes.remove(key)
+        if (fileSize != null) {
+            size -= fileSize
+            removeRendition(key)
+        }
+    }
+
+    private fun removeRendition(key: Key) {
+        val sizes = renditionSizes[key.renditionName]
+            ?: return
+        sizes.remove(key.size)
+        if (sizes.isEmpty()) {
+            renditionSizes.remove(key.renditionName)
+        }
+    }
+
+    private fun BufferedSink.closeQuietly() =
+        try {
+            close()
+        } catch (_: IOException) {
+        }
+
+    /**
+     * @param hash hash of the preview content, the thumbnail hash in PhotoPrism terms
+     * @param kind kind of the preview, such as "tile" or "fit"
+     * @param size size of the preview in pixels
+     */
+    data class Key(
+        val hash: String,
+        val kind: String,
+        val size: Int,
+    ) {
+        init {
+            require(hash.all(Char::isLetterOrDigit)) {
+                "The hash must be safe to use as a file name"
+            }
+            require(kind.all(Char::isLetterOrDigit)) {
+                "The kind must be safe to use as a file name"
+            }
+        }
+
+        val fileName: String
+            get() = "${renditionName}_$size"
+
+        internal val renditionName: String
+            get() = "${hash}_$kind"
+
+        companion object {
+            /**
+             * @return the key the [fileName] belongs to, or null if it is not a preview file
+             */
+            fun fromFileName(fileName: String): Key? {
+                val parts = fileName.split('_')
+                if (parts.size != 3) {
+                    return null
+                }
+
+                val (hash, kind, size) = parts
+                if (hash.isEmpty() || !hash.all(Char::isLetterOrDigit)
+                    || kind.isEmpty() || !kind.all(Char::isLetterOrDigit)
+                ) {
+                    return null
+                }
+
+                return Key(
+                    hash = hash,
+                    kind = kind,
+                    size = size.toIntOrNull() ?: return null,
+                )
+            }
+        }
+    }
+
+    private companion object {
+        private const val TMP_FILE_SUFFIX = ".tmp"
+        private const val LIBRARY_FILE_NAME = "library"
+    }
+}
@@ -0,0 +1,18 @@
+package ua.com.radiokot.photoprism
+
+/**
+ * Runs the [block] [runCount] times to warm up,
+ * then measures the same number of runs.
+ *
+ * @return average duration of a run in nanoseconds
+ */
+inline fun measureAverageNanos(
+    runCount: Int,
+    block: () -> Unit,
+): Long {
+    repeat(runCount) { block() }
+
+    val startTime = System.nanoTime()
+    repeat(runCount) { block() }
+    return (System.nanoTime() - startTime) / runCount
+}
@@ -0,0 +1,217 @@
+package ua.com.radiokot.photoprism
+
+import io.reactivex.rxjava3.core.Observable
+import io.reactivex.rxjava3.schedulers.Schedulers
+import io.reactivex.rxjava3.subjects.PublishSubject
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.gallery.logic.ConcurrentFilesDownloader
+import ua.com.radiokot.photoprism.features.gallery.logic.DownloadFileUseCase
+import ua.com.radiokot.photoprism.util.downloader.ObservableDownloader
+import java.io.File
+
+class ConcurrentFilesDownloaderTest {
+    private class ControlledDownloader : ObservableDownloader {
+        val subjectsByUrl = mutableMapOf<String, PublishSubject<ObservableDownloader.Progress>>()
+        val startedUrls = mutableListOf<String>()
+        var activeCount = 0
+        var maxActiveCount = 0
+
+        override fun downloadResumable(
+            url: String,
+            destination: File,
+        ): Observable<ObservableDownloader.Progress> =
+            subjectsByUrl
+                .getOrPut(url, PublishSubject<ObservableDownloader.Progress>::create)
+                .doOnSubscribe {
+                    startedUrls += url
+                    activeCount++
+                    maxActiveCount = maxOf(maxActiveCount, activeCount)
+                }
+                .doFinally {
+                    activeCount--
+                }
+
+        override fun discardPartialDownload(destination: File) {
+        }
+
+        fun complete(url: String) =
+            subjectsByUrl.getValue(url).onComplete()
+
+        fun getRunningUrls(): List<String> =
+            startedUrls.filterNot { url -> subjectsByUrl.getValue(url).hasComplete() }
+    }
+
+    private var nowMs = 0L
+
+    private fun createDownload(url: String, size: Long?) = ConcurrentFilesDownloader.Download(
+        url = url,
+        destination = File("/tmp/$size"),
+        mimeType = null,
+        notifyMediaScanner = false,
+        expectedSize = size,
+    )
+
+    @Test
+    fun downloadSmallFirst() {
+        val downloader = ControlledDownloader()
+        val concurrentFilesDownloader = ConcurrentFilesDownloader(
+            downloadFileUseCase = DownloadFileUseCase(downloader, null),
+            maxParallelism = 1,
+            scheduler = Schedulers.trampoline(),
+        )
+
+        val observer = concurrentFilesDownloader
+            .download(
+                listOf(
+                    createDownload("https://a.local/300", 300),
+                    createDownload("https://a.local/unknown", null),
+                    createDownload("https://a.local/100", 100),
+                    createDownload("https://a.local/200", 200),
+                )
+            )
+            .test()
+
+        downloader.complete("https://a.local/100")
+        downloader.complete("https://a.local/200")
+        downloader.complete("https://a.local/300")
+        downloader.complete("https://a.local/unknown")
+
+        Assert.assertEquals(
+            listOf(
+                "https://a.local/100",
+                "https://a.local/200",
+                "https://a.local/300",
+                "https://a.local/unknown",
+            ),
+            downloader.startedUrls
+        )
+        Assert.assertEquals(1, downloader.maxActiveCount)
+        observer.assertComplete()
+        Assert.assertEquals(4, observer.values().last().completedCount)
+        Assert.assertEquals(100.0, observer.values().last().percent, 0.001)
+    }
+
+    @Test
+    fun limitParallelismPerHost() {
+        val downloader = ControlledDownloader()
+        val concurrentFilesDownloader = ConcurrentFilesDownloader(
+            downloadFileUseCase = DownloadFileUseCase(downloader, null),
+            maxParallelism = 6,
+            maxParallelismPerHost = 2,
+            scheduler = Schedulers.trampoline(),
+        )
+        val urls = (1..5).map { "https://a.local/$it" }
+
+        val observer = concurrentFilesDownloader
+            .download(urls.map { createDownload(it, it.length.toLong()) })
+            .test()
+
+        Assert.assertEquals(2, downloader.activeCount)
+
+        urls.forEach { url ->
+            if (url in downloader.startedUrls) {
+                downloader.complete(url)
+            }
+        }
+        urls.forEach { url ->
+            downloader.subjectsByUrl[url]?.onComplete()
+        }
+
+        Assert.assertEquals(2, downloader.maxActiveCount)
+        Assert.assertEquals(urls.toSet(), downloader.startedUrls.toSet())
+        observer.assertComplete()
+    }
+
+    @Test
+    fun failOnFirstError() {
+        val downloader = ControlledDownloader()
+        val concurrentFilesDownloader = ConcurrentFilesDownloader(
+            downloadFileUseCase = DownloadFileUseCase(downloader, null),
+            maxParallelism = 2,
+            scheduler = Schedulers.trampoline(),
+        )
+
+        val observer = concurrentFilesDownloader
+            .download(
+                listOf(
+                    createDownload("https://a.local/1", 1),
+                    createDownload("https://a.local/2", 2),
+                    createDownload("https://a.local/3", 3),
+                )
+            )
+            .test()
+
+        downloader.subjectsByUrl.getValue("https://a.local/1")
+            .onError(IllegalStateException("Not found"))
+
+        observer.assertError(IllegalStateException::class.java)
+        Assert.assertEquals(0, downloader.activeCount)
+        Assert.assertFalse("https://a.local/3" in downloader.startedUrls)
+    }
+
+    @Test
+    fun keepParallelismOnFlatThroughput() {
+        val downloader = ControlledDownloader()
+        val concurrentFilesDownloader = ConcurrentFilesDownloader(
+            downloadFileUseCase = DownloadFileUseCase(downloader, null),
+            maxParallelism = 6,
+            maxParallelismPerHost = 6,
+            scheduler = Schedulers.trampoline(),
+            currentTimeMs = { nowMs },
+        )
+
+        val observer = concurrentFilesDownloader
+            .download((1..20).map { createDownload("https://a.local/$it", 1000) })
+            .test()
+
+        // 1000 bytes per second regardless of the parallelism.
+        val parallelismSequence = (1..10).map {
+            nowMs += 1000
+            downloader.complete(downloader.getRunningUrls().first())
+            downloader.activeCount
+        }
+
+        // Probed, stepped back as it didn't help, then held.
+        Assert.assertEquals(
+            listOf(4, 3, 3, 3, 3, 3, 3, 3, 3, 3),
+            parallelismSequence
+        )
+        observer.assertNoErrors()
+    }
+
+    @Test
+    fun increaseParallelismWhileThroughputGrows() {
+        val downloader = ControlledDownloader()
+        val concurrentFilesDownloader = ConcurrentFilesDownloader(
+            downloadFileUseCase = DownloadFileUseCase(downloader, null),
+            maxParallelism = 6,
+            maxParallelismPerHost = 6,
+            scheduler = Schedulers.trampoline(),
+            currentTimeMs = { nowMs },
+        )
+
+        val observer = concurrentFilesDownloader
+            .download((1..40).map { createDownload("https://a.local/$it", 1000) })
+            .test()
+
+        // Each running download reads 1000 bytes per second.
+        val parallelismSequence = (1..6).map {
+            nowMs += 1000
+            val runningUrls = downloader.getRunningUrls()
+            runningUrls.forEach { url ->
+                downloader.subjectsByUrl.getValue(url)
+                    .onNext(ObservableDownloader.Progress(1000, 1000))
+            }
+            runningUrls.forEach(downloader::complete)
+            downloader.activeCount
+        }
+
+        // Increased up to the max and held there.
+        Assert.assertEquals(
+            listOf(4, 5, 6, 6, 6, 6),
+            parallelismSequence
+        )
+        observer.assertNoErrors()
+    }
+}
@@ -0,0 +1,30 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.util.DbscanClustering
+import kotlin.random.Random
+
+class DbscanClusteringBenchmark {
+    @Test
+    fun cluster() {
+        val random = Random(42)
+        listOf(1_000, 10_000, 100_000, 1_000_000).forEach { itemCount ->
+            // Timestamps of a photo library spanning 10 years, newest first.
+            val points = List(itemCount) {
+                random.nextLong(0, 315_360_000_000L)
+            }.sortedDescending()
+            var clusters: List<List<Long>> = emptyList()
+
+            val elapsedMs = measureAverageNanos(runCount = 1) {
+                clusters = DbscanClustering(points) { it }.cluster(
+                    maxDistance = 15_000L,
+                    minClusterSize = 1,
+                )
+            } / 1_000_000
+
+            println("cluster(): items=$itemCount, clusters=${clusters.size}, ms=$elapsedMs")
+            Assert.assertEquals(itemCount, clusters.sumOf(List<Long>::size))
+        }
+    }
+}
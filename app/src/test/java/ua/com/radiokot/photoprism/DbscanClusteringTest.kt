@@ -3,6 +3,8 @@ package ua.com.radiokot.photoprism
 import org.junit.Assert
 import org.junit.Test
 import ua.com.radiokot.photoprism.util.DbscanClustering
+import kotlin.math.abs
+import kotlin.random.Random
 
 class DbscanClusteringTest {
     @JvmInline
@@ -71,7 +73,6 @@ class DbscanClusteringTest {
             maxDistance = 1,
             minClusterSize = 2,
         )
-        println(clusters)
         Assert.assertEquals(1, clusters.size)
     }
 
@@ -97,4 +98,75 @@ class DbscanClusteringTest {
         )
         Assert.assertTrue(clusters.isEmpty())
     }
+
+    @Test
+    fun clusterSameAsReference_IfRandomData() {
+        val random = Random(42)
+        repeat(2000) {
+            val keys = List(random.nextInt(0, 40)) {
+                random.nextLong(0, 60)
+            }
+            // Cluster indices to distinguish items with equal keys.
+            val indices = keys.indices.toList()
+            val maxDistance = random.nextLong(0, 6)
+            val minClusterSize = random.nextInt(1, 5)
+
+            val expected = referenceCluster(keys, maxDistance, minClusterSize)
+                .map(List<Int>::sorted)
+            val actual = DbscanClustering(indices, keys::get).cluster(
+                maxDistance = maxDistance,
+                minClusterSize = minClusterSize,
+            )
+
+            Assert.assertEquals(
+                "keys=$keys, maxDistance=$maxDistance, minClusterSize=$minClusterSize",
+                expected,
+                actual,
+            )
+        }
+    }
+
+    /**
+     * The original quadratic implementation clustering key indices,
+     * which cluster items are in the discovery order.
+     */
+    private fun referenceCluster(
+        keys: List<Long>,
+        maxDistance: Long,
+        minClusterSize: Int,
+    ): List<List<Int>> {
+        fun getNeighborIndices(key: Long): MutableList<Int> =
+            keys.indices
+                .filter { abs(keys[it] - key) <= maxDistance }
+                .toMutableList()
+
+        val clusters = mutableListOf<List<Int>>()
+        val visited = BooleanArray(keys.size)
+        keys.forEachIndexed { corePointIndex, corePointKey ->
+            if (visited[corePointIndex]) {
+                return@forEachIndexed
+            }
+            visited[corePointIndex] = true
+
+            val neighborIndices = getNeighborIndices(corePointKey)
+            if (neighborIndices.size >= minClusterSize) {
+                var i = 0
+                while (i < neighborIndices.size) {
+                    val neighborIndex = neighborIndices[i++]
+                    if (visited[neighborIndex]) {
+                        continue
+                    }
+                    visited[neighborIndex] = true
+
+                    val extraNeighborIndices = getNeighborIndices(keys[neighborIndex])
+                    if (extraNeighborIndices.size >= minClusterSize) {
+                        neighborIndices.addAll(extraNeighborIndices)
+                    }
+                }
+
+                clusters.add(neighborIndices.distinct())
+            }
+        }
+        return clusters
+    }
 }
@@ -0,0 +1,58 @@
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismMergedPhoto
+import ua.com.radiokot.photoprism.extension.mapSuccessful
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryMediaJsonReader
+import java.io.ByteArrayInputStream
+
+class GalleryMediaJsonReaderBenchmark {
+    @Test
+    fun read() {
+        val reader = GalleryMediaJsonReader(JsonFactory())
+        val json = (0 until 1000)
+            .joinToString(separator = ",", prefix = "[", postfix = "]") { i ->
+                GalleryMediaJsonReaderTest.photoJson(i)
+            }
+            .toByteArray()
+        val objectMapper = jacksonObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+
+        fun measure(
+            name: String,
+            read: () -> List<GalleryMedia>,
+        ): Int {
+            var itemCount = 0
+            // Like loading the page multiple times.
+            val elapsedUs = measureAverageNanos(runCount = 20) {
+                itemCount = read().size
+            } / 1000
+
+            println("read(): $name: items=$itemCount, bytes=${json.size}, us_per_page=$elapsedUs")
+            return itemCount
+        }
+
+        Assert.assertEquals(
+            measure("databind") {
+                objectMapper
+                    .readValue<List<PhotoPrismMergedPhoto>>(json)
+                    .mapSuccessful(GalleryMedia::fromPhotoPrism)
+            },
+            measure("streaming") {
+                val items = mutableListOf<GalleryMedia>()
+                reader.read(
+                    input = ByteArrayInputStream(json),
+                    excludePersonIds = emptySet(),
+                    onItem = items::add,
+                )
+                items
+            },
+        )
+    }
+}
@@ -0,0 +1,174 @@
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import com.fasterxml.jackson.module.kotlin.readValue
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.api.photos.model.PhotoPrismMergedPhoto
+import ua.com.radiokot.photoprism.extension.mapSuccessful
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryMediaJsonReader
+import java.io.ByteArrayInputStream
+
+class GalleryMediaJsonReaderTest {
+    private val reader = GalleryMediaJsonReader(JsonFactory())
+
+    private fun readItems(
+        json: String,
+        excludePersonIds: Set<String> = emptySet(),
+    ): Pair<List<GalleryMedia>, GalleryMediaJsonReader.Summary> {
+        val items = mutableListOf<GalleryMedia>()
+        val summary = reader.read(
+            input = ByteArrayInputStream(json.toByteArray()),
+            excludePersonIds = excludePersonIds,
+            onItem = items::add,
+        )
+        return items to summary
+    }
+
+    @Test
+    fun readSameAsMergedPhotos() {
+        val json = (0 until 1000).joinToString(separator = ",", prefix = "[", postfix = "]") { i ->
+            photoJson(i)
+        }
+
+        val expectedItems = jacksonObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .readValue<List<PhotoPrismMergedPhoto>>(json)
+            .mapSuccessful(GalleryMedia::fromPhotoPrism)
+        val (items, summary) = readItems(json)
+
+        Assert.assertEquals(1000, expectedItems.size)
+        Assert.assertEquals(expectedItems.size, items.size)
+        Assert.assertEquals(1000, summary.photoCount)
+        Assert.assertEquals(expectedItems.sumOf { it.files.size }, summary.fileCount)
+        Assert.assertEquals(2000, summary.changeDates.size)
+
+        expectedItems.zip(items).forEach { (expected, actual) ->
+            Assert.assertEquals(expected.uid, actual.uid)
+            Assert.assertEquals(expected.media.typeName, actual.media.typeName)
+            Assert.assertEquals(expected.width, actual.width)
+            Assert.assertEquals(expected.height, actual.height)
+            Assert.assertEquals(expected.takenAtLocal.time, actual.takenAtLocal.time)
+            Assert.assertEquals(expected.title, actual.title)
+            Assert.assertEquals(expected.isFavorite, actual.isFavorite)
+            Assert.assertEquals(expected.isPrivate, actual.isPrivate)
+            Assert.assertEquals(expected.latLng, actual.latLng)
+            Assert.assertEquals(expected.hash, actual.hash)
+
+            val expectedLive = expected.media as? GalleryMedia.TypeData.Live
+            if (expectedLive != null) {
+                val actualLive = actual.media as GalleryMedia.TypeData.Live
+                Assert.assertEquals(expectedLive.fullDurationMs, actualLive.fullDurationMs)
+                Assert.assertEquals(expectedLive.kind, actualLive.kind)
+            }
+
+            Assert.assertEquals(expected.files.size, actual.files.size)
+            expected.files.zip(actual.files).forEach { (expectedFile, actualFile) ->
+                Assert.assertEquals(expectedFile.uid, actualFile.uid)
+                Assert.assertEquals(expectedFile.name, actualFile.name)
+                Assert.assertEquals(expectedFile.mediaUid, actualFile.mediaUid)
+                Assert.assertEquals(expectedFile.mimeType, actualFile.mimeType)
+                Assert.assertEquals(expectedFile.mediaType, actualFile.mediaType)
+                Assert.assertEquals(expectedFile.isPrimary, actualFile.isPrimary)
+                Assert.assertEquals(expectedFile.isSidecar, actualFile.isSidecar)
+                Assert.assertEquals(expectedFile.isVideo, actualFile.isVideo)
+                Assert.assertEquals(expectedFile.type, actualFile.type)
+                Assert.assertEquals(expectedFile.codec, actualFile.codec)
+                Assert.assertEquals(expectedFile.duration, actualFile.duration)
+                Assert.assertEquals(expectedFile.frames, actualFile.frames)
+                Assert.assertEquals(expectedFile.root, actualFile.root)
+                Assert.assertEquals(expectedFile.hash, actualFile.hash)
+                Assert.assertEquals(expectedFile.size, actualFile.size)
+            }
+        }
+
+        // Repeated values are shared.
+        Assert.assertSame(items[0].files[0].mimeType, items[999].files[0].mimeType)
+        Assert.assertSame(items[0].files[0].root, items[999].files[0].root)
+    }
+
+    @Test
+    fun skipBrokenPhotos() {
+        val json = listOf(
+            photoJson(0),
+            photoJson(1, type = "hologram"),
+            photoJson(2, extraFields = ""","TakenAtLocal":"yesterday""""),
+            photoJson(3, fileExtraFields = ""","UID":null"""),
+            photoJson(4),
+        ).joinToString(separator = ",", prefix = "[", postfix = "]")
+
+        val (items, summary) = readItems(json)
+
+        Assert.assertEquals(listOf("p0", "p4"), items.map(GalleryMedia::uid))
+        // Broken photos are still counted as PhotoPrism counts them.
+        Assert.assertEquals(5, summary.photoCount)
+        Assert.assertEquals(1 + 2 + 3 + 1 + 2, summary.fileCount)
+    }
+
+    @Test
+    fun skipExcludedPersons() {
+        val json = (0 until 10).joinToString(separator = ",", prefix = "[", postfix = "]") { i ->
+            photoJson(i)
+        }
+
+        val (items, summary) = readItems(
+            json = json,
+            excludePersonIds = setOf("face3", "face5"),
+        )
+
+        Assert.assertEquals(
+            listOf("p0", "p1", "p2", "p4", "p6", "p7", "p8", "p9"),
+            items.map(GalleryMedia::uid)
+        )
+        Assert.assertEquals(10, summary.photoCount)
+    }
+
+    @Test
+    fun readEmptySuccessfully() {
+        val (items, summary) = readItems("[]")
+
+        Assert.assertTrue(items.isEmpty())
+        Assert.assertEquals(0, summary.photoCount)
+        Assert.assertEquals(0, summary.fileCount)
+    }
+
+    companion object {
+        /**
+         * @return JSON of a PhotoPrism merged photo with 1 to 3 files,
+         * which varies with the [i].
+         */
+        fun photoJson(
+            i: Int,
+            type: String = listOf("image", "live", "video", "raw")[i % 4],
+            extraFields: String = "",
+            fileExtraFields: String = "",
+        ): String {
+            val files = (0..i % 3).joinToString(separator = ",", prefix = "[", postfix = "]") { j ->
+                """
+                {"UID":"f$i-$j","PhotoUID":"p$i","Name":"2024/01/IMG_$i-$j.jpg","Root":"/",
+                "Hash":"fh$i-$j","Size":${1000 + j},"Primary":${j == 0},"Sidecar":false,
+                "Codec":${if (j == 1) "\"avc1\"" else "null"},"FileType":"${if (j == 1) "mp4" else "jpg"}",
+                "MediaType":"${if (j == 1) "video" else "image"}","Mime":${if (j == 2) "null" else "\"image/jpeg\""},
+                "Video":${j == 1},"Duration":${if (j == 1) 3000000000 else 0},"Frames":null,
+                "Width":4000,"Height":3000,"Orientation":1,
+                "Markers":[{"UID":"m$i-$j","FaceID":"face$i","SubjUID":null,"Score":42}]
+                $fileExtraFields}
+                """
+            }
+
+            return """
+                {"ID":"$i","UID":"p$i","Type":"$type","TypeSrc":"","Hash":"h$i",
+                "TakenAt":"2024-01-01T00:00:00Z","TakenAtLocal":"2024-01-${(i % 28 + 1).toString().padStart(2, '0')}T10:11:12${if (i % 2 == 0) ".5" else ""}Z",
+                "Title":"Photo $i","Description":"","Favorite":${i % 5 == 0},"Private":${i % 7 == 0},
+                "Quality":3,"Width":${100 + i},"Height":${200 + i},"Lat":${if (i % 3 == 0) 0 else i},"Lng":${i * 0.5},
+                "CameraMake":"${if (i % 2 == 0) "Apple" else "Samsung"}","Details":{"Keywords":"a, b","Nested":[1,[2],{"A":null}]},
+                "CreatedAt":"2024-02-01T00:00:00Z","UpdatedAt":"2024-02-0${i % 9 + 1}T00:00:00Z","DeletedAt":null,
+                "Files":$files
+                $extraFields}
+            """
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.gallery.data.storage.SimpleGalleryMediaRepository
+import ua.com.radiokot.photoprism.features.gallery.logic.GalleryPageSizeController
+
+class GalleryPageSizeControllerTest {
+    private val preferences = DummySharedPreferences()
+
+    private fun createController() = GalleryPageSizeController(
+        preferences = preferences,
+        keyPrefix = "test",
+        targetRequestDurationMs = 1500,
+    )
+
+    @Test
+    fun defaultUntilMeasured() {
+        val controller = createController()
+
+        Assert.assertEquals(
+            SimpleGalleryMediaRepository.Params.DEFAULT_PAGE_LIMIT,
+            controller.getPageSize(isFirstPage = false).limit
+        )
+        Assert.assertEquals(
+            SimpleGalleryMediaRepository.Params.DEFAULT_PAGE_LIMIT,
+            controller.getPageSize(isFirstPage = true).limit
+        )
+    }
+
+    @Test
+    fun firstPageFillsPersistedViewport() {
+        createController().onViewportMeasured(
+            spanCount = 5,
+            visibleRowCount = 20,
+        )
+
+        // The viewport is known before the list is laid out.
+        val controller = createController()
+
+        Assert.assertEquals(100, controller.viewportItemCount)
+        Assert.assertEquals(200, controller.getPageSize(isFirstPage = true).limit)
+        // Never smaller than the viewport.
+        Assert.assertEquals(100, controller.getPageSize(isFirstPage = false).limit)
+    }
+
+    @Test
+    fun targetDurationFromLatencyAndThroughput() {
+        val controller = createController()
+
+        // 200 ms latency, 1000 bytes per ms, 5000 bytes per item.
+        controller.onRawPageLoaded(
+            requestedFilesCount = 1000,
+            filesCount = 150,
+            itemsCount = 100,
+            bytesCount = 500_000,
+            durationMs = 700,
+        )
+        controller.onRawPageLoaded(
+            requestedFilesCount = 1000,
+            filesCount = 300,
+            itemsCount = 200,
+            bytesCount = 1_000_000,
+            durationMs = 1200,
+        )
+
+        // (1500 - 200) ms * 1000 bytes per ms / 5000 bytes per item.
+        Assert.assertEquals(260, controller.getPageSize(isFirstPage = false).limit)
+    }
+
+    @Test
+    fun wholeDurationIsTransferIfLatencyIsUnknown() {
+        val controller = createController()
+
+        repeat(3) {
+            controller.onRawPageLoaded(
+                requestedFilesCount = 1000,
+                filesCount = 300,
+                itemsCount = 200,
+                bytesCount = 1_000_000,
+                durationMs = 1000,
+            )
+        }
+
+        // 1500 ms * 1000 bytes per ms / 5000 bytes per item.
+        Assert.assertEquals(300, controller.getPageSize(isFirstPage = false).limit)
+    }
+
+    @Test
+    fun limitsAreCoerced() {
+        val controller = createController()
+
+        controller.onRawPageLoaded(
+            requestedFilesCount = 1000,
+            filesCount = 10,
+            itemsCount = 10,
+            bytesCount = 1_000_000,
+            durationMs = 10,
+        )
+        Assert.assertEquals(500, controller.getPageSize(isFirstPage = false).limit)
+
+        val slowController = createController()
+        slowController.onRawPageLoaded(
+            requestedFilesCount = 1000,
+            filesCount = 10,
+            itemsCount = 10,
+            bytesCount = 1_000,
+            durationMs = 10_000,
+        )
+        Assert.assertEquals(40, slowController.getPageSize(isFirstPage = false).limit)
+    }
+
+    @Test
+    fun lookaheadFollowsFilesPerItemOfFullPages() {
+        val controller = createController()
+
+        // Not full, tells nothing about the files per item.
+        controller.onRawPageLoaded(
+            requestedFilesCount = 1000,
+            filesCount = 300,
+            itemsCount = 100,
+            bytesCount = 500_000,
+            durationMs = 1000,
+        )
+        val notFullPageSize = controller.getPageSize(isFirstPage = false)
+        Assert.assertTrue(notFullPageSize.lookaheadLimit < notFullPageSize.limit * 2)
+
+        // 3 files per item.
+        repeat(10) {
+            controller.onRawPageLoaded(
+                requestedFilesCount = 300,
+                filesCount = 300,
+                itemsCount = 100,
+                bytesCount = 500_000,
+                durationMs = 1000,
+            )
+        }
+        val pageSize = controller.getPageSize(isFirstPage = false)
+        Assert.assertTrue(pageSize.lookaheadLimit >= pageSize.limit * 3)
+        Assert.assertTrue(pageSize.lookaheadLimit <= pageSize.limit * 3 * 1.1 + 1)
+    }
+}
@@ -0,0 +1,157 @@
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.core.JsonFactory
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import ua.com.radiokot.photoprism.features.map.logic.GeoJsonMapPhotoPointsReader
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+class GeoJsonMapPhotoPointsReaderTest {
+    private val reader = GeoJsonMapPhotoPointsReader(JsonFactory())
+
+    @Test
+    fun readSuccessfully() {
+        val geoJson = """
+            {
+              "type": "FeatureCollection",
+              "bbox": [-2.6, 42.5, 30.5, 50.4],
+              "features": [
+                {
+                  "id": "1",
+                  "type": "Feature",
+                  "geometry": {
+                    "type": "Point",
+                    "coordinates": [-2.59085833333333, 42.5683033333333]
+                  },
+                  "properties": {
+                    "Hash": "4bc82c3ea5aaa323aea801fe0125b554af8e49af",
+                    "TakenAt": "2012-08-27T12:40:25Z",
+                    "Title": "Bodegas Ysios Winery",
+                    "UID": "pt986fden7x4i71c"
+                  }
+                },
+                {
+                  "id": "2",
+                  "type": "Feature",
+                  "properties": {
+                    "UID": "pt986fden7x4i72c",
+                    "Extra": {"Nested": [1, 2, {"A": "B"}]},
+                    "Hash": "5bc82c3ea5aaa323aea801fe0125b554af8e49af"
+                  },
+                  "geometry": {
+                    "type": "Point",
+                    "coordinates": [30.5234, 50.4501, 179.0]
+                  }
+                },
+                {
+                  "id": "3",
+                  "type": "Feature",
+                  "geometry": {
+                    "type": "Point",
+                    "coordinates": []
+                  },
+                  "properties": {
+                    "Hash": "6bc82c3ea5aaa323aea801fe0125b554af8e49af",
+                    "UID": "pt986fden7x4i73c"
+                  }
+                }
+              ]
+            }
+        """.trimIndent()
+
+        val points = reader.read(ByteArrayInputStream(geoJson.toByteArray()))
+
+        Assert.assertEquals(2, points.size)
+        Assert.assertEquals(42.5683033333333, points.getLat(0), 0.0)
+        Assert.assertEquals(-2.59085833333333, points.getLng(0), 0.0)
+        Assert.assertEquals("4bc82c3ea5aaa323aea801fe0125b554af8e49af", points.getHash(0))
+        Assert.assertEquals("pt986fden7x4i71c", points.getUid(0))
+        Assert.assertEquals(50.4501, points.getLat(1), 0.0)
+        Assert.assertEquals(30.5234, points.getLng(1), 0.0)
+        Assert.assertEquals("5bc82c3ea5aaa323aea801fe0125b554af8e49af", points.getHash(1))
+        Assert.assertEquals("pt986fden7x4i72c", points.getUid(1))
+        Assert.assertArrayEquals(
+            doubleArrayOf(42.5683033333333, -2.59085833333333, 50.4501, 30.5234),
+            points.getBounds(),
+            0.0
+        )
+    }
+
+    @Test
+    fun reportProgressWithDoublingStep() {
+        val count = 1000
+        val geoJson = buildString {
+            append("""{"type":"FeatureCollection","features":[""")
+            repeat(count) { i ->
+                if (i > 0) {
+                    append(',')
+                }
+                append(
+                    """{"type":"Feature","geometry":{"type":"Point","coordinates":[$i.5,${-i}]},""" +
+                            """"properties":{"Hash":"h$i","UID":"u$i"}}"""
+                )
+            }
+            append("]}")
+        }
+
+        val progressSizes = mutableListOf<Int>()
+        val points = reader.read(
+            input = ByteArrayInputStream(geoJson.toByteArray()),
+            progressStep = 100,
+            onProgress = { partialPoints ->
+                progressSizes += partialPoints.size
+                Assert.assertEquals(
+                    "h${partialPoints.size - 1}",
+                    partialPoints.getHash(partialPoints.size - 1)
+                )
+            }
+        )
+
+        Assert.assertEquals(listOf(100, 200, 400, 800), progressSizes)
+        Assert.assertEquals(count, points.size)
+        Assert.assertEquals(-999.0, points.getLat(999), 0.0)
+        Assert.assertEquals(999.5, points.getLng(999), 0.0)
+    }
+
+    @Test
+    fun readEmptySuccessfully() {
+        val points = reader.read(
+            ByteArrayInputStream("""{"type":"FeatureCollection","features":[]}""".toByteArray())
+        )
+
+        Assert.assertTrue(points.isEmpty)
+        Assert.assertNull(points.getBounds())
+    }
+
+    @Test
+    fun writeAndReadBackSuccessfully() {
+        val builder = MapPhotoPoints.Builder(initialCapacity = 1)
+        repeat(10) { i ->
+            builder.add(
+                lat = i * 1.5,
+                lng = -i * 2.5,
+                hash = "hash$i",
+                uid = "uid$i",
+            )
+        }
+        val points = builder.build()
+
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use(points::writeTo)
+        val readPoints = MapPhotoPoints.readFrom(
+            DataInputStream(ByteArrayInputStream(bytes.toByteArray()))
+        )
+
+        Assert.assertEquals(points.size, readPoints.size)
+        repeat(points.size) { i ->
+            Assert.assertEquals(points.getLat(i), readPoints.getLat(i), 0.0)
+            Assert.assertEquals(points.getLng(i), readPoints.getLng(i), 0.0)
+            Assert.assertEquals(points.getHash(i), readPoints.getHash(i))
+            Assert.assertEquals(points.getUid(i), readPoints.getUid(i))
+        }
+    }
+}
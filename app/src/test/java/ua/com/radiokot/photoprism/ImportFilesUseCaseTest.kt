@@ -0,0 +1,341 @@
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.module.kotlin.jacksonObjectMapper
+import okio.Buffer
+import okio.ByteString.Companion.toByteString
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import retrofit2.Retrofit
+import retrofit2.converter.jackson.JacksonConverterFactory
+import ua.com.radiokot.photoprism.api.config.model.PhotoPrismClientConfig
+import ua.com.radiokot.photoprism.api.photos.service.PhotoPrismPhotosService
+import ua.com.radiokot.photoprism.api.session.model.PhotoPrismSession
+import ua.com.radiokot.photoprism.api.session.model.PhotoPrismSessionCredentials
+import ua.com.radiokot.photoprism.api.session.model.PhotoPrismUser
+import ua.com.radiokot.photoprism.api.session.service.PhotoPrismSessionService
+import ua.com.radiokot.photoprism.api.upload.service.PhotoPrismUploadService
+import ua.com.radiokot.photoprism.features.importt.logic.ImportFilesUseCase
+import ua.com.radiokot.photoprism.features.importt.model.ImportableFile
+import java.io.InputStream
+import java.net.ServerSocket
+import java.net.URLDecoder
+import java.net.Socket
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class ImportFilesUseCaseTest {
+    /**
+     * A minimal HTTP server accepting uploads,
+     * which drops the connection in the middle of the first upload
+     * of the files named in [dropOnceFileNames].
+     * Photo search by hash finds the [libraryFileHashes].
+     */
+    private class UploadServer(
+        private val dropOnceFileNames: Set<String>,
+        private val libraryFileHashes: Set<String> = emptySet(),
+    ) {
+        private val serverSocket = ServerSocket(0)
+        val uploadAttempts: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        val uploadedFileNames: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        val requestPaths: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        val port: Int
+            get() = serverSocket.localPort
+
+        fun start() = thread(isDaemon = true) {
+            while (!serverSocket.isClosed) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: Exception) {
+                    break
+                }
+                thread(isDaemon = true) {
+                    socket.use(::handle)
+                }
+            }
+        }
+
+        fun stop() =
+            serverSocket.close()
+
+        private fun handle(socket: Socket) {
+            val input = socket.getInputStream()
+            val headerLines = readHeader(input).split("\r\n")
+            val (method, path) = headerLines.first().split(" ")
+            val contentLength = headerLines
+                .find { it.startsWith("Content-Length:", ignoreCase = true) }
+                ?.substringAfter(":")
+                ?.trim()
+                ?.toInt()
+                ?: 0
+            requestPaths += "$method $path"
+            var responseBody = "{}"
+
+            if (method == "GET" && path.startsWith("/api/v1/photos")) {
+                val queriedHashes = URLDecoder.decode(path, "UTF-8")
+                    .substringAfter("q=hash:")
+                    .substringBefore("&")
+                    .split("|")
+                responseBody = queriedHashes
+                    .filter { it in libraryFileHashes }
+                    .joinToString(prefix = "[", postfix = "]") { hash ->
+                        """
+                        {"UID":"p$hash","Hash":"$hash","Width":1,"Height":1,
+                        "TakenAtLocal":"2024-01-01T00:00:00Z","Type":"image","Title":"",
+                        "Favorite":false,"Quality":3,"Private":false,"Lat":0,"Lng":0,
+                        "Files":[{"Hash":"$hash","UID":"f$hash","PhotoUID":"p$hash","Name":"$hash"}]}
+                        """
+                    }
+            } else if (method == "POST") {
+                // The part header is in the beginning.
+                val bodyStart = input.readNBytes(minOf(contentLength, 512))
+                val fileName = bodyStart
+                    .decodeToString()
+                    .substringAfter("filename=\"")
+                    .substringBefore("\"")
+                val isFirstAttempt = fileName !in uploadAttempts
+                uploadAttempts += fileName
+
+                if (isFirstAttempt && fileName in dropOnceFileNames) {
+                    input.readNBytes(contentLength / 2)
+                    return
+                }
+
+                input.readNBytes(contentLength - bodyStart.size)
+                uploadedFileNames += fileName
+            } else {
+                input.readNBytes(contentLength)
+            }
+
+            val responseBodyBytes = responseBody.toByteArray()
+            socket.getOutputStream().write(
+                ("HTTP/1.1 200 OK\r\n" +
+                        "Content-Type: application/json\r\n" +
+                        "Content-Length: ${responseBodyBytes.size}\r\n" +
+                        "Connection: close\r\n" +
+                        "\r\n").toByteArray() + responseBodyBytes
+            )
+        }
+
+        private fun readHeader(input: InputStream): String {
+            val header = StringBuilder()
+            while (!header.endsWith("\r\n\r\n")) {
+                val byte = input.read()
+                check(byte >= 0) { "Unexpected end of the request" }
+                header.append(byte.toChar())
+            }
+            return header.trimEnd().toString()
+        }
+    }
+
+    private val sessionService = object : PhotoPrismSessionService {
+        override fun createSession(credentials: PhotoPrismSessionCredentials) =
+            error("Not expected")
+
+        override fun getCurrentSession() = PhotoPrismSession(
+            id = "session",
+            config = PhotoPrismClientConfig(
+                downloadToken = "dt",
+                previewToken = "pt",
+                public = false,
+                years = null,
+            ),
+            user = PhotoPrismUser(
+                uid = "user",
+            ),
+        )
+    }
+
+    private val contents = mapOf(
+        "small.jpg" to ByteArray(1000) { it.toByte() },
+        "large.mp4" to ByteArray(4 * 1024 * 1024) { it.toByte() },
+    )
+    private val files = contents.map { (name, content) ->
+        ImportableFile(
+            contentUri = "content://test/$name",
+            displayName = name,
+            mimeType = null,
+            size = content.size.toLong(),
+        )
+    }
+
+    private val openedFileNames = Collections.synchronizedList(mutableListOf<String>())
+    private lateinit var server: UploadServer
+
+    @Before
+    fun startServer() {
+        server = UploadServer(
+            dropOnceFileNames = setOf("large.mp4"),
+        )
+        server.start()
+    }
+
+    @After
+    fun stopServer() =
+        server.stop()
+
+    private fun createUseCase(): ImportFilesUseCase {
+        val retrofit = Retrofit.Builder()
+            .baseUrl("http://127.0.0.1:${server.port}/api/")
+            .addConverterFactory(JacksonConverterFactory.create(jacksonObjectMapper()))
+            .build()
+
+        return ImportFilesUseCase(
+            openFileSource = { file ->
+                openedFileNames += file.displayName
+                Buffer().write(contents.getValue(file.displayName))
+            },
+            photoPrismSessionService = sessionService,
+            photoPrismUploadService = retrofit.create(PhotoPrismUploadService::class.java),
+            photoPrismPhotosService = retrofit.create(PhotoPrismPhotosService::class.java),
+            albumsRepository = null,
+            retryDelayMs = 10,
+        )
+    }
+
+    @Test
+    fun resendOnlyDroppedFile() {
+        val uploadedFiles = Collections.synchronizedList(mutableListOf<ImportableFile>())
+
+        val observer = createUseCase()
+            .invoke(
+                files = files,
+                albums = emptySet(),
+                uploadToken = "token",
+                onFileUploaded = uploadedFiles::add,
+            )
+            .test()
+
+        Assert.assertTrue(observer.await(10, TimeUnit.SECONDS))
+        observer.assertComplete()
+        Assert.assertEquals(
+            listOf("large.mp4", "large.mp4"),
+            server.uploadAttempts.filter { it == "large.mp4" }
+        )
+        Assert.assertEquals(
+            listOf("small.jpg"),
+            server.uploadAttempts.filter { it == "small.jpg" }
+        )
+        Assert.assertEquals(files.toSet(), uploadedFiles.toSet())
+        Assert.assertEquals("PUT /api/v1/users/user/upload/token", server.requestPaths.last())
+    }
+
+    @Test
+    fun resumeWithoutUploadedFiles() {
+        val uploadedFiles = Collections.synchronizedList(mutableListOf<ImportableFile>())
+        val alreadyUploadedFile = files.first { it.displayName == "small.jpg" }
+
+        val observer = createUseCase()
+            .invoke(
+                files = files,
+                albums = emptySet(),
+                uploadToken = "token",
+                uploadedFiles = setOf(alreadyUploadedFile),
+                onFileUploaded = uploadedFiles::add,
+            )
+            .test()
+
+        Assert.assertTrue(observer.await(10, TimeUnit.SECONDS))
+        observer.assertComplete()
+        Assert.assertEquals(setOf("large.mp4"), server.uploadAttempts.toSet())
+        Assert.assertEquals(listOf("large.mp4"), server.uploadedFileNames)
+        Assert.assertEquals(files - alreadyUploadedFile, uploadedFiles)
+
+        val uploadingPercents = observer.values()
+            .filterIsInstance<ImportFilesUseCase.Status.Uploading>()
+            .map(ImportFilesUseCase.Status.Uploading::percent)
+            .filter { it >= 0 }
+        // The already uploaded file counts as done.
+        Assert.assertTrue(uploadingPercents.all { it >= 50.0 })
+        Assert.assertEquals(100.0, uploadingPercents.last(), 0.001)
+    }
+
+    @Test
+    fun skipFilesAlreadyInLibrary() {
+        server.stop()
+        server = UploadServer(
+            dropOnceFileNames = emptySet(),
+            libraryFileHashes = setOf(
+                contents.getValue("large.mp4").toByteString().sha1().hex(),
+            ),
+        )
+        server.start()
+        var filesAlreadyInLibrary: Set<ImportableFile> = emptySet()
+
+        val observer = createUseCase()
+            .invoke(
+                files = files,
+                albums = emptySet(),
+                uploadToken = "token",
+                onFilesAlreadyInLibrary = { filesAlreadyInLibrary = it },
+            )
+            .test()
+
+        Assert.assertTrue(observer.await(10, TimeUnit.SECONDS))
+        observer.assertComplete()
+        Assert.assertEquals(setOf("large.mp4"), filesAlreadyInLibrary.map { it.displayName }.toSet())
+        Assert.assertEquals(listOf("small.jpg"), server.uploadedFileNames)
+    }
+
+    @Test
+    fun skipProcessingIfAllFilesAlreadyInLibrary() {
+        server.stop()
+        server = UploadServer(
+            dropOnceFileNames = emptySet(),
+            libraryFileHashes = contents.values.mapTo(mutableSetOf()) { content ->
+                content.toByteString().sha1().hex()
+            },
+        )
+        server.start()
+
+        val observer = createUseCase()
+            .invoke(
+                files = files,
+                albums = emptySet(),
+                uploadToken = "token",
+            )
+            .test()
+
+        Assert.assertTrue(observer.await(10, TimeUnit.SECONDS))
+        observer.assertComplete()
+        Assert.assertTrue(server.requestPaths.none { it.startsWith("POST") || it.startsWith("PUT") })
+    }
+
+    @Test
+    fun hashOnlyFilesWithUnknownHashes() {
+        val hashesByFileName = contents.mapValues { (_, content) ->
+            content.toByteString().sha1().hex()
+        }
+        server.stop()
+        server = UploadServer(
+            dropOnceFileNames = emptySet(),
+            libraryFileHashes = hashesByFileName.values.toSet(),
+        )
+        server.start()
+        val knownHashFile = files.first { it.displayName == "large.mp4" }
+        val hashedFiles = Collections.synchronizedMap(mutableMapOf<ImportableFile, String>())
+
+        val observer = createUseCase()
+            .invoke(
+                files = files,
+                albums = emptySet(),
+                uploadToken = "token",
+                contentHashes = mapOf(
+                    knownHashFile to hashesByFileName.getValue(knownHashFile.displayName),
+                ),
+                onFileHashed = { file, hash -> hashedFiles[file] = hash },
+            )
+            .test()
+
+        Assert.assertTrue(observer.await(10, TimeUnit.SECONDS))
+        observer.assertComplete()
+        Assert.assertEquals(listOf("small.jpg"), openedFileNames)
+        Assert.assertEquals(
+            mapOf("small.jpg" to hashesByFileName.getValue("small.jpg")),
+            hashedFiles.mapKeys { (file, _) -> file.displayName }
+        )
+        Assert.assertTrue(server.requestPaths.none { it.startsWith("POST") || it.startsWith("PUT") })
+    }
+}
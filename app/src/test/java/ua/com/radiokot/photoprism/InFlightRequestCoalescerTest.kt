@@ -0,0 +1,175 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.api.util.InFlightRequestCoalescer
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class InFlightRequestCoalescerTest {
+    @Test
+    fun joinConcurrentIdenticalRequests() {
+        val coalescer = InFlightRequestCoalescer()
+        val callCount = AtomicInteger(0)
+        val callStarted = CountDownLatch(1)
+        val releaseCall = CountDownLatch(1)
+        val results = Collections.synchronizedList(mutableListOf<String>())
+
+        val first = thread {
+            results += coalescer.execute("key") {
+                callCount.incrementAndGet()
+                callStarted.countDown()
+                releaseCall.await()
+                "result"
+            }
+        }
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS))
+
+        val others = (1..4).map {
+            thread {
+                results += coalescer.execute("key") {
+                    callCount.incrementAndGet()
+                    "other"
+                }
+            }
+        }
+        // Let the others reach the in-flight request.
+        while (coalescer.hitCount < others.size) {
+            Thread.sleep(5)
+        }
+        releaseCall.countDown()
+        (others + first).forEach { it.join(5000) }
+
+        Assert.assertEquals(1, callCount.get())
+        Assert.assertEquals(List(5) { "result" }, results)
+        Assert.assertEquals(1, coalescer.missCount)
+        Assert.assertEquals(4, coalescer.hitCount)
+    }
+
+    @Test
+    fun notJoinDifferentRequests() {
+        val coalescer = InFlightRequestCoalescer()
+
+        Assert.assertEquals("a", coalescer.execute("a") { "a" })
+        Assert.assertEquals("b", coalescer.execute("b") { "b" })
+        Assert.assertEquals(2, coalescer.missCount)
+    }
+
+    @Test
+    fun reuseResultWithinTtl() {
+        var now = 0L
+        val coalescer = InFlightRequestCoalescer(
+            resultTtlMs = 1000,
+            currentTimeMs = { now },
+        )
+        val callCount = AtomicInteger(0)
+        val call = { callCount.incrementAndGet() }
+
+        Assert.assertEquals(1, coalescer.execute("key", call))
+        now = 1000
+        Assert.assertEquals(1, coalescer.execute("key", call))
+        now = 2001
+        Assert.assertEquals(2, coalescer.execute("key", call))
+        Assert.assertEquals(2, callCount.get())
+    }
+
+    @Test
+    fun notReuseFailure() {
+        val coalescer = InFlightRequestCoalescer()
+        val callCount = AtomicInteger(0)
+
+        try {
+            coalescer.execute<String>("key") {
+                callCount.incrementAndGet()
+                throw IOException("Failed")
+            }
+            Assert.fail("The call error must be thrown")
+        } catch (e: IOException) {
+            Assert.assertEquals("Failed", e.message)
+        }
+
+        Assert.assertEquals("result", coalescer.execute("key") {
+            callCount.incrementAndGet()
+            "result"
+        })
+        Assert.assertEquals(2, callCount.get())
+    }
+
+    @Test
+    fun notReuseInvalidatedResult() {
+        val coalescer = InFlightRequestCoalescer()
+        val callCount = AtomicInteger(0)
+        val call = { callCount.incrementAndGet() }
+
+        Assert.assertEquals(1, coalescer.execute("key", call))
+        coalescer.invalidate()
+        Assert.assertEquals(2, coalescer.execute("key", call))
+    }
+
+    @Test
+    fun notJoinInvalidatedRequestInFlight() {
+        val coalescer = InFlightRequestCoalescer()
+        val callStarted = CountDownLatch(1)
+        val releaseCall = CountDownLatch(1)
+        var staleResult: String? = null
+
+        val first = thread {
+            staleResult = coalescer.execute("key") {
+                callStarted.countDown()
+                releaseCall.await()
+                "stale"
+            }
+        }
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS))
+
+        coalescer.invalidate()
+        Assert.assertEquals("fresh", coalescer.execute("key") { "fresh" })
+
+        releaseCall.countDown()
+        first.join(5000)
+        Assert.assertEquals("stale", staleResult)
+        Assert.assertEquals(2, coalescer.missCount)
+        Assert.assertEquals(0, coalescer.hitCount)
+    }
+
+    @Test
+    fun notInheritCancellationOfJoinedRequest() {
+        val coalescer = InFlightRequestCoalescer()
+        val callStarted = CountDownLatch(1)
+        val releaseCall = CountDownLatch(1)
+        var leaderError: Throwable? = null
+        var joinerResult: String? = null
+
+        val leader = thread {
+            try {
+                coalescer.execute<String>("key") {
+                    callStarted.countDown()
+                    releaseCall.await()
+                    throw InterruptedIOException("Canceled")
+                }
+            } catch (e: Throwable) {
+                leaderError = e
+            }
+        }
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS))
+
+        val joiner = thread {
+            joinerResult = coalescer.execute("key") { "result" }
+        }
+        while (coalescer.hitCount < 1) {
+            Thread.sleep(5)
+        }
+        releaseCall.countDown()
+        leader.join(5000)
+        joiner.join(5000)
+
+        Assert.assertTrue(leaderError is InterruptedIOException)
+        Assert.assertEquals("result", joinerResult)
+        Assert.assertEquals(2, coalescer.missCount)
+    }
+}
@@ -0,0 +1,49 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.util.LocalDate
+import java.util.Calendar
+import kotlin.random.Random
+
+class LocalDateBenchmark {
+    @Test
+    fun compare() {
+        val random = Random(42)
+        val dates = List(10_000) {
+            LocalDate(localTimeMillis = random.nextLong(1_000_000_000_000L, 1_700_000_000_000L))
+        }.sortedDescending()
+
+        fun calendarIsSameMonth(a: LocalDate, b: LocalDate): Boolean {
+            val calendar = a.getCalendar()
+            val aYear = calendar[Calendar.YEAR]
+            val aMonth = calendar[Calendar.MONTH]
+            calendar.time = b
+            return aYear == calendar[Calendar.YEAR] && aMonth == calendar[Calendar.MONTH]
+        }
+
+        fun measure(
+            name: String,
+            isSameMonth: (LocalDate, LocalDate) -> Boolean,
+        ): Int {
+            var monthChanges = 0
+            // Like reposting the list multiple times.
+            val elapsedUs = measureAverageNanos(runCount = 20) {
+                monthChanges = 0
+                for (i in 1 until dates.size) {
+                    if (!isSameMonth(dates[i], dates[i - 1])) {
+                        monthChanges++
+                    }
+                }
+            } / 1000
+
+            println("compare(): $name: items=${dates.size}, us_per_list=$elapsedUs")
+            return monthChanges
+        }
+
+        Assert.assertEquals(
+            measure("calendar", ::calendarIsSameMonth),
+            measure("epoch_month", LocalDate::isSameMonthAs),
+        )
+    }
+}
@@ -0,0 +1,53 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.extension.getUtcCalendar
+import ua.com.radiokot.photoprism.util.LocalDate
+import java.util.Calendar
+import kotlin.random.Random
+
+class LocalDateTest {
+    @Test
+    fun matchCalendar_IfRandomDates() {
+        val random = Random(42)
+        val calendar = getUtcCalendar()
+        // From 1600 to 2200.
+        val minTime = -11_676_096_000_000L
+        val maxTime = 7_258_118_400_000L
+
+        repeat(200_000) {
+            val date = LocalDate(localTimeMillis = random.nextLong(minTime, maxTime))
+            calendar.time = date
+
+            Assert.assertEquals(
+                date.toString(),
+                calendar[Calendar.YEAR] * 12L + calendar[Calendar.MONTH],
+                date.epochMonth
+            )
+            Assert.assertEquals(
+                date.toString(),
+                calendar.timeInMillis.floorDiv(24 * 60 * 60 * 1000L),
+                date.epochDay
+            )
+        }
+    }
+
+    @Test
+    fun compareSuccessfully_IfDayBoundaries() {
+        val lastMomentOf2023 = LocalDate(localTimeMillis = 1704067199999)
+        val firstMomentOf2024 = LocalDate(localTimeMillis = 1704067200000)
+        val endOf2024 = LocalDate(localTimeMillis = 1735689599999)
+
+        Assert.assertFalse(lastMomentOf2023.isSameDayAs(firstMomentOf2024))
+        Assert.assertFalse(lastMomentOf2023.isSameMonthAs(firstMomentOf2024))
+        Assert.assertFalse(lastMomentOf2023.isSameYearAs(firstMomentOf2024))
+        Assert.assertTrue(firstMomentOf2024.isSameYearAs(endOf2024))
+        Assert.assertFalse(firstMomentOf2024.isSameMonthAs(endOf2024))
+
+        val beforeEpoch = LocalDate(localTimeMillis = -1)
+        val epoch = LocalDate(localTimeMillis = 0)
+        Assert.assertFalse(beforeEpoch.isSameDayAs(epoch))
+        Assert.assertFalse(beforeEpoch.isSameYearAs(epoch))
+    }
+}
@@ -0,0 +1,89 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.map.data.model.MapPhotoPoints
+import ua.com.radiokot.photoprism.features.map.logic.MapOfflineRegionsPlanner
+
+class MapOfflineRegionsPlannerTest {
+    private val planner = MapOfflineRegionsPlanner()
+
+    private fun points(vararg latLngs: Pair<Double, Double>): MapPhotoPoints =
+        MapPhotoPoints.Builder()
+            .apply {
+                latLngs.forEachIndexed { i, (lat, lng) ->
+                    add(lat, lng, hash = "h$i", uid = "u$i")
+                }
+            }
+            .build()
+
+    @Test
+    fun countTiles() {
+        // The whole world.
+        Assert.assertEquals(
+            1L + 4 + 16,
+            MapOfflineRegionsPlanner.getTileCount(-90.0, -180.0, 90.0, 180.0, 0, 2)
+        )
+        // A single point is a single tile at any zoom.
+        Assert.assertEquals(
+            16L,
+            MapOfflineRegionsPlanner.getTileCount(50.45, 30.52, 50.45, 30.52, 0, 15)
+        )
+    }
+
+    @Test
+    fun planGroupsByNumberOfPoints() {
+        val kyiv = 50.45 to 30.52
+        val kyivSuburb = 50.5 to 30.6
+        val lisbon = 38.72 to -9.14
+        val points = points(lisbon, kyiv, kyivSuburb, kyiv)
+
+        val regions = planner.plan(points, maxTileCount = 100_000)
+
+        Assert.assertEquals(3, regions.size)
+
+        val overview = regions[0]
+        Assert.assertEquals(0, overview.minZoom)
+        Assert.assertEquals(38.72, overview.south, 0.0)
+        Assert.assertEquals(-9.14, overview.west, 0.0)
+        Assert.assertEquals(50.5, overview.north, 0.0)
+        Assert.assertEquals(30.6, overview.east, 0.0)
+
+        val kyivRegion = regions[1]
+        Assert.assertEquals(overview.maxZoom + 1, kyivRegion.minZoom)
+        Assert.assertEquals(50.45, kyivRegion.south, 0.0)
+        Assert.assertEquals(30.52, kyivRegion.west, 0.0)
+        Assert.assertEquals(50.5, kyivRegion.north, 0.0)
+        Assert.assertEquals(30.6, kyivRegion.east, 0.0)
+
+        val lisbonRegion = regions[2]
+        Assert.assertEquals(38.72, lisbonRegion.south, 0.0)
+        Assert.assertEquals(38.72, lisbonRegion.north, 0.0)
+
+        Assert.assertTrue(regions.sumOf(MapOfflineRegionsPlanner.Region::tileCount) <= 100_000)
+    }
+
+    @Test
+    fun planWithinBudget() {
+        val points = points(
+            *Array(1000) { i ->
+                // Scattered all over Europe.
+                (36.0 + (i * 7919 % 2000) / 100.0) to (-10.0 + (i * 104729 % 4000) / 100.0)
+            }
+        )
+
+        listOf(10L, 100L, 1000L, 10_000L).forEach { maxTileCount ->
+            val regions = planner.plan(points, maxTileCount)
+
+            Assert.assertTrue(regions.isNotEmpty())
+            Assert.assertTrue(regions.sumOf(MapOfflineRegionsPlanner.Region::tileCount) <= maxTileCount)
+            Assert.assertEquals(regions, planner.plan(points, maxTileCount))
+        }
+    }
+
+    @Test
+    fun planNothingForNoPoints() {
+        Assert.assertTrue(planner.plan(points(), maxTileCount = 1000).isEmpty())
+        Assert.assertTrue(planner.plan(points(0.0 to 0.0), maxTileCount = 0).isEmpty())
+    }
+}
@@ -0,0 +1,162 @@
+package ua.com.radiokot.photoprism
+
+import okio.Buffer
+import okio.buffer
+import org.junit.Assert
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import ua.com.radiokot.photoprism.util.images.MediaPreviewDiskCache
+
+class MediaPreviewDiskCacheTest {
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private fun key(hash: String, size: Int = 224) =
+        MediaPreviewDiskCache.Key(
+            hash = hash,
+            kind = "tile",
+            size = size,
+        )
+
+    @Test
+    fun getPutPreview() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+        val content = ByteArray(100) { it.toByte() }
+
+        Assert.assertNull(cache.get(key("a")))
+        cache.put(key("a"), content)
+
+        Assert.assertArrayEquals(content, cache.get(key("a"))?.readBytes())
+        Assert.assertNull(cache.get(key("a", size = 500)))
+        Assert.assertNull(cache.get(key("b")))
+    }
+
+    @Test
+    fun passThroughPutWhileReading() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+        val content = ByteArray(100) { it.toByte() }
+
+        val readContent = cache.putWhileReading(key("a"), Buffer().write(content))
+            .buffer()
+            .use { it.readByteArray() }
+
+        Assert.assertArrayEquals(content, readContent)
+        Assert.assertArrayEquals(content, cache.get(key("a"))?.readBytes())
+    }
+
+    @Test
+    fun notPutPartiallyReadPreview() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+
+        cache.putWhileReading(key("a"), Buffer().write(ByteArray(100)))
+            .buffer()
+            .use { it.readByteArray(10) }
+
+        Assert.assertNull(cache.get(key("a")))
+        Assert.assertTrue(temporaryFolder.root.listFiles().isNullOrEmpty())
+    }
+
+    @Test
+    fun evictLeastRecentlyUsed() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 300)
+
+        cache.put(key("a"), ByteArray(100))
+        cache.put(key("b"), ByteArray(100))
+        cache.put(key("c"), ByteArray(100))
+        // Now "b" is the least recently used one.
+        Assert.assertNotNull(cache.get(key("a")))
+        cache.put(key("d"), ByteArray(100))
+
+        Assert.assertNotNull(cache.get(key("a")))
+        Assert.assertNull(cache.get(key("b")))
+        Assert.assertNotNull(cache.get(key("c")))
+        Assert.assertNotNull(cache.get(key("d")))
+    }
+
+    @Test
+    fun keepPreviewsForNewInstance() {
+        MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+            .put(key("a"), ByteArray(100) { 1 })
+
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+
+        Assert.assertArrayEquals(ByteArray(100) { 1 }, cache.get(key("a"))?.readBytes())
+    }
+
+    @Test
+    fun recoverFromDeletedDirectory() {
+        val directory = temporaryFolder.newFolder()
+        val cache = MediaPreviewDiskCache(directory, maxSize = 1000)
+        cache.put(key("a"), ByteArray(100))
+
+        directory.deleteRecursively()
+
+        Assert.assertNull(cache.get(key("a")))
+        cache.put(key("b"), ByteArray(100) { 2 })
+        Assert.assertArrayEquals(ByteArray(100) { 2 }, cache.get(key("b"))?.readBytes())
+    }
+
+    @Test
+    fun keepPreviewsForSameLibraryOnly() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+        cache.put(key("a"), ByteArray(100))
+
+        // Previews of an unknown library are not kept.
+        cache.setLibrary("https://a.local/")
+        Assert.assertNull(cache.get(key("a")))
+
+        cache.put(key("b"), ByteArray(100))
+        cache.setLibrary("https://a.local/")
+        Assert.assertNotNull(cache.get(key("b")))
+
+        val newCache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+        newCache.setLibrary("https://a.local/")
+        Assert.assertNotNull(newCache.get(key("b")))
+
+        newCache.setLibrary("https://b.local/")
+        Assert.assertNull(newCache.get(key("b")))
+        Assert.assertEquals(1, temporaryFolder.root.listFiles()?.size)
+    }
+
+    @Test
+    fun getLargerRendition() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 1000)
+        cache.put(key("a", size = 100), ByteArray(10))
+        cache.put(key("a", size = 500), ByteArray(10))
+        cache.put(key("a", size = 1080), ByteArray(10))
+        cache.put(key("b", size = 1080), ByteArray(10))
+        cache.put(MediaPreviewDiskCache.Key(hash = "a", kind = "fit", size = 720), ByteArray(10))
+
+        Assert.assertEquals(key("a", size = 500), cache.getLargerRendition(key("a", size = 224)))
+        Assert.assertEquals(key("a", size = 1080), cache.getLargerRendition(key("a", size = 500)))
+        Assert.assertNull(cache.getLargerRendition(key("a", size = 1080)))
+        Assert.assertNull(cache.getLargerRendition(key("c", size = 100)))
+        Assert.assertNull(
+            cache.getLargerRendition(
+                MediaPreviewDiskCache.Key(hash = "a", kind = "fit", size = 1280)
+            )
+        )
+    }
+
+    @Test
+    fun forgetEvictedRendition() {
+        val cache = MediaPreviewDiskCache(temporaryFolder.root, maxSize = 200)
+        cache.put(key("a", size = 500), ByteArray(100))
+        cache.put(key("b"), ByteArray(100))
+        cache.put(key("c"), ByteArray(100))
+
+        Assert.assertNull(cache.getLargerRendition(key("a")))
+    }
+
+    @Test
+    fun parseKeyFromFileName() {
+        val key = MediaPreviewDiskCache.Key(hash = "abc123", kind = "fit", size = 720)
+
+        Assert.assertEquals(key, MediaPreviewDiskCache.Key.fromFileName(key.fileName))
+        Assert.assertNull(MediaPreviewDiskCache.Key.fromFileName(key.fileName + ".1.tmp"))
+        Assert.assertNull(MediaPreviewDiskCache.Key.fromFileName("abc_fit"))
+        Assert.assertNull(MediaPreviewDiskCache.Key.fromFileName("a.b_fit_720"))
+        Assert.assertNull(MediaPreviewDiskCache.Key.fromFileName("_fit_720"))
+    }
+}
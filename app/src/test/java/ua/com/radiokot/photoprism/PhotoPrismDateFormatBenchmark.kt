@@ -0,0 +1,57 @@
+@file:Suppress("DEPRECATION")
+
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.databind.util.ISO8601Utils
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.gallery.data.model.parsePhotoPrismDateMillis
+import java.text.ParsePosition
+import kotlin.random.Random
+
+class PhotoPrismDateFormatBenchmark {
+    @Test
+    fun parse() {
+        val random = Random(42)
+        // The usual PhotoPrism timestamps.
+        val dates = List(1_000_000) {
+            buildString {
+                append(random.nextInt(1990, 2030))
+                append('-')
+                append(random.nextInt(1, 13).toString().padStart(2, '0'))
+                append('-')
+                append(random.nextInt(1, 29).toString().padStart(2, '0'))
+                append('T')
+                append(random.nextInt(0, 24).toString().padStart(2, '0'))
+                append(':')
+                append(random.nextInt(0, 60).toString().padStart(2, '0'))
+                append(':')
+                append(random.nextInt(0, 60).toString().padStart(2, '0'))
+                if (random.nextBoolean()) {
+                    append('.')
+                    append(random.nextInt(1000).toString().padStart(3, '0'))
+                }
+                append('Z')
+            }
+        }
+
+        fun measure(
+            name: String,
+            parse: (String) -> Long,
+        ): Long {
+            var checksum = 0L
+            val elapsedMs = measureAverageNanos(runCount = 1) {
+                checksum = 0L
+                dates.forEach { checksum += parse(it) }
+            } / 1_000_000
+
+            println("parse(): $name: items=${dates.size}, ms=$elapsedMs")
+            return checksum
+        }
+
+        Assert.assertEquals(
+            measure("iso8601_utils") { ISO8601Utils.parse(it, ParsePosition(0)).time },
+            measure("fast") { parsePhotoPrismDateMillis(it) },
+        )
+    }
+}
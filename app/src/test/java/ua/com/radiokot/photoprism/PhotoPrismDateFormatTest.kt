@@ -0,0 +1,104 @@
+@file:Suppress("DEPRECATION")
+
+package ua.com.radiokot.photoprism
+
+import com.fasterxml.jackson.databind.util.ISO8601Utils
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.gallery.data.model.parsePhotoPrismDateMillis
+import java.text.ParsePosition
+import kotlin.random.Random
+
+class PhotoPrismDateFormatTest {
+    private fun parseGenerally(date: String): Long? =
+        try {
+            ISO8601Utils.parse(date, ParsePosition(0)).time
+        } catch (e: Exception) {
+            null
+        }
+
+    private fun parseFast(date: String): Long? =
+        try {
+            parsePhotoPrismDateMillis(date)
+        } catch (e: Exception) {
+            null
+        }
+
+    private fun Random.nextTimestamp(): String = buildString {
+        append(nextInt(1500, 10000).toString().padStart(4, '0'))
+        append('-')
+        // Some are out of range on purpose.
+        append(nextInt(0, 14).toString().padStart(2, '0'))
+        append('-')
+        append(nextInt(0, 33).toString().padStart(2, '0'))
+        append('T')
+        append(nextInt(0, 25).toString().padStart(2, '0'))
+        append(':')
+        append(nextInt(0, 61).toString().padStart(2, '0'))
+        append(':')
+        append(nextInt(0, 62).toString().padStart(2, '0'))
+        when (nextInt(4)) {
+            0 -> {}
+            else -> {
+                append('.')
+                repeat(nextInt(1, 10)) { append(nextInt(10)) }
+            }
+        }
+        when (nextInt(8)) {
+            0 -> append("+02:00")
+            1 -> {}
+            else -> append('Z')
+        }
+    }
+
+    @Test
+    fun parseUsualDates() {
+        Assert.assertEquals(0L, parsePhotoPrismDateMillis("1970-01-01T00:00:00Z"))
+        Assert.assertEquals(1688512712000L, parsePhotoPrismDateMillis("2023-07-04T23:18:32Z"))
+        Assert.assertEquals(1688512712123L, parsePhotoPrismDateMillis("2023-07-04T23:18:32.123Z"))
+        Assert.assertEquals(1688512712500L, parsePhotoPrismDateMillis("2023-07-04T23:18:32.5Z"))
+        Assert.assertEquals(1688512712123L, parsePhotoPrismDateMillis("2023-07-04T23:18:32.123456789Z"))
+        Assert.assertEquals(951782400000L, parsePhotoPrismDateMillis("2000-02-29T00:00:00Z"))
+        Assert.assertEquals(1688505512000L, parsePhotoPrismDateMillis("2023-07-04T23:18:32+02:00"))
+    }
+
+    @Test
+    fun parseSameAsGeneralParser() {
+        val random = Random(42)
+
+        repeat(200_000) {
+            val date = random.nextTimestamp()
+
+            Assert.assertEquals(date, parseGenerally(date), parseFast(date))
+        }
+    }
+
+    @Test
+    fun parseMutatedSameAsGeneralParser() {
+        val random = Random(19)
+        val chars = "0123456789-:.TZz+ "
+
+        repeat(200_000) {
+            val date = random.nextTimestamp().toCharArray()
+            repeat(random.nextInt(1, 3)) {
+                date[random.nextInt(date.size)] = chars[random.nextInt(chars.length)]
+            }
+            val mutatedDate = String(date)
+
+            Assert.assertEquals(mutatedDate, parseGenerally(mutatedDate), parseFast(mutatedDate))
+        }
+    }
+
+    @Test
+    fun failOnInvalidDates() {
+        listOf(
+            "",
+            "yesterday",
+            "2023-02-29T00:00:00Z",
+            "2023-13-01T00:00:00Z",
+            "2023-07-04T25:00:00Z",
+        ).forEach { date ->
+            Assert.assertNull(date, parseFast(date))
+        }
+    }
+}
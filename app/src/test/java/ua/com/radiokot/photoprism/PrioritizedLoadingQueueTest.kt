@@ -0,0 +1,98 @@
+package ua.com.radiokot.photoprism
+
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.subjects.CompletableSubject
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.map.logic.PrioritizedLoadingQueue
+import java.io.IOException
+
+class PrioritizedLoadingQueueTest {
+    private val loads = linkedMapOf<String, CompletableSubject>()
+
+    private fun createQueue(
+        maxConcurrentLoads: Int,
+        currentTimeMs: () -> Long = System::currentTimeMillis,
+    ) = PrioritizedLoadingQueue(
+        maxConcurrentLoads = maxConcurrentLoads,
+        load = { key: String ->
+            CompletableSubject.create().also { loads[key] = it }
+        },
+        currentTimeMs = currentTimeMs,
+    )
+
+    @Test
+    fun loadByPriorityWithinLimit() {
+        val queue = createQueue(maxConcurrentLoads = 2)
+
+        queue.setWanted(mapOf("c" to 3.0, "a" to 1.0, "d" to 4.0, "b" to 2.0))
+
+        Assert.assertEquals(listOf("a", "b"), loads.keys.toList())
+        Assert.assertEquals(2, queue.queueDepth)
+        Assert.assertEquals(2, queue.loadingCount)
+
+        loads.getValue("b").onComplete()
+        Assert.assertEquals(listOf("a", "b", "c"), loads.keys.toList())
+
+        loads.getValue("a").onError(IOException())
+        Assert.assertEquals(listOf("a", "b", "c", "d"), loads.keys.toList())
+        Assert.assertEquals(0, queue.queueDepth)
+        Assert.assertEquals(2, queue.loadingCount)
+    }
+
+    @Test
+    fun cancelNoLongerWanted() {
+        val queue = createQueue(maxConcurrentLoads = 2)
+
+        queue.setWanted(mapOf("a" to 1.0, "b" to 2.0, "c" to 3.0))
+        queue.setWanted(mapOf("b" to 2.0, "d" to 0.0, "e" to 5.0))
+
+        Assert.assertFalse(loads.getValue("a").hasObservers())
+        Assert.assertTrue(loads.getValue("b").hasObservers())
+        Assert.assertTrue(loads.getValue("d").hasObservers())
+        Assert.assertFalse("c" in loads)
+        Assert.assertFalse("e" in loads)
+        Assert.assertEquals(1, queue.queueDepth)
+
+        queue.dispose()
+
+        Assert.assertFalse(loads.getValue("b").hasObservers())
+        Assert.assertFalse(loads.getValue("d").hasObservers())
+        Assert.assertEquals(0, queue.queueDepth)
+    }
+
+    @Test
+    fun loadCompletedRightAway() {
+        val loadedKeys = mutableListOf<String>()
+        val queue = PrioritizedLoadingQueue(
+            maxConcurrentLoads = 2,
+            load = { key: String ->
+                Completable.fromAction { loadedKeys += key }
+            },
+        )
+
+        queue.setWanted((1..100).associate { "k$it" to it.toDouble() })
+
+        Assert.assertEquals((1..100).map { "k$it" }, loadedKeys)
+        Assert.assertEquals(0, queue.queueDepth)
+        Assert.assertEquals(0, queue.loadingCount)
+    }
+
+    @Test
+    fun measureTimeToLoadAll() {
+        var currentTimeMs = 1000L
+        val queue = createQueue(
+            maxConcurrentLoads = 1,
+            currentTimeMs = { currentTimeMs },
+        )
+
+        queue.setWanted(mapOf("a" to 1.0, "b" to 2.0))
+        currentTimeMs += 100
+        loads.getValue("a").onComplete()
+        Assert.assertNull(queue.lastTimeToLoadAllMs)
+
+        currentTimeMs += 50
+        loads.getValue("b").onComplete()
+        Assert.assertEquals(150L, queue.lastTimeToLoadAllMs)
+    }
+}
@@ -0,0 +1,76 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.util.downloader.ProgressEmissionThrottle
+
+class ProgressEmissionThrottleTest {
+    private var nowMs = 0L
+
+    private fun createThrottle() = ProgressEmissionThrottle(
+        minIntervalMs = 100,
+        maxIntervalMs = 1000,
+        minPercentStep = 1.0,
+        currentTimeMs = { nowMs },
+    )
+
+    @Test
+    fun emitFirstAndFinal() {
+        val throttle = createThrottle()
+
+        Assert.assertTrue(throttle.shouldEmit(1, 1000))
+        Assert.assertFalse(throttle.shouldEmit(2, 1000))
+        Assert.assertTrue(throttle.shouldEmit(1000, 1000))
+        // Repeated final read.
+        Assert.assertFalse(throttle.shouldEmit(1000, 1000))
+    }
+
+    @Test
+    fun coalesceChunks() {
+        val throttle = createThrottle()
+        val contentLength = 1_000_000L
+
+        val emittedCount = (8192L..contentLength step 8192)
+            .count { bytesRead ->
+                nowMs += 5
+                throttle.shouldEmit(bytesRead, contentLength)
+            }
+
+        // 122 chunks read within 610 ms.
+        Assert.assertEquals(7, emittedCount)
+    }
+
+    @Test
+    fun emitByPercentOnlyAfterMinInterval() {
+        val throttle = createThrottle()
+
+        Assert.assertTrue(throttle.shouldEmit(0, 100))
+        nowMs += 50
+        Assert.assertFalse(throttle.shouldEmit(50, 100))
+        nowMs += 50
+        Assert.assertTrue(throttle.shouldEmit(51, 100))
+    }
+
+    @Test
+    fun emitByTimeIfPercentDoesNotGrow() {
+        val throttle = createThrottle()
+        val contentLength = 1_000_000_000L
+
+        Assert.assertTrue(throttle.shouldEmit(1, contentLength))
+        nowMs += 500
+        Assert.assertFalse(throttle.shouldEmit(2, contentLength))
+        nowMs += 500
+        Assert.assertTrue(throttle.shouldEmit(3, contentLength))
+    }
+
+    @Test
+    fun emitByTimeIfLengthUnknown() {
+        val throttle = createThrottle()
+
+        Assert.assertTrue(throttle.shouldEmit(1, -1))
+        nowMs += 99
+        Assert.assertFalse(throttle.shouldEmit(2, -1))
+        nowMs += 1
+        Assert.assertTrue(throttle.shouldEmit(3, -1))
+    }
+}
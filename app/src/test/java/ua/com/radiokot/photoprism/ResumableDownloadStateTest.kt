@@ -0,0 +1,44 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.util.downloader.ResumableDownloadState
+import java.io.File
+import java.nio.file.Files
+
+class ResumableDownloadStateTest {
+    @Test
+    fun writeAndRead() {
+        val file = File(Files.createTempDirectory("states").toFile(), "state")
+        val state = ResumableDownloadState(
+            url = "https://photoprism.local/api/v1/dl/abc?t=token",
+            validator = "\"abc\"",
+            contentLength = 2_000_000_000L,
+            partialFilePath = "/storage/emulated/0/Download/IMG_0001.jpg.part",
+        )
+
+        state.writeTo(file)
+        val readState = ResumableDownloadState.readFrom(file)
+
+        Assert.assertNotNull(readState)
+        Assert.assertEquals(state.url, readState!!.url)
+        Assert.assertEquals(state.validator, readState.validator)
+        Assert.assertEquals(state.contentLength, readState.contentLength)
+        Assert.assertEquals(state.partialFilePath, readState.partialFilePath)
+    }
+
+    @Test
+    fun readMissing() {
+        val file = File(Files.createTempDirectory("states").toFile(), "state")
+
+        Assert.assertNull(ResumableDownloadState.readFrom(file))
+    }
+
+    @Test
+    fun readInvalid() {
+        val file = File(Files.createTempDirectory("states").toFile(), "state")
+        file.writeText("url=https://photoprism.local\ncontentLength=oops")
+
+        Assert.assertNull(ResumableDownloadState.readFrom(file))
+    }
+}
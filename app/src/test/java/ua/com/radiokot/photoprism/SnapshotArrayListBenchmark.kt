@@ -0,0 +1,116 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.features.gallery.data.model.GalleryMedia
+import ua.com.radiokot.photoprism.util.LocalDate
+import ua.com.radiokot.photoprism.util.SnapshotArrayList
+
+class SnapshotArrayListBenchmark {
+    @Test
+    fun retainedHeap() {
+        fun createItem(i: Int) = GalleryMedia(
+            media = GalleryMedia.TypeData.Image,
+            uid = "p$i",
+            width = 4000,
+            height = 3000,
+            takenAtLocal = LocalDate(localTimeMillis = 1_700_000_000_000L - i * 60_000L),
+            title = "Photo $i",
+            isFavorite = false,
+            isPrivate = false,
+            latLng = (i * 0.001) to (i * 0.002),
+            hash = "h$i",
+            files = listOf(
+                GalleryMedia.File(
+                    name = "2024/01/IMG_$i.jpg",
+                    uid = "f$i",
+                    mediaUid = "p$i",
+                    mimeType = "image/jpeg",
+                    mediaType = GalleryMedia.TypeName.IMAGE,
+                    isPrimary = true,
+                    isSidecar = false,
+                    isVideo = false,
+                    type = "jpg",
+                    codec = null,
+                    duration = null,
+                    frames = null,
+                    root = "/",
+                    hash = "fh$i",
+                    size = 1_000_000L,
+                )
+            ),
+        )
+
+        fun usedHeap(): Long {
+            val runtime = Runtime.getRuntime()
+            repeat(3) {
+                System.gc()
+                Thread.sleep(50)
+            }
+            return runtime.totalMemory() - runtime.freeMemory()
+        }
+
+        /**
+         * @return bytes retained by what [load] returns
+         */
+        fun measure(load: () -> Any): Long {
+            val before = usedHeap()
+            val retained = load()
+            val after = usedHeap()
+            // Keep the result reachable until measured.
+            Assert.assertNotNull(retained)
+            return after - before
+        }
+
+        listOf(10_000, 50_000, 100_000).forEach { itemCount ->
+            val pageSize = 100
+
+            // Items only, which both layouts retain.
+            val itemsBytes = measure {
+                List(itemCount, ::createItem)
+            }
+
+            // Loading page by page, broadcasting a copy of the list after each page,
+            // with the location kept as a boxed pair.
+            val previousBytes = measure {
+                val items = ArrayList<GalleryMedia>()
+                val locations = ArrayList<Pair<Double, Double>>()
+                var broadcastItems: List<GalleryMedia> = emptyList()
+                for (i in 0 until itemCount) {
+                    val item = createItem(i)
+                    items += item
+                    locations += item.latLng!!
+                    if (items.size % pageSize == 0) {
+                        broadcastItems = items.toList()
+                    }
+                }
+                listOf(items, broadcastItems, locations)
+            }
+
+            // Loading page by page, broadcasting a snapshot after each page.
+            val snapshotBytes = measure {
+                val items = SnapshotArrayList<GalleryMedia>()
+                var broadcastItems: List<GalleryMedia> = emptyList()
+                for (i in 0 until itemCount) {
+                    items += createItem(i)
+                    if (items.size % pageSize == 0) {
+                        broadcastItems = items.snapshot()
+                    }
+                }
+                listOf(items, broadcastItems)
+            }
+
+            println(
+                "retainedHeap(): items=$itemCount, " +
+                        "items_kb=${itemsBytes / 1024}, " +
+                        "previous_kb=${previousBytes / 1024}, " +
+                        "snapshot_kb=${snapshotBytes / 1024}"
+            )
+            Assert.assertTrue("Nothing is measured", itemsBytes > 0)
+            Assert.assertTrue(
+                "The snapshots must retain less than the copies",
+                snapshotBytes < previousBytes
+            )
+        }
+    }
+}
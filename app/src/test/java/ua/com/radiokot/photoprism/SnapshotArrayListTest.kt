@@ -0,0 +1,83 @@
+package ua.com.radiokot.photoprism
+
+import org.junit.Assert
+import org.junit.Test
+import ua.com.radiokot.photoprism.util.SnapshotArrayList
+
+class SnapshotArrayListTest {
+    @Test
+    fun keepSnapshotOnAppend() {
+        val list = SnapshotArrayList<Int>()
+        list.addAll(0 until 5)
+        val snapshot = list.snapshot()
+
+        list.addAll(5 until 100)
+
+        Assert.assertEquals((0 until 5).toList(), snapshot)
+        Assert.assertEquals((0 until 100).toList(), list)
+    }
+
+    @Test
+    fun keepSnapshotOnChange() {
+        val list = SnapshotArrayList<Int>()
+        list.addAll(0 until 10)
+        val snapshot = list.snapshot()
+
+        list.removeAt(0)
+        list[0] = 42
+        list.add(3, 43)
+        list.removeAll { it % 2 == 0 }
+
+        Assert.assertEquals((0 until 10).toList(), snapshot)
+        Assert.assertEquals(listOf(43, 3, 5, 7, 9), list)
+
+        val secondSnapshot = list.snapshot()
+        list.clear()
+        list.add(1)
+
+        Assert.assertEquals((0 until 10).toList(), snapshot)
+        Assert.assertEquals(listOf(43, 3, 5, 7, 9), secondSnapshot)
+        Assert.assertEquals(listOf(1), list)
+    }
+
+    @Test
+    fun changeLikeArrayList() {
+        val list = SnapshotArrayList<String>()
+        val expected = ArrayList<String>()
+        val snapshots = mutableListOf<Pair<List<String>, List<String>>>()
+
+        repeat(1000) { i ->
+            when (i % 7) {
+                0, 1, 2 -> {
+                    list.add("a$i")
+                    expected.add("a$i")
+                }
+
+                3 -> {
+                    val index = i % (expected.size + 1)
+                    list.add(index, "i$i")
+                    expected.add(index, "i$i")
+                }
+
+                4 -> if (expected.isNotEmpty()) {
+                    val index = i % expected.size
+                    Assert.assertEquals(expected.removeAt(index), list.removeAt(index))
+                }
+
+                5 -> if (expected.isNotEmpty()) {
+                    val index = i % expected.size
+                    Assert.assertEquals(expected.set(index, "s$i"), list.set(index, "s$i"))
+                }
+
+                6 ->
+                    snapshots += list.snapshot() to expected.toList()
+            }
+
+            Assert.assertEquals(expected, list)
+        }
+
+        snapshots.forEach { (snapshot, expectedSnapshot) ->
+            Assert.assertEquals(expectedSnapshot, snapshot)
+        }
+    }
+}